@@ -0,0 +1,334 @@
+package org.bonej.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable model of the 512-byte header of a Scanco ISQ file, parsed from a
+ * single read. See {@link ISQReader} for the header layout. Headers read
+ * through {@link #get(String)} are cached by path and are read again only if
+ * the file's modification time or length changes.
+ */
+public final class ISQHeader {
+
+	/** Length of the header in bytes */
+	public static final int LENGTH = 512;
+
+	/** Number of headers kept in the cache */
+	private static final int CACHE_SIZE = 64;
+
+	private static final Map<String, ISQHeader> cache = new LinkedHashMap<String, ISQHeader>(CACHE_SIZE, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, ISQHeader> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final long lastModified;
+	private final long fileLength;
+
+	private final String magic;
+	private final int dataType;
+	private final int nrOfBytes;
+	private final int nrOfBlocks;
+	private final int patientIndex;
+	private final int scannerID;
+	private final Date creationDate;
+	private final int[] imageSize;
+	private final int[] realSizeUm;
+	private final int sliceThickness;
+	private final int sliceIncrement;
+	private final int slice1Position;
+	private final int minDataValue;
+	private final int maxDataValue;
+	private final int muScaling;
+	private final int nrSamples;
+	private final int nrProjections;
+	private final int scanDistanceUm;
+	private final int scannerType;
+	private final int sampleTimeUs;
+	private final int measurementIndex;
+	private final int site;
+	private final int referenceLineUm;
+	private final int reconstructionAlgorithm;
+	private final String patientName;
+	private final int energy;
+	private final int intensity;
+	private final int dataOffset;
+
+	/**
+	 * Parse a header
+	 *
+	 * @param bytes
+	 *            the first 512 bytes of an ISQ file; shorter arrays are
+	 *            treated as if padded with zeros
+	 */
+	public ISQHeader(final byte[] bytes) {
+		this(bytes, 0, 0);
+	}
+
+	private ISQHeader(final byte[] bytes, final long lastModified, final long fileLength) {
+		this.lastModified = lastModified;
+		this.fileLength = fileLength;
+		final ByteBuffer bb = ByteBuffer.wrap(bytes.length >= LENGTH ? bytes : Arrays.copyOf(bytes, LENGTH))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		magic = string(bb, 0, 16);
+		dataType = bb.getInt(16);
+		nrOfBytes = bb.getInt(20);
+		nrOfBlocks = bb.getInt(24);
+		patientIndex = bb.getInt(28);
+		scannerID = bb.getInt(32);
+		creationDate = vmsQuadwordToTimestamp(bb.getLong(36));
+		imageSize = new int[] { bb.getInt(44), bb.getInt(48), bb.getInt(52) };
+		realSizeUm = new int[] { bb.getInt(56), bb.getInt(60), bb.getInt(64) };
+		sliceThickness = bb.getInt(68);
+		sliceIncrement = bb.getInt(72);
+		slice1Position = bb.getInt(76);
+		minDataValue = bb.getInt(80);
+		maxDataValue = bb.getInt(84);
+		muScaling = bb.getInt(88);
+		nrSamples = bb.getInt(92);
+		nrProjections = bb.getInt(96);
+		scanDistanceUm = bb.getInt(100);
+		scannerType = bb.getInt(104);
+		sampleTimeUs = bb.getInt(108);
+		measurementIndex = bb.getInt(112);
+		site = bb.getInt(116);
+		referenceLineUm = bb.getInt(120);
+		reconstructionAlgorithm = bb.getInt(124);
+		patientName = string(bb, 128, 40);
+		energy = bb.getInt(168);
+		intensity = bb.getInt(172);
+		dataOffset = bb.getInt(508);
+	}
+
+	/**
+	 * Read a file's header, without using the cache
+	 *
+	 * @param path
+	 * @return the file's header
+	 * @throws IOException
+	 */
+	public static ISQHeader read(final String path) throws IOException {
+		if (path == null)
+			throw new IllegalArgumentException();
+		final File file = new File(path);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[LENGTH];
+			int n = 0;
+			while (n < LENGTH) {
+				final int count = raf.read(bytes, n, LENGTH - n);
+				if (count < 0)
+					break;
+				n += count;
+			}
+			return new ISQHeader(bytes, file.lastModified(), file.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get a file's header from the cache, reading it if the file is new or
+	 * has changed since it was cached
+	 *
+	 * @param path
+	 * @return the file's header
+	 * @throws IOException
+	 */
+	public static ISQHeader get(final String path) throws IOException {
+		if (path == null)
+			throw new IllegalArgumentException();
+		final File file = new File(path);
+		final String key = file.getAbsolutePath();
+		synchronized (cache) {
+			final ISQHeader header = cache.get(key);
+			if (header != null && header.lastModified == file.lastModified() && header.fileLength == file.length())
+				return header;
+		}
+		final ISQHeader header = read(path);
+		synchronized (cache) {
+			cache.put(key, header);
+		}
+		return header;
+	}
+
+	private static String string(final ByteBuffer bb, final int offset, final int length) {
+		final byte[] chars = new byte[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = bb.get(offset + i);
+		try {
+			return new String(chars, "ISO-8859-1");
+		} catch (final UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * converts the VMS quadword timestamp to date/time
+	 *
+	 * The creation date is an unsigned 64-bit count of 100 ns intervals since
+	 * the OpenVMS epoch, 00:00 on November 17, 1858. Subtracting the count at
+	 * the Unix epoch (0x007c95674beb4000) and dividing by 10000 gives Java's
+	 * milliseconds since 1970.
+	 *
+	 * @see http://labs.hoffmanlabs.com/node/735
+	 * @see http://labs.hoffmanlabs.com/node/282
+	 * @param vmsQuadWord
+	 *            A VMS quadword, read as a little-endian long
+	 * @return Date object containing the creation date of the ISQ file
+	 */
+	private static Date vmsQuadwordToTimestamp(final long vmsQuadWord) {
+		BigInteger bi = new BigInteger(Long.toHexString(vmsQuadWord), 16);
+		final BigInteger epochAsBigInteger = new BigInteger("007C95674BEB4000", 16);
+		bi = bi.subtract(epochAsBigInteger);
+		bi = bi.divide(BigInteger.valueOf(10000));
+		final Date date = new Date();
+		date.setTime(bi.longValue());
+		return date;
+	}
+
+	/** @return true if the magic number identifies a Scanco ISQ file */
+	public boolean isScancoISQ() {
+		return ISQReader.MAGIC.equals(magic);
+	}
+
+	/** @return the first 16 bytes as a character string */
+	public String getMagic() {
+		return magic;
+	}
+
+	public int getDataType() {
+		return dataType;
+	}
+
+	public int getNrOfBytes() {
+		return nrOfBytes;
+	}
+
+	public int getNrOfBlocks() {
+		return nrOfBlocks;
+	}
+
+	public int getPatientIndex() {
+		return patientIndex;
+	}
+
+	public int getScannerID() {
+		return scannerID;
+	}
+
+	public Date getCreationDate() {
+		return (Date) creationDate.clone();
+	}
+
+	/** @return {x, y, z} image size in pixels */
+	public int[] getImageSize() {
+		return imageSize.clone();
+	}
+
+	/** @return {x, y, z} image size in metric units (mm) */
+	public double[] getRealSize() {
+		final double[] sizes = { realSizeUm[0] / 1000.0, realSizeUm[1] / 1000.0, realSizeUm[2] / 1000.0 };
+		return sizes;
+	}
+
+	/** @return {x, y, z} pixel spacing in real units (mm) */
+	public double[] getPixelSize() {
+		final double[] realSize = getRealSize();
+		final double[] pixelSize = { realSize[0] / imageSize[0], realSize[1] / imageSize[1],
+				realSize[2] / imageSize[2] };
+		return pixelSize;
+	}
+
+	public int getSliceThickness() {
+		return sliceThickness;
+	}
+
+	public int getSliceIncrement() {
+		return sliceIncrement;
+	}
+
+	/** @return position of the first slice (µm) */
+	public int getSlice1Position() {
+		return slice1Position;
+	}
+
+	public int getMinDataValue() {
+		return minDataValue;
+	}
+
+	public int getMaxDataValue() {
+		return maxDataValue;
+	}
+
+	public int getMuScaling() {
+		return muScaling;
+	}
+
+	public int getNrSamples() {
+		return nrSamples;
+	}
+
+	public int getNrProjections() {
+		return nrProjections;
+	}
+
+	public int getScanDistanceUm() {
+		return scanDistanceUm;
+	}
+
+	public int getScannerType() {
+		return scannerType;
+	}
+
+	public int getSampleTimeUs() {
+		return sampleTimeUs;
+	}
+
+	public int getMeasurementIndex() {
+		return measurementIndex;
+	}
+
+	public int getSite() {
+		return site;
+	}
+
+	public int getReferenceLineUm() {
+		return referenceLineUm;
+	}
+
+	public int getReconstructionAlgorithm() {
+		return reconstructionAlgorithm;
+	}
+
+	public String getPatientName() {
+		return patientName;
+	}
+
+	public int getEnergy() {
+		return energy;
+	}
+
+	public int getIntensity() {
+		return intensity;
+	}
+
+	/** @return byte offset of the first pixel */
+	public int getOffset() {
+		return dataOffset * 512 + 512;
+	}
+}
@@ -2,12 +2,10 @@ package org.bonej.io;
 
 //import java.awt.Checkbox;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.UncheckedIOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Date;
 
 import org.doube.util.UsageReporter;
@@ -119,6 +117,7 @@ import org.doube.util.UsageReporter;
  */
 
 import ij.IJ;
+import ij.ImageListener;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.gui.GenericDialog;
@@ -126,8 +125,6 @@ import ij.io.FileInfo;
 import ij.io.OpenDialog;
 import ij.measure.Calibration;
 import ij.plugin.PlugIn;
-import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
 
 /**
  * This plugin implements the Import > Scanco ISQ command.
@@ -138,11 +135,10 @@ import ij.process.ShortProcessor;
  */
 public class ISQReader implements PlugIn {
 
-	private static final String MAGIC = "CTDATA-HEADER_V1";
+	static final String MAGIC = "CTDATA-HEADER_V1";
 
-	private long skipCount;
-	private int bufferSize, byteCount, nPixels;
-	private int eofErrorCount;
+	/** Block sizes offered for downsampling in x, y and z */
+	private static final String[] BLOCK_SIZES = { "1", "2", "4", "8" };
 
 	public void run(final String arg) {
 
@@ -153,18 +149,25 @@ public class ISQReader implements PlugIn {
 		final String path = directory + fileName;
 		if (fileName == null)
 			return;
-		if (!isScancoISQ(path)) {
-			IJ.error("ISQ Reader", "Not an ISQ file. Magic number (" + getMagic(path) + ")" + " does not match.");
+		final ISQHeader header;
+		try {
+			header = ISQHeader.get(path);
+		} catch (final IOException e) {
+			IJ.error("ISQ Reader", "Could not read " + path + "\n" + e.getMessage());
+			return;
+		}
+		if (!header.isScancoISQ()) {
+			IJ.error("ISQ Reader", "Not an ISQ file. Magic number (" + header.getMagic() + ")" + " does not match.");
 			return;
 		}
 
-		final int[] imageSize = getImageSize(path);
+		final int[] imageSize = header.getImageSize();
 		final int width = imageSize[0];
 		final int height = imageSize[1];
 		final int depth = imageSize[2];
 
 		final GenericDialog gd = new GenericDialog("Import Scanco ISQ file");
-		final String name = getPatientName(path);
+		final String name = header.getPatientName();
 		gd.addMessage("Patient:" + name + "\n");
 		gd.addMessage(
 				"\nEnter the coordinates for the bounding rectangle\n" + "to crop the microCT stack during import");
@@ -176,6 +179,13 @@ public class ISQReader implements PlugIn {
 		gd.addNumericField("First_slice: ", 0, 0);
 		gd.addNumericField("Number_of_slices: ", depth, 0);
 		gd.addCheckbox("Downsample 2x", false);
+		gd.addChoice("Block_downsample (x, y, z)", BLOCK_SIZES, BLOCK_SIZES[0]);
+		gd.addCheckbox("Virtual_stack (read slices on demand)", false);
+		gd.addCheckbox("Threshold_on_load (binary)", false);
+		final double muScaling = header.getMuScaling();
+		gd.addNumericField("Lower_threshold", Math.max(0, header.getMaxDataValue()) / (2 * muScaling), 3, 8,
+				"1/cm");
+		gd.addNumericField("Upper_threshold", Short.MAX_VALUE / muScaling, 3, 8, "1/cm");
 
 		gd.showDialog();
 		if (gd.wasCanceled())
@@ -188,17 +198,43 @@ public class ISQReader implements PlugIn {
 		final int startZ = (int) gd.getNextNumber();
 		final int nSlices = (int) gd.getNextNumber();
 		final boolean downsample = gd.getNextBoolean();
+		final int factor = Integer.parseInt(gd.getNextChoice());
+		final boolean virtual = gd.getNextBoolean();
+		final boolean binary = gd.getNextBoolean();
+		final double lower = gd.getNextNumber();
+		final double upper = gd.getNextNumber();
+		if (virtual && binary) {
+			IJ.error("ISQ Reader", "Thresholding on load needs a stack in memory, not a virtual stack");
+			return;
+		}
+		if (factor > 1 && (downsample || virtual)) {
+			IJ.error("ISQ Reader", "Block downsampling cannot be combined with 2x downsampling or a virtual stack");
+			return;
+		}
 		// Open the file
 		try {
-			final ImagePlus imp = openScancoISQ(path, downsample, startX, startY, endX, endY, startZ, nSlices);
-
-			final String scancoHeaderdata = getHeaderData(path);
+			final ImagePlus imp;
+			if (binary)
+				imp = openScancoISQBinary(path, header, downsample, factor, startX, startY, endX, endY, startZ,
+						nSlices, lower, upper);
+			else if (virtual)
+				imp = openScancoISQVirtual(path, header, downsample, startX, startY, endX, endY, startZ, nSlices);
+			else
+				imp = openScancoISQ(path, header, downsample, factor, startX, startY, endX, endY, startZ, nSlices,
+						null);
+			if (imp == null)
+				return;
+
+			final String scancoHeaderdata = getHeaderData(header);
 			imp.setProperty("Info", appendToFileInfo(imp, scancoHeaderdata));
 			imp.show();
 			UsageReporter.reportEvent(this).send();
 		} catch (final IllegalArgumentException e) {
 			IJ.error("ISQ Reader", e.getMessage());
 			return;
+		} catch (final IOException e) {
+			IJ.error("ISQ Reader", "Could not open " + path + "\n" + e.getMessage());
+			return;
 		}
 	}
 
@@ -214,16 +250,162 @@ public class ISQReader implements PlugIn {
 	 * @param startZ
 	 * @param nSlices
 	 * @return
+	 * @throws UncheckedIOException
+	 *             if the header cannot be read
 	 */
 	public ImagePlus openScancoISQ(final String path, final boolean downsample, final int startX, final int startY,
-			final int endX, final int endY, final int startZ, int nSlices) {
+			final int endX, final int endY, final int startZ, final int nSlices) {
+		return openScancoISQ(path, getHeader(path), downsample, startX, startY, endX, endY, startZ, nSlices);
+	}
+
+	/**
+	 * Opens a Scanco ISQ file as an ImageJ ImagePlus, using an already parsed
+	 * header
+	 *
+	 * @param path
+	 * @param header
+	 *            the file's header
+	 * @param downsample
+	 * @param startX
+	 * @param startY
+	 * @param endX
+	 * @param endY
+	 * @param startZ
+	 * @param nSlices
+	 * @return
+	 */
+	public ImagePlus openScancoISQ(final String path, final ISQHeader header, final boolean downsample,
+			final int startX, final int startY, final int endX, final int endY, final int startZ, int nSlices) {
+		return openScancoISQ(path, header, downsample, 1, startX, startY, endX, endY, startZ, nSlices, null);
+	}
+
+	/**
+	 * Opens a Scanco ISQ file as an ImageJ ImagePlus shrunk by a whole factor
+	 * in x, y and z, each voxel being the mean of a cube of input voxels.
+	 * Downsampling happens as the slices are read, so only the smaller stack
+	 * is held in memory, and cubic input voxels stay cubic.
+	 *
+	 * @param path
+	 * @param header
+	 *            the file's header
+	 * @param factor
+	 *            block size, from 1 to 8
+	 * @param startX
+	 * @param startY
+	 * @param endX
+	 * @param endY
+	 * @param startZ
+	 * @param nSlices
+	 * @return
+	 */
+	public ImagePlus openScancoISQ(final String path, final ISQHeader header, final int factor, final int startX,
+			final int startY, final int endX, final int endY, final int startZ, final int nSlices) {
+		return openScancoISQ(path, header, false, factor, startX, startY, endX, endY, startZ, nSlices, null);
+	}
+
+	/**
+	 * Opens a Scanco ISQ file as an 8-bit binary ImagePlus, thresholding each
+	 * slice as it is read. Pixels whose linear attenuation lies between the
+	 * thresholds, inclusive, are foreground (255) and the rest background (0).
+	 * Thresholds are converted to raw values with the header's mu scaling, and
+	 * are noted in the image's Info property.
+	 *
+	 * @param path
+	 * @param header
+	 *            the file's header
+	 * @param downsample
+	 * @param startX
+	 * @param startY
+	 * @param endX
+	 * @param endY
+	 * @param startZ
+	 * @param nSlices
+	 * @param lower
+	 *            lower threshold in 1/cm
+	 * @param upper
+	 *            upper threshold in 1/cm
+	 * @return
+	 */
+	public ImagePlus openScancoISQBinary(final String path, final ISQHeader header, final boolean downsample,
+			final int startX, final int startY, final int endX, final int endY, final int startZ,
+			final int nSlices, final double lower, final double upper) {
+		return openScancoISQBinary(path, header, downsample, 1, startX, startY, endX, endY, startZ, nSlices, lower,
+				upper);
+	}
+
+	/**
+	 * Opens a Scanco ISQ file as an 8-bit binary ImagePlus shrunk by a whole
+	 * factor in x, y and z. Each voxel is foreground if at least half of its
+	 * cube of input voxels lie between the thresholds.
+	 *
+	 * @param path
+	 * @param header
+	 *            the file's header
+	 * @param factor
+	 *            block size, from 1 to 8
+	 * @param startX
+	 * @param startY
+	 * @param endX
+	 * @param endY
+	 * @param startZ
+	 * @param nSlices
+	 * @param lower
+	 *            lower threshold in 1/cm
+	 * @param upper
+	 *            upper threshold in 1/cm
+	 * @return
+	 * @see #openScancoISQBinary(String, ISQHeader, boolean, int, int, int, int,
+	 *      int, int, double, double)
+	 */
+	public ImagePlus openScancoISQBinary(final String path, final ISQHeader header, final int factor,
+			final int startX, final int startY, final int endX, final int endY, final int startZ,
+			final int nSlices, final double lower, final double upper) {
+		return openScancoISQBinary(path, header, false, factor, startX, startY, endX, endY, startZ, nSlices, lower,
+				upper);
+	}
+
+	private ImagePlus openScancoISQBinary(final String path, final ISQHeader header, final boolean downsample,
+			final int factor, final int startX, final int startY, final int endX, final int endY,
+			final int startZ, final int nSlices, final double lower, final double upper) {
+		if (lower > upper)
+			throw new IllegalArgumentException("Lower threshold is above upper threshold");
+		final int muScaling = header.getMuScaling();
+		final int[] thresholds = { toRaw(Math.ceil(lower * muScaling)), toRaw(Math.floor(upper * muScaling)) };
+		if (thresholds[0] > thresholds[1])
+			throw new IllegalArgumentException("No raw value lies between thresholds " + lower + " and " + upper);
+		final ImagePlus imp = openScancoISQ(path, header, downsample, factor, startX, startY, endX, endY, startZ,
+				nSlices, thresholds);
+		if (imp != null)
+			imp.setProperty("Info", appendToFileInfo(imp, "Thresholded on load: " + lower + " - " + upper
+					+ " 1/cm (raw " + thresholds[0] + " - " + thresholds[1] + ", mu scaling " + muScaling + ")"));
+		return imp;
+	}
+
+	/**
+	 * Clamp a raw value to short. Thresholds are rounded inwards, so that a raw
+	 * value is foreground exactly when its attenuation lies between them.
+	 */
+	private static int toRaw(final double raw) {
+		return (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, raw));
+	}
+
+	/**
+	 * @param factor
+	 *            block size for downsampling in x, y and z
+	 * @param thresholds
+	 *            raw lower and upper thresholds for a binary stack, or null
+	 *            to load pixel values
+	 */
+	private ImagePlus openScancoISQ(final String path, final ISQHeader header, final boolean downsample,
+			final int factor, final int startX, final int startY, final int endX, final int endY, final int startZ, int nSlices,
+			final int[] thresholds) {
 
-		final int[] imageSize = getImageSize(path);
+		final int[] imageSize = header.getImageSize();
 		final int width = imageSize[0];
 		final int height = imageSize[1];
 		final int depth = imageSize[2];
-		final double[] pixelSize = getPixelSize(path);
-		final int offset = getOffset(path);
+		final double[] pixelSize = header.getPixelSize();
+		final int offset = header.getOffset();
 		if (startX < 0 || startX >= width || startY < 0 || startY >= height || endX < 0 || endX >= width || endY < 0
 				|| endY >= height || startZ < 0 || startZ >= depth || nSlices < 1 || nSlices > depth - startZ)
 			throw new IllegalArgumentException("Crop parameters fall outside image bounds");
@@ -250,8 +432,8 @@ public class ISQReader implements PlugIn {
 				fi.longOffset = fi.offset + sliceTimesAreaTimes2;
 			}
 		}
-		if (nSlices > getImageSize(path)[2] - startZ) {
-			nSlices = getImageSize(path)[2] - startZ;
+		if (nSlices > depth - startZ) {
+			nSlices = depth - startZ;
 		}
 
 		if (offset <= Integer.MAX_VALUE && offset > 0) {
@@ -264,89 +446,47 @@ public class ISQReader implements PlugIn {
 		fi.gapBetweenImages = 0;
 		fi.intelByteOrder = true;
 		fi.whiteIsZero = false;
-		fi.fileType = FileInfo.GRAY16_SIGNED;
+		fi.fileType = thresholds == null ? FileInfo.GRAY16_SIGNED : FileInfo.GRAY8;
 		fi.pixelWidth = pixelSize[0];
 		fi.pixelHeight = pixelSize[1];
 		fi.pixelDepth = pixelSize[2];
 		fi.unit = "mm";
 
-		int widthStack;
-		int heightStack;
-
-		final int widthROI = endX - startX + 1;
-		final int heightROI = endY - startY + 1;
-
 		if (downsample == true) {
-
 			fi.pixelWidth = fi.pixelWidth * 2;
 			fi.pixelHeight = fi.pixelHeight * 2;
-			widthStack = widthROI / 2;
-			heightStack = heightROI / 2;
-		} else {
-			widthStack = widthROI;
-			heightStack = heightROI;
 		}
-
-		// modified to match the size of the ROI
-		final ImageStack stack = new ImageStack(widthStack, heightStack);
-		long skip = fi.longOffset > 0 ? fi.longOffset : fi.offset;
-		skip += startZ * width * height * 2;
-
-		try {
-			final FileInputStream is = new FileInputStream(path);
-
-			for (int i = 1; i <= nSlices; i++) {
-				IJ.showStatus("Reading: " + i + "/" + nSlices);
-
-				// read the whole slice into an array
-				// this is really inefficient if only a small ROI is needed
-				// as must read all pixels off disk then throw them away
-				final short[] pixels = readPixels(is, skip, width, height);
-
-				// get pixels for ROI only
-				int indexCountPixels = startY * width + startX;
-				int indexCountROI = 0;
-
-				final short[] pixelsROI = new short[widthROI * heightROI];
-
-				for (int u = 0; u < heightROI; u++) {
-					System.arraycopy(pixels, indexCountPixels, pixelsROI, indexCountROI, widthROI);
-					indexCountPixels += width;
-					indexCountROI += widthROI;
-				}
-
-				if (pixels == null)
-					break;
-
-				if (downsample) {
-					final ImageProcessor ip = new ShortProcessor(widthROI, heightROI);
-					ip.setPixels(pixelsROI);
-					ip.setInterpolationMethod(ImageProcessor.BICUBIC);
-					final ImageProcessor downsizedIp = ip.resize(widthROI / 2, heightROI / 2, true);
-					stack.addSlice("microCT-Import_by_KHK_w_" + widthROI + "_h_" + heightROI + "_slice." + i,
-							downsizedIp);
-
-				} else {
-
-					for (int index = 0; index < widthROI * heightROI; index++) {
-						pixelsROI[index] = (short) (pixelsROI[index] - 32768);
-						if (pixelsROI[index] < 0)
-							pixelsROI[index] = 0;
-					}
-
-					stack.addSlice("microCT-Import_by_KHK_w_" + widthROI + "_h_" + heightROI + "_slice." + i,
-							pixelsROI);
-				}
-
-				skip = fi.gapBetweenImages;
-				IJ.showProgress((double) i / nSlices);
+		fi.pixelWidth *= factor;
+		fi.pixelHeight *= factor;
+		fi.pixelDepth *= factor;
+
+		// read, decode and downsample slices in a pipeline
+		final ISQSliceLoader loader = new ISQSliceLoader(path, header, startX, startY, endX, endY, startZ, nSlices,
+				downsample);
+		if (thresholds != null)
+			loader.setThreshold(thresholds[0], thresholds[1]);
+		loader.setBlockDownsample(factor);
+		loader.setProgressListener(new ISQSliceLoader.ProgressListener() {
+			public void progress(final int loaded, final int total) {
+				IJ.showStatus("Reading: " + loaded + "/" + total);
+				IJ.showProgress(loaded, total);
+				if (IJ.escapePressed())
+					loader.cancel();
 			}
-			is.close();
-		} catch (final Exception e) {
+		});
+		ImageStack stack;
+		try {
+			stack = loader.load();
+		} catch (final IOException e) {
 			IJ.log("" + e);
+			return null;
 		} catch (final OutOfMemoryError e) {
 			IJ.outOfMemory(fi.fileName);
-			stack.trim();
+			return null;
+		}
+		if (stack == null) {
+			IJ.showStatus("ISQ import cancelled");
+			return null;
 		}
 		if (stack.getSize() == 0)
 			return null;
@@ -361,136 +501,91 @@ public class ISQReader implements PlugIn {
 			imp.setProperty("Info", fi.info);
 		imp.setFileInfo(fi);
 
-		cal.pixelWidth = (downsample) ? pixelSize[0] * 2 : pixelSize[0];
-		cal.pixelHeight = (downsample) ? pixelSize[1] * 2 : pixelSize[1];
-		cal.pixelDepth = pixelSize[2];
-		cal.setUnit("mm");
-		cal.xOrigin = -startX;
-		cal.yOrigin = -startY;
-		cal.zOrigin = -startZ;
-		cal.setFunction(Calibration.STRAIGHT_LINE, new double[] { 0, 1.0 / getMuScaling(path) }, "1/cm");
-		imp.setCalibration(cal);
-		// set display range
-		double min = Double.MAX_VALUE;
-		double max = -Double.MAX_VALUE;
-		final int n = stack.getSize();
-		for (int i = 1; i <= n; i++) {
-			IJ.showStatus("Calculating stack min and max: " + i + "/" + n);
-			final ImageProcessor ip = stack.getProcessor(i);
-			max = Math.max(max, ip.getMax());
-			min = Math.min(min, ip.getMin());
+		calibrate(cal, header, downsample ? 2 : factor, factor, startX, startY, startZ);
+		if (thresholds != null) {
+			// binary pixels are not attenuation values
+			cal.disableDensityCalibration();
+			imp.setCalibration(cal);
+			imp.getProcessor().setMinAndMax(0, 255);
+		} else {
+			imp.setCalibration(cal);
+			// set display range from the values seen while loading
+			imp.getProcessor().setMinAndMax(loader.getMin(), loader.getMax());
 		}
-		imp.getProcessor().setMinAndMax(min, max);
 		IJ.showProgress(1.0);
 		return imp;
 	}
 
 	/**
-	 * ***********************************************************************
-	 **/
-	/**
-	 * from ImageReader.java: Skips the specified number of bytes, then reads an
-	 * image and returns the pixel array (byte, short, int or float). Returns
-	 * null if there was an IO exception. Does not close the InputStream.
-	 */
-	private short[] readPixels(final FileInputStream in, final long skipCount, final int width, final int height) {
-		this.skipCount = skipCount;
-		final short[] pixels = readPixels(in, width, height);
-		if (eofErrorCount > 0)
-			return null;
-		return pixels;
-	}
-
-	/**
-	 * Reads the image from the InputStream and returns the pixel array (byte,
-	 * short, int or float). Returns null if there was an IO exception. Does not
-	 * close the InputStream.
+	 * Opens a Scanco ISQ file as a virtual stack, which reads slices from disk
+	 * as they are needed. The stack's file is closed when the image is.
 	 *
-	 * @param in
-	 * @param width
-	 * @param height
+	 * @param path
+	 * @param header
+	 *            the file's header
+	 * @param downsample
+	 * @param startX
+	 * @param startY
+	 * @param endX
+	 * @param endY
+	 * @param startZ
+	 * @param nSlices
 	 * @return
+	 * @throws IOException
+	 *             if the file cannot be opened
 	 */
-	private short[] readPixels(final FileInputStream in, final int width, final int height) {
-		try {
-			skip(in, width, height);
-			return read16bitImage(in);
+	public ImagePlus openScancoISQVirtual(final String path, final ISQHeader header, final boolean downsample,
+			final int startX, final int startY, final int endX, final int endY, final int startZ,
+			final int nSlices) throws IOException {
+		final int[] imageSize = header.getImageSize();
+		if (startX < 0 || startX >= imageSize[0] || startY < 0 || startY >= imageSize[1] || endX < startX
+				|| endX >= imageSize[0] || endY < startY || endY >= imageSize[1] || startZ < 0
+				|| startZ >= imageSize[2] || nSlices < 1 || nSlices > imageSize[2] - startZ)
+			throw new IllegalArgumentException("Crop parameters fall outside image bounds");
+		final ISQVirtualStack stack = new ISQVirtualStack(path, header, startX, startY, endX, endY, startZ, nSlices,
+				downsample);
+		final ImagePlus imp = new ImagePlus(new File(path).getName(), stack);
+		final Calibration cal = imp.getCalibration();
+		calibrate(cal, header, downsample ? 2 : 1, 1, startX, startY, startZ);
+		imp.setCalibration(cal);
+		// the header's data range stands in for the stack's, which is unknown
+		// until every slice has been read
+		final int offset = downsample ? 32768 : 0;
+		final int min = downsample ? header.getMinDataValue() + offset : Math.max(0, header.getMinDataValue());
+		final int max = header.getMaxDataValue() + offset;
+		if (max > min)
+			imp.getProcessor().setMinAndMax(min, max);
+		ImagePlus.addImageListener(new ImageListener() {
+			public void imageOpened(final ImagePlus image) {
+			}
 
-		} catch (final IOException e) {
-			IJ.log("" + e);
-			return null;
-		}
-	}
+			public void imageClosed(final ImagePlus image) {
+				if (image == imp) {
+					stack.close();
+					ImagePlus.removeImageListener(this);
+				}
+			}
 
-	/**
-	 * Reads a 16-bit image. Signed pixels are converted to unsigned by adding
-	 * 32768.
-	 *
-	 * @param in
-	 * @return
-	 * @throws IOException
-	 */
-	private short[] read16bitImage(final FileInputStream in) throws IOException {
-		int pixelsRead;
-		final byte[] buffer = new byte[bufferSize];
-		final short[] pixels = new short[nPixels];
-		int totalRead = 0;
-		int base = 0;
-		int count;
-
-		while (totalRead < byteCount) {
-			if ((totalRead + bufferSize) > byteCount)
-				bufferSize = byteCount - totalRead;
-
-			count = in.read(buffer, 0, bufferSize);
-
-			if (count == -1) {
-				eofErrorCount++;
-				Arrays.fill(pixels, Short.MAX_VALUE);
-				return pixels;
+			public void imageUpdated(final ImagePlus image) {
 			}
-			totalRead += bufferSize;
-			// divide by two because there are 2 bytes per pixel
-			pixelsRead = bufferSize / 2;
-			for (int i = base, j = 0; i < (base + pixelsRead); i++, j += 2)
-				pixels[i] = (short) ((((buffer[j + 1] & 0xff) << 8) | (buffer[j] & 0xff)) + 32768);
-			base += pixelsRead;
-		}
-		return pixels;
+		});
+		return imp;
 	}
 
 	/**
-	 *
-	 * @param in
-	 * @param width
-	 * @param height
-	 * @throws IOException
+	 * Set spatial calibration and the linear attenuation coefficient scaling
 	 */
-	private void skip(final FileInputStream in, final int width, final int height) throws IOException {
-
-		// This routine is called for every slice
-
-		if (skipCount > 0) {
-			long bytesRead = 0;
-			int skipAttempts = 0;
-			long count;
-			while (bytesRead < skipCount) {
-				count = in.skip(skipCount - bytesRead);
-				skipAttempts++;
-				if (count == -1 || skipAttempts > 5)
-					break;
-				bytesRead += count;
-
-			}
-		}
-		byteCount = width * height * 2; // 16-bit images so 2 bytes per pixel
-
-		nPixels = width * height;
-		bufferSize = byteCount / 25;
-		if (bufferSize < 8192)
-			bufferSize = 8192;
-		else
-			bufferSize = (bufferSize / 8192) * 8192;
+	private void calibrate(final Calibration cal, final ISQHeader header, final int xyFactor, final int zFactor,
+			final int startX, final int startY, final int startZ) {
+		final double[] pixelSize = header.getPixelSize();
+		cal.pixelWidth = pixelSize[0] * xyFactor;
+		cal.pixelHeight = pixelSize[1] * xyFactor;
+		cal.pixelDepth = pixelSize[2] * zFactor;
+		cal.setUnit("mm");
+		cal.xOrigin = -(double) startX / xyFactor;
+		cal.yOrigin = -(double) startY / xyFactor;
+		cal.zOrigin = -(double) startZ / zFactor;
+		cal.setFunction(Calibration.STRAIGHT_LINE, new double[] { 0, 1.0 / header.getMuScaling() }, "1/cm");
 	}
 
 	/**
@@ -500,9 +595,13 @@ public class ISQReader implements PlugIn {
 	 * @return true if the file is a Scanco ISQ
 	 */
 	public boolean isScancoISQ(final String path) {
-		if (getMagic(path).equals(MAGIC))
-			return true;
-		return false;
+		if (path == null)
+			throw new IllegalArgumentException();
+		try {
+			return ISQHeader.get(path).isScancoISQ();
+		} catch (final IOException e) {
+			return false;
+		}
 	}
 
 	/**
@@ -512,35 +611,23 @@ public class ISQReader implements PlugIn {
 	 * @return the first 16 bytes as a character string
 	 */
 	public String getMagic(final String path) {
-		return readString(path, 0, 16);
+		final ISQHeader header = readHeader(path);
+		return header == null ? null : header.getMagic();
 	}
 
 	public int getPatientIndex(final String path) {
-		return readInt(path, 28);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getPatientIndex();
 	}
 
 	public int getScannerID(final String path) {
-		return readInt(path, 32);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getScannerID();
 	}
 
 	public Date getCreationDate(final String path) {
-		final int[] quadWord = new int[8];
-
-		if (path == null)
-			throw new IllegalArgumentException();
-		try {
-			final File iFile = new File(path);
-			final FileInputStream p = new FileInputStream(iFile);
-			p.skip(36);
-			for (int index = 7; index >= 0; index--) {
-				quadWord[index] = p.read();
-			}
-			p.close();
-			return vmsQuadwordToTimestamp(quadWord);
-		} catch (final Exception e) {
-			IJ.handleException(e);
-		}
-		return null;
+		final ISQHeader header = readHeader(path);
+		return header == null ? null : header.getCreationDate();
 	}
 
 	/**
@@ -551,9 +638,7 @@ public class ISQReader implements PlugIn {
 	 */
 	public String getCreationDateAsString(final String path) {
 		final Date date = getCreationDate(path);
-		final DateFormat df = new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss");
-		final String reportDate = df.format(date);
-		return reportDate;
+		return date == null ? null : formatDate(date);
 	}
 
 	/**
@@ -563,8 +648,8 @@ public class ISQReader implements PlugIn {
 	 * @return {x, y, z} image size in pixels
 	 */
 	public int[] getImageSize(final String path) {
-		final int[] sizes = { readInt(path, 44), readInt(path, 48), readInt(path, 52) };
-		return sizes;
+		final ISQHeader header = readHeader(path);
+		return header == null ? new int[] { -1, -1, -1 } : header.getImageSize();
 	}
 
 	/**
@@ -574,86 +659,105 @@ public class ISQReader implements PlugIn {
 	 * @return {x, y, z} image size in metric units
 	 */
 	public double[] getRealSize(final String path) {
-		final double[] sizes = { readInt(path, 56) / 1000.0, readInt(path, 60) / 1000.0, readInt(path, 64) / 1000.0 };
-		return sizes;
+		final ISQHeader header = readHeader(path);
+		return header == null ? new double[] { -0.001, -0.001, -0.001 } : header.getRealSize();
 	}
 
 	public int getSliceThickness(final String path) {
-		return readInt(path, 68);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getSliceThickness();
 	}
 
 	public int getSliceIncrement(final String path) {
-		return readInt(path, 72);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getSliceIncrement();
 	}
 
 	public int getScanDistance(final String path) {
-		return readInt(path, 76);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getSlice1Position();
 	}
 
 	public int getMinDataValue(final String path) {
-		return readInt(path, 80);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getMinDataValue();
 	}
 
 	public int getMaxDataValue(final String path) {
-		return readInt(path, 84);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getMaxDataValue();
 	}
 
 	public int getMuScaling(final String path) {
-		return readInt(path, 88);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getMuScaling();
 	}
 
 	public int getNrSamples(final String path) {
-		return readInt(path, 92);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getNrSamples();
 	}
 
 	public int getNrProjections(final String path) {
-		return readInt(path, 96);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getNrProjections();
 	}
 
 	public int getScanDistanceUm(final String path) {
-		return readInt(path, 100);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getScanDistanceUm();
 	}
 
 	public int getScannerType(final String path) {
-		return readInt(path, 104);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getScannerType();
 	}
 
 	public int getSampleTimeUs(final String path) {
-		return readInt(path, 108);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getSampleTimeUs();
 	}
 
 	public int getMeasurementIndex(final String path) {
-		return readInt(path, 112);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getMeasurementIndex();
 	}
 
 	public int getSite(final String path) {
-		return readInt(path, 116);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getSite();
 	}
 
 	public int getReferenceLineUm(final String path) {
-		return readInt(path, 120);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getReferenceLineUm();
 	}
 
 	public int getReconstructionAlgorithm(final String path) {
-		return readInt(path, 124);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getReconstructionAlgorithm();
 	}
 
 	public String getPatientName(final String path) {
-		return readString(path, 128, 40);
+		final ISQHeader header = readHeader(path);
+		return header == null ? null : header.getPatientName();
 	}
 
 	public int getEnergy(final String path) {
-		return readInt(path, 168);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getEnergy();
 	}
 
 	public int getIntensity(final String path) {
-		return readInt(path, 172);
+		final ISQHeader header = readHeader(path);
+		return header == null ? -1 : header.getIntensity();
 	}
 
 	// what to do with 176 int fill[83]? Skip?
 
 	public int getOffset(final String path) {
-		return readInt(path, 508) * 512 + 512;
+		final ISQHeader header = readHeader(path);
+		return header == null ? 0 : header.getOffset();
 	}
 
 	/**
@@ -664,155 +768,72 @@ public class ISQReader implements PlugIn {
 	 * @return {x, y, z} pixel spacing in real units (mm)
 	 */
 	public double[] getPixelSize(final String path) {
-		final int[] nPixels = getImageSize(path);
-		final double[] realSize = getRealSize(path);
-		final double[] pixelSize = { realSize[0] / nPixels[0], realSize[1] / nPixels[1], realSize[2] / nPixels[2] };
-		return pixelSize;
+		final ISQHeader header = readHeader(path);
+		return header == null ? new double[] { 0.001, 0.001, 0.001 } : header.getPixelSize();
 	}
 
-	private int readInt(final String path, final int firstByte) {
+	/**
+	 * Get a file's parsed header, read once and cached
+	 *
+	 * @param path
+	 * @return the file's header
+	 * @throws UncheckedIOException
+	 *             if the header cannot be read
+	 */
+	public ISQHeader getHeader(final String path) {
 		if (path == null)
 			throw new IllegalArgumentException();
 		try {
-			final File iFile = new File(path);
-			final FileInputStream p = new FileInputStream(iFile);
-			p.skip(firstByte);
-			final int value = (p.read() + p.read() * 256 + p.read() * 65536 + p.read() * 256 * 65536);
-			p.close();
-			return value;
+			return ISQHeader.get(path);
 		} catch (final IOException e) {
-			IJ.handleException(e);
+			throw new UncheckedIOException("Could not read ISQ header of " + path, e);
 		}
-		return -1;
 	}
 
-	private String readString(final String path, final int firstByte, final int length) {
+	/**
+	 * Header for the path-based getters, which report a file that cannot be
+	 * read through IJ.handleException and then return -1, or null for objects
+	 *
+	 * @return the file's header, or null if it cannot be read
+	 */
+	private ISQHeader readHeader(final String path) {
 		if (path == null)
 			throw new IllegalArgumentException();
 		try {
-			final File iFile = new File(path);
-			final FileInputStream p = new FileInputStream(iFile);
-			p.skip(firstByte);
-			String string = "";
-			for (int kh = 0; kh < length; kh++) {
-				final char ch = (char) p.read();
-				string += ch;
-			}
-			p.close();
-			return string;
+			return ISQHeader.get(path);
 		} catch (final IOException e) {
 			IJ.handleException(e);
+			return null;
 		}
-		return null;
 	}
 
-	private String getHeaderData(final String path) {
-		if (path == null) {
-			throw new IllegalArgumentException();
-		}
-		try {
-			final File iFile = new File(path);
-			final FileInputStream p = new FileInputStream(iFile);
-
-			final String headerData = "Scanco Header Data\n\n" + "Patient Name: " + getPatientName(path) + "\n"
-					+ "Patient Index: " + getPatientIndex(path) + "\n" + "Site: " + getSite(path) + "\n"
-					+ "Reference Line: " + getReferenceLineUm(path) + " µm\n" + "Scanner-ID: " + getScannerID(path)
-					+ "\n" + "Scanner_type: " + getScannerType(path) + "\n" + "Creation Date: "
-					+ getCreationDateAsString(path) + "\n" + "Slice Thickness: " + getSliceThickness(path) + " µm\n"
-					+ "Slice Increment: " + getSliceIncrement(path) + " µm\n" + "Min Value: " + getMinDataValue(path)
-					+ "\n" + "Max Value: " + getMaxDataValue(path) + "\n" + "µ-Scaling: " + getMuScaling(path) + "\n"
-					+ "Scan-Distance: " + getScanDistanceUm(path) + " µm\n" + "Sampletime: " + getSampleTimeUs(path)
-					+ " µs\n" + "Samples: " + getNrSamples(path) + "\n" + "Projections: " + getNrProjections(path)
-					+ "\n" + "Reconstruction Algorithm: " + getReconstructionAlgorithm(path) + "\n"
-					+ "Measurement Index: " + getMeasurementIndex(path) + "\n" + "Energy : " + getEnergy(path) + " V\n"
-					+ "Intensity : " + getIntensity(path) + " µA";
-
-			p.close();
-			return headerData;
-
-		} catch (final IOException e) {
-			IJ.handleException(e);
-		}
-		return null;
+	private static String formatDate(final Date date) {
+		final DateFormat df = new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss");
+		return df.format(date);
 	}
 
 	/**
-	 * converts the VMS quadword timestamp to date/time
-	 *
-	 * OpenVMS and Unix Date and Time Conversions
-	 *
-	 * The creation date of the Scanco ISQ files is coded as an 8 Byte sequence
-	 * which is called a quadword. The byte order of the creation date is
-	 * "big endian".
-	 *
-	 * In summary, the 8 Bytes encode a large number, which represents the
-	 * numbers of 100 nanosecond intervals since 00:00 on November 17, 1858
-	 * local time; the OpenVMS Epoch.
-	 *
-	 * To convert this number to a date/time just follow the recommendations of
-	 * Stephen Hoffman:
-	 *
-	 * "To get from the OpenVMS quadword to the C quadword, subtract the OpenVMS
-	 * quadword value containing the Unix epoch value for 1-Jan-1970:00:00
-	 * (0x007c95674beb4000) from the OpenVMS quadword value, and then divide by
-	 * 10000000 to get from the 100ns-unit to the seconds longword."
-	 *
-	 * For Java the divisor is a bit different as the date functions of Java are
-	 * based on ms (milliseconds) and not on s. Therefore we just have to divide
-	 * by 10000.
+	 * Format the most meaningful header fields for the "Info" property
 	 *
-	 * A word of caution has to be added here:
-	 *
-	 * It took me a few hours to figure out that the use of the recommended
-	 * Calender object and its methods either was not correctly initialized by
-	 * me or it is simply buggy. I could not get the correct creation date. The
-	 * date was always 1 month off the original value.
-	 *
-	 * When I changed to the depreciated approach to use the "Date" object
-	 * everything worked fine.
-	 *
-	 * Read the invaluable background information from Stephen Hoffman, Hoffman
-	 * Labs. Especially the conversion utility was very helpful for debugging
-	 * this routine.
-	 *
-	 * @see http://labs.hoffmanlabs.com/node/735
-	 * @see http://labs.hoffmanlabs.com/node/282
-	 * @see http://www.mpp.mpg.de/~huber/util/main/cvdate.html
-	 * @param vmsQuadWord
-	 *            A VMS quadword - they are 64 bit unsigned integers. The system
-	 *            base date is: November 17, 1858 00:00:00.00
-	 * @return Date object containing the creation date of the ISQ file
+	 * @param header
+	 * @return header fields, one per line
 	 */
-	private Date vmsQuadwordToTimestamp(final int[] vmsQuadWord) {
-
-		String hexString = "";
-
-		// OpenVMS VAX, OpenVMS Alpha and OpenVMS I64 (as well as all Microsoft
-		// Windows implementations)
-		// all support and all use the little-endian byte ordering. BUT in our
-		// case - found by trial and error -
-		// we have to use the big-endian byte order.
-
-		for (int index = 0; index < 8; index++) {
-
-			// if ...else loop: just necessary to format the byte in the string
-			// correct for later use
-			if (vmsQuadWord[index] > 0xf) {
-				hexString += Integer.toHexString(vmsQuadWord[index]);
-			} else {
-				hexString += "0" + Integer.toHexString(vmsQuadWord[index]);
-			}
-		}
-
-		BigInteger bi = new BigInteger(hexString, 16);
-		final BigInteger epochAsBigInteger = new BigInteger("007C95674BEB4000", 16);
-		bi = bi.subtract(epochAsBigInteger);
-		final BigInteger divisor = BigInteger.valueOf(10000);
-		bi = bi.divide(divisor);
-		final long value = bi.longValue();
-		final Date date = new Date();
-		date.setTime(value);
-		return date;
+	public String getHeaderData(final ISQHeader header) {
+		final String headerData = "Scanco Header Data\n\n" + "Patient Name: " + header.getPatientName() + "\n"
+				+ "Patient Index: " + header.getPatientIndex() + "\n" + "Site: " + header.getSite() + "\n"
+				+ "Reference Line: " + header.getReferenceLineUm() + " µm\n" + "Scanner-ID: "
+				+ header.getScannerID() + "\n" + "Scanner_type: " + header.getScannerType() + "\n"
+				+ "Creation Date: " + formatDate(header.getCreationDate()) + "\n" + "Slice Thickness: "
+				+ header.getSliceThickness() + " µm\n" + "Slice Increment: " + header.getSliceIncrement()
+				+ " µm\n" + "Min Value: " + header.getMinDataValue() + "\n" + "Max Value: "
+				+ header.getMaxDataValue() + "\n" + "µ-Scaling: " + header.getMuScaling() + "\n"
+				+ "Scan-Distance: " + header.getScanDistanceUm() + " µm\n" + "Sampletime: "
+				+ header.getSampleTimeUs() + " µs\n" + "Samples: " + header.getNrSamples() + "\n"
+				+ "Projections: " + header.getNrProjections() + "\n" + "Reconstruction Algorithm: "
+				+ header.getReconstructionAlgorithm() + "\n" + "Measurement Index: "
+				+ header.getMeasurementIndex() + "\n" + "Energy : " + header.getEnergy() + " V\n"
+				+ "Intensity : " + header.getIntensity() + " µA";
+		return headerData;
 	}
 
 	/**
@@ -0,0 +1,607 @@
+package org.bonej.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.util.Multithreader;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * <p>
+ * Loads a cropped block of slices from a Scanco ISQ file as a pipeline. One
+ * I/O thread reads each slice's ROI rows with positioned reads into a bounded
+ * pool of buffers, running ahead of a team of workers which decode, crop and
+ * downsample the slices. The stack's pixel value range is gathered as the
+ * slices are decoded, so no second pass is needed to set the display range.
+ * </p>
+ * <p>
+ * Loading reports its progress to an optional {@link ProgressListener} and can
+ * be stopped from another thread with {@link #cancel()}.
+ * </p>
+ * <p>
+ * With {@link #setThreshold(int, int)} the workers threshold each slice as it
+ * is decoded and the loader builds an 8-bit binary stack directly, so a full
+ * 16-bit copy of the data is never held in memory.
+ * </p>
+ * <p>
+ * {@link #setBlockDownsample(int)} shrinks the stack by the same factor in x,
+ * y and z as it streams in. Each group of input slices is summed into a slot
+ * of a small ring of accumulators, which is turned into an output slice and
+ * reused once the group is complete, so memory stays bounded however many
+ * slices are read.
+ * </p>
+ */
+public class ISQSliceLoader {
+
+	/** Receives progress reports from the decoding threads */
+	public interface ProgressListener {
+		/**
+		 * @param loaded
+		 *            number of slices decoded so far
+		 * @param total
+		 *            number of slices to load
+		 */
+		void progress(int loaded, int total);
+	}
+
+	/** A slice read from disk and waiting to be decoded */
+	private static final class Job {
+		private final int index;
+		private final ByteBuffer buffer;
+
+		private Job(final int index, final ByteBuffer buffer) {
+			this.index = index;
+			this.buffer = buffer;
+		}
+	}
+
+	/** Accumulates one output slice from a group of input slices */
+	private static final class Block {
+		private int group = -1;
+		private int count;
+		private int[] sums;
+	}
+
+	/** Tells a worker there are no more slices */
+	private static final Job END = new Job(-1, null);
+
+	private final String path;
+	private final int width;
+	private final int height;
+	private final long offset;
+	private final int startX;
+	private final int startY;
+	private final int startZ;
+	private final int widthROI;
+	private final int heightROI;
+	private final int nSlices;
+	private final boolean downsample;
+
+	private boolean threshold;
+	private int lower;
+	private int upper;
+	private int factor = 1;
+
+	private final AtomicInteger loaded = new AtomicInteger(0);
+	private volatile boolean cancelled;
+	private ProgressListener listener;
+	private int min;
+	private int max;
+	private int nRead;
+	private IOException ioError;
+	private OutOfMemoryError memoryError;
+
+	/**
+	 * @param path
+	 *            ISQ file location
+	 * @param header
+	 *            the file's header
+	 * @param startX
+	 *            first column of the ROI
+	 * @param startY
+	 *            first row of the ROI
+	 * @param endX
+	 *            last column of the ROI
+	 * @param endY
+	 *            last row of the ROI
+	 * @param startZ
+	 *            first slice to load, counting from 0
+	 * @param nSlices
+	 *            number of slices to load
+	 * @param downsample
+	 *            halve the width and height of each slice, averaging pixels
+	 */
+	public ISQSliceLoader(final String path, final ISQHeader header, final int startX, final int startY,
+			final int endX, final int endY, final int startZ, final int nSlices, final boolean downsample) {
+		final int[] imageSize = header.getImageSize();
+		this.path = path;
+		width = imageSize[0];
+		height = imageSize[1];
+		offset = header.getOffset();
+		this.startX = startX;
+		this.startY = startY;
+		this.startZ = startZ;
+		widthROI = endX - startX + 1;
+		heightROI = endY - startY + 1;
+		this.nSlices = nSlices;
+		this.downsample = downsample;
+	}
+
+	public void setProgressListener(final ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Threshold the slices while loading. Pixels from lower to upper inclusive
+	 * become foreground (255) and all others background (0). Thresholds are
+	 * raw signed values from the file, i.e. linear attenuation in 1/cm times
+	 * the header's mu scaling.
+	 *
+	 * @param lower
+	 * @param upper
+	 */
+	public void setThreshold(final int lower, final int upper) {
+		if (lower > upper)
+			throw new IllegalArgumentException("Lower threshold " + lower + " is above upper threshold " + upper);
+		threshold = true;
+		this.lower = lower;
+		this.upper = upper;
+	}
+
+	/**
+	 * Shrink the stack by a whole factor in x, y and z while loading. Each
+	 * output voxel summarises a cube of factor&sup3; input voxels: their mean,
+	 * clamped to 0 like full size pixels, or if a threshold is set,
+	 * foreground when at least half of them are foreground. Voxels at the far
+	 * edges which do not fill a whole cube are dropped.
+	 *
+	 * @param factor
+	 *            1 to 8; 1 turns block downsampling off
+	 */
+	public void setBlockDownsample(final int factor) {
+		if (factor < 1 || factor > 8)
+			throw new IllegalArgumentException("Block size must be from 1 to 8, not " + factor);
+		if (factor > 1 && downsample)
+			throw new IllegalArgumentException("Block downsampling cannot be combined with 2x downsampling");
+		if (widthROI / factor < 1 || heightROI / factor < 1 || nSlices / factor < 1)
+			throw new IllegalArgumentException("ROI is smaller than a " + factor + " pixel block");
+		this.factor = factor;
+	}
+
+	/** Stop loading as soon as possible; {@link #load()} will return null */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** @return fraction of slices loaded so far */
+	public double getProgress() {
+		return (double) loaded.get() / nSlices;
+	}
+
+	/**
+	 * Load the slices. If the file ends early, the slices read so far are
+	 * returned.
+	 *
+	 * @return the loaded slices, or null if loading was cancelled
+	 * @throws IOException
+	 *             if the file cannot be read
+	 * @throws OutOfMemoryError
+	 *             if the slices do not fit in memory
+	 */
+	public ImageStack load() throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(path, "r");
+		final FileChannel channel = raf.getChannel();
+		final Thread[] workers = Multithreader.newThreads();
+		final int nWorkers = workers.length;
+		final int nBuffers = 2 * nWorkers;
+		final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(nBuffers);
+		final BlockingQueue<Job> filled = new ArrayBlockingQueue<Job>(nBuffers + nWorkers);
+		for (int b = 0; b < nBuffers; b++)
+			free.add(ByteBuffer.allocateDirect(widthROI * heightROI * 2).order(ByteOrder.LITTLE_ENDIAN));
+		final int nToRead = nSlices / factor * factor;
+		final ImageProcessor[] slices = new ImageProcessor[nToRead / factor];
+		final int[] workerMin = new int[nWorkers];
+		final int[] workerMax = new int[nWorkers];
+		final Block[] ring = factor > 1 ? new Block[(nBuffers + nWorkers) / factor + 2] : null;
+		if (ring != null) {
+			for (int b = 0; b < ring.length; b++) {
+				ring[b] = new Block();
+				ring[b].sums = new int[getWidth() * getHeight()];
+			}
+		}
+		nRead = nToRead;
+
+		final Thread[] threads = new Thread[nWorkers + 1];
+		threads[0] = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for (int i = 0; i < nToRead && !cancelled; i++) {
+						if (ring != null && i % factor == 0 && !claim(ring, i / factor))
+							break;
+						final ByteBuffer buffer = free.take();
+						final long slice = startZ + i;
+						final long roiStart = offset + ((slice * height + startY) * width + startX) * 2;
+						if (!readROI(channel, buffer, roiStart, width * 2L, widthROI * 2, heightROI)) {
+							IJ.log("Unexpected end of file " + path + " at slice " + (slice + 1));
+							nRead = i;
+							break;
+						}
+						filled.put(new Job(i, buffer));
+					}
+				} catch (final IOException e) {
+					ioError = e;
+					cancelled = true;
+				} catch (final InterruptedException e) {
+					cancelled = true;
+				} finally {
+					for (int w = 0; w < nWorkers; w++) {
+						try {
+							filled.put(END);
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}
+			}
+		});
+		for (int thread = 0; thread < nWorkers; thread++) {
+			final int w = thread;
+			workerMin[w] = Integer.MAX_VALUE;
+			workerMax[w] = Integer.MIN_VALUE;
+			threads[w + 1] = new Thread(new Runnable() {
+				public void run() {
+					final short[] pixelsROI = new short[widthROI * heightROI];
+					final int[] blockSums = ring != null ? new int[getWidth() * getHeight()] : null;
+					try {
+						for (Job job = filled.take(); job != END; job = filled.take()) {
+							if (!cancelled) {
+								job.buffer.asShortBuffer().get(pixelsROI);
+								free.put(job.buffer);
+								if (ring != null)
+									accumulate(ring, job.index, pixelsROI, blockSums, w, workerMin, workerMax,
+											slices);
+								else
+									slices[job.index] = decode(pixelsROI, w, workerMin, workerMax);
+								final int n = loaded.incrementAndGet();
+								if (listener != null)
+									listener.progress(n, nToRead);
+							} else {
+								free.put(job.buffer);
+							}
+						}
+					} catch (final InterruptedException e) {
+						cancelled = true;
+					} catch (final OutOfMemoryError e) {
+						memoryError = e;
+						cancelled = true;
+						// keep draining so the reader is never left blocked
+						try {
+							for (Job job = filled.take(); job != END; job = filled.take())
+								free.put(job.buffer);
+						} catch (final InterruptedException f) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}
+			});
+		}
+		try {
+			Multithreader.startAndJoin(threads);
+		} finally {
+			raf.close();
+		}
+		if (ioError != null)
+			throw ioError;
+		if (memoryError != null)
+			throw memoryError;
+		if (cancelled)
+			return null;
+
+		min = Integer.MAX_VALUE;
+		max = Integer.MIN_VALUE;
+		for (int w = 0; w < nWorkers; w++) {
+			min = Math.min(min, workerMin[w]);
+			max = Math.max(max, workerMax[w]);
+		}
+		final ImageStack stack = new ImageStack(getWidth(), getHeight());
+		for (int i = 0; i < nRead / factor; i++)
+			stack.addSlice("microCT-Import_by_KHK_w_" + widthROI + "_h_" + heightROI + "_slice." + (i + 1),
+					slices[i]);
+		return stack;
+	}
+
+	/** @return width of the loaded stack */
+	public int getWidth() {
+		return factor > 1 ? widthROI / factor : downsample ? widthROI / 2 : widthROI;
+	}
+
+	/** @return height of the loaded stack */
+	public int getHeight() {
+		return factor > 1 ? heightROI / factor : downsample ? heightROI / 2 : heightROI;
+	}
+
+	/** @return smallest pixel value loaded */
+	public int getMin() {
+		return min;
+	}
+
+	/** @return largest pixel value loaded */
+	public int getMax() {
+		return max;
+	}
+
+	/**
+	 * Turn a slice's signed pixels into a processor, noting its value range
+	 */
+	private ImageProcessor decode(final short[] pixelsROI, final int w, final int[] workerMin,
+			final int[] workerMax) {
+		final ImageProcessor ip;
+		if (threshold)
+			ip = new ByteProcessor(getWidth(), getHeight(),
+					threshold(pixelsROI, widthROI, heightROI, downsample, lower, upper), null);
+		else
+			ip = new ShortProcessor(getWidth(), getHeight(), decode(pixelsROI, widthROI, heightROI, downsample),
+					null);
+		noteRange(ip, w, workerMin, workerMax);
+		return ip;
+	}
+
+	/** Widen a worker's value range to include a processor's pixels */
+	private static void noteRange(final ImageProcessor ip, final int w, final int[] workerMin,
+			final int[] workerMax) {
+		int lo = workerMin[w];
+		int hi = workerMax[w];
+		final int n = ip.getPixelCount();
+		for (int index = 0; index < n; index++) {
+			final int value = ip.get(index);
+			if (value < lo)
+				lo = value;
+			if (value > hi)
+				hi = value;
+		}
+		workerMin[w] = lo;
+		workerMax[w] = hi;
+	}
+
+	/**
+	 * Wait until the ring slot of a group of slices is free, then claim it
+	 *
+	 * @return false if loading was cancelled while waiting
+	 */
+	private boolean claim(final Block[] ring, final int group) throws InterruptedException {
+		final Block block = ring[group % ring.length];
+		synchronized (block) {
+			while (block.group != -1) {
+				if (cancelled)
+					return false;
+				block.wait(100);
+			}
+			block.group = group;
+			block.count = 0;
+			Arrays.fill(block.sums, 0);
+		}
+		return true;
+	}
+
+	/**
+	 * Add a slice to its group's sums. The worker adding the group's last
+	 * slice makes the output slice and frees the ring slot.
+	 */
+	private void accumulate(final Block[] ring, final int index, final short[] pixelsROI, final int[] blockSums,
+			final int w, final int[] workerMin, final int[] workerMax, final ImageProcessor[] slices) {
+		sumBlocks(pixelsROI, widthROI, heightROI, factor, threshold, lower, upper, blockSums);
+		final int group = index / factor;
+		final Block block = ring[group % ring.length];
+		synchronized (block) {
+			final int[] sums = block.sums;
+			for (int i = 0; i < sums.length; i++)
+				sums[i] += blockSums[i];
+			if (++block.count < factor)
+				return;
+			final ImageProcessor ip = finishBlocks(sums, getWidth(), getHeight(), factor, threshold);
+			noteRange(ip, w, workerMin, workerMax);
+			slices[group] = ip;
+			block.group = -1;
+			block.notifyAll();
+		}
+	}
+
+	/**
+	 * Sum a slice's pixels over each factor &times; factor block. With a
+	 * threshold, foreground pixels are counted instead.
+	 *
+	 * @param pixelsROI
+	 *            signed pixels
+	 * @param widthROI
+	 * @param heightROI
+	 * @param factor
+	 *            block size
+	 * @param threshold
+	 *            count pixels from lower to upper instead of summing
+	 * @param lower
+	 * @param upper
+	 * @param sums
+	 *            (widthROI / factor) &times; (heightROI / factor) block sums,
+	 *            overwritten
+	 */
+	static void sumBlocks(final short[] pixelsROI, final int widthROI, final int heightROI, final int factor,
+			final boolean threshold, final int lower, final int upper, final int[] sums) {
+		final int widthOut = widthROI / factor;
+		final int heightOut = heightROI / factor;
+		Arrays.fill(sums, 0);
+		for (int y = 0; y < heightOut * factor; y++) {
+			final int offsetIn = y * widthROI;
+			final int offsetOut = (y / factor) * widthOut;
+			for (int x = 0; x < widthOut * factor; x++) {
+				final int value = pixelsROI[offsetIn + x];
+				if (!threshold)
+					sums[offsetOut + x / factor] += value;
+				else if (value >= lower && value <= upper)
+					sums[offsetOut + x / factor]++;
+			}
+		}
+	}
+
+	/**
+	 * Turn a group's block sums into an output slice
+	 *
+	 * @param sums
+	 *            sums of factor&sup3; signed pixels, or counts of foreground
+	 *            pixels
+	 * @param width
+	 * @param height
+	 * @param factor
+	 * @param threshold
+	 *            true to vote on counts, making a binary slice
+	 * @return mean pixel values clamped to 0, or 255 where at least half of a
+	 *         block is foreground
+	 */
+	static ImageProcessor finishBlocks(final int[] sums, final int width, final int height, final int factor,
+			final boolean threshold) {
+		final int n = factor * factor * factor;
+		if (threshold) {
+			final byte[] pixels = new byte[width * height];
+			for (int i = 0; i < pixels.length; i++)
+				if (2 * sums[i] >= n)
+					pixels[i] = (byte) 255;
+			return new ByteProcessor(width, height, pixels, null);
+		}
+		final short[] pixels = new short[width * height];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) Math.max(0, Math.round((double) sums[i] / n));
+		return new ShortProcessor(width, height, pixels, null);
+	}
+
+	/**
+	 * Threshold a slice's signed pixels into a binary slice. When downsampling,
+	 * the averaged values are thresholded.
+	 *
+	 * @param pixelsROI
+	 *            signed pixels, left unchanged
+	 * @param widthROI
+	 * @param heightROI
+	 * @param downsample
+	 *            halve the width and height, averaging pixels
+	 * @param lower
+	 *            lowest raw value of the foreground
+	 * @param upper
+	 *            highest raw value of the foreground
+	 * @return new pixel array of 0 and 255
+	 */
+	static byte[] threshold(final short[] pixelsROI, final int widthROI, final int heightROI,
+			final boolean downsample, final int lower, final int upper) {
+		final byte foreground = (byte) 255;
+		if (downsample) {
+			final short[] averaged = decode(pixelsROI, widthROI, heightROI, true);
+			final byte[] binary = new byte[averaged.length];
+			for (int index = 0; index < averaged.length; index++) {
+				final int value = (averaged[index] & 0xffff) - 32768;
+				if (value >= lower && value <= upper)
+					binary[index] = foreground;
+			}
+			return binary;
+		}
+		final int n = pixelsROI.length;
+		final byte[] binary = new byte[n];
+		for (int index = 0; index < n; index++) {
+			final int value = pixelsROI[index];
+			if (value >= lower && value <= upper)
+				binary[index] = foreground;
+		}
+		return binary;
+	}
+
+	/**
+	 * Turn a slice's signed pixels into unsigned pixels for a ShortProcessor.
+	 * Negative values are clamped to 0, except when downsampling, where the
+	 * values are offset by 32768 instead.
+	 *
+	 * @param pixelsROI
+	 *            signed pixels, left unchanged
+	 * @param widthROI
+	 * @param heightROI
+	 * @param downsample
+	 *            halve the width and height, averaging pixels
+	 * @return new pixel array
+	 */
+	static short[] decode(final short[] pixelsROI, final int widthROI, final int heightROI,
+			final boolean downsample) {
+		final int n = pixelsROI.length;
+		if (downsample) {
+			final short[] unsigned = new short[n];
+			for (int index = 0; index < n; index++)
+				unsigned[index] = (short) (pixelsROI[index] + 32768);
+			final ImageProcessor ip = new ShortProcessor(widthROI, heightROI);
+			ip.setPixels(unsigned);
+			ip.setInterpolationMethod(ImageProcessor.BICUBIC);
+			return (short[]) ip.resize(widthROI / 2, heightROI / 2, true).getPixels();
+		}
+		final short[] pixels = new short[n];
+		for (int index = 0; index < n; index++)
+			pixels[index] = pixelsROI[index] < 0 ? 0 : pixelsROI[index];
+		return pixels;
+	}
+
+	/**
+	 * Read a rectangle of rows from the file into the buffer with positioned
+	 * reads, which skip the unwanted parts of each row. Rows which fill the
+	 * whole image width are read in one go.
+	 *
+	 * @param channel
+	 * @param buffer
+	 *            cleared and filled with the rows, ready to be decoded
+	 * @param position
+	 *            file position of the first byte of the first row
+	 * @param stride
+	 *            bytes from the start of one row to the start of the next
+	 * @param rowBytes
+	 *            bytes to read from each row
+	 * @param nRows
+	 * @return false if the end of the file was reached
+	 * @throws IOException
+	 */
+	static boolean readROI(final FileChannel channel, final ByteBuffer buffer, final long position,
+			final long stride, final int rowBytes, final int nRows) throws IOException {
+		buffer.clear();
+		if (rowBytes == stride) {
+			buffer.limit(rowBytes * nRows);
+			if (!readFully(channel, buffer, position))
+				return false;
+		} else {
+			for (int row = 0; row < nRows; row++) {
+				buffer.limit(buffer.position() + rowBytes);
+				if (!readFully(channel, buffer, position + row * stride))
+					return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	private static boolean readFully(final FileChannel channel, final ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			final int count = channel.read(buffer, position);
+			if (count < 0)
+				return false;
+			position += count;
+		}
+		return true;
+	}
+}
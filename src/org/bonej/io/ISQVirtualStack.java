@@ -0,0 +1,363 @@
+package org.bonej.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import ij.IJ;
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * <p>
+ * Virtual stack backed by a Scanco ISQ file. Slices are read and decoded only
+ * when asked for, and kept in a least-recently-used cache limited to a number
+ * of bytes. After each request a background thread reads the next few slices
+ * in the direction the stack is being browsed, so stepping through the stack
+ * rarely waits for the disk.
+ * </p>
+ * <p>
+ * Pixels are decoded like {@link ISQReader#openScancoISQ}'s, and
+ * {@link #getProcessor(int)} can be called from several threads at once, so
+ * analyses which work a slice at a time can run on the stack directly. Each
+ * call returns a new processor; changes to its pixels are not kept.
+ * Interrupting a reading thread does not stop it reading, nor spoil the file
+ * for the other threads.
+ * </p>
+ */
+public class ISQVirtualStack extends VirtualStack {
+
+	/** Default cache size in bytes */
+	public static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+	/** Default number of slices read ahead */
+	public static final int DEFAULT_PREFETCH = 4;
+
+	private final String path;
+	private final int width;
+	private final int height;
+	private final long offset;
+	private final int startX;
+	private final int startY;
+	private final int startZ;
+	private final int widthROI;
+	private final int heightROI;
+	private final int nSlices;
+	private final boolean downsample;
+	private final int sliceBytes;
+
+	/** Shared by all reading threads, and reopened if an interrupt closes it */
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/** Decoded slices by index from 1, in order of use */
+	private final LinkedHashMap<Integer, short[]> cache = new LinkedHashMap<Integer, short[]>(16, 0.75f, true);
+	private long cacheBytes;
+	private long maxCacheBytes = DEFAULT_CACHE_BYTES;
+
+	private final LinkedBlockingDeque<Integer> prefetchQueue = new LinkedBlockingDeque<Integer>();
+	private Thread prefetcher;
+	private int prefetch = DEFAULT_PREFETCH;
+	private int lastSlice;
+	private volatile boolean closed;
+
+	/**
+	 * Open a cropped block of an ISQ file as a virtual stack
+	 *
+	 * @param path
+	 *            ISQ file location
+	 * @param header
+	 *            the file's header
+	 * @param startX
+	 *            first column of the ROI
+	 * @param startY
+	 *            first row of the ROI
+	 * @param endX
+	 *            last column of the ROI
+	 * @param endY
+	 *            last row of the ROI
+	 * @param startZ
+	 *            first slice, counting from 0
+	 * @param nSlices
+	 *            number of slices
+	 * @param downsample
+	 *            halve the width and height of each slice, averaging pixels
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public ISQVirtualStack(final String path, final ISQHeader header, final int startX, final int startY,
+			final int endX, final int endY, final int startZ, final int nSlices, final boolean downsample)
+			throws IOException {
+		super(downsample ? (endX - startX + 1) / 2 : endX - startX + 1,
+				downsample ? (endY - startY + 1) / 2 : endY - startY + 1, null, null);
+		final int[] imageSize = header.getImageSize();
+		this.path = path;
+		width = imageSize[0];
+		height = imageSize[1];
+		offset = header.getOffset();
+		this.startX = startX;
+		this.startY = startY;
+		this.startZ = startZ;
+		widthROI = endX - startX + 1;
+		heightROI = endY - startY + 1;
+		this.nSlices = nSlices;
+		this.downsample = downsample;
+		sliceBytes = 2 * getWidth() * getHeight();
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		setBitDepth(16);
+	}
+
+	/**
+	 * Open a whole ISQ file as a virtual stack
+	 *
+	 * @param path
+	 * @param header
+	 * @throws IOException
+	 */
+	public ISQVirtualStack(final String path, final ISQHeader header) throws IOException {
+		this(path, header, 0, 0, header.getImageSize()[0] - 1, header.getImageSize()[1] - 1, 0,
+				header.getImageSize()[2], false);
+	}
+
+	/**
+	 * Set the memory available to cached slices. At least one slice is always
+	 * kept.
+	 *
+	 * @param bytes
+	 */
+	public void setCacheSize(final long bytes) {
+		synchronized (cache) {
+			maxCacheBytes = bytes;
+			trimCache();
+		}
+	}
+
+	/**
+	 * Set how many slices are read ahead of the last one asked for; 0 turns
+	 * prefetching off
+	 *
+	 * @param slices
+	 */
+	public synchronized void setPrefetch(final int slices) {
+		prefetch = Math.max(0, slices);
+	}
+
+	@Override
+	public ImageProcessor getProcessor(final int n) {
+		final short[] pixels = getSlice(n);
+		scheduleRead(n);
+		return new ShortProcessor(getWidth(), getHeight(), pixels.clone(), null);
+	}
+
+	@Override
+	public Object getPixels(final int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	@Override
+	public int getSize() {
+		return nSlices;
+	}
+
+	@Override
+	public int size() {
+		return nSlices;
+	}
+
+	@Override
+	public String getSliceLabel(final int n) {
+		return "microCT-Import_by_KHK_w_" + widthROI + "_h_" + heightROI + "_slice." + n;
+	}
+
+	@Override
+	public String getDirectory() {
+		return null;
+	}
+
+	@Override
+	public String getFileName(final int n) {
+		return path;
+	}
+
+	/**
+	 * Stop prefetching, empty the cache and close the file
+	 */
+	public void close() {
+		closed = true;
+		synchronized (cache) {
+			cache.clear();
+			cacheBytes = 0;
+		}
+		synchronized (this) {
+			if (prefetcher != null)
+				prefetcher.interrupt();
+			try {
+				file.close();
+			} catch (final IOException e) {
+				IJ.log("" + e);
+			}
+		}
+	}
+
+	/** @return true if slice n is in the cache */
+	boolean isCached(final int n) {
+		synchronized (cache) {
+			return cache.containsKey(n);
+		}
+	}
+
+	/** @return decoded pixels of slice n, from the cache if possible */
+	private short[] getSlice(final int n) {
+		if (n < 1 || n > nSlices)
+			throw new IllegalArgumentException("Slice " + n + " out of range 1-" + nSlices);
+		synchronized (cache) {
+			final short[] pixels = cache.get(n);
+			if (pixels != null)
+				return pixels;
+		}
+		final short[] pixels = readSlice(n);
+		synchronized (cache) {
+			if (!cache.containsKey(n)) {
+				cache.put(n, pixels);
+				cacheBytes += sliceBytes;
+				trimCache();
+			}
+		}
+		return pixels;
+	}
+
+	/** Evict least recently used slices until the cache fits its budget */
+	private void trimCache() {
+		final Iterator<Map.Entry<Integer, short[]>> entries = cache.entrySet().iterator();
+		while (cacheBytes > maxCacheBytes && cache.size() > 1 && entries.hasNext()) {
+			entries.next();
+			entries.remove();
+			cacheBytes -= sliceBytes;
+		}
+	}
+
+	private short[] readSlice(final int n) {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null)
+			buffer = ByteBuffer.allocateDirect(widthROI * heightROI * 2).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			final long slice = startZ + n - 1;
+			final long roiStart = offset + ((slice * height + startY) * width + startX) * 2;
+			final short[] pixelsROI = new short[widthROI * heightROI];
+			if (readROI(buffer, roiStart))
+				buffer.asShortBuffer().get(pixelsROI);
+			else
+				IJ.log("Unexpected end of file " + path + " at slice " + (slice + 1));
+			return ISQSliceLoader.decode(pixelsROI, widthROI, heightROI, downsample);
+		} catch (final IOException e) {
+			if (closed)
+				throw new IllegalStateException("ISQ virtual stack has been closed");
+			throw new RuntimeException(e);
+		} finally {
+			buffers.add(buffer);
+		}
+	}
+
+	/**
+	 * Read a slice's ROI into the buffer. A read on an interrupted thread
+	 * would close the channel for every thread, so the thread's interrupt
+	 * status is set aside while it reads and restored afterwards. If an
+	 * interrupt arriving mid-read closes the channel anyway, the file is
+	 * reopened and the read retried.
+	 *
+	 * @return false if the file ends before the ROI does
+	 */
+	private boolean readROI(final ByteBuffer buffer, final long roiStart) throws IOException {
+		boolean interrupted = Thread.interrupted();
+		try {
+			while (true) {
+				final FileChannel current = getChannel();
+				try {
+					return ISQSliceLoader.readROI(current, buffer, roiStart, width * 2L, widthROI * 2, heightROI);
+				} catch (final ClosedChannelException e) {
+					reopen(current);
+					interrupted |= Thread.interrupted();
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized FileChannel getChannel() throws ClosedChannelException {
+		if (closed)
+			throw new ClosedChannelException();
+		return channel;
+	}
+
+	/** Replace the channel, unless another thread has already done so */
+	private synchronized void reopen(final FileChannel failed) throws IOException {
+		if (closed)
+			throw new ClosedChannelException();
+		if (channel != failed)
+			return;
+		try {
+			file.close();
+		} catch (final IOException e) {
+			// the channel is already closed
+		}
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+	}
+
+	/**
+	 * Queue the slices after n in the direction of travel for reading in the
+	 * background, replacing any not yet read
+	 */
+	private synchronized void scheduleRead(final int n) {
+		final int direction = n < lastSlice ? -1 : 1;
+		lastSlice = n;
+		if (prefetch == 0 || closed)
+			return;
+		prefetchQueue.clear();
+		for (int i = 1; i <= prefetch; i++) {
+			final int next = n + i * direction;
+			if (next < 1 || next > nSlices)
+				break;
+			prefetchQueue.add(next);
+		}
+		if (prefetcher == null) {
+			prefetcher = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (!closed) {
+							final int next = prefetchQueue.take();
+							synchronized (cache) {
+								if (cache.containsKey(next))
+									continue;
+							}
+							getSlice(next);
+						}
+					} catch (final InterruptedException e) {
+						return;
+					} catch (final RuntimeException e) {
+						// leave the error for a reading thread to report, and
+						// start afresh on the next request
+						synchronized (ISQVirtualStack.this) {
+							prefetcher = null;
+						}
+					}
+				}
+			}, "ISQ prefetch " + path);
+			prefetcher.setDaemon(true);
+			prefetcher.start();
+		}
+	}
+}
@@ -1,14 +1,20 @@
 package org.bonej.io;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.doube.util.Multithreader;
 import org.doube.util.UsageReporter;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.GenericDialog;
+import ij.io.DirectoryChooser;
 import ij.io.FileInfo;
 import ij.io.OpenDialog;
 import ij.plugin.PlugIn;
@@ -40,6 +46,9 @@ import ij.process.ByteProcessor;
  * greyscale images with a 128-byte header, which contains the image width and
  * height and a magic number.
  *
+ * Called with the argument "series", it opens a directory of serial sections
+ * as a stack, ordered by file name.
+ *
  * @author Michael Doube, RVC, London, UK.
  */
 public class KontronIMGReader implements PlugIn {
@@ -50,7 +59,53 @@ public class KontronIMGReader implements PlugIn {
 	/** 128-byte header */
 	private static final int HEADER_LENGTH = 128;
 
+	/**
+	 * Orders file names by their text, comparing runs of digits by value so
+	 * that section2.img comes before section10.img
+	 */
+	public static final Comparator<File> NAME_ORDER = new Comparator<File>() {
+		public int compare(final File a, final File b) {
+			final String s = a.getName();
+			final String t = b.getName();
+			int i = 0;
+			int j = 0;
+			while (i < s.length() && j < t.length()) {
+				final char c = s.charAt(i);
+				final char d = t.charAt(j);
+				if (Character.isDigit(c) && Character.isDigit(d)) {
+					int ei = i;
+					while (ei < s.length() && Character.isDigit(s.charAt(ei)))
+						ei++;
+					int ej = j;
+					while (ej < t.length() && Character.isDigit(t.charAt(ej)))
+						ej++;
+					final String ns = s.substring(i, ei).replaceFirst("^0+(?=.)", "");
+					final String nt = t.substring(j, ej).replaceFirst("^0+(?=.)", "");
+					if (ns.length() != nt.length())
+						return ns.length() - nt.length();
+					final int cmp = ns.compareTo(nt);
+					if (cmp != 0)
+						return cmp;
+					i = ei;
+					j = ej;
+				} else {
+					if (c != d)
+						return c - d;
+					i++;
+					j++;
+				}
+			}
+			if (s.length() - i != t.length() - j)
+				return (s.length() - i) - (t.length() - j);
+			return s.compareTo(t);
+		}
+	};
+
 	public void run(final String arg) {
+		if ("series".equals(arg)) {
+			openSeries();
+			return;
+		}
 
 		final OpenDialog od = new OpenDialog("Open IMG...", arg);
 		final String directory = od.getDirectory();
@@ -74,6 +129,32 @@ public class KontronIMGReader implements PlugIn {
 		}
 	}
 
+	private void openSeries() {
+		final String directory = new DirectoryChooser("Open IMG series...").getDirectory();
+		if (directory == null)
+			return;
+		final GenericDialog gd = new GenericDialog("IMG series");
+		gd.addCheckbox("Virtual stack", false);
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+		final boolean virtual = gd.getNextBoolean();
+		try {
+			final File[] files = listKontronIMGs(new File(directory));
+			if (files.length == 0) {
+				IJ.error("IMG Reader", "No IMG files in " + directory);
+				return;
+			}
+			final ImagePlus imp = openKontronIMGSeries(files, virtual);
+			imp.show();
+			UsageReporter.reportEvent(this).send();
+		} catch (final IllegalArgumentException e) {
+			IJ.error("IMG Reader", e.getMessage());
+		} catch (final IOException e) {
+			IJ.error("IMG Reader", e.getMessage());
+		}
+	}
+
 	/**
 	 * Opens a Kontron IMG file as an ImageJ ImagePlus
 	 *
@@ -81,26 +162,168 @@ public class KontronIMGReader implements PlugIn {
 	 * @return
 	 */
 	public ImagePlus openKontronIMG(final String path) {
+		if (path == null)
+			throw new IllegalArgumentException();
+		try {
+			final RandomAccessFile file = new RandomAccessFile(path, "r");
+			try {
+				final int[] imageSize = checkHeader(file, path);
+				final int width = imageSize[0];
+				final int height = imageSize[1];
+				final byte[] pixels = new byte[width * height];
+				readPixels(file, pixels);
 
-		final int[] imageSize = getImageSize(path);
+				// FileInfo
+				final FileInfo fi = createFileInfo(new File(path), width, height);
+				final ByteProcessor bp = new ByteProcessor(width, height, pixels);
+				final ImagePlus imp = new ImagePlus(fi.fileName, bp);
+				imp.setFileInfo(fi);
+				return imp;
+			} finally {
+				file.close();
+			}
+		} catch (final IOException e) {
+			IJ.handleException(e);
+		}
+		return null;
+	}
+
+	/**
+	 * Opens serial IMG sections as a stack, in the order given. Files are
+	 * read in parallel, each header once, straight into the stack's slices.
+	 *
+	 * @param files
+	 *            IMG files, all of the same size, in slice order
+	 * @param virtual
+	 *            if true, check the headers but read the pixels of each slice
+	 *            only when it is displayed
+	 * @return stack of the sections, each slice labelled with its file name
+	 * @throws IllegalArgumentException
+	 *             if a file is not an IMG or its size differs from the first
+	 * @throws IOException
+	 *             if a file cannot be read
+	 */
+	public ImagePlus openKontronIMGSeries(final File[] files, final boolean virtual) throws IOException {
+		if (files.length == 0)
+			throw new IllegalArgumentException("No files to open");
+		final int[] imageSize = readImageSize(files[0].getPath());
 		final int width = imageSize[0];
 		final int height = imageSize[1];
+		final byte[][] pixels = virtual ? null : new byte[files.length][width * height];
+		final Exception[] error = new Exception[1];
+
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int f = ai.getAndIncrement(); f < files.length; f = ai.getAndIncrement()) {
+						try {
+							final RandomAccessFile file = new RandomAccessFile(files[f], "r");
+							try {
+								final int[] size = checkHeader(file, files[f].getPath());
+								if (size[0] != width || size[1] != height)
+									throw new IllegalArgumentException(files[f].getName() + " is " + size[0]
+											+ " x " + size[1] + " pixels, not " + width + " x " + height);
+								if (pixels != null)
+									readPixels(file, pixels[f]);
+							} finally {
+								file.close();
+							}
+						} catch (final Exception e) {
+							synchronized (error) {
+								if (error[0] == null)
+									error[0] = e;
+							}
+							ai.set(files.length);
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		if (error[0] instanceof IOException)
+			throw (IOException) error[0];
+		if (error[0] != null)
+			throw (RuntimeException) error[0];
+
+		ImageStack stack;
+		if (virtual) {
+			stack = new KontronIMGVirtualStack(files, width, height);
+		} else {
+			stack = new ImageStack(width, height, files.length);
+			for (int f = 0; f < files.length; f++) {
+				stack.setPixels(pixels[f], f + 1);
+				stack.setSliceLabel(files[f].getName(), f + 1);
+			}
+		}
+		final FileInfo fi = createFileInfo(files[0], width, height);
+		fi.nImages = files.length;
+		final String title = files[0].getParentFile() != null ? files[0].getParentFile().getName() : fi.fileName;
+		final ImagePlus imp = new ImagePlus(title, stack);
+		imp.setFileInfo(fi);
+		return imp;
+	}
+
+	/**
+	 * List the IMG files in a directory, by extension, ordered by
+	 * {@link #NAME_ORDER}
+	 *
+	 * @param directory
+	 * @return IMG files
+	 * @throws IOException
+	 *             if the directory cannot be listed
+	 */
+	public static File[] listKontronIMGs(final File directory) throws IOException {
+		final File[] all = directory.listFiles();
+		if (all == null)
+			throw new IOException("Cannot list " + directory);
+		int n = 0;
+		for (final File file : all)
+			if (file.isFile() && file.getName().toLowerCase().endsWith(".img"))
+				all[n++] = file;
+		final File[] files = Arrays.copyOf(all, n);
+		Arrays.sort(files, NAME_ORDER);
+		return files;
+	}
 
-		// FileInfo
+	private static FileInfo createFileInfo(final File file, final int width, final int height) {
 		final FileInfo fi = new FileInfo();
-		fi.fileName = new File(path).getName();
-		fi.directory = new File(path).getParent() + ((IJ.isWindows()) ? "\\" : "/");
+		fi.fileName = file.getName();
+		fi.directory = file.getParent() + ((IJ.isWindows()) ? "\\" : "/");
 		fi.width = width;
 		fi.height = height;
+		fi.offset = HEADER_LENGTH;
 
 		fi.intelByteOrder = true;
 		fi.whiteIsZero = false;
 		fi.fileType = FileInfo.GRAY8;
+		return fi;
+	}
 
-		final ByteProcessor bp = new ByteProcessor(width, height, readBytes(path, HEADER_LENGTH, width * height));
-		final ImagePlus imp = new ImagePlus(fi.fileName, bp);
-		imp.setFileInfo(fi);
-		return imp;
+	/**
+	 * Read the header from the start of an open file and check it
+	 *
+	 * @return {x, y} image size in pixels
+	 * @throws IllegalArgumentException
+	 *             if the magic number does not match or the file is too short
+	 */
+	static int[] checkHeader(final RandomAccessFile file, final String path) throws IOException {
+		final byte[] header = new byte[HEADER_LENGTH];
+		file.seek(0);
+		file.readFully(header, 0, (int) Math.min(HEADER_LENGTH, file.length()));
+		if (file.length() < 10 || !isKontronIMG(header))
+			throw new IllegalArgumentException(new File(path).getName() + " is not an IMG file");
+		final int[] imageSize = getImageSize(header);
+		if (file.length() < HEADER_LENGTH + (long) imageSize[0] * imageSize[1])
+			throw new IllegalArgumentException(new File(path).getName() + " is shorter than its image size");
+		return imageSize;
+	}
+
+	/** Read a slice's pixels, which follow the header */
+	static void readPixels(final RandomAccessFile file, final byte[] pixels) throws IOException {
+		file.seek(HEADER_LENGTH);
+		file.readFully(pixels);
 	}
 
 	/**
@@ -110,7 +333,12 @@ public class KontronIMGReader implements PlugIn {
 	 * @return true if the file is a Kontron IMG
 	 */
 	public boolean isKontronIMG(final String path) {
-		return Arrays.equals(readBytes(path, 0, 6), MAGIC);
+		final byte[] header = readHeader(path);
+		return header != null && isKontronIMG(header);
+	}
+
+	private static boolean isKontronIMG(final byte[] header) {
+		return Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC);
 	}
 
 	/**
@@ -120,51 +348,55 @@ public class KontronIMGReader implements PlugIn {
 	 * @return {x, y} image size in pixels
 	 */
 	public int[] getImageSize(final String path) {
-		final int[] sizes = { readShort(path, 6), readShort(path, 8) };
+		final byte[] header = readHeader(path);
+		if (header == null)
+			return new int[] { -1, -1 };
+		return getImageSize(header);
+	}
+
+	private static int[] getImageSize(final byte[] header) {
+		final int[] sizes = { (header[6] & 0xFF) + (header[7] & 0xFF) * 256,
+				(header[8] & 0xFF) + (header[9] & 0xFF) * 256 };
 		return sizes;
 	}
 
+	private int[] readImageSize(final String path) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			return checkHeader(file, path);
+		} finally {
+			file.close();
+		}
+	}
+
 	/**
-	 * Read bytes from a file into a byte array
+	 * Read the header in one go
 	 *
 	 * @param path
 	 *            file to read
-	 * @param firstByte
-	 *            first byte to read from the file
-	 * @param length
-	 *            the number of bytes to read
-	 * @return byte[] array of length 'length'
+	 * @return the first 128 bytes of the file, or null if it cannot be read
 	 */
-	private byte[] readBytes(final String path, final int firstByte, final int length) {
+	private byte[] readHeader(final String path) {
 		if (path == null)
 			throw new IllegalArgumentException();
 		try {
-			final File iFile = new File(path);
-			final FileInputStream p = new FileInputStream(iFile);
-			p.skip(firstByte);
-			final byte[] bytes = new byte[length];
-			p.read(bytes, 0, length);
-			p.close();
-			return bytes;
+			final RandomAccessFile file = new RandomAccessFile(path, "r");
+			try {
+				final byte[] header = new byte[HEADER_LENGTH];
+				int n = 0;
+				while (n < HEADER_LENGTH) {
+					final int count = file.read(header, n, HEADER_LENGTH - n);
+					if (count < 0)
+						break;
+					n += count;
+				}
+				return header;
+			} finally {
+				file.close();
+			}
 		} catch (final IOException e) {
 			IJ.handleException(e);
 		}
 		return null;
 	}
-
-	private int readShort(final String path, final int firstByte) {
-		if (path == null)
-			throw new IllegalArgumentException();
-		try {
-			final File iFile = new File(path);
-			final FileInputStream p = new FileInputStream(iFile);
-			p.skip(firstByte);
-			final int value = (p.read() + p.read() * 256);
-			p.close();
-			return value;
-		} catch (final IOException e) {
-			IJ.handleException(e);
-		}
-		return -1;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package org.bonej.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Virtual stack of serial Kontron IMG sections, one file per slice. Each
+ * slice is read from its file when it is asked for; nothing is cached.
+ * {@link KontronIMGReader#openKontronIMGSeries(File[], boolean)} checks the
+ * files' headers before making the stack.
+ */
+public class KontronIMGVirtualStack extends VirtualStack {
+
+	private final File[] files;
+
+	/**
+	 * @param files
+	 *            IMG files in slice order, all width &times; height pixels
+	 * @param width
+	 * @param height
+	 */
+	public KontronIMGVirtualStack(final File[] files, final int width, final int height) {
+		super(width, height, null, null);
+		this.files = files.clone();
+		setBitDepth(8);
+	}
+
+	@Override
+	public ImageProcessor getProcessor(final int n) {
+		if (n < 1 || n > files.length)
+			throw new IllegalArgumentException("Slice " + n + " out of range 1-" + files.length);
+		final byte[] pixels = new byte[getWidth() * getHeight()];
+		try {
+			final RandomAccessFile file = new RandomAccessFile(files[n - 1], "r");
+			try {
+				KontronIMGReader.readPixels(file, pixels);
+			} finally {
+				file.close();
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+		return new ByteProcessor(getWidth(), getHeight(), pixels, null);
+	}
+
+	@Override
+	public Object getPixels(final int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	@Override
+	public int getSize() {
+		return files.length;
+	}
+
+	@Override
+	public int size() {
+		return files.length;
+	}
+
+	@Override
+	public String getSliceLabel(final int n) {
+		return files[n - 1].getName();
+	}
+
+	@Override
+	public String getDirectory() {
+		return files[0].getParent();
+	}
+
+	@Override
+	public String getFileName(final int n) {
+		return files[n - 1].getName();
+	}
+}
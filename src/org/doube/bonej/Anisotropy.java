@@ -22,7 +22,7 @@ import org.doube.jama.Matrix;
 import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
 import org.doube.util.Multithreader;
-import org.doube.util.ResultInserter;
+import org.doube.util.ResultsSink;
 import org.doube.util.UsageReporter;
 
 import customnode.CustomPointMesh;
@@ -157,9 +157,9 @@ public class Anisotropy implements PlugIn, DialogListener {
 		final double da = ((double[]) result[0])[0];
 		final double[][] coOrdinates = (double[][]) result[1];
 
-		final ResultInserter ri = ResultInserter.getInstance();
-		ri.setResultInRow(imp, "DA", da);
-		ri.setResultInRow(imp, "tDA", Math.pow(1 - da, -1));
+		final ResultsSink sink = ResultsSink.getInstance();
+		sink.setResultInRow(imp, "DA", da);
+		sink.setResultInRow(imp, "tDA", Math.pow(1 - da, -1));
 
 		if (doEigens) {
 			final EigenvalueDecomposition E = (EigenvalueDecomposition) result[2];
@@ -169,12 +169,12 @@ public class Anisotropy implements PlugIn, DialogListener {
 			final double[] eValues = E.getRealEigenvalues();
 			for (int i = 0; i < 3; i++)
 				for (int j = 0; j < 3; j++)
-					ri.setResultInRow(imp, "V" + (i + 1) + "," + (j + 1), eVectors.get(i, j));
+					sink.setResultInRow(imp, "V" + (i + 1) + "," + (j + 1), eVectors.get(i, j));
 			for (int i = 0; i < eValues.length; i++)
-				ri.setResultInRow(imp, "D" + (i + 1), eValues[i]);
+				sink.setResultInRow(imp, "D" + (i + 1), eValues[i]);
 		}
 
-		ri.updateTable();
+		sink.updateTable();
 
 		if (do3DResult) {
 			final EigenvalueDecomposition E = (EigenvalueDecomposition) result[2];
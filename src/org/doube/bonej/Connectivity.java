@@ -22,7 +22,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.doube.util.ImageCheck;
 import org.doube.util.Multithreader;
-import org.doube.util.ResultInserter;
+import org.doube.util.PackedBinaryStack;
+import org.doube.util.ResultsSink;
 import org.doube.util.UsageReporter;
 
 import ij.IJ;
@@ -122,12 +123,12 @@ public class Connectivity implements PlugIn {
 					+ "particles or enclosed cavities.\n\n" + "Try running Purify prior to Connectivity.");
 		}
 
-		final ResultInserter ri = ResultInserter.getInstance();
-		ri.setResultInRow(imp, "Euler ch.", sumEuler);
-		ri.setResultInRow(imp, "Δ(χ)", deltaChi);
-		ri.setResultInRow(imp, "Connectivity", connectivity);
-		ri.setResultInRow(imp, "Conn.D (" + imp.getCalibration().getUnit() + "^-3)", connDensity);
-		ri.updateTable();
+		final ResultsSink sink = ResultsSink.getInstance();
+		sink.setResultInRow(imp, "Euler ch.", sumEuler);
+		sink.setResultInRow(imp, "Δ(χ)", deltaChi);
+		sink.setResultInRow(imp, "Connectivity", connectivity);
+		sink.setResultInRow(imp, "Conn.D (" + imp.getCalibration().getUnit() + "^-3)", connDensity);
+		sink.updateTable();
 		UsageReporter.reportEvent(this).send();
 		return;
 	}
@@ -189,10 +190,11 @@ public class Connectivity implements PlugIn {
 	 */
 	public double getSumEuler(final ImagePlus imp) {
 		setDimensions(imp);
-		final ImageStack stack = imp.getImageStack();
+		final PackedBinaryStack volume = new PackedBinaryStack(imp.getImageStack(), 255);
 
 		final int eulerLUT[] = new int[256];
 		fillEulerLUT(eulerLUT);
+		final int[] octantLUT = getOctantLUT(eulerLUT);
 
 		final int[] sumEulerInt = new int[depth + 1];
 
@@ -201,17 +203,17 @@ public class Connectivity implements PlugIn {
 		for (int thread = 0; thread < threads.length; thread++) {
 			threads[thread] = new Thread(new Runnable() {
 				public void run() {
-					long deltaEuler = 0;
 					for (int z = ai.getAndIncrement(); z <= depth; z = ai.getAndIncrement()) {
+						// vertices of slice z touch slices z - 1 and z only
+						if ((z == depth || volume.isEmpty(z)) && (z == 0 || volume.isEmpty(z - 1)))
+							continue;
+						int deltaEuler = 0;
 						for (int y = 0; y <= height; y++) {
 							for (int x = 0; x <= width; x++) {
-								final byte[] octant = getOctant(stack, x, y, z);
-								if (octant[0] > 0) { // this octant is not empty
-									deltaEuler = getDeltaEuler(octant, eulerLUT);
-									sumEulerInt[z] += deltaEuler;
-								}
+								deltaEuler += octantLUT[volume.getOctant(x, y, z)];
 							}
 						}
+						sumEulerInt[z] = deltaEuler;
 					}
 				}
 			});
@@ -226,6 +228,33 @@ public class Connectivity implements PlugIn {
 		return sumEuler;
 	}
 
+	/**
+	 * Tabulate the delta Euler value of every octant, indexed by the bit mask
+	 * from {@link PackedBinaryStack#getOctant(int, int, int)}
+	 *
+	 * @param eulerLUT
+	 *            Euler LUT
+	 * @return delta Euler by octant mask; 0 for empty octants
+	 */
+	private int[] getOctantLUT(final int[] eulerLUT) {
+		final int[] octantLUT = new int[256];
+		final byte[] octant = new byte[9];
+		for (int mask = 1; mask < 256; mask++) {
+			octant[0] = 0;
+			for (int bit = 0; bit < 8; bit++) {
+				// mask bit 4dz + 2dy + dx is octant element 1 + 4dz + dy + 2dx
+				final int dx = bit & 1;
+				final int dy = (bit >> 1) & 1;
+				final int dz = bit >> 2;
+				final byte voxel = (byte) -((mask >> bit) & 1);
+				octant[1 + 4 * dz + dy + 2 * dx] = voxel;
+				octant[0] -= voxel;
+			}
+			octantLUT[mask] = getDeltaEuler(octant, eulerLUT);
+		}
+		return octantLUT;
+	}
+
 	private void setDimensions(final ImagePlus imp) {
 		this.width = imp.getWidth();
 		this.height = imp.getHeight();
@@ -233,43 +262,6 @@ public class Connectivity implements PlugIn {
 		return;
 	}
 
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * Get octant of a vertex at (0,0,0) of a voxel (upper top left) in a 3D
-	 * image (0 border conditions)
-	 *
-	 * @param stack
-	 *            3D image (ImageStack)
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding 8-pixel octant (0 if out of image)
-	 */
-	private byte[] getOctant(final ImageStack stack, final int x, final int y, final int z) {
-		final byte[] octant = new byte[9]; // index 0 is counter to determine
-											// octant
-		// emptiness, index 8 is at (x,y,z)
-
-		octant[1] = getPixel(stack, x - 1, y - 1, z - 1);
-		octant[2] = getPixel(stack, x - 1, y, z - 1);
-		octant[3] = getPixel(stack, x, y - 1, z - 1);
-		octant[4] = getPixel(stack, x, y, z - 1);
-		octant[5] = getPixel(stack, x - 1, y - 1, z);
-		octant[6] = getPixel(stack, x - 1, y, z);
-		octant[7] = getPixel(stack, x, y - 1, z);
-		octant[8] = getPixel(stack, x, y, z);
-
-		for (int n = 1; n < 9; n++)
-			octant[0] -= octant[n]; // foreground is -1, so octant[0] contains
-		// nVoxels in octant
-		return octant;
-	} /* end getNeighborhood */
-
 	/*
 	 * -----------------------------------------------------------------------
 	 */
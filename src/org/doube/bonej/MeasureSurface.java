@@ -18,19 +18,19 @@ package org.doube.bonej;
  *along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.List;
 
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
 
-import org.doube.geometry.Vectors;
+import org.doube.geometry.BinarySTLWriter;
+import org.doube.geometry.IndexedTriangleMesh;
+import org.doube.geometry.SlabMarchingCubes;
+import org.doube.geometry.SlabMarchingCubes.MeshCollector;
+import org.doube.geometry.SlabMarchingCubes.TriangleSink;
 import org.doube.util.ImageCheck;
 import org.doube.util.ResultInserter;
 import org.doube.util.StackStats;
@@ -44,7 +44,6 @@ import ij.plugin.PlugIn;
 import ij3d.Content;
 import ij3d.Executer;
 import ij3d.Image3DUniverse;
-import marchingcubes.MCTriangulator;
 
 /**
  * Make a mesh from a binary or 8-bit image and get surface area measurements
@@ -55,7 +54,6 @@ import marchingcubes.MCTriangulator;
  */
 public class MeasureSurface implements PlugIn {
 
-	@SuppressWarnings("unchecked")
 	public void run(final String arg) {
 		if (!ImageCheck.checkEnvironment())
 			return;
@@ -79,38 +77,61 @@ public class MeasureSurface implements PlugIn {
 		gd.addNumericField("Threshold", threshold, 0);
 		gd.addCheckbox("Show surface", true);
 		gd.addCheckbox("Save as binary STL", false);
+		gd.addCheckbox("One STL file per slab", false);
+		gd.addNumericField("Slices per slab", 64, 0);
 		gd.addHelp("http://bonej.org/isosurface");
 		gd.showDialog();
 		final int resamplingF = (int) Math.floor(gd.getNextNumber());
 		threshold = (int) Math.floor(gd.getNextNumber());
 		final boolean doSurfaceRendering = gd.getNextBoolean();
 		final boolean doBinarySTL = gd.getNextBoolean();
+		final boolean doSlabSTL = gd.getNextBoolean();
+		final int slabSlices = (int) Math.floor(gd.getNextNumber());
 		if (gd.wasCanceled())
 			return;
 
-		final boolean[] channels = { true, false, false };
+		// stream triangles straight to the STL file(s) as they are made
+		TriangleSink stlSink = null;
+		if (doBinarySTL) {
+			final File stlFile = promptForSTLFile();
+			try {
+				if (stlFile != null)
+					stlSink = doSlabSTL ? new BinarySTLWriter.SlabFiles(stlFile) : new BinarySTLWriter(stlFile);
+			} catch (final IOException e) {
+				IJ.error("STL error", "Could not create " + stlFile + "\n" + e.getMessage());
+			}
+		}
 
-		final MCTriangulator mct = new MCTriangulator();
-		final List<Point3f> points = mct.getTriangles(imp, threshold, channels, resamplingF);
+		// only keep the triangles if they are going to be displayed
+		final MeshCollector collector = doSurfaceRendering ? new MeshCollector() : null;
+		final SlabMarchingCubes mc = new SlabMarchingCubes(imp, threshold, resamplingF);
+		// slab files hold a fixed number of slices, whatever the thread count
+		if (doSlabSTL)
+			mc.setSlabDepth(Math.max(1, (slabSlices + resamplingF - 1) / resamplingF));
+		mc.run(tee(collector, stlSink));
+
+		if (stlSink != null) {
+			try {
+				((Closeable) stlSink).close();
+			} catch (final IOException e) {
+				IJ.error("STL error", "Something went wrong writing your STL file.\n" + e.getMessage());
+			}
+		}
 
-		IJ.log("Isosurface contains " + (points.size() / 3) + " triangles");
+		IJ.log("Isosurface contains " + mc.getTriangleCount() + " triangles");
 
 		final ResultInserter ri = ResultInserter.getInstance();
-		final double area = getSurfaceArea(points);
+		final double area = mc.getSurfaceArea();
 		ri.setResultInRow(imp, "BS (" + imp.getCalibration().getUnits() + "²)", area);
 		ri.updateTable();
 
-		if (points.size() == 0) {
+		if (mc.getTriangleCount() == 0) {
 			IJ.error("Isosurface contains no points");
 			return;
 		}
 
-		if (doSurfaceRendering) {
-			renderSurface(points, "Surface of " + imp.getTitle());
-		}
-
-		if (doBinarySTL)
-			writeBinarySTL(points);
+		if (collector != null)
+			renderSurface(collector.getMesh().toTriangles(), "Surface of " + imp.getTitle());
 
 		IJ.showStatus("Isosurface completed");
 
@@ -156,72 +177,86 @@ public class MeasureSurface implements PlugIn {
 	public static double getSurfaceArea(final List<Point3f> points) {
 		double sumArea = 0;
 		final int nPoints = points.size();
-		final Point3f origin = new Point3f(0.0f, 0.0f, 0.0f);
 		for (int n = 0; n < nPoints; n += 3) {
-			IJ.showStatus("Calculating surface area...");
 			// TODO reject triangle and continue if it is flush
 			// with a cut face / image side
 
 			// area of triangle is half magnitude
 			// of cross product of 2 edge vectors
-			final Point3f cp = Vectors.crossProduct(points.get(n), points.get(n + 1), points.get(n + 2));
-
-			final double deltaArea = 0.5 * cp.distance(origin);
+			final Point3f p0 = points.get(n);
+			final Point3f p1 = points.get(n + 1);
+			final Point3f p2 = points.get(n + 2);
+			final double x1 = p1.x - p0.x;
+			final double y1 = p1.y - p0.y;
+			final double z1 = p1.z - p0.z;
+			final double x2 = p2.x - p0.x;
+			final double y2 = p2.y - p0.y;
+			final double z2 = p2.z - p0.z;
+			final double cx = y1 * z2 - z1 * y2;
+			final double cy = z1 * x2 - x1 * z2;
+			final double cz = x1 * y2 - y1 * x2;
 
-			sumArea += deltaArea;
+			sumArea += 0.5 * Math.sqrt(cx * cx + cy * cy + cz * cz);
 		}
 		return sumArea;
 	}
 
+	/**
+	 * Calculate surface area of an indexed isosurface mesh
+	 *
+	 * @param mesh
+	 *            3D triangle mesh
+	 * @return surface area
+	 */
+	public static double getSurfaceArea(final IndexedTriangleMesh mesh) {
+		IJ.showStatus("Calculating surface area...");
+		return mesh.getSurfaceArea();
+	}
+
 	public static void writeBinarySTL(final List<Point3f> vertices) {
+		writeBinarySTL(IndexedTriangleMesh.fromTriangles(vertices));
+	}
+
+	public static void writeBinarySTL(final IndexedTriangleMesh mesh) {
+		final File stl_file = promptForSTLFile();
+		if (stl_file == null)
+			return;
 		try {
-			final File stl_file = Executer.promptForFile("Save as binary STL", "untitled", ".stl");
-			// OutputStreamWriter dos = null;
-			DataOutputStream out = null;
-			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stl_file)));
-
-			String header = "Binary STL created by BoneJ.";
-			for (int i = header.length(); i < 80; i++) {
-				header = header + ".";
-			}
-			final int triangles = vertices.size() / 3;
-
-			out.writeBytes(header);
-			out.writeByte(triangles & 0xFF);
-			out.writeByte((triangles >> 8) & 0xFF);
-			out.writeByte((triangles >> 16) & 0xFF);
-			out.writeByte((triangles >> 24) & 0xFF);
-			for (int i = 0; i < vertices.size(); i += 3) {
-				final Point3f p0 = vertices.get(i);
-				final Point3f p1 = vertices.get(i + 2);
-				final Point3f p2 = vertices.get(i + 1);
-				final Point3f n = Vectors.normalise(Vectors.crossProduct(p0, p1, p2));
-				final ByteBuffer bb = ByteBuffer.allocate(50);
-				bb.order(ByteOrder.LITTLE_ENDIAN);
-				bb.putFloat(n.x);
-				bb.putFloat(n.y);
-				bb.putFloat(n.z);
-				bb.putFloat(p0.x);
-				bb.putFloat(p0.y);
-				bb.putFloat(p0.z);
-				bb.putFloat(p1.x);
-				bb.putFloat(p1.y);
-				bb.putFloat(p1.z);
-				bb.putFloat(p2.x);
-				bb.putFloat(p2.y);
-				bb.putFloat(p2.z);
-				bb.putShort((short) 0);
-				out.write(bb.array());
-			}
-			out.flush();
-			out.close();
+			BinarySTLWriter.write(mesh, stl_file);
 		} catch (final IOException e) {
-			e.printStackTrace();
-		} catch (final NullPointerException e) {
-			return;
+			IJ.error("STL error", "Something went wrong writing your STL file.\n" + e.getMessage());
+		}
+	}
+
+	/**
+	 * Ask the user where to save an STL file
+	 *
+	 * @return the chosen file, or null if the user cancelled or the 3D
+	 *         Viewer's file prompt is unavailable
+	 */
+	private static File promptForSTLFile() {
+		try {
+			return Executer.promptForFile("Save as binary STL", "untitled", ".stl");
 		} catch (final Exception e) {
 			IJ.showMessage("STL error",
 					"Something went wrong writing your STL file." + "\nTry updating your 3D Viewer.");
+			return null;
 		}
 	}
+
+	/**
+	 * Pass triangles on to two sinks, either of which may be null
+	 */
+	private static TriangleSink tee(final TriangleSink a, final TriangleSink b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		return new TriangleSink() {
+			public void addTriangles(final int slab, final float[] triangles, final int nTriangles) {
+				a.addTriangles(slab, triangles, nTriangles);
+				b.addTriangles(slab, triangles, nTriangles);
+			}
+		};
+	}
 }
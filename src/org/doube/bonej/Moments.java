@@ -5,9 +5,9 @@ import java.awt.Checkbox;
 import java.awt.Rectangle;
 import java.awt.TextField;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
@@ -16,6 +16,7 @@ import org.doube.jama.EigenvalueDecomposition;
 import org.doube.jama.Matrix;
 import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
+import org.doube.util.Multithreader;
 import org.doube.util.ResultInserter;
 import org.doube.util.ThresholdGuesser;
 import org.doube.util.UsageReporter;
@@ -62,6 +63,9 @@ import ij3d.Image3DUniverse;
  */
 public class Moments implements PlugIn, DialogListener {
 
+	/** Side length of the square tiles in which aligned slices are filled */
+	private static final int TILE = 64;
+
 	private boolean fieldUpdated = false;
 	private Calibration cal;
 
@@ -100,6 +104,7 @@ public class Moments implements PlugIn, DialogListener {
 					+ "Assuming 1 mm pixel spacing.");
 		
 		gd.addCheckbox("Align result", true);
+		gd.addCheckbox("Trilinear interpolation", false);
 		gd.addCheckbox("Show axes (2D)", false);
 		gd.addCheckbox("Show axes (3D)", true);
 		gd.addHelp("http://bonej.org/moments");
@@ -127,6 +132,7 @@ public class Moments implements PlugIn, DialogListener {
 		}
 
 		final boolean doAlign = gd.getNextBoolean();
+		final boolean interpolate = gd.getNextBoolean();
 		final boolean doAxes = gd.getNextBoolean();
 		final boolean doAxes3D = gd.getNextBoolean();
 
@@ -159,7 +165,7 @@ public class Moments implements PlugIn, DialogListener {
 		ri.updateTable();
 
 		if (doAlign)
-			alignToPrincipalAxes(imp, E.getV(), centroid, startSlice, endSlice, min, max, doAxes).show();
+			alignToPrincipalAxes(imp, E.getV(), centroid, startSlice, endSlice, min, max, doAxes, interpolate).show();
 
 		if (doAxes3D)
 			show3DAxes(imp, E.getV(), centroid, startSlice, endSlice, min, max);
@@ -408,6 +414,34 @@ public class Moments implements PlugIn, DialogListener {
 	 */
 	public ImagePlus alignToPrincipalAxes(final ImagePlus imp, final Matrix E, final double[] centroid,
 			final int startSlice, final int endSlice, final double min, final double max, final boolean doAxes) {
+		return alignToPrincipalAxes(imp, E, centroid, startSlice, endSlice, min, max, doAxes, false);
+	}
+
+	/**
+	 * Draw a copy of the original image aligned to its principal axes, cropped
+	 * to the rotated bounding box of the thresholded voxels. The centroid lies
+	 * at the origin of the copy's calibration.
+	 *
+	 * @param imp
+	 *            Input image
+	 * @param E
+	 *            Rotation matrix
+	 * @param centroid
+	 *            3-element array containing centroid coordinates, {x,y,z}
+	 * @param startSlice
+	 *            first slice to copy
+	 * @param endSlice
+	 *            final slice to copy
+	 * @param doAxes
+	 *            if true, draw axes on the aligned copy
+	 * @param interpolate
+	 *            if true, interpolate voxel values trilinearly instead of
+	 *            copying the nearest voxel
+	 * @return ImagePlus copy of the input image
+	 */
+	public ImagePlus alignToPrincipalAxes(final ImagePlus imp, final Matrix E, final double[] centroid,
+			final int startSlice, final int endSlice, final double min, final double max, final boolean doAxes,
+			final boolean interpolate) {
 		final ImageStack sourceStack = imp.getImageStack();
 		final Calibration cal = imp.getCalibration();
 		final double vW = cal.pixelWidth;
@@ -415,7 +449,7 @@ public class Moments implements PlugIn, DialogListener {
 		final double vD = cal.pixelDepth;
 		final double vS = Math.min(vW, Math.min(vH, vD));
 		final int d = sourceStack.getSize();
-		final int[] sides = getRotatedSize(E, imp, centroid, startSlice, endSlice, min, max);
+		final double[][] bounds = getRotatedBounds(E, imp, centroid, startSlice, endSlice, min, max);
 
 		// Rotation matrix to rotate data 90 deg around x axis
 		final double[][] rotX = new double[3][3];
@@ -438,9 +472,9 @@ public class Moments implements PlugIn, DialogListener {
 		rotZ[2][2] = 1;
 		final Matrix RotZ = new Matrix(rotZ);
 
-		final int wi = sides[0];
-		final int hi = sides[1];
-		final int di = sides[2];
+		final double wi = bounds[0][1] - bounds[0][0];
+		final double hi = bounds[1][1] - bounds[1][0];
+		final double di = bounds[2][1] - bounds[2][0];
 
 		E.printToIJLog("Original Rotation Matrix (Source -> Target)");
 		Matrix rotation = new Matrix(new double[3][3]);
@@ -490,52 +524,48 @@ public class Moments implements PlugIn, DialogListener {
 		eVecInv.printToIJLog("Inverse Rotation Matrix (Target -> Source)");
 		final double[][] eigenVecInv = eVecInv.getArrayCopy();
 
-		// create the target stack
-		Arrays.sort(sides);
-		final int wT = sides[0];
-		final int hT = sides[1];
-		final int dT = sides[2];
-		final double xTc = wT * vS / 2;
-		final double yTc = hT * vS / 2;
-		final double zTc = dT * vS / 2;
+		// rotation differs from E only by swapped and reflected axes, so the
+		// bounds of the thresholded voxels on the target axes follow from
+		// their bounds on E's axes
+		final double[][] targetBounds = transformBounds(E.transpose().times(rotation).getArrayCopy(), bounds);
+		// widen the bounds to cover whole source voxels, each of which is
+		// sampled from its corner at (x * vW, y * vH, z * vD) to the next
+		final double[][] rot = rotation.getArrayCopy();
+		final double[] voxel = { vW, vH, vD };
+		for (int j = 0; j < 3; j++) {
+			for (int i = 0; i < 3; i++) {
+				final double edge = rot[i][j] * voxel[i];
+				if (edge < 0)
+					targetBounds[j][0] += edge;
+				else
+					targetBounds[j][1] += edge;
+			}
+		}
 
-		// for each voxel in the target stack,
-		// find the corresponding source voxel
+		// create the target stack, cropped to the bounds plus a voxel each side
+		final int wT = (int) Math.ceil((targetBounds[0][1] - targetBounds[0][0]) / vS) + 2;
+		final int hT = (int) Math.ceil((targetBounds[1][1] - targetBounds[1][0]) / vS) + 2;
+		final int dT = (int) Math.ceil((targetBounds[2][1] - targetBounds[2][0]) / vS) + 2;
+		// position of target voxel (0, 0, 0) relative to the centroid; target
+		// slices are numbered from 1
+		final double[] origin = { targetBounds[0][0] - vS, targetBounds[1][0] - vS, targetBounds[2][0] - 2 * vS };
 
-		// Cache the sourceStack's processors
-		final ImageProcessor[] sliceProcessors = new ImageProcessor[d + 1];
+		final Object[] sourcePixels = new Object[d + 1];
 		for (int z = 1; z <= d; z++) {
-			sliceProcessors[z] = sourceStack.getProcessor(z);
+			sourcePixels[z] = sourceStack.getPixels(z);
 		}
-		// Initialise an empty stack and tartgetStack's processor array
 		final ImageStack targetStack = new ImageStack(wT, hT, dT);
-		final ImageProcessor[] targetProcessors = new ImageProcessor[dT + 1];
 		for (int z = 1; z <= dT; z++) {
 			targetStack.setPixels(getEmptyPixels(wT, hT, imp.getBitDepth()), z);
-			targetProcessors[z] = targetStack.getProcessor(z);
 		}
+		alignStack(sourcePixels, sourceStack.getWidth(), imp.getProcessor().getRoi(), startSlice, endSlice,
+				targetStack, centroid, origin, eigenVecInv, voxel, vS, interpolate);
 
-		// Multithread start
-		final int nThreads = Runtime.getRuntime().availableProcessors();
-		final AlignThread[] alignThread = new AlignThread[nThreads];
-		for (int thread = 0; thread < nThreads; thread++) {
-			alignThread[thread] = new AlignThread(thread, nThreads, imp, sliceProcessors, targetProcessors, eigenVecInv,
-					centroid, wT, hT, dT, startSlice, endSlice);
-			alignThread[thread].start();
-		}
-		try {
-			for (int thread = 0; thread < nThreads; thread++) {
-				alignThread[thread].join();
-			}
-		} catch (final InterruptedException ie) {
-			IJ.error("A thread was interrupted.");
-		}
-		// end multithreading
 		if (doAxes) {
 			// draw axes on stack
-			final int xCent = (int) Math.floor(xTc / vS);
-			final int yCent = (int) Math.floor(yTc / vS);
-			final int zCent = (int) Math.floor(zTc / vS);
+			final int xCent = (int) Math.floor(-origin[0] / vS);
+			final int yCent = (int) Math.floor(-origin[1] / vS);
+			final int zCent = (int) Math.floor(-origin[2] / vS);
 			final int axisColour = Integer.MAX_VALUE;
 			for (int z = 1; z <= dT; z++) {
 				// z axis
@@ -564,112 +594,215 @@ public class Moments implements PlugIn, DialogListener {
 		targetCal.pixelDepth = vS;
 		targetCal.pixelHeight = vS;
 		targetCal.pixelWidth = vS;
+		// calibrated coordinates are positions relative to the centroid along
+		// the target axes
+		targetCal.xOrigin = -origin[0] / vS;
+		targetCal.yOrigin = -origin[1] / vS;
+		targetCal.zOrigin = -origin[2] / vS - 1;
 		impTarget.setDisplayRange(imp.getDisplayRangeMin(), imp.getDisplayRangeMax());
 		return impTarget;
 	}
 
 	/**
-	 * Multithreading class to look up aligned voxel values, processing each
-	 * slice in its own thread
-	 *
-	 * @author Michael Doube
+	 * Fill the target stack with the source voxels that its voxels rotate onto.
+	 * The stack is split into square tiles of each slice, so that neighbouring
+	 * target voxels read neighbouring source voxels, and the tiles are shared
+	 * out between threads. Source coordinates are linear in target coordinates,
+	 * so along a row they are stepped by a constant rather than recalculated.
 	 *
+	 * @param source
+	 *            pixel arrays of the source stack, indexed from 1
+	 * @param width
+	 *            width of the source stack
+	 * @param r
+	 *            source ROI; voxels outside it are not copied
+	 * @param startSlice
+	 *            first source slice to copy
+	 * @param endSlice
+	 *            last source slice to copy
+	 * @param targetStack
+	 *            empty stack to fill
+	 * @param centroid
+	 *            centre of rotation in the source, {x,y,z}
+	 * @param origin
+	 *            position of target voxel (0, 0, 0) relative to the centroid
+	 * @param eVI
+	 *            inverse rotation matrix (target -> source)
+	 * @param voxel
+	 *            source voxel dimensions, {vW, vH, vD}
+	 * @param vS
+	 *            target voxel size
+	 * @param interpolate
+	 *            if true, interpolate trilinearly between source voxel
+	 *            centres, otherwise copy the voxel each target voxel's corner
+	 *            falls in
 	 */
-	class AlignThread extends Thread {
-		final int thread, nThreads, wT, hT, dT, startSlice, endSlice;
-		final ImagePlus impT;
-		final ImageStack stackT;
-		final ImageProcessor[] sliceProcessors, targetProcessors;
-		final double[][] eigenVecInv;
-		final double[] centroid;
-
-		public AlignThread(final int thread, final int nThreads, final ImagePlus imp,
-				final ImageProcessor[] sliceProcessors, final ImageProcessor[] targetProcessors,
-				final double[][] eigenVecInv, final double[] centroid, final int wT, final int hT, final int dT,
-				final int startSlice, final int endSlice) {
-			this.impT = imp;
-			this.stackT = this.impT.getStack();
-			this.thread = thread;
-			this.nThreads = nThreads;
-			this.sliceProcessors = sliceProcessors;
-			this.targetProcessors = targetProcessors;
-			this.eigenVecInv = eigenVecInv;
-			this.centroid = centroid;
-			this.wT = wT;
-			this.hT = hT;
-			this.dT = dT;
-			this.startSlice = startSlice;
-			this.endSlice = endSlice;
+	private static void alignStack(final Object[] source, final int width, final Rectangle r, final int startSlice,
+			final int endSlice, final ImageStack targetStack, final double[] centroid, final double[] origin,
+			final double[][] eVI, final double[] voxel, final double vS, final boolean interpolate) {
+		final int wT = targetStack.getWidth();
+		final int hT = targetStack.getHeight();
+		final int dT = targetStack.getSize();
+		final Object[] target = new Object[dT + 1];
+		for (int z = 1; z <= dT; z++)
+			target[z] = targetStack.getPixels(z);
+
+		// source voxel coordinates of target voxel (x, y, z) are
+		// u0 + x * du[0] + y * du[1] + z * du[2]
+		final double[] u0 = new double[3];
+		final double[][] du = new double[3][3];
+		for (int i = 0; i < 3; i++) {
+			double position = centroid[i];
+			for (int j = 0; j < 3; j++) {
+				position += origin[j] * eVI[j][i];
+				du[j][i] = vS * eVI[j][i] / voxel[i];
+			}
+			u0[i] = position / voxel[i];
 		}
-
-		@Override
-		public void run() {
-			final Rectangle r = this.impT.getProcessor().getRoi();
-			final int rW = r.x + r.width;
-			final int rH = r.y + r.height;
-			final int rX = r.x;
-			final int rY = r.y;
-			final Calibration cal = this.impT.getCalibration();
-			final double vW = cal.pixelWidth;
-			final double vH = cal.pixelHeight;
-			final double vD = cal.pixelDepth;
-			final double vS = Math.min(vW, Math.min(vH, vD));
-			final double xC = centroid[0];
-			final double yC = centroid[1];
-			final double zC = centroid[2];
-			final double xTc = wT * vS / 2;
-			final double yTc = hT * vS / 2;
-			final double zTc = dT * vS / 2;
-			final double dXc = xC - xTc;
-			final double dYc = yC - yTc;
-			final double dZc = zC - zTc;
-			final double eVI00 = eigenVecInv[0][0];
-			final double eVI10 = eigenVecInv[1][0];
-			final double eVI20 = eigenVecInv[2][0];
-			final double eVI01 = eigenVecInv[0][1];
-			final double eVI11 = eigenVecInv[1][1];
-			final double eVI21 = eigenVecInv[2][1];
-			final double eVI02 = eigenVecInv[0][2];
-			final double eVI12 = eigenVecInv[1][2];
-			final double eVI22 = eigenVecInv[2][2];
-			for (int z = this.thread + 1; z <= this.dT; z += this.nThreads) {
-				IJ.showStatus("Aligning image stack...");
-				IJ.showProgress(z, this.dT);
-				// this.targetStack.setPixels(getEmptyPixels(this.wT, this.hT,
-				// this.impT.getBitDepth()), z);
-				final ImageProcessor targetIP = targetProcessors[z];
-				final double zD = z * vS - zTc;
-				final double zDeVI00 = zD * eVI20;
-				final double zDeVI01 = zD * eVI21;
-				final double zDeVI02 = zD * eVI22;
-				for (int y = 0; y < this.hT; y++) {
-					final double yD = y * vS - yTc;
-					final double yDeVI10 = yD * eVI10;
-					final double yDeVI11 = yD * eVI11;
-					final double yDeVI12 = yD * eVI12;
-					for (int x = 0; x < this.wT; x++) {
-						final double xD = x * vS - xTc;
-						final double xAlign = xD * eVI00 + yDeVI10 + zDeVI00 + xTc;
-						final double yAlign = xD * eVI01 + yDeVI11 + zDeVI01 + yTc;
-						final double zAlign = xD * eVI02 + yDeVI12 + zDeVI02 + zTc;
-						// possibility to do some voxel interpolation instead
-						// of just rounding in next 3 lines
-						final int xA = (int) Math.floor((xAlign + dXc) / vW);
-						final int yA = (int) Math.floor((yAlign + dYc) / vH);
-						final int zA = (int) Math.floor((zAlign + dZc) / vD);
-
-						if (xA < rX || xA >= rW || yA < rY || yA >= rH || zA < this.startSlice || zA > this.endSlice)
-							continue;
-						targetIP.set(x, y, this.sliceProcessors[zA].get(xA, yA));
+		final double dxU = du[0][0];
+		final double dxV = du[0][1];
+		final double dxW = du[0][2];
+		// interpolation takes place at target voxel centres, in coordinates
+		// where source voxel centres are whole numbers
+		final double hU = (du[0][0] + du[1][0] + du[2][0] - 1) / 2;
+		final double hV = (du[0][1] + du[1][1] + du[2][1] - 1) / 2;
+		final double hW = (du[0][2] + du[1][2] + du[2][2] - 1) / 2;
+
+		final int tilesX = (wT + TILE - 1) / TILE;
+		final int tilesY = (hT + TILE - 1) / TILE;
+		final int tilesPerSlice = tilesX * tilesY;
+		final int nTiles = tilesPerSlice * dT;
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int t = ai.getAndIncrement(); t < nTiles; t = ai.getAndIncrement()) {
+						final int z = t / tilesPerSlice + 1;
+						final int tile = t % tilesPerSlice;
+						if (tile == 0) {
+							IJ.showStatus("Aligning image stack...");
+							IJ.showProgress(z, dT);
+						}
+						final int x0 = (tile % tilesX) * TILE;
+						final int y0 = (tile / tilesX) * TILE;
+						final int x1 = Math.min(x0 + TILE, wT);
+						final int y1 = Math.min(y0 + TILE, hT);
+						final Object targetPixels = target[z];
+						for (int y = y0; y < y1; y++) {
+							double u = u0[0] + x0 * dxU + y * du[1][0] + z * du[2][0];
+							double v = u0[1] + x0 * dxV + y * du[1][1] + z * du[2][1];
+							double w = u0[2] + x0 * dxW + y * du[1][2] + z * du[2][2];
+							for (int offset = y * wT + x0, end = y * wT + x1; offset < end; offset++) {
+								final int xA = (int) Math.floor(u);
+								final int yA = (int) Math.floor(v);
+								final int zA = (int) Math.floor(w);
+								if (xA >= r.x && xA < r.x + r.width && yA >= r.y && yA < r.y + r.height
+										&& zA >= startSlice && zA <= endSlice) {
+									if (interpolate)
+										setValue(targetPixels, offset, interpolate(source, width, r, startSlice,
+												endSlice, u + hU, v + hV, w + hW));
+									else
+										copyPixel(source[zA], yA * width + xA, targetPixels, offset);
+								}
+								u += dxU;
+								v += dxV;
+								w += dxW;
+							}
+						}
 					}
 				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+	}
+
+	/**
+	 * Trilinear interpolation of the source at (u, v, w), in voxel coordinates
+	 * shifted so that voxel centres are whole numbers. Neighbours outside the
+	 * ROI and slice range are replaced by the nearest voxel inside it.
+	 */
+	private static double interpolate(final Object[] source, final int width, final Rectangle r,
+			final int startSlice, final int endSlice, final double u, final double v, final double w) {
+		final int x = (int) Math.floor(u);
+		final int y = (int) Math.floor(v);
+		final int z = (int) Math.floor(w);
+		final double fx = u - x;
+		final double fy = v - y;
+		final double fz = w - z;
+		final int xa = clamp(x, r.x, r.x + r.width - 1);
+		final int xb = clamp(x + 1, r.x, r.x + r.width - 1);
+		final int ya = clamp(y, r.y, r.y + r.height - 1) * width;
+		final int yb = clamp(y + 1, r.y, r.y + r.height - 1) * width;
+		final Object sa = source[clamp(z, startSlice, endSlice)];
+		final Object sb = source[clamp(z + 1, startSlice, endSlice)];
+		final double a = lerp(lerp(value(sa, ya + xa), value(sa, ya + xb), fx),
+				lerp(value(sa, yb + xa), value(sa, yb + xb), fx), fy);
+		final double b = lerp(lerp(value(sb, ya + xa), value(sb, ya + xb), fx),
+				lerp(value(sb, yb + xa), value(sb, yb + xb), fx), fy);
+		return lerp(a, b, fz);
+	}
+
+	private static int clamp(final int i, final int min, final int max) {
+		return Math.max(min, Math.min(i, max));
+	}
+
+	private static double lerp(final double a, final double b, final double f) {
+		return a + (b - a) * f;
+	}
+
+	private static double value(final Object pixels, final int i) {
+		if (pixels instanceof byte[])
+			return ((byte[]) pixels)[i] & 0xff;
+		if (pixels instanceof short[])
+			return ((short[]) pixels)[i] & 0xffff;
+		return ((float[]) pixels)[i];
+	}
+
+	private static void setValue(final Object pixels, final int i, final double value) {
+		if (pixels instanceof byte[])
+			((byte[]) pixels)[i] = (byte) (int) (value + 0.5);
+		else if (pixels instanceof short[])
+			((short[]) pixels)[i] = (short) (int) (value + 0.5);
+		else
+			((float[]) pixels)[i] = (float) value;
+	}
+
+	private static void copyPixel(final Object source, final int i, final Object target, final int j) {
+		if (source instanceof byte[])
+			((byte[]) target)[j] = ((byte[]) source)[i];
+		else if (source instanceof short[])
+			((short[]) target)[j] = ((short[]) source)[i];
+		else
+			((float[]) target)[j] = ((float[]) source)[i];
+	}
+
+	/**
+	 * Bounds of a box after transformation by a matrix, which are tight when
+	 * the matrix only swaps and reflects axes
+	 *
+	 * @param m
+	 *            matrix whose columns are the new axes
+	 * @param bounds
+	 *            {min, max} of the box on each axis
+	 * @return {min, max} of the transformed box on each new axis
+	 */
+	private static double[][] transformBounds(final double[][] m, final double[][] bounds) {
+		final double[][] transformed = new double[3][2];
+		for (int j = 0; j < 3; j++) {
+			for (int i = 0; i < 3; i++) {
+				final double a = m[i][j] * bounds[i][0];
+				final double b = m[i][j] * bounds[i][1];
+				transformed[j][0] += Math.min(a, b);
+				transformed[j][1] += Math.max(a, b);
 			}
 		}
+		return transformed;
 	}
 
 	/**
-	 * Find side lengths in pixels of the smallest stack to fit the aligned
-	 * image
+	 * Find side lengths in pixels of the smallest stack centred on the centroid
+	 * to fit the aligned image
 	 *
 	 * @param E
 	 *            Rotation matrix
@@ -690,6 +823,41 @@ public class Moments implements PlugIn, DialogListener {
 	 */
 	private int[] getRotatedSize(final Matrix E, final ImagePlus imp, final double[] centroid, final int startSlice,
 			final int endSlice, final double min, final double max) {
+		final double[][] bounds = getRotatedBounds(E, imp, centroid, startSlice, endSlice, min, max);
+		final Calibration cal = imp.getCalibration();
+		// use the smallest input voxel dimension as the voxel size
+		final double vS = Math.min(cal.pixelWidth, Math.min(cal.pixelHeight, cal.pixelDepth));
+		final int[] size = new int[3];
+		for (int i = 0; i < 3; i++) {
+			final double tMax = Math.max(-bounds[i][0], bounds[i][1]);
+			size[i] = (int) Math.floor(2 * tMax / vS) + 5;
+		}
+		return size;
+	}
+
+	/**
+	 * Find the range of the thresholded voxels' coordinates along each of E's
+	 * axes, relative to the centroid. Coordinates are linear along a row, so
+	 * only the first and last thresholded voxel of each row are transformed.
+	 *
+	 * @param E
+	 *            Rotation matrix
+	 * @param imp
+	 *            Source image
+	 * @param centroid
+	 *            3D centroid in 3-element array {x,y,z}
+	 * @param startSlice
+	 *            first slice of source image
+	 * @param endSlice
+	 *            last slice of source image
+	 * @param min
+	 *            minimum threshold
+	 * @param max
+	 *            maximum threshold
+	 * @return {min, max} for each axis, both 0 if no voxels are thresholded
+	 */
+	private static double[][] getRotatedBounds(final Matrix E, final ImagePlus imp, final double[] centroid,
+			final int startSlice, final int endSlice, final double min, final double max) {
 		final ImageStack stack = imp.getImageStack();
 		final Calibration cal = imp.getCalibration();
 		final double xC = centroid[0];
@@ -706,66 +874,52 @@ public class Moments implements PlugIn, DialogListener {
 		final double vD = cal.pixelDepth;
 
 		final double[][] v = E.getArrayCopy();
-		final double v00 = v[0][0];
-		final double v10 = v[1][0];
-		final double v20 = v[2][0];
-		final double v01 = v[0][1];
-		final double v11 = v[1][1];
-		final double v21 = v[2][1];
-		final double v02 = v[0][2];
-		final double v12 = v[1][2];
-		final double v22 = v[2][2];
-
-		double xTmax = 0;
-		double yTmax = 0;
-		double zTmax = 0;
-
-		for (int z = startSlice; z <= endSlice; z++) {
-			IJ.showStatus("Getting aligned stack dimensions...");
-			final ImageProcessor ip = stack.getProcessor(z);
-			final double zCz = z * vD - zC;
-			final double zCzv20 = zCz * v20;
-			final double zCzv21 = zCz * v21;
-			final double zCzv22 = zCz * v22;
-			for (int y = rY; y < rH; y++) {
-				final double yCy = y * vH - yC;
-				final double yCyv10 = yCy * v10;
-				final double yCyv11 = yCy * v11;
-				final double yCyv12 = yCy * v12;
-				for (int x = rX; x < rW; x++) {
-					final double pixel = ip.get(x, y);
-					if (pixel < min || pixel > max)
-						continue;
-
-					// distance from centroid in
-					// original coordinate system
-					// xCx, yCx, zCx
-					final double xCx = x * vW - xC;
-					// now transform each coordinate
-					// transformed coordinate is dot product of original
-					// coordinates
-					// and eigenvectors
-					final double xT = xCx * v00 + yCyv10 + zCzv20;
-					final double yT = xCx * v01 + yCyv11 + zCzv21;
-					final double zT = xCx * v02 + yCyv12 + zCzv22;
-					// keep the biggest value to find the greatest distance
-					// in x, y and z
-					xTmax = Math.max(xTmax, Math.abs(xT));
-					yTmax = Math.max(yTmax, Math.abs(yT));
-					zTmax = Math.max(zTmax, Math.abs(zT));
+		final Thread[] threads = Multithreader.newThreads();
+		final double[][][] threadBounds = new double[threads.length][3][2];
+		final AtomicInteger ai = new AtomicInteger(startSlice);
+		for (int thread = 0; thread < threads.length; thread++) {
+			final double[][] bounds = threadBounds[thread];
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int z = ai.getAndIncrement(); z <= endSlice; z = ai.getAndIncrement()) {
+						IJ.showStatus("Getting aligned stack dimensions...");
+						final ImageProcessor ip = stack.getProcessor(z);
+						final double zCz = z * vD - zC;
+						for (int y = rY; y < rH; y++) {
+							int first = rX;
+							while (first < rW && (ip.get(first, y) < min || ip.get(first, y) > max))
+								first++;
+							if (first == rW)
+								continue;
+							int last = rW - 1;
+							while (ip.get(last, y) < min || ip.get(last, y) > max)
+								last--;
+							final double yCy = y * vH - yC;
+							for (int end = 0; end < 2; end++) {
+								// distance from centroid in original coordinate
+								// system, transformed by dot product with the
+								// eigenvectors
+								final double xCx = (end == 0 ? first : last) * vW - xC;
+								for (int i = 0; i < 3; i++) {
+									final double t = xCx * v[0][i] + yCy * v[1][i] + zCz * v[2][i];
+									bounds[i][0] = Math.min(bounds[i][0], t);
+									bounds[i][1] = Math.max(bounds[i][1], t);
+								}
+							}
+						}
+					}
 				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		final double[][] bounds = new double[3][2];
+		for (final double[][] b : threadBounds) {
+			for (int i = 0; i < 3; i++) {
+				bounds[i][0] = Math.min(bounds[i][0], b[i][0]);
+				bounds[i][1] = Math.max(bounds[i][1], b[i][1]);
 			}
 		}
-
-		// use the smallest input voxel dimension as the voxel size
-		final double vS = Math.min(vW, Math.min(vH, vD));
-
-		final int tW = (int) Math.floor(2 * xTmax / vS) + 5;
-		final int tH = (int) Math.floor(2 * yTmax / vS) + 5;
-		final int tD = (int) Math.floor(2 * zTmax / vS) + 5;
-
-		final int[] size = { tW, tH, tD };
-		return size;
+		return bounds;
 	}
 
 	/**
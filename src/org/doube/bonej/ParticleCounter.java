@@ -21,6 +21,8 @@ import java.awt.AWTEvent;
 import java.awt.Checkbox;
 import java.awt.Choice;
 import java.awt.TextField;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -33,7 +35,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
 
+import org.doube.geometry.BinarySTLWriter;
 import org.doube.geometry.FitEllipsoid;
+import org.doube.geometry.IndexedTriangleMesh;
 import org.doube.jama.EigenvalueDecomposition;
 import org.doube.jama.Matrix;
 import org.doube.util.DialogModifier;
@@ -42,12 +46,12 @@ import org.doube.util.Multithreader;
 import org.doube.util.UsageReporter;
 
 import customnode.CustomPointMesh;
-import customnode.CustomTriangleMesh;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
+import ij.io.DirectoryChooser;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
 import ij.plugin.PlugIn;
@@ -192,6 +196,7 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		final String[] items2 = { "Multithreaded", "Linear", "Mapped" };
 		gd.addChoice("Labelling algorithm", items2, items2[2]);
 		gd.addNumericField("Slices per chunk", 2, 0);
+		gd.addCheckbox("Save_surfaces (STL)", false);
 		gd.addHelp("http://bonej.org/particles");
 		gd.addDialogListener(this);
 		gd.showDialog();
@@ -233,6 +238,13 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		else
 			labelMethod = MAPPED;
 		final int slicesPerChunk = (int) Math.floor(gd.getNextNumber());
+		final boolean doSurfaceSTL = gd.getNextBoolean();
+		String stlDirectory = null;
+		if (doSurfaceSTL) {
+			stlDirectory = new DirectoryChooser("Save particle surfaces as STL").getDirectory();
+			if (stlDirectory == null)
+				return;
+		}
 
 		// get the particles and do the analysis
 		final long start = System.nanoTime();
@@ -248,9 +260,12 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		final int[][] limits = getParticleLimits(imp, particleLabels, nParticles);
 
 		// set up resources for analysis
-		ArrayList<List<Point3f>> surfacePoints = new ArrayList<List<Point3f>>();
-		if (doSurfaceArea || doSurfaceVolume || doSurfaceImage || doEllipsoids || doFeret) {
-			surfacePoints = getSurfacePoints(imp, particleLabels, limits, resampling, nParticles);
+		ArrayList<IndexedTriangleMesh> surfaceMeshes = new ArrayList<IndexedTriangleMesh>();
+		if (doSurfaceArea || doSurfaceVolume || doSurfaceImage || doEllipsoids || doFeret || doSurfaceSTL) {
+			surfaceMeshes = getSurfaceMeshes(imp, particleLabels, limits, resampling, nParticles);
+		}
+		if (doSurfaceSTL) {
+			writeSurfaceSTLs(surfaceMeshes, stlDirectory, imp.getShortTitle());
 		}
 		EigenvalueDecomposition[] eigens = new EigenvalueDecomposition[nParticles];
 		if (doMoments || doAxesImage) {
@@ -259,15 +274,15 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		// calculate dimensions
 		double[] surfaceAreas = new double[nParticles];
 		if (doSurfaceArea) {
-			surfaceAreas = getSurfaceArea(surfacePoints);
+			surfaceAreas = getSurfaceArea(surfaceMeshes);
 		}
 		double[] ferets = new double[nParticles];
 		if (doFeret) {
-			ferets = getFerets(surfacePoints);
+			ferets = getFerets(surfaceMeshes);
 		}
 		double[] surfaceVolumes = new double[nParticles];
 		if (doSurfaceVolume) {
-			surfaceVolumes = getSurfaceVolume(surfacePoints);
+			surfaceVolumes = getSurfaceVolume(surfaceMeshes);
 		}
 		double[][] eulerCharacters = new double[nParticles][3];
 		if (doEulerCharacters) {
@@ -292,7 +307,7 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		}
 		Object[][] ellipsoids = new Object[nParticles][10];
 		if (doEllipsoids || doEllipsoidImage) {
-			ellipsoids = getEllipsoids(surfacePoints);
+			ellipsoids = getEllipsoids(surfaceMeshes);
 		}
 
 		// Show numerical results
@@ -390,7 +405,7 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		if (doSurfaceImage || doCentroidImage || doAxesImage || do3DOriginal || doEllipsoidImage) {
 			final Image3DUniverse univ = new Image3DUniverse();
 			if (doSurfaceImage) {
-				displayParticleSurfaces(univ, surfacePoints, colourMode, volumes, splitValue);
+				displayParticleSurfaces(univ, surfaceMeshes, colourMode, volumes, splitValue);
 			}
 			if (doCentroidImage) {
 				displayCentroids(centroids, univ);
@@ -472,26 +487,17 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		}
 	}
 
-	private Object[][] getEllipsoids(final ArrayList<List<Point3f>> surfacePoints) {
-		final Object[][] ellipsoids = new Object[surfacePoints.size()][];
+	private Object[][] getEllipsoids(final ArrayList<IndexedTriangleMesh> surfaceMeshes) {
+		final Object[][] ellipsoids = new Object[surfaceMeshes.size()][];
 		int p = 0;
-		final Iterator<List<Point3f>> partIter = surfacePoints.iterator();
+		final Iterator<IndexedTriangleMesh> partIter = surfaceMeshes.iterator();
 		while (partIter.hasNext()) {
-			final List<Point3f> points = partIter.next();
-			if (points == null) {
+			final IndexedTriangleMesh mesh = partIter.next();
+			if (mesh == null) {
 				p++;
 				continue;
 			}
-			final Iterator<Point3f> pointIter = points.iterator();
-			final double[][] coOrdinates = new double[points.size()][3];
-			int i = 0;
-			while (pointIter.hasNext()) {
-				final Point3f point = pointIter.next();
-				coOrdinates[i][0] = point.x;
-				coOrdinates[i][1] = point.y;
-				coOrdinates[i][2] = point.z;
-				i++;
-			}
+			final double[][] coOrdinates = mesh.getCornerCoordinates();
 			try {
 				ellipsoids[p] = FitEllipsoid.yuryPetrov(coOrdinates);
 			} catch (final RuntimeException re) {
@@ -890,19 +896,19 @@ public class ParticleCounter implements PlugIn, DialogListener {
 	 * Draw the particle surfaces in a 3D viewer
 	 *
 	 * @param univ
-	 * @param surfacePoints
+	 * @param surfaceMeshes
 	 *
 	 */
-	private void displayParticleSurfaces(final Image3DUniverse univ, final ArrayList<List<Point3f>> surfacePoints,
+	private void displayParticleSurfaces(final Image3DUniverse univ, final ArrayList<IndexedTriangleMesh> surfaceMeshes,
 			final int colourMode, final double[] volumes, final double splitValue) {
 		int p = 0;
-		final int nParticles = surfacePoints.size();
-		final Iterator<List<Point3f>> iter = surfacePoints.iterator();
+		final int nParticles = surfaceMeshes.size();
+		final Iterator<IndexedTriangleMesh> iter = surfaceMeshes.iterator();
 		while (iter.hasNext()) {
 			IJ.showStatus("Rendering surfaces...");
 			IJ.showProgress(p, nParticles);
-			final List<Point3f> points = iter.next();
-			if (p > 0 && points.size() > 0) {
+			final IndexedTriangleMesh mesh = iter.next();
+			if (p > 0 && mesh.getTriangleCount() > 0) {
 				Color3f pColour = new Color3f(0, 0, 0);
 				if (colourMode == GRADIENT) {
 					final float red = 1.0f - (float) p / (float) nParticles;
@@ -920,7 +926,7 @@ public class ParticleCounter implements PlugIn, DialogListener {
 				}
 				// Add the mesh
 				try {
-					univ.addTriangleMesh(points, pColour, "Surface " + p).setLocked(true);
+					univ.addTriangleMesh(mesh.toTriangles(), pColour, "Surface " + p).setLocked(true);
 				} catch (final NullPointerException npe) {
 					IJ.log("3D Viewer was closed before rendering completed.");
 					return;
@@ -930,14 +936,14 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		}
 	}
 
-	private double[] getSurfaceArea(final ArrayList<List<Point3f>> surfacePoints) {
-		final Iterator<List<Point3f>> iter = surfacePoints.iterator();
-		final double[] surfaceAreas = new double[surfacePoints.size()];
+	private double[] getSurfaceArea(final ArrayList<IndexedTriangleMesh> surfaceMeshes) {
+		final Iterator<IndexedTriangleMesh> iter = surfaceMeshes.iterator();
+		final double[] surfaceAreas = new double[surfaceMeshes.size()];
 		int p = 0;
 		while (iter.hasNext()) {
-			final List<Point3f> points = iter.next();
-			if (null != points) {
-				final double surfaceArea = MeasureSurface.getSurfaceArea(points);
+			final IndexedTriangleMesh mesh = iter.next();
+			if (null != mesh) {
+				final double surfaceArea = MeasureSurface.getSurfaceArea(mesh);
 				surfaceAreas[p] = surfaceArea;
 			}
 			p++;
@@ -945,28 +951,47 @@ public class ParticleCounter implements PlugIn, DialogListener {
 		return surfaceAreas;
 	}
 
-	private double[] getSurfaceVolume(final ArrayList<List<Point3f>> surfacePoints) {
-		final Iterator<List<Point3f>> iter = surfacePoints.iterator();
-		final double[] surfaceVolumes = new double[surfacePoints.size()];
-		final Color3f colour = new Color3f(0.0f, 0.0f, 0.0f);
+	private double[] getSurfaceVolume(final ArrayList<IndexedTriangleMesh> surfaceMeshes) {
+		final Iterator<IndexedTriangleMesh> iter = surfaceMeshes.iterator();
+		final double[] surfaceVolumes = new double[surfaceMeshes.size()];
 		int p = 0;
 		while (iter.hasNext()) {
 			IJ.showStatus("Calculating enclosed volume...");
-			final List<Point3f> points = iter.next();
-			if (null != points) {
-				final CustomTriangleMesh surface = new CustomTriangleMesh(points, colour, 0.0f);
-				surfaceVolumes[p] = Math.abs(surface.getVolume());
+			final IndexedTriangleMesh mesh = iter.next();
+			if (null != mesh) {
+				surfaceVolumes[p] = Math.abs(mesh.getVolume());
 			}
 			p++;
 		}
 		return surfaceVolumes;
 	}
 
+	/**
+	 * Write each particle's surface to its own binary STL file, named after
+	 * the image and the particle's ID. Files are written concurrently.
+	 *
+	 * @param surfaceMeshes
+	 * @param directory
+	 * @param title
+	 */
+	private void writeSurfaceSTLs(final ArrayList<IndexedTriangleMesh> surfaceMeshes, final String directory,
+			final String title) {
+		IJ.showStatus("Saving surfaces as STL...");
+		final List<File> files = new ArrayList<File>();
+		for (int p = 0; p < surfaceMeshes.size(); p++)
+			files.add(new File(directory, title + "_" + p + ".stl"));
+		try {
+			BinarySTLWriter.write(surfaceMeshes, files);
+		} catch (final IOException e) {
+			IJ.error("STL error", "Something went wrong writing the STL files.\n" + e.getMessage());
+		}
+	}
+
 	@SuppressWarnings("unchecked")
-	private ArrayList<List<Point3f>> getSurfacePoints(final ImagePlus imp, final int[][] particleLabels,
+	private ArrayList<IndexedTriangleMesh> getSurfaceMeshes(final ImagePlus imp, final int[][] particleLabels,
 			final int[][] limits, final int resampling, final int nParticles) {
 		final Calibration cal = imp.getCalibration();
-		final ArrayList<List<Point3f>> surfacePoints = new ArrayList<List<Point3f>>();
+		final ArrayList<IndexedTriangleMesh> surfaceMeshes = new ArrayList<IndexedTriangleMesh>();
 		final boolean[] channels = { true, false, false };
 		for (int p = 0; p < nParticles; p++) {
 			IJ.showStatus("Getting surface meshes...");
@@ -974,65 +999,43 @@ public class ParticleCounter implements PlugIn, DialogListener {
 			if (p > 0) {
 				final ImagePlus binaryImp = getBinaryParticle(p, imp, particleLabels, limits, resampling);
 				final MCTriangulator mct = new MCTriangulator();
-				final List<Point3f> points = mct.getTriangles(binaryImp, 128, channels, resampling);
+				final IndexedTriangleMesh mesh = IndexedTriangleMesh
+						.fromTriangles(mct.getTriangles(binaryImp, 128, channels, resampling));
 
 				final double xOffset = (limits[p][0] - 1) * cal.pixelWidth;
 				final double yOffset = (limits[p][2] - 1) * cal.pixelHeight;
 				final double zOffset = (limits[p][4] - 1) * cal.pixelDepth;
-				final Iterator<Point3f> iter = points.iterator();
-				while (iter.hasNext()) {
-					final Point3f point = iter.next();
-					point.x += xOffset;
-					point.y += yOffset;
-					point.z += zOffset;
-				}
-				surfacePoints.add(points);
-				if (points.size() == 0) {
+				mesh.translate(xOffset, yOffset, zOffset);
+				surfaceMeshes.add(mesh);
+				if (mesh.getTriangleCount() == 0) {
 					IJ.log("Particle " + p + " resulted in 0 surface points");
 				}
 			} else {
-				surfacePoints.add(null);
+				surfaceMeshes.add(null);
 			}
 		}
-		return surfacePoints;
+		return surfaceMeshes;
 	}
 
 	/**
-	 * Get the Feret diameter of a surface. Uses an inefficient brute-force
-	 * algorithm.
+	 * Get the Feret diameter of a surface. Uses a brute-force comparison of
+	 * all pairs of unique mesh vertices.
 	 *
 	 * @param particleSurfaces
 	 * @return
 	 */
-	private double[] getFerets(final ArrayList<List<Point3f>> particleSurfaces) {
+	private double[] getFerets(final ArrayList<IndexedTriangleMesh> particleSurfaces) {
 		final int nParticles = particleSurfaces.size();
 		final double[] ferets = new double[nParticles];
-		final ListIterator<List<Point3f>> it = particleSurfaces.listIterator();
-		int i = 0;
-		Point3f a;
-		Point3f b;
-		List<Point3f> surface;
-		ListIterator<Point3f> ita;
-		ListIterator<Point3f> itb;
-		while (it.hasNext()) {
+		for (int i = 0; i < nParticles; i++) {
 			IJ.showStatus("Finding Feret diameter...");
-			IJ.showProgress(it.nextIndex(), nParticles);
-			surface = it.next();
+			IJ.showProgress(i, nParticles);
+			final IndexedTriangleMesh surface = particleSurfaces.get(i);
 			if (surface == null) {
 				ferets[i] = Double.NaN;
-				i++;
 				continue;
 			}
-			ita = surface.listIterator();
-			while (ita.hasNext()) {
-				a = ita.next();
-				itb = surface.listIterator(ita.nextIndex());
-				while (itb.hasNext()) {
-					b = itb.next();
-					ferets[i] = Math.max(ferets[i], a.distance(b));
-				}
-			}
-			i++;
+			ferets[i] = surface.getFeretDiameter();
 		}
 		return ferets;
 	}
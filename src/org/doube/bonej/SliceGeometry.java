@@ -27,11 +27,9 @@ import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.gui.Wand;
 import ij.measure.Calibration;
-import ij.measure.ResultsTable;
 import ij.plugin.Duplicator;
 import ij.plugin.PlugIn;
 import ij.process.ByteProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.StackConverter;
 import ij3d.Content;
@@ -45,6 +43,7 @@ import java.awt.TextField;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
@@ -52,6 +51,8 @@ import javax.vecmath.Point3f;
 import org.doube.geometry.Orienteer;
 import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
+import org.doube.util.Multithreader;
+import org.doube.util.ResultsSink;
 import org.doube.util.ThresholdGuesser;
 import org.doube.util.UsageReporter;
 
@@ -146,6 +147,8 @@ public class SliceGeometry implements PlugIn, DialogListener {
 	private boolean[] emptySlices;
 	/** List of slice centroids */
 	private double[][] sliceCentroids;
+	/** Moments of each slice, from which the principal axes are calculated */
+	private SliceMoments[] sliceMoments;
 	private double[] integratedDensity;
 	private double[] meanDensity;
 	private double m;
@@ -159,7 +162,7 @@ public class SliceGeometry implements PlugIn, DialogListener {
 	/** List of polar section moduli */
 	private double[] Zpol;
 	private boolean do3DAnnotation;
-	private Orienteer orienteer;
+	private Orienteer.Orientation orientation;
 	/** Flag to use anatomic orientation */
 	private boolean doOriented;
 	/** Second moment of area around primary axis */
@@ -213,7 +216,7 @@ public class SliceGeometry implements PlugIn, DialogListener {
 		final double[] thresholds = ThresholdGuesser.setDefaultThreshold(imp);
 		double min = thresholds[0];
 		double max = thresholds[1];
-		orienteer = Orienteer.getInstance();
+		orientation = Orienteer.getOrientationOf(imp);
 
 		final GenericDialog gd = new GenericDialog("Options");
 
@@ -231,7 +234,7 @@ public class SliceGeometry implements PlugIn, DialogListener {
 		gd.addCheckbox("3D_Annotation", false);
 		gd.addCheckbox("Process_Stack", false);
 		gd.addCheckbox("Clear_results", false);
-		gd.addCheckbox("Use_Orientation", (orienteer != null));
+		gd.addCheckbox("Use_Orientation", (orientation != null));
 		// String[] analyses = { "Weighted", "Unweighted", "Both" };
 		// gd.addChoice("Calculate: ", analyses, analyses[1]);
 		gd.addCheckbox("HU_Calibrated", ImageCheck.huCalibrated(imp));
@@ -295,7 +298,7 @@ public class SliceGeometry implements PlugIn, DialogListener {
 			return;
 		}
 
-		calculateMoments(imp, min, max);
+		calculateMoments();
 		if (this.doThickness3D)
 			calculateThickness3D(imp, min, max);
 		if (this.doThickness2D)
@@ -305,60 +308,59 @@ public class SliceGeometry implements PlugIn, DialogListener {
 
 		// TODO locate centroids of multiple sections in a single plane
 
-		final ResultsTable rt = ResultsTable.getResultsTable();
+		final ResultsSink sink = ResultsSink.getInstance();
 		if (clearResults)
-			rt.reset();
+			sink.reset();
 
 		final String title = imp.getTitle();
 		for (int s = this.startSlice; s <= this.endSlice; s++) {
-			rt.incrementCounter();
-			rt.addLabel(title);
-			rt.addValue("Bone Code", boneID);
-			rt.addValue("Slice", s);
-			rt.addValue("CSA (" + units + "²)", this.cortArea[s]);
-			rt.addValue("X cent. (" + units + ")", this.sliceCentroids[0][s]);
-			rt.addValue("Y cent. (" + units + ")", this.sliceCentroids[1][s]);
-			rt.addValue("Density", this.meanDensity[s]);
-			rt.addValue("wX cent. (" + units + ")", this.weightedCentroids[0][s]);
-			rt.addValue("wY cent. (" + units + ")", this.weightedCentroids[1][s]);
-			rt.addValue("Theta (rad)", this.theta[s]);
-			rt.addValue("R1 (" + units + ")", this.maxRadMax[s]);
-			rt.addValue("R2 (" + units + ")", this.maxRadMin[s]);
-			rt.addValue("Imin (" + units + "^4)", this.Imin[s]);
-			rt.addValue("Imax (" + units + "^4)", this.Imax[s]);
-			rt.addValue("Ipm (" + units + "^4)", this.Ipm[s]);
-			rt.addValue("Zmax (" + units + "³)", this.Zmax[s]);
-			rt.addValue("Zmin (" + units + "³)", this.Zmin[s]);
-			rt.addValue("Zpol (" + units + "³)", this.Zpol[s]);
-			rt.addValue("Feret Min (" + units + ")", this.feretMin[s]);
-			rt.addValue("Feret Max (" + units + ")", this.feretMax[s]);
-			rt.addValue("Feret Angle (rad)", this.feretAngle[s]);
-			rt.addValue("Perimeter (" + units + ")", this.perimeter[s]);
+			final int row = sink.addRow(title);
+			sink.setResult(row, "Bone Code", boneID);
+			sink.setResult(row, "Slice", s);
+			sink.setResult(row, "CSA (" + units + "²)", this.cortArea[s]);
+			sink.setResult(row, "X cent. (" + units + ")", this.sliceCentroids[0][s]);
+			sink.setResult(row, "Y cent. (" + units + ")", this.sliceCentroids[1][s]);
+			sink.setResult(row, "Density", this.meanDensity[s]);
+			sink.setResult(row, "wX cent. (" + units + ")", this.weightedCentroids[0][s]);
+			sink.setResult(row, "wY cent. (" + units + ")", this.weightedCentroids[1][s]);
+			sink.setResult(row, "Theta (rad)", this.theta[s]);
+			sink.setResult(row, "R1 (" + units + ")", this.maxRadMax[s]);
+			sink.setResult(row, "R2 (" + units + ")", this.maxRadMin[s]);
+			sink.setResult(row, "Imin (" + units + "^4)", this.Imin[s]);
+			sink.setResult(row, "Imax (" + units + "^4)", this.Imax[s]);
+			sink.setResult(row, "Ipm (" + units + "^4)", this.Ipm[s]);
+			sink.setResult(row, "Zmax (" + units + "³)", this.Zmax[s]);
+			sink.setResult(row, "Zmin (" + units + "³)", this.Zmin[s]);
+			sink.setResult(row, "Zpol (" + units + "³)", this.Zpol[s]);
+			sink.setResult(row, "Feret Min (" + units + ")", this.feretMin[s]);
+			sink.setResult(row, "Feret Max (" + units + ")", this.feretMax[s]);
+			sink.setResult(row, "Feret Angle (rad)", this.feretAngle[s]);
+			sink.setResult(row, "Perimeter (" + units + ")", this.perimeter[s]);
 			if (this.doThickness3D) {
-				rt.addValue("Max Thick 3D (" + units + ")", this.maxCortThick3D[s]);
-				rt.addValue("Mean Thick 3D (" + units + ")", this.meanCortThick3D[s]);
-				rt.addValue("SD Thick 3D (" + units + ")", this.stdevCortThick3D[s]);
+				sink.setResult(row, "Max Thick 3D (" + units + ")", this.maxCortThick3D[s]);
+				sink.setResult(row, "Mean Thick 3D (" + units + ")", this.meanCortThick3D[s]);
+				sink.setResult(row, "SD Thick 3D (" + units + ")", this.stdevCortThick3D[s]);
 			}
 			if (this.doThickness2D) {
-				rt.addValue("Max Thick 2D (" + units + ")", this.maxCortThick2D[s]);
-				rt.addValue("Mean Thick 2D (" + units + ")", this.meanCortThick2D[s]);
-				rt.addValue("SD Thick 2D (" + units + ")", this.stdevCortThick2D[s]);
+				sink.setResult(row, "Max Thick 2D (" + units + ")", this.maxCortThick2D[s]);
+				sink.setResult(row, "Mean Thick 2D (" + units + ")", this.meanCortThick2D[s]);
+				sink.setResult(row, "SD Thick 2D (" + units + ")", this.stdevCortThick2D[s]);
 			}
-			if (this.doOriented && orienteer != null && orienteer.getDirections(imp) != null) {
-				final String[] dirs = orienteer.getDirections(imp);
-				rt.addValue(dirs[0] + " (rad)", orienteer.getOrientation(imp, dirs[0]));
-				rt.addValue(dirs[2] + " (rad)", orienteer.getOrientation(imp, dirs[2]));
-				rt.addValue("I" + dirs[0] + dirs[1] + "(" + units + "^4)", this.I1[s]);
-				rt.addValue("I" + dirs[2] + dirs[3] + "(" + units + "^4)", this.I2[s]);
-				rt.addValue("Z" + dirs[0] + dirs[1] + "(" + units + "³)", this.Z1[s]);
-				rt.addValue("Z" + dirs[2] + dirs[3] + "(" + units + "³)", this.Z2[s]);
-				rt.addValue("R" + dirs[0] + dirs[1] + "(" + units + ")", this.maxRad2[s]);
-				rt.addValue("R" + dirs[2] + dirs[3] + "(" + units + ")", this.maxRad1[s]);
-				rt.addValue("D" + dirs[0] + dirs[1] + "(" + units + ")", this.principalDiameter[s]);
-				rt.addValue("D" + dirs[2] + dirs[3] + "(" + units + ")", this.secondaryDiameter[s]);
+			if (this.doOriented && orientation != null) {
+				final String[] dirs = orientation.getDirections();
+				sink.setResult(row, dirs[0] + " (rad)", orientation.getOrientation(dirs[0]));
+				sink.setResult(row, dirs[2] + " (rad)", orientation.getOrientation(dirs[2]));
+				sink.setResult(row, "I" + dirs[0] + dirs[1] + "(" + units + "^4)", this.I1[s]);
+				sink.setResult(row, "I" + dirs[2] + dirs[3] + "(" + units + "^4)", this.I2[s]);
+				sink.setResult(row, "Z" + dirs[0] + dirs[1] + "(" + units + "³)", this.Z1[s]);
+				sink.setResult(row, "Z" + dirs[2] + dirs[3] + "(" + units + "³)", this.Z2[s]);
+				sink.setResult(row, "R" + dirs[0] + dirs[1] + "(" + units + ")", this.maxRad2[s]);
+				sink.setResult(row, "R" + dirs[2] + dirs[3] + "(" + units + ")", this.maxRad1[s]);
+				sink.setResult(row, "D" + dirs[0] + dirs[1] + "(" + units + ")", this.principalDiameter[s]);
+				sink.setResult(row, "D" + dirs[2] + dirs[3] + "(" + units + ")", this.secondaryDiameter[s]);
 			}
 		}
-		rt.show("Results");
+		sink.updateTable();
 
 		if (this.doAxes || this.doCentroids) {
 			if (!this.doCopy) {
@@ -545,7 +547,8 @@ public class SliceGeometry implements PlugIn, DialogListener {
 	}
 
 	/**
-	 * Calculate the centroid of each slice
+	 * Calculate the centroid of each slice, collecting the slices' moments in
+	 * a single parallel pass over the stack
 	 *
 	 * @param imp
 	 *            Input image
@@ -564,47 +567,35 @@ public class SliceGeometry implements PlugIn, DialogListener {
 		this.integratedDensity = new double[this.al];
 		this.meanDensity = new double[this.al];
 		this.weightedCentroids = new double[2][this.al];
+		this.sliceMoments = new SliceMoments[this.al];
 		final double pixelArea = this.vW * this.vH;
-		final int roiXEnd = r.x + r.width;
-		final int roiYEnd = r.y + r.height;
-		for (int s = this.startSlice; s <= this.endSlice; s++) {
-			IJ.showStatus("Calculating centroids...");
-			IJ.showProgress(s - this.startSlice, this.endSlice);
-			double sumX = 0;
-			double sumY = 0;
-			int count = 0;
-			double sumAreaFractions = 0;
-			double sumD = 0;
-			double wSumX = 0;
-			double wSumY = 0;
-			final ImageProcessor ip = stack.getProcessor(s);
-			for (int y = r.y; y < roiYEnd; y++) {
-				for (int x = r.x; x < roiXEnd; x++) {
-					final double pixel = ip.get(x, y);
-					if (pixel >= min && pixel <= max) {
-						count++;
-						final double areaFraction = doPartialVolume ? filledFraction(
-								pixel) : 1;
-						sumAreaFractions += areaFraction;
-						sumX += areaFraction * x;
-						sumY += areaFraction * y;
-						final double wP = pixel * this.m + this.c;
-						sumD += wP;
-						wSumX += x * wP;
-						wSumY += y * wP;
+		IJ.showStatus("Calculating centroids...");
+		final AtomicInteger ai = new AtomicInteger(this.startSlice);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int s = ai.getAndIncrement(); s <= endSlice; s = ai.getAndIncrement()) {
+						sliceMoments[s] = new SliceMoments(stack.getProcessor(s), r, min, max, m, c,
+								doPartialVolume, background, foreground);
 					}
 				}
-			}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		for (int s = this.startSlice; s <= this.endSlice; s++) {
+			final SliceMoments sm = this.sliceMoments[s];
+			final int count = sm.count;
 			this.cslice[s] = count;
 			if (count > 0) {
 				// if !doPatialVolume then sumAreaFractions = count
-				this.sliceCentroids[0][s] = sumX * this.vW / sumAreaFractions;
-				this.sliceCentroids[1][s] = sumY * this.vH / sumAreaFractions;
-				this.cortArea[s] = sumAreaFractions * pixelArea;
-				this.integratedDensity[s] = sumD;
-				this.meanDensity[s] = sumD / count;
-				this.weightedCentroids[0][s] = wSumX * this.vW / sumD;
-				this.weightedCentroids[1][s] = wSumY * this.vH / sumD;
+				this.sliceCentroids[0][s] = sm.sumX * this.vW / sm.sumAreaFractions;
+				this.sliceCentroids[1][s] = sm.sumY * this.vH / sm.sumAreaFractions;
+				this.cortArea[s] = sm.sumAreaFractions * pixelArea;
+				this.integratedDensity[s] = sm.sumD;
+				this.meanDensity[s] = sm.sumD / count;
+				this.weightedCentroids[0][s] = sm.wSumX * this.vW / sm.sumD;
+				this.weightedCentroids[1][s] = sm.wSumY * this.vH / sm.sumD;
 				cstack += count;
 				this.emptySlices[s] = false;
 			} else {
@@ -620,70 +611,22 @@ public class SliceGeometry implements PlugIn, DialogListener {
 
 	/**
 	 * Calculate second moments of area, length and angle of principal axes
-	 *
-	 * @param imp
+	 * from the moments collected by
+	 * {@link #calculateCentroids(ImagePlus, double, double)}
 	 */
-	private void calculateMoments(final ImagePlus imp, final double min, final double max) {
-		final ImageStack stack = imp.getImageStack();
-		final Rectangle r = stack.getRoi();
-		// START OF Ix AND Iy CALCULATION
-		// this.Sx = new double[this.al];
-		// this.Sy = new double[this.al];
-		// this.Sxx = new double[this.al];
-		// this.Syy = new double[this.al];
-		// this.Sxy = new double[this.al];
-		// this.Myy = new double[this.al];
-		// this.Mxx = new double[this.al];
-		// this.Mxy = new double[this.al];
+	private void calculateMoments() {
 		this.theta = new double[this.al];
+		IJ.showStatus("Calculating Ix and Iy...");
 		for (int s = this.startSlice; s <= this.endSlice; s++) {
-			IJ.showStatus("Calculating Ix and Iy...");
-			IJ.showProgress(s, this.endSlice);
-			double sxs = 0;
-			double sys = 0;
-			double sxxs = 0;
-			double syys = 0;
-			double sxys = 0;
-			final int roiXEnd = r.x + r.width;
-			final int roiYEnd = r.y + r.height;
 			if (!this.emptySlices[s]) {
-				final ImageProcessor ip = stack.getProcessor(s);
-				double sumAreaFractions = 0;
-				for (int y = r.y; y < roiYEnd; y++) {
-					for (int x = r.x; x < roiXEnd; x++) {
-						final double pixel = ip.get(x, y);
-						if (pixel >= min && pixel <= max) {
-							final double xVw = x * vW;
-							final double yVh = y * vH;
-							final double areaFraction = doPartialVolume ? filledFraction(
-									pixel)
-									: 1;
-							sumAreaFractions += areaFraction;
-							// sum of distances from axis
-							sxs += xVw * areaFraction;
-							sys += yVh * areaFraction;
-							// sum of squares of distances from axis
-							sxxs += xVw * xVw * areaFraction;
-							syys += yVh * yVh * areaFraction;
-							sxys += xVw * yVh * areaFraction;
-						}
-					}
-				}
-				// this.Sx[s] = sxs;
-				// this.Sy[s] = sys;
-				// this.Sxx[s] = sxxs;
-				// this.Syy[s] = syys;
-				// this.Sxy[s] = sxys;
-				// mean should be OK as already corrected for partial pixel area
-				double Myys = sxxs - (sxs * sxs / sumAreaFractions)
-				// here need to adjust for area fraction of each pixel
-				// sumAreaFractions = cslice[s] if !doPartialVolume, see above
-						+ sumAreaFractions * vW * vW / 12;
-				// this.cslice[]/12 is for each pixel's own moment
-				double Mxxs = syys - (sys * sys / sumAreaFractions)
-						+ sumAreaFractions * vH * vH / 12;
-				double Mxys = sxys - (sxs * sys / sumAreaFractions)
-						+ sumAreaFractions * vH * vW / 12;
+				final SliceMoments sm = this.sliceMoments[s];
+				final double sumAreaFractions = sm.sumAreaFractions;
+				final double[] central = sm.centralMoments(vW, vH);
+				// sumAreaFractions = cslice[s] if !doPartialVolume
+				// sumAreaFractions/12 is for each pixel's own moment
+				final double Myys = central[0] + sumAreaFractions * vW * vW / 12;
+				final double Mxxs = central[1] + sumAreaFractions * vH * vH / 12;
+				final double Mxys = central[2] + sumAreaFractions * vH * vW / 12;
 				if (Mxys == 0)
 					this.theta[s] = 0;
 				else {
@@ -695,7 +638,7 @@ public class SliceGeometry implements PlugIn, DialogListener {
 			}
 		}
 		// Get I and Z around the principal axes
-		final double[][] result = calculateAngleMoments(imp, min, max, this.theta);
+		final double[][] result = calculateAngleMoments(this.theta);
 		this.Imax = result[0];
 		this.Imin = result[1];
 		this.Ipm = result[2];
@@ -708,32 +651,33 @@ public class SliceGeometry implements PlugIn, DialogListener {
 		this.Zpol = result[9];
 
 		// optionally get I and Z around some user-defined axes
-		if (doOriented && orienteer != null) {
-			final double angle = orienteer.getOrientation();
+		if (doOriented && orientation != null) {
+			final double angle = orientation.getTheta();
 			final double[] angles = new double[this.al];
 			for (int i = 0; i < al; i++) {
 				angles[i] = angle;
 			}
-			final double[][] result2 = calculateAngleMoments(imp, min, max, angles);
+			final double[][] result2 = calculateAngleMoments(angles);
 			this.I1 = result2[0];
 			this.I2 = result2[1];
-			// this.Ip = result2[2];
-			// this.r1 = result2[3];
-			// this.r2 = result2[4];
 			this.maxRad2 = result2[5];
 			this.maxRad1 = result2[6];
 			this.Z1 = result2[7];
 			this.Z2 = result2[8];
-			// this.Zp = result2[9];
 		}
 	}
 
-	private double[][] calculateAngleMoments(final ImagePlus imp, final double min, final double max,
-			final double[] angles) {
-		final ImageStack stack = imp.getImageStack();
-		final Rectangle r = stack.getRoi();
-		// END OF Ix and Iy CALCULATION
-		// START OF Imax AND Imin CALCULATION
+	/**
+	 * Calculate second moments of area and section moduli around axes at an
+	 * angle through each slice's centroid. Moments are rotated from the
+	 * slice's central moments, and the extreme radii found from the slice's
+	 * row ends, so the pixels are not revisited.
+	 *
+	 * @param angles
+	 *            angle of the axes in each slice
+	 * @return {I1, I2, Ip, r1, r2, maxRad2, maxRad1, Z1, Z2, Zp}
+	 */
+	private double[][] calculateAngleMoments(final double[] angles) {
 		final double[] I1 = new double[this.al];
 		final double[] I2 = new double[this.al];
 		final double[] Ip = new double[this.al];
@@ -741,97 +685,63 @@ public class SliceGeometry implements PlugIn, DialogListener {
 		final double[] r2 = new double[this.al];
 		final double[] maxRad2 = new double[this.al];
 		final double[] maxRad1 = new double[this.al];
-		final double[] maxRadC = new double[this.al];
 		final double[] Z1 = new double[this.al];
 		final double[] Z2 = new double[this.al];
 		final double[] Zp = new double[this.al];
-		for (int s = this.startSlice; s <= this.endSlice; s++) {
-			IJ.showStatus("Calculating Imin and Imax...");
-			IJ.showProgress(s, this.endSlice);
-			if (!this.emptySlices[s]) {
-				final ImageProcessor ip = stack.getProcessor(s);
-				double sxs = 0;
-				double sys = 0;
-				double sxxs = 0;
-				double syys = 0;
-				double sxys = 0;
-				double maxRadMinS = 0;
-				double maxRadMaxS = 0;
-				double maxRadCentreS = 0;
-				final double cosTheta = Math.cos(angles[s]);
-				final double sinTheta = Math.sin(angles[s]);
-				final int roiYEnd = r.y + r.height;
-				final int roiXEnd = r.x + r.width;
-				final double xC = this.sliceCentroids[0][s];
-				final double yC = this.sliceCentroids[1][s];
-				final double cS = this.cslice[s];
-				double sumAreaFractions = 0;
-				for (int y = r.y; y < roiYEnd; y++) {
-					final double yYc = y * vH - yC;
-					for (int x = r.x; x < roiXEnd; x++) {
-						final double pixel = ip.get(x, y);
-						if (pixel >= min && pixel <= max) {
-							final double areaFraction = doPartialVolume ? filledFraction(
-									pixel)
-									: 1;
-							sumAreaFractions += areaFraction;
-							final double xXc = x * vW - xC;
-							final double xCosTheta = x * vW * cosTheta;
-							final double yCosTheta = y * vH * cosTheta;
-							final double xSinTheta = x * vW * sinTheta;
-							final double ySinTheta = y * vH * sinTheta;
-							sxs += areaFraction * (xCosTheta + ySinTheta);
-							sys += areaFraction * (yCosTheta - xSinTheta);
-							sxxs += areaFraction
-									* ((xCosTheta + ySinTheta) * (xCosTheta + ySinTheta));
-							syys += areaFraction
-									* ((yCosTheta - xSinTheta) * (yCosTheta - xSinTheta));
-							sxys += areaFraction
-									* ((yCosTheta - xSinTheta) * (xCosTheta + ySinTheta));
-							maxRadMinS = Math.max(maxRadMinS,
-									Math.abs(xXc * cosTheta + yYc * sinTheta));
-							maxRadMaxS = Math.max(maxRadMaxS,
-									Math.abs(yYc * cosTheta - xXc * sinTheta));
-							maxRadCentreS = Math.max(maxRadCentreS,
-									Math.sqrt(xXc * xXc + yYc * yYc));
+		IJ.showStatus("Calculating Imin and Imax...");
+		final AtomicInteger ai = new AtomicInteger(this.startSlice);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int s = ai.getAndIncrement(); s <= endSlice; s = ai.getAndIncrement()) {
+						if (emptySlices[s]) {
+							I1[s] = Double.NaN;
+							I2[s] = Double.NaN;
+							Ip[s] = Double.NaN;
+							r1[s] = Double.NaN;
+							r2[s] = Double.NaN;
+							maxRad2[s] = Double.NaN;
+							maxRad1[s] = Double.NaN;
+							Z1[s] = Double.NaN;
+							Z2[s] = Double.NaN;
+							Zp[s] = Double.NaN;
+							continue;
 						}
+						final SliceMoments sm = sliceMoments[s];
+						final double cosTheta = Math.cos(angles[s]);
+						final double sinTheta = Math.sin(angles[s]);
+						final double[] central = sm.centralMoments(vW, vH);
+						final double cxx = central[0];
+						final double cyy = central[1];
+						final double cxy = central[2];
+						final double[] radii = sm.maxRadii(sliceCentroids[0][s], sliceCentroids[1][s], cosTheta,
+								sinTheta, vW, vH);
+						maxRad2[s] = radii[0];
+						maxRad1[s] = radii[1];
+						final double cS = cslice[s];
+						final double pixelMoments = sm.sumAreaFractions * vW * vH
+								* (cosTheta * cosTheta + sinTheta * sinTheta) / 12;
+						// squared distances from the rotated axes
+						final double sxxs = cosTheta * cosTheta * cxx + 2 * cosTheta * sinTheta * cxy
+								+ sinTheta * sinTheta * cyy;
+						final double syys = sinTheta * sinTheta * cxx - 2 * cosTheta * sinTheta * cxy
+								+ cosTheta * cosTheta * cyy;
+						final double sxys = cosTheta * sinTheta * (cyy - cxx)
+								+ (cosTheta * cosTheta - sinTheta * sinTheta) * cxy;
+						I1[s] = vW * vH * (sxxs + pixelMoments);
+						I2[s] = vW * vH * (syys + pixelMoments);
+						Ip[s] = sxys + pixelMoments;
+						r1[s] = Math.sqrt(I2[s] / (cS * vW * vH * vW * vH));
+						r2[s] = Math.sqrt(I1[s] / (cS * vW * vH * vW * vH));
+						Z1[s] = I1[s] / maxRad2[s];
+						Z2[s] = I2[s] / maxRad1[s];
+						Zp[s] = (I1[s] + I2[s]) / radii[2];
 					}
 				}
-				// this.Sx[s] = sxs;
-				// this.Sy[s] = sys;
-				// this.Sxx[s] = sxxs;
-				// this.Syy[s] = syys;
-				// this.Sxy[s] = sxys;
-				maxRad2[s] = maxRadMinS;
-				maxRad1[s] = maxRadMaxS;
-				maxRadC[s] = maxRadCentreS;
-				final double pixelMoments = sumAreaFractions * vW * vH
-						* (cosTheta * cosTheta + sinTheta * sinTheta) / 12;
-				I1[s] = vW
-						* vH
-						* (sxxs - (sxs * sxs / sumAreaFractions) + pixelMoments);
-				I2[s] = vW
-						* vH
-						* (syys - (sys * sys / sumAreaFractions) + pixelMoments);
-				Ip[s] = sxys - (sys * sxs / sumAreaFractions) + pixelMoments;
-				r1[s] = Math.sqrt(I2[s] / (cS * vW * vH * vW * vH));
-				r2[s] = Math.sqrt(I1[s] / (cS * vW * vH * vW * vH));
-				Z1[s] = I1[s] / maxRad2[s];
-				Z2[s] = I2[s] / maxRad1[s];
-				Zp[s] = (I1[s] + I2[s]) / maxRadC[s];
-			} else {
-				I1[s] = Double.NaN;
-				I2[s] = Double.NaN;
-				Ip[s] = Double.NaN;
-				r1[s] = Double.NaN;
-				r2[s] = Double.NaN;
-				maxRad2[s] = Double.NaN;
-				maxRad1[s] = Double.NaN;
-				Z1[s] = Double.NaN;
-				Z2[s] = Double.NaN;
-				Zp[s] = Double.NaN;
-			}
+			});
 		}
+		Multithreader.startAndJoin(threads);
 
 		final double[][] result = { I1, I2, Ip, r1, r2, maxRad2, maxRad1, Z1, Z2, Zp, };
 
@@ -840,37 +750,96 @@ public class SliceGeometry implements PlugIn, DialogListener {
 
 	/**
 	 * Calculate 3D Local Thickness and determine thickness statistics for the
-	 * slice
-	 *
+	 * slice.
 	 */
 	private void calculateThickness3D(final ImagePlus imp, final double min, final double max) {
-		this.maxCortThick3D = new double[this.al];
-		this.meanCortThick3D = new double[this.al];
-		this.stdevCortThick3D = new double[this.al];
-		final Rectangle r = imp.getProcessor().getRoi();
-		final Thickness th = new Thickness();
-
-		// convert to binary
-		final ImagePlus binaryImp = convertToBinary(imp, min, max);
-
-		final ImagePlus thickImp = th.getLocalThickness(binaryImp, false, doMask);
-
+		final double[][] stats = thickness3D(imp, min, max, this.startSlice, this.endSlice, this.doMask, true);
+		this.maxCortThick3D = stats[0];
+		this.meanCortThick3D = stats[1];
+		this.stdevCortThick3D = stats[2];
 		for (int s = this.startSlice; s <= this.endSlice; s++) {
 			if (this.emptySlices[s]) {
 				this.maxCortThick3D[s] = Double.NaN;
 				this.meanCortThick3D[s] = Double.NaN;
 				this.stdevCortThick3D[s] = Double.NaN;
-				continue;
 			}
-			final FloatProcessor ip = (FloatProcessor) thickImp.getStack().getProcessor(s);
+		}
+	}
+
+	/**
+	 * Calculate 3D Local Thickness and its statistics within the ROI of each
+	 * slice in a range. If cropped, local thickness is calculated only in the
+	 * ROI and slice range, plus a margin wide enough that the results there
+	 * are the same as for the whole stack.
+	 *
+	 * @param crop
+	 *            false to calculate local thickness on the whole stack
+	 * @return maximum, mean and standard deviation of thickness, indexed by
+	 *         slice number
+	 */
+	static double[][] thickness3D(final ImagePlus imp, final double min, final double max, final int startSlice,
+			final int endSlice, final boolean doMask, final boolean crop) {
+		final Rectangle r = imp.getProcessor().getRoi();
+		final ImageStack stack = imp.getImageStack();
+		final int w = stack.getWidth();
+		final int h = stack.getHeight();
+		final int d = stack.getSize();
+		final double[] maxThick = new double[d + 1];
+		final double[] meanThick = new double[d + 1];
+		final double[] stdevThick = new double[d + 1];
+		final int margin = crop ? thicknessMargin(stack, r, min, max, startSlice, endSlice)
+				: Math.max(w, Math.max(h, d));
+
+		// Crop, with a background frame on the sides within the stack so that
+		// distances beyond the margin can only be underestimated
+		final int x0 = Math.max(0, r.x - margin);
+		final int x1 = Math.min(w, r.x + r.width + margin);
+		final int y0 = Math.max(0, r.y - margin);
+		final int y1 = Math.min(h, r.y + r.height + margin);
+		final int z0 = Math.max(1, startSlice - margin);
+		final int z1 = Math.min(d, endSlice + margin);
+		final int left = x0 > 0 ? 1 : 0;
+		final int top = y0 > 0 ? 1 : 0;
+		final int front = z0 > 1 ? 1 : 0;
+		final int cw = x1 - x0 + left + (x1 < w ? 1 : 0);
+		final int ch = y1 - y0 + top + (y1 < h ? 1 : 0);
+		final ImageStack binaryStack = new ImageStack(cw, ch);
+		if (front > 0)
+			binaryStack.addSlice(null, new ByteProcessor(cw, ch));
+		final double[] row = new double[x1 - x0];
+		for (int z = z0; z <= z1; z++) {
+			final ImageProcessor ip = stack.getProcessor(z);
+			final Object pixels = ip.getPixels();
+			final byte[] binary = new byte[cw * ch];
+			for (int y = y0; y < y1; y++) {
+				SliceMoments.readRow(ip, pixels, y * w + x0, row.length, row);
+				final int offset = (y - y0 + top) * cw + left;
+				for (int i = 0; i < row.length; i++)
+					if (row[i] >= min && row[i] <= max)
+						binary[offset + i] = (byte) 255;
+			}
+			binaryStack.addSlice(stack.getSliceLabel(z), binary);
+		}
+		if (z1 < d)
+			binaryStack.addSlice(null, new ByteProcessor(cw, ch));
+		final ImagePlus binaryImp = new ImagePlus("binaryImp", binaryStack);
+		binaryImp.setCalibration(imp.getCalibration());
+
+		final Thickness th = new Thickness();
+		final ImagePlus thickImp = th.getLocalThickness(binaryImp, false, doMask);
+		final ImageStack thickStack = thickImp.getImageStack();
+
+		for (int s = startSlice; s <= endSlice; s++) {
+			final float[] thick = (float[]) thickStack.getPixels(s - z0 + front + 1);
 			double sumPix = 0;
 			double sliceMax = 0;
 			double pixCount = 0;
 			final int roiXEnd = r.x + r.width;
 			final int roiYEnd = r.y + r.height;
 			for (int y = r.y; y < roiYEnd; y++) {
+				final int offset = (y - y0 + top) * cw + left - x0;
 				for (int x = r.x; x < roiXEnd; x++) {
-					final float pixel = Float.intBitsToFloat(ip.get(x, y));
+					final float pixel = thick[offset + x];
 					if (pixel > 0) {
 						pixCount++;
 						sumPix += pixel;
@@ -879,177 +848,229 @@ public class SliceGeometry implements PlugIn, DialogListener {
 				}
 			}
 			final double sliceMean = sumPix / pixCount;
-			this.meanCortThick3D[s] = sliceMean;
-			this.maxCortThick3D[s] = sliceMax;
+			meanThick[s] = sliceMean;
+			maxThick[s] = sliceMax;
 
 			double sumSquares = 0;
 			for (int y = r.y; y < roiYEnd; y++) {
+				final int offset = (y - y0 + top) * cw + left - x0;
 				for (int x = r.x; x < roiXEnd; x++) {
-					final float pixel = Float.intBitsToFloat(ip.get(x, y));
+					final float pixel = thick[offset + x];
 					if (pixel > 0) {
-						final double d = sliceMean - pixel;
-						sumSquares += d * d;
+						final double dev = sliceMean - pixel;
+						sumSquares += dev * dev;
 					}
 				}
 			}
-			this.stdevCortThick3D[s] = Math.sqrt(sumSquares / pixCount);
+			stdevThick[s] = Math.sqrt(sumSquares / pixCount);
 		}
-		return;
+		final double[][] stats = { maxThick, meanThick, stdevThick };
+		return stats;
 	}
 
 	/**
-	 * Calculate thickness on individual slices using local thickness
+	 * Find how far outside the ROI and slice range 3D local thickness has to
+	 * be calculated for the results inside to be correct.
 	 *
-	 * @param imp
+	 * <p>
+	 * A sphere centred on a pixel has a radius no larger than the pixel's
+	 * distance to background within its slice, so the largest in-slice
+	 * distance of the pixels near enough to the region for their sphere to
+	 * reach it bounds the radius of any sphere that matters. The spheres'
+	 * centres then lie within that radius of the region, and the background
+	 * which sets their radius within twice it. The region is padded by 2
+	 * pixels for the clean-up of the map's boundary.
+	 * </p>
+	 *
+	 * <p>
+	 * Distance maps are made for the slices in the range. Outside it, a
+	 * slice's distances are first bounded by those to background along its
+	 * rows, and a map is made only if that bound could both reach the range
+	 * and exceed the radius found inside it.
+	 * </p>
+	 *
+	 * @return margin in pixels
 	 */
-	private void calculateThickness2D(final ImagePlus imp, final double min, final double max) {
-		this.maxCortThick2D = new double[this.al];
-		this.meanCortThick2D = new double[this.al];
-		this.stdevCortThick2D = new double[this.al];
-
-		final int nThreads = Runtime.getRuntime().availableProcessors();
-		final SliceThread[] sliceThread = new SliceThread[nThreads];
-		for (int thread = 0; thread < nThreads; thread++) {
-			sliceThread[thread] = new SliceThread(thread, nThreads, imp, min, max, this.meanCortThick2D,
-					this.maxCortThick2D, this.stdevCortThick2D, this.startSlice, this.endSlice, this.emptySlices);
-			sliceThread[thread].start();
+	private static int thicknessMargin(final ImageStack stack, final Rectangle r, final double min,
+			final double max, final int startSlice, final int endSlice) {
+		final int xMin = r.x - 2;
+		final int xMax = r.x + r.width + 1;
+		final int yMin = r.y - 2;
+		final int yMax = r.y + r.height + 1;
+		final int zMin = startSlice - 2;
+		final int zMax = endSlice + 2;
+		final int w = stack.getWidth();
+		final int h = stack.getHeight();
+		final int d = stack.getSize();
+		// no slice's distances exceed its diagonal
+		final int reach = (int) Math.ceil(Math.sqrt(w * w + h * h)) + 1;
+		final int first = Math.max(1, zMin - reach);
+		final int last = Math.min(d, zMax + reach);
+		final double[] sliceRadius = new double[d + 1];
+		final double[] rowBound = new double[d + 1];
+		final AtomicInteger ai = new AtomicInteger(first);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final SliceThickness sliceThickness = new SliceThickness();
+					final double[] row = new double[w];
+					for (int z = ai.getAndIncrement(); z <= last; z = ai.getAndIncrement()) {
+						if (z >= zMin && z <= zMax)
+							sliceRadius[z] = sliceRadius(sliceThickness, stack, z, min, max, xMin, xMax, yMin,
+									yMax, 0);
+						else
+							rowBound[z] = rowDistanceBound(stack.getProcessor(z), row, min, max);
+					}
+				}
+			});
 		}
-		try {
-			for (int thread = 0; thread < nThreads; thread++) {
-				sliceThread[thread].join();
-			}
-		} catch (final InterruptedException ie) {
-			IJ.error("A thread was interrupted.");
+		Multithreader.startAndJoin(threads);
+		double inside = 0;
+		for (int z = Math.max(1, zMin); z <= Math.min(d, zMax); z++)
+			inside = Math.max(inside, sliceRadius[z]);
+		final double radiusInside = inside;
+
+		final AtomicInteger an = new AtomicInteger(first);
+		threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final SliceThickness sliceThickness = new SliceThickness();
+					for (int z = an.getAndIncrement(); z <= last; z = an.getAndIncrement()) {
+						if (z >= zMin && z <= zMax)
+							continue;
+						final int dz = Math.max(zMin - z, z - zMax);
+						if (rowBound[z] <= radiusInside || rowBound[z] + 1 < dz)
+							continue;
+						sliceRadius[z] = sliceRadius(sliceThickness, stack, z, min, max, xMin, xMax, yMin, yMax,
+								dz);
+					}
+				}
+			});
 		}
-		return;
+		Multithreader.startAndJoin(threads);
+		double radius = 0;
+		for (int z = 1; z <= d; z++)
+			radius = Math.max(radius, sliceRadius[z]);
+		return (int) Math.min(Math.ceil(2 * radius) + 2, Math.max(w, Math.max(h, d)));
 	}
 
-	class SliceThread extends Thread {
-		final int thread, nThreads, width, height, startSlice, endSlice;
-
-		double min, max;
-
-		double[] meanThick, maxThick, stdevThick;
-
-		boolean[] emptySlices;
-
-		final ImagePlus impT;
-
-		public SliceThread(final int thread, final int nThreads, final ImagePlus imp, final double min,
-				final double max, final double[] meanThick, final double[] maxThick, final double[] stdevThick,
-				final int startSlice, final int endSlice, final boolean[] emptySlices) {
-			this.impT = imp;
-			this.min = min;
-			this.max = max;
-			this.width = this.impT.getWidth();
-			this.height = this.impT.getHeight();
-			this.thread = thread;
-			this.nThreads = nThreads;
-			this.meanThick = meanThick;
-			this.maxThick = maxThick;
-			this.stdevThick = stdevThick;
-			this.startSlice = startSlice;
-			this.endSlice = endSlice;
-			this.emptySlices = emptySlices;
-		}
-
-		@Override
-		public void run() {
-			for (int s = this.thread + this.startSlice; s <= this.endSlice; s += this.nThreads) {
-				if (this.emptySlices[s]) {
-					this.meanThick[s] = Double.NaN;
-					this.maxThick[s] = Double.NaN;
-					this.stdevThick[s] = Double.NaN;
+	/**
+	 * Largest in-slice distance to background among the foreground pixels of
+	 * a slice whose sphere could reach the region
+	 */
+	private static double sliceRadius(final SliceThickness sliceThickness, final ImageStack stack, final int z,
+			final double min, final double max, final int xMin, final int xMax, final int yMin, final int yMax,
+			final int dz) {
+		final int w = stack.getWidth();
+		final int h = stack.getHeight();
+		final float[] map = sliceThickness.getDistanceMap(stack.getProcessor(z), min, max, false);
+		double radius = 0;
+		for (int y = 0; y < h; y++) {
+			final int dy = Math.max(0, Math.max(yMin - y, y - yMax));
+			for (int x = 0; x < w; x++) {
+				final float dist = map[y * w + x];
+				if (dist <= radius)
 					continue;
-				}
-				final ImageProcessor ip = impT.getImageStack().getProcessor(s);
-				final ImagePlus sliceImp = new ImagePlus(" " + s, ip);
-				final Rectangle r = ip.getRoi();
-				// binarise
-				final ImagePlus binaryImp = convertToBinary(sliceImp, min, max);
-				final Calibration cal1 = impT.getCalibration();
-				binaryImp.setCalibration(cal1);
-				// calculate thickness
-				final Thickness th = new Thickness();
-				final ImagePlus thickImp = th.getLocalThickness(binaryImp, false, doMask);
-				final FloatProcessor thickIp = (FloatProcessor) thickImp.getProcessor();
-				double sumPix = 0;
-				double sliceMax = 0;
-				double pixCount = 0;
-				final double roiXEnd = r.x + r.width;
-				final double roiYEnd = r.y + r.height;
-				for (int y = r.y; y < roiYEnd; y++) {
-					for (int x = r.x; x < roiXEnd; x++) {
-						final float pixel = Float.intBitsToFloat(thickIp.get(x, y));
-						if (pixel > 0) {
-							pixCount++;
-							sumPix += pixel;
-							sliceMax = Math.max(sliceMax, pixel);
-						}
-					}
-				}
-				final double sliceMean = sumPix / pixCount;
-				this.meanThick[s] = sliceMean;
-				this.maxThick[s] = sliceMax;
-
-				double sumSquares = 0;
-				for (int y = r.y; y < roiYEnd; y++) {
-					for (int x = r.x; x < roiXEnd; x++) {
-						final float pixel = Float.intBitsToFloat(thickIp.get(x, y));
-						if (pixel > 0) {
-							final double d = sliceMean - pixel;
-							sumSquares += d * d;
-						}
-					}
-				}
-				this.stdevThick[s] = Math.sqrt(sumSquares / pixCount);
+				final int dx = Math.max(0, Math.max(xMin - x, x - xMax));
+				// spheres reach up to a pixel beyond their radius
+				if (dist + 1 >= Math.sqrt(dx * dx + dy * dy + dz * dz))
+					radius = dist;
 			}
-			return;
 		}
+		return radius;
 	}
 
-	private ImagePlus convertToBinary(final ImagePlus imp, final double min, final double max) {
-		final int w = imp.getWidth();
-		final int h = imp.getHeight();
-		final int d = imp.getStackSize();
-		final ImageStack sourceStack = imp.getImageStack();
-		final ImageStack binaryStack = new ImageStack(w, h);
-		for (int s = 1; s <= d; s++) {
-			final ImageProcessor sliceIp = sourceStack.getProcessor(s);
-			final ByteProcessor binaryIp = new ByteProcessor(w, h);
-			for (int y = 0; y < h; y++) {
-				for (int x = 0; x < w; x++) {
-					if (sliceIp.get(x, y) >= min && sliceIp.get(x, y) <= max) {
-						binaryIp.set(x, y, 255);
-					} else {
-						binaryIp.set(x, y, 0);
-					}
+	/**
+	 * Upper bound on the in-slice distance from a foreground pixel to
+	 * background: its distance to background along its row, or infinity if a
+	 * foreground row has none
+	 */
+	private static double rowDistanceBound(final ImageProcessor ip, final double[] row, final double min,
+			final double max) {
+		final int w = ip.getWidth();
+		final int h = ip.getHeight();
+		final Object pixels = ip.getPixels();
+		int bound = 0;
+		for (int y = 0; y < h; y++) {
+			SliceMoments.readRow(ip, pixels, y * w, w, row);
+			int start = -1;
+			for (int x = 0; x <= w; x++) {
+				final boolean foreground = x < w && row[x] >= min && row[x] <= max;
+				if (foreground && start < 0)
+					start = x;
+				else if (!foreground && start >= 0) {
+					// run of foreground from start to x - 1
+					final int length = x - start;
+					if (start == 0 && x == w)
+						return Double.POSITIVE_INFINITY;
+					bound = Math.max(bound, start == 0 || x == w ? length : (length + 1) / 2);
+					start = -1;
 				}
 			}
-			binaryStack.addSlice(sourceStack.getSliceLabel(s), binaryIp);
 		}
-		final ImagePlus binaryImp = new ImagePlus("binaryImp", binaryStack);
-		binaryImp.setCalibration(imp.getCalibration());
-		return binaryImp;
+		return bound;
 	}
 
 	/**
-	 * Calculate the proportion of a pixel that contains foreground, assuming a
-	 * two-phase image (foreground and background) and linear relationship
-	 * between pixel value and physical density. If the pixel value is greater
-	 * than the foreground value, this method will return 1, and if lower than
-	 * the background value, returns 0.
-	 * 
-	 * @param pixel
-	 *            the input pixel value
-	 * @return fraction of pixel 'size' occupied by foreground
+	 * Calculate thickness on individual slices using local thickness. Each
+	 * thread measures whole slices, reusing its buffers from slice to slice.
+	 *
+	 * @param imp
 	 */
-	private double filledFraction(double pixel) {
-		if (pixel > this.foreground)
-			return 1;
-		if (pixel < this.background)
-			return 0;
-		return (pixel - this.background) / (this.foreground - this.background);
+	private void calculateThickness2D(final ImagePlus imp, final double min, final double max) {
+		this.maxCortThick2D = new double[this.al];
+		this.meanCortThick2D = new double[this.al];
+		this.stdevCortThick2D = new double[this.al];
+		final double ratio = vW > vH ? vW / vH : vH / vW;
+		if (ratio > 1 + 1E-3)
+			IJ.log("Warning: pixels are anisotropic. Local thickness results will be inaccurate");
+
+		final ImageStack stack = imp.getImageStack();
+		final AtomicInteger ai = new AtomicInteger(this.startSlice);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final SliceThickness sliceThickness = new SliceThickness();
+					for (int s = ai.getAndIncrement(); s <= endSlice; s = ai.getAndIncrement()) {
+						if (emptySlices[s]) {
+							meanCortThick2D[s] = Double.NaN;
+							maxCortThick2D[s] = Double.NaN;
+							stdevCortThick2D[s] = Double.NaN;
+							continue;
+						}
+						final float[] thick = sliceThickness.getLocalThickness(stack.getProcessor(s), min, max,
+								false, doMask, vW);
+						double sumPix = 0;
+						double sliceMax = 0;
+						double pixCount = 0;
+						for (final float pixel : thick) {
+							if (pixel > 0) {
+								pixCount++;
+								sumPix += pixel;
+								sliceMax = Math.max(sliceMax, pixel);
+							}
+						}
+						final double sliceMean = sumPix / pixCount;
+						meanCortThick2D[s] = sliceMean;
+						maxCortThick2D[s] = sliceMax;
+
+						double sumSquares = 0;
+						for (final float pixel : thick) {
+							if (pixel > 0) {
+								final double d = sliceMean - pixel;
+								sumSquares += d * d;
+							}
+						}
+						stdevCortThick2D[s] = Math.sqrt(sumSquares / pixCount);
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return;
 	}
 
 	private void roiMeasurements(final ImagePlus imp, final double min, final double max) {
@@ -1086,13 +1107,13 @@ public class SliceGeometry implements PlugIn, DialogListener {
 			this.feretMax[s] = feretValues[0] * this.vW;
 			this.perimeter[s] = roi.getLength() * this.vW;
 			
-			if (this.doOriented && orienteer != null) {
+			if (this.doOriented && orientation != null) {
 				final double[][] points = new double[w.npoints][2];
 				for (int i = 0; i < w.npoints; i++) {
 					points[i][0] = w.xpoints[i] * this.vW;
 					points[i][1] = w.ypoints[i] * this.vH;
 				}
-				final double[] diameters = orienteer.getDiameters(points);
+				final double[] diameters = orientation.getDiameters(points);
 				this.principalDiameter[s] = diameters[0];
 				this.secondaryDiameter[s] = diameters[1];
 			}
@@ -1140,7 +1161,7 @@ public class SliceGeometry implements PlugIn, DialogListener {
 			DialogModifier.replaceUnitString(gd, "HU", "grey");
 
 		final Checkbox oriented = (Checkbox) checkboxes.get(9);
-		if (orienteer == null) {
+		if (orientation == null) {
 			oriented.setState(false);
 			oriented.setEnabled(false);
 		} else
@@ -0,0 +1,193 @@
+package org.doube.bonej;
+
+import java.awt.Rectangle;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Area, density and moments of the thresholded pixels in one slice, collected
+ * in a single pass over the slice's pixel array.
+ *
+ * <p>
+ * Sums are kept in pixel units and weighted by each pixel's area fraction, so
+ * the second moments around any axis through the centroid follow from them
+ * without revisiting the pixels. The first and last thresholded pixel of each
+ * row are kept too: distance from an axis is linear, and distance from the
+ * centroid convex, along a row, so the greatest distances of the section lie
+ * at these row ends.
+ * </p>
+ */
+class SliceMoments {
+
+	/** Number of thresholded pixels */
+	int count;
+	/** Sum of the pixels' area fractions, equal to count without compensation */
+	double sumAreaFractions;
+	double sumX;
+	double sumY;
+	double sumXX;
+	double sumYY;
+	double sumXY;
+	/** Sum of calibrated density */
+	double sumD;
+	double wSumX;
+	double wSumY;
+	/** First row of the ROI */
+	private final int y0;
+	/** First and last thresholded x of each ROI row, or -1 for empty rows */
+	private final int[] rowStart;
+	private final int[] rowEnd;
+
+	/**
+	 * Accumulate the pixels within r that are between min and max inclusive
+	 *
+	 * @param ip
+	 *            slice
+	 * @param r
+	 *            region to measure
+	 * @param min
+	 *            lowest pixel value to include
+	 * @param max
+	 *            highest pixel value to include
+	 * @param m
+	 *            slope of the density calibration
+	 * @param c
+	 *            intercept of the density calibration
+	 * @param doPartialVolume
+	 *            if true, weight pixels by their area fraction
+	 * @param background
+	 *            pixel value of an empty pixel
+	 * @param foreground
+	 *            pixel value of a full pixel
+	 */
+	SliceMoments(final ImageProcessor ip, final Rectangle r, final double min, final double max, final double m,
+			final double c, final boolean doPartialVolume, final double background, final double foreground) {
+		this.y0 = r.y;
+		this.rowStart = new int[r.height];
+		this.rowEnd = new int[r.height];
+		final Object pixels = ip.getPixels();
+		final int width = ip.getWidth();
+		final double[] row = new double[r.width];
+		for (int j = 0; j < r.height; j++) {
+			final int y = r.y + j;
+			readRow(ip, pixels, y * width + r.x, r.width, row);
+			int first = -1;
+			int last = -1;
+			double rowFractions = 0;
+			double rowX = 0;
+			double rowXX = 0;
+			for (int i = 0; i < r.width; i++) {
+				final double pixel = row[i];
+				if (pixel >= min && pixel <= max) {
+					final int x = r.x + i;
+					if (first < 0)
+						first = x;
+					last = x;
+					count++;
+					final double areaFraction = doPartialVolume ? filledFraction(pixel, background, foreground) : 1;
+					rowFractions += areaFraction;
+					rowX += areaFraction * x;
+					rowXX += areaFraction * x * x;
+					final double wP = pixel * m + c;
+					sumD += wP;
+					wSumX += x * wP;
+					wSumY += y * wP;
+				}
+			}
+			rowStart[j] = first;
+			rowEnd[j] = last;
+			sumAreaFractions += rowFractions;
+			sumX += rowX;
+			sumY += rowFractions * y;
+			sumXX += rowXX;
+			sumYY += rowFractions * y * y;
+			sumXY += rowX * y;
+		}
+	}
+
+	/* Copy n pixel values from offset into row, as ImageProcessor.get() would */
+	static void readRow(final ImageProcessor ip, final Object pixels, final int offset, final int n,
+			final double[] row) {
+		if (pixels instanceof byte[]) {
+			final byte[] p = (byte[]) pixels;
+			for (int i = 0; i < n; i++)
+				row[i] = p[offset + i] & 0xff;
+		} else if (pixels instanceof short[]) {
+			final short[] p = (short[]) pixels;
+			for (int i = 0; i < n; i++)
+				row[i] = p[offset + i] & 0xffff;
+		} else if (pixels instanceof float[]) {
+			final float[] p = (float[]) pixels;
+			for (int i = 0; i < n; i++)
+				row[i] = p[offset + i];
+		} else {
+			final int width = ip.getWidth();
+			for (int i = 0; i < n; i++)
+				row[i] = ip.get((offset + i) % width, (offset + i) / width);
+		}
+	}
+
+	/**
+	 * Calculate the proportion of a pixel that contains foreground, assuming a
+	 * two-phase image (foreground and background) and linear relationship
+	 * between pixel value and physical density. If the pixel value is greater
+	 * than the foreground value, this method will return 1, and if lower than
+	 * the background value, returns 0.
+	 *
+	 * @param pixel
+	 *            the input pixel value
+	 * @return fraction of pixel 'size' occupied by foreground
+	 */
+	static double filledFraction(final double pixel, final double background, final double foreground) {
+		if (pixel > foreground)
+			return 1;
+		if (pixel < background)
+			return 0;
+		return (pixel - background) / (foreground - background);
+	}
+
+	/**
+	 * Second moments of area around axes through the centroid parallel to the
+	 * image axes, in calibrated units, without the pixels' own moments
+	 *
+	 * @return {Cxx, Cyy, Cxy}: summed squared x and y distances from the
+	 *         centroid, and their summed product
+	 */
+	double[] centralMoments(final double vW, final double vH) {
+		final double a = sumAreaFractions;
+		final double cxx = (sumXX - sumX * sumX / a) * vW * vW;
+		final double cyy = (sumYY - sumY * sumY / a) * vH * vH;
+		final double cxy = (sumXY - sumX * sumY / a) * vW * vH;
+		return new double[] { cxx, cyy, cxy };
+	}
+
+	/**
+	 * Greatest distances of the section's pixel centres from the axes at an
+	 * angle through a point, and from the point itself
+	 *
+	 * @param xC
+	 *            calibrated x of the point
+	 * @param yC
+	 *            calibrated y of the point
+	 * @return {distance from the axis at angle, distance from the axis
+	 *         perpendicular to it, distance from the point}
+	 */
+	double[] maxRadii(final double xC, final double yC, final double cosTheta, final double sinTheta,
+			final double vW, final double vH) {
+		double maxRadMin = 0;
+		double maxRadMax = 0;
+		double maxRadCentre = 0;
+		for (int j = 0; j < rowStart.length; j++) {
+			if (rowStart[j] < 0)
+				continue;
+			final double yYc = (y0 + j) * vH - yC;
+			for (int end = 0; end < 2; end++) {
+				final double xXc = (end == 0 ? rowStart[j] : rowEnd[j]) * vW - xC;
+				maxRadMin = Math.max(maxRadMin, Math.abs(xXc * cosTheta + yYc * sinTheta));
+				maxRadMax = Math.max(maxRadMax, Math.abs(yYc * cosTheta - xXc * sinTheta));
+				maxRadCentre = Math.max(maxRadCentre, Math.sqrt(xXc * xXc + yYc * yYc));
+			}
+		}
+		return new double[] { maxRadMin, maxRadMax, maxRadCentre };
+	}
+}
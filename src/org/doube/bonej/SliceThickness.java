@@ -0,0 +1,381 @@
+package org.doube.bonej;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import ij.process.ImageProcessor;
+
+/**
+ * <p>
+ * Local thickness of a single slice, calculated by the same steps as
+ * {@link Thickness#getLocalThickness(ij.ImagePlus, boolean, boolean)} gives
+ * for a one-slice stack: Euclidean distance transform, distance ridge,
+ * painting a disc for each ridge point and cleaning up the boundary.
+ * </p>
+ * <p>
+ * The distance transform is separable, taking the row distances in two sweeps
+ * and the column distances from the lower envelope of their parabolas, and
+ * only distance ridge points are painted. Buffers and the ridge templates are
+ * kept for the next slice, so a thread which measures many slices allocates
+ * them once. Not thread safe: use an instance per thread.
+ * </p>
+ */
+class SliceThickness {
+
+	/* Neighbours in the order Thickness sums them, which sets the rounding */
+	private static final int[] NEIGHBOUR_X = { 0, 0, -1, 1, 1, 1, -1, -1 };
+	private static final int[] NEIGHBOUR_Y = { -1, 1, 0, 0, -1, 1, -1, 1 };
+	/** Squared radii below which the ridge templates are kept in arrays */
+	private static final int DENSE_TEMPLATES = 1 << 16;
+
+	private int width;
+	private int height;
+	/** 255 for pixels within the threshold, 0 otherwise */
+	private byte[] binary = new byte[0];
+	/** Distance map, then local thickness */
+	private float[] map = new float[0];
+	/** Cleaned-up local thickness */
+	private float[] cleaned = new float[0];
+	private double[] row = new double[0];
+	/** Squared distances of a column and their lower envelope */
+	private int[] column = new int[0];
+	private int[] envelope = new int[0];
+	private double[] boundaries = new double[0];
+	/** Distance ridge points and their distances */
+	private int[] ridgeIndex = new int[0];
+	private float[] ridgeR = new float[0];
+	/**
+	 * Smallest squared radius of an edge or diagonal neighbour whose disc
+	 * covers the disc of each squared radius, or 0 if not yet calculated
+	 */
+	private int[] edgeTemplate = new int[0];
+	private int[] cornerTemplate = new int[0];
+	private final Map<Integer, int[]> largeTemplates = new HashMap<Integer, int[]>();
+
+	/**
+	 * Calculate the local thickness of the pixels of a slice within a
+	 * threshold
+	 *
+	 * @param ip
+	 *            slice
+	 * @param min
+	 *            lowest pixel value of the foreground
+	 * @param max
+	 *            highest pixel value of the foreground
+	 * @param inv
+	 *            false for the thickness of the foreground and true for the
+	 *            thickness of the background
+	 * @param doMask
+	 *            true to trim the thickness map to the measured phase
+	 * @param pixelWidth
+	 *            thickness of a pixel
+	 * @return local thickness map. The array is reused by the next call.
+	 */
+	float[] getLocalThickness(final ImageProcessor ip, final double min, final double max, final boolean inv,
+			final boolean doMask, final double pixelWidth) {
+		threshold(ip, min, max);
+		distanceMap(inv);
+		final int nRidge = distanceRidge();
+		localThickness(nRidge);
+		cleanUp((float) pixelWidth);
+		if (doMask) {
+			final byte keepValue = (byte) (inv ? 0 : 255);
+			for (int ind = 0; ind < cleaned.length; ind++)
+				if (binary[ind] != keepValue)
+					cleaned[ind] = 0;
+		}
+		return cleaned;
+	}
+
+	/**
+	 * Calculate the distance from each pixel of a phase to the nearest pixel
+	 * of the other phase in the slice
+	 *
+	 * @param ip
+	 *            slice
+	 * @param min
+	 *            lowest pixel value of the foreground
+	 * @param max
+	 *            highest pixel value of the foreground
+	 * @param inv
+	 *            false for distances within the foreground and true for
+	 *            distances within the background
+	 * @return distance map in pixels, 0 outside the phase. The array is reused
+	 *         by the next call.
+	 */
+	float[] getDistanceMap(final ImageProcessor ip, final double min, final double max, final boolean inv) {
+		threshold(ip, min, max);
+		distanceMap(inv);
+		return map;
+	}
+
+	private void threshold(final ImageProcessor ip, final double min, final double max) {
+		allocate(ip.getWidth(), ip.getHeight());
+		final Object pixels = ip.getPixels();
+		for (int j = 0; j < height; j++) {
+			final int wj = width * j;
+			SliceMoments.readRow(ip, pixels, wj, width, row);
+			for (int i = 0; i < width; i++)
+				binary[wj + i] = (byte) (row[i] >= min && row[i] <= max ? 255 : 0);
+		}
+	}
+
+	private void allocate(final int w, final int h) {
+		width = w;
+		height = h;
+		final int wh = w * h;
+		if (map.length != wh) {
+			binary = new byte[wh];
+			map = new float[wh];
+			cleaned = new float[wh];
+		}
+		if (row.length < w)
+			row = new double[w];
+		if (column.length < h) {
+			column = new int[h];
+			envelope = new int[h];
+			boundaries = new double[h + 1];
+		}
+	}
+
+	/* Distance from each phase pixel to the nearest pixel of the other phase */
+	private void distanceMap(final boolean inv) {
+		final int w = width;
+		final int h = height;
+		final int n = Math.max(w, h);
+		final int noResult = 3 * (n + 1) * (n + 1);
+		// squared distance to the nearest background pixel in the row
+		for (int j = 0; j < h; j++) {
+			final int wj = w * j;
+			int last = -1;
+			for (int i = 0; i < w; i++) {
+				if (isBackground(wj + i, inv))
+					last = i;
+				map[wj + i] = last < 0 ? noResult : (i - last) * (i - last);
+			}
+			last = -1;
+			for (int i = w - 1; i >= 0; i--) {
+				if (isBackground(wj + i, inv))
+					last = i;
+				if (last >= 0) {
+					final int test = (last - i) * (last - i);
+					if (test < map[wj + i])
+						map[wj + i] = test;
+				}
+			}
+		}
+		// squared distance to the nearest background pixel in the slice
+		for (int i = 0; i < w; i++) {
+			boolean nonempty = false;
+			for (int j = 0; j < h; j++) {
+				column[j] = (int) map[i + w * j];
+				if (column[j] > 0)
+					nonempty = true;
+			}
+			if (!nonempty)
+				continue;
+			int k = 0;
+			envelope[0] = 0;
+			boundaries[0] = Double.NEGATIVE_INFINITY;
+			boundaries[1] = Double.POSITIVE_INFINITY;
+			for (int q = 1; q < h; q++) {
+				double s = intersection(q, envelope[k]);
+				while (s <= boundaries[k]) {
+					k--;
+					s = intersection(q, envelope[k]);
+				}
+				k++;
+				envelope[k] = q;
+				boundaries[k] = s;
+				boundaries[k + 1] = Double.POSITIVE_INFINITY;
+			}
+			k = 0;
+			for (int q = 0; q < h; q++) {
+				while (boundaries[k + 1] < q)
+					k++;
+				final int v = envelope[k];
+				map[i + w * q] = Math.min(noResult, column[v] + (q - v) * (q - v));
+			}
+		}
+		for (int ind = 0; ind < map.length; ind++) {
+			if (isBackground(ind, inv))
+				map[ind] = 0;
+			else
+				map[ind] = (float) Math.sqrt(map[ind]);
+		}
+	}
+
+	private boolean isBackground(final int ind, final boolean inv) {
+		return ((binary[ind] & 255) < 128) ^ inv;
+	}
+
+	/* Position where the parabolas of column points q and v intersect */
+	private double intersection(final int q, final int v) {
+		return ((column[q] + (double) q * q) - (column[v] + (double) v * v)) / (2.0 * q - 2.0 * v);
+	}
+
+	/*
+	 * Collect the points whose disc is not covered by the disc of a
+	 * neighbour, as Thickness.distanceMaptoDistanceRidge() does in a single
+	 * slice
+	 *
+	 * @return number of ridge points
+	 */
+	private int distanceRidge() {
+		final int w = width;
+		final int h = height;
+		int nRidge = 0;
+		for (int j = 0; j < h; j++) {
+			final int wj = w * j;
+			for (int i = 0; i < w; i++) {
+				final int ind = i + wj;
+				final float r = map[ind];
+				if (r <= 0)
+					continue;
+				final int sk0Sq = (int) (r * r + 0.5f);
+				boolean notRidgePoint = false;
+				for (int dy = -1; dy <= 1 && !notRidgePoint; dy++) {
+					final int j1 = j + dy;
+					if (j1 < 0 || j1 >= h)
+						continue;
+					for (int dx = -1; dx <= 1; dx++) {
+						final int i1 = i + dx;
+						if ((dx == 0 && dy == 0) || i1 < 0 || i1 >= w)
+							continue;
+						final float r1 = map[i1 + w * j1];
+						final int sk1Sq = (int) (r1 * r1 + 0.5f);
+						if (sk1Sq >= template(sk0Sq, dx != 0 && dy != 0)) {
+							notRidgePoint = true;
+							break;
+						}
+					}
+				}
+				if (!notRidgePoint) {
+					if (nRidge == ridgeIndex.length) {
+						ridgeIndex = Arrays.copyOf(ridgeIndex, Math.max(64, 2 * nRidge));
+						ridgeR = Arrays.copyOf(ridgeR, ridgeIndex.length);
+					}
+					ridgeIndex[nRidge] = ind;
+					ridgeR[nRidge++] = r;
+				}
+			}
+		}
+		return nRidge;
+	}
+
+	private int template(final int rSq, final boolean corner) {
+		int[] templates;
+		if (rSq < DENSE_TEMPLATES) {
+			if (rSq >= edgeTemplate.length) {
+				final int length = Math.min(DENSE_TEMPLATES, Math.max(rSq + 1, 2 * edgeTemplate.length));
+				edgeTemplate = Arrays.copyOf(edgeTemplate, length);
+				cornerTemplate = Arrays.copyOf(cornerTemplate, length);
+			}
+			if (edgeTemplate[rSq] == 0) {
+				templates = scanCubes(rSq);
+				edgeTemplate[rSq] = templates[0];
+				cornerTemplate[rSq] = templates[1];
+			}
+			return corner ? cornerTemplate[rSq] : edgeTemplate[rSq];
+		}
+		// radii of slices without background are too large to index densely
+		templates = largeTemplates.get(rSq);
+		if (templates == null) {
+			templates = scanCubes(rSq);
+			largeTemplates.put(rSq, templates);
+		}
+		return corner ? templates[1] : templates[0];
+	}
+
+	private static int[] scanCubes(final int rSq) {
+		final int[] rSqValue = { rSq };
+		return new int[] { Thickness.scanCube(1, 0, 0, rSqValue)[0], Thickness.scanCube(1, 1, 0, rSqValue)[0] };
+	}
+
+	/* Paint each ridge point's squared radius over its disc */
+	private void localThickness(final int nRidge) {
+		final int w = width;
+		final int h = height;
+		Arrays.fill(map, 0);
+		for (int iR = 0; iR < nRidge; iR++) {
+			final int i = ridgeIndex[iR] % w;
+			final int j = ridgeIndex[iR] / w;
+			final float r = ridgeR[iR];
+			final int rSquared = (int) (r * r + 0.5f);
+			int rInt = (int) r;
+			if (rInt < r)
+				rInt++;
+			final int iStart = Math.max(i - rInt, 0);
+			final int iStop = Math.min(i + rInt, w - 1);
+			final int jStart = Math.max(j - rInt, 0);
+			final int jStop = Math.min(j + rInt, h - 1);
+			for (int j1 = jStart; j1 <= jStop; j1++) {
+				final int r1SquaredJ = (j1 - j) * (j1 - j);
+				if (r1SquaredJ > rSquared)
+					continue;
+				final int wj1 = w * j1;
+				for (int i1 = iStart; i1 <= iStop; i1++) {
+					if (r1SquaredJ + (i1 - i) * (i1 - i) <= rSquared && rSquared > map[i1 + wj1])
+						map[i1 + wj1] = rSquared;
+				}
+			}
+		}
+		for (int ind = 0; ind < map.length; ind++)
+			map[ind] = (float) (2 * Math.sqrt(map[ind]));
+	}
+
+	/*
+	 * Replace the thickness of boundary pixels with the mean of their
+	 * interior neighbours, as Thickness.localThicknesstoCleanedUpLocalThickness()
+	 * does in a single slice, and scale to pixel width
+	 */
+	private void cleanUp(final float pixelWidth) {
+		final int w = width;
+		final int h = height;
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				final int ind = i + w * j;
+				final float s = map[ind];
+				if (s == 0)
+					cleaned[ind] = 0;
+				else if (look(map, i, j - 1) == 0 || look(map, i, j + 1) == 0 || look(map, i - 1, j) == 0
+						|| look(map, i + 1, j) == 0 || look(map, i + 1, j - 1) == 0 || look(map, i + 1, j + 1) == 0
+						|| look(map, i - 1, j - 1) == 0 || look(map, i - 1, j + 1) == 0)
+					cleaned[ind] = -1;
+				else
+					cleaned[ind] = s;
+			}
+		}
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				final int ind = i + w * j;
+				if (cleaned[ind] == -1)
+					cleaned[ind] = -averageInteriorNeighbours(i, j);
+			}
+		}
+		for (int ind = 0; ind < cleaned.length; ind++)
+			cleaned[ind] = Math.abs(cleaned[ind]) * pixelWidth;
+	}
+
+	private float averageInteriorNeighbours(final int i, final int j) {
+		int n = 0;
+		float sum = 0;
+		for (int k = 0; k < NEIGHBOUR_X.length; k++) {
+			final float value = look(cleaned, i + NEIGHBOUR_X[k], j + NEIGHBOUR_Y[k]);
+			if (value > 0) {
+				n++;
+				sum += value;
+			}
+		}
+		if (n > 0)
+			return sum / n;
+		return map[i + width * j];
+	}
+
+	private float look(final float[] s, final int i, final int j) {
+		if (i < 0 || i >= width || j < 0 || j >= height)
+			return -1;
+		return s[i + width * j];
+	}
+}
@@ -18,15 +18,15 @@ package org.doube.bonej;
  */
 
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
 
-import org.doube.geometry.Vectors;
+import org.doube.geometry.IndexedTriangleMesh;
 import org.doube.util.ImageCheck;
+import org.doube.util.Multithreader;
 import org.doube.util.ResultInserter;
 import org.doube.util.UsageReporter;
 
@@ -161,10 +161,11 @@ public class StructureModelIndex implements PlugIn {
 		CustomTriangleMesh surface = new CustomTriangleMesh(points, colour, 0.0f);
 		IJ.showStatus("Smoothing surface mesh...");
 		MeshEditor.smooth(surface, meshSmoothing);
+		final IndexedTriangleMesh smoothed = IndexedTriangleMesh.fromTriangles(surface.getMesh());
 		IJ.showStatus("Calculating volume...");
-		final double v = Math.abs(surface.getVolume());
+		final double v = Math.abs(smoothed.getVolume());
 
-		final double s1 = MeasureSurface.getSurfaceArea(surface.getMesh());
+		final double s1 = MeasureSurface.getSurfaceArea(smoothed);
 
 		IJ.showStatus("Dilating voxel model...");
 		final Dilate d = new Dilate();
@@ -178,7 +179,7 @@ public class StructureModelIndex implements PlugIn {
 		surface = new CustomTriangleMesh(points, colour, 0.0f);
 		IJ.showStatus("Smoothing surface mesh...");
 		MeshEditor.smooth(surface, meshSmoothing);
-		final double s2 = MeasureSurface.getSurfaceArea(surface.getMesh());
+		final double s2 = MeasureSurface.getSurfaceArea(IndexedTriangleMesh.fromTriangles(surface.getMesh()));
 		final double smi = 6 * ((s2 - s1) * v / (s1 * s1));
 		IJ.showStatus("SMI calculated.");
 		return smi;
@@ -219,7 +220,6 @@ public class StructureModelIndex implements PlugIn {
 		final int threshold = 128;
 		final boolean[] channels = { true, false, false };
 		final double r = imp.getCalibration().pixelWidth / 100;
-		final Point3f origin = new Point3f(0.0f, 0.0f, 0.0f);
 		final MCTriangulator mct = new MCTriangulator();
 		IJ.showStatus("Finding surface points...");
 		final List<Point3f> triangles = mct.getTriangles(imp, threshold, channels, voxelResampling);
@@ -228,126 +228,38 @@ public class StructureModelIndex implements PlugIn {
 		final CustomTriangleMesh surface = new CustomTriangleMesh(triangles, colour, 0.0f);
 		IJ.showStatus("Smoothing surface mesh...");
 		MeshEditor.smooth(surface, meshSmoothing);
+		final IndexedTriangleMesh smoothed = IndexedTriangleMesh.fromTriangles(triangles);
 		IJ.showStatus("Calculating volume...");
-		final double v = Math.abs(surface.getVolume());
-
-		final double s1 = MeasureSurface.getSurfaceArea(surface.getMesh());
-
-		// get all the unique vertices
-		// associate each unique vertex with the triangles around it
-		final Hashtable<Point3f, ArrayList<Integer>> vertexHash = new Hashtable<Point3f, ArrayList<Integer>>();
-		ArrayList<Integer> locations = new ArrayList<Integer>();
-		final int nPoints = triangles.size();
-		for (int p = 0; p < nPoints; p++) {
-			IJ.showStatus("Finding vertices...");
-			IJ.showProgress(p + 1, nPoints);
-			final Point3f testPoint = triangles.get(p);
-			if (vertexHash.get(testPoint) == null) {
-				final ArrayList<Integer> points = new ArrayList<Integer>();
-				points.add(p);
-				vertexHash.put(testPoint, points);
-			} else {
-				locations = vertexHash.get(testPoint);
-				locations.add(p);
-				vertexHash.put(testPoint, locations);
-			}
-		}
-
-		// get the normals of the triangles around each vertex
-		// and calculate the normal of the vertex as the mean triangle normal
-		final Hashtable<Point3f, Point3f> normalsHash = new Hashtable<Point3f, Point3f>();
-		Point3f vert = new Point3f();
-		final Enumeration<Point3f> e = vertexHash.keys();
-		while (e.hasMoreElements()) {
-			IJ.showStatus("Calculating vertex normals...");
-			vert = e.nextElement();
-			locations = vertexHash.get(vert);
-			final Point3f sumNormals = new Point3f();
-			final int vT = locations.size();
-			for (int i = 0; i < vT; i++) {
-				final int pointIndex = locations.get(i);
-				final int corner = pointIndex % 3;
-				Point3f point0 = new Point3f();
-				Point3f point1 = new Point3f();
-				Point3f point2 = new Point3f();
-				switch (corner) {
-				case 0:
-					point0 = triangles.get(pointIndex);
-					point1 = triangles.get(pointIndex + 2);
-					point2 = triangles.get(pointIndex + 1);
-					break;
-				case 1:
-					point0 = triangles.get(pointIndex + 1);
-					point1 = triangles.get(pointIndex);
-					point2 = triangles.get(pointIndex - 1);
-					break;
-				case 2:
-					point0 = triangles.get(pointIndex - 1);
-					point1 = triangles.get(pointIndex - 2);
-					point2 = triangles.get(pointIndex);
-					break;
-				}
-				final Point3f surfaceNormal = Vectors.crossProduct(point0, point1, point2);
-				sumNormals.x += surfaceNormal.x;
-				sumNormals.y += surfaceNormal.y;
-				sumNormals.z += surfaceNormal.z;
-			}
-
-			final Point3f normal = new Point3f();
-			normal.x = sumNormals.x / vT;
-			normal.y = sumNormals.y / vT;
-			normal.z = sumNormals.z / vT;
+		final double v = Math.abs(smoothed.getVolume());
 
-			// Turn normal into a unit vector
-			final double length = normal.distance(origin);
-			normal.x /= length;
-			normal.y /= length;
-			normal.z /= length;
+		final double s1 = MeasureSurface.getSurfaceArea(smoothed);
 
-			normalsHash.put(vert, normal);
-		}
-
-		// move all the points by the unit normal * small increment r
-		final ArrayList<Point3f> movedTriangles = new ArrayList<Point3f>();
-		for (int t = 0; t < nPoints; t++) {
-			IJ.showStatus("Dilating surface mesh...");
-			IJ.showProgress(t + 1, nPoints);
-			final Point3f point = triangles.get(t);
-			final Point3f newPoint = (Point3f) point.clone();
-			final Point3f normal = normalsHash.get(point);
-			newPoint.x += normal.x * r;
-			newPoint.y += normal.y * r;
-			newPoint.z += normal.z * r;
-			movedTriangles.add(newPoint);
-		}
-
-		double convexDelta = 0;
-		double concaveDelta = 0;
-		double convexArea = 0;
-		double concaveArea = 0;
+		// vertex normal is the mean of the normals of the triangles around
+		// it, pointing out of the surface (MCTriangulator winds triangles
+		// so that their right-hand normals point inwards)
+		IJ.showStatus("Calculating vertex normals...");
+		final float[] normals = smoothed.getVertexNormals();
 
+		// move all the points by the unit normal * small increment r and
 		// find the sums of the +ve and -ve changes in area
-		for (int i = 0; i < nPoints; i += 3) {
-			Point3f point0 = triangles.get(i);
-			Point3f point1 = triangles.get(i + 1);
-			Point3f point2 = triangles.get(i + 2);
-			final double area1 = 0.5 * Vectors.crossProduct(point0, point1, point2).distance(origin);
-			point0 = movedTriangles.get(i);
-			point1 = movedTriangles.get(i + 1);
-			point2 = movedTriangles.get(i + 2);
-			final double area2 = 0.5 * Vectors.crossProduct(point0, point1, point2).distance(origin);
-
-			final double deltaArea = area2 - area1;
-
-			if (do3D)
-				addTo3DUniverse(point0, point1, point2, area1, deltaArea);
-
-			if (deltaArea >= 0) {
-				convexDelta += deltaArea;
-				convexArea += area1;
-			} else if (deltaArea < 0) {
-				concaveDelta += deltaArea;
-				concaveArea += area1;
+		IJ.showStatus("Dilating surface mesh...");
+		final float[] deltaAreas = do3D ? new float[smoothed.getTriangleCount()] : null;
+		final double[] sums = dilate(smoothed, normals, r, deltaAreas);
+		final double s2 = sums[0];
+		final double convexDelta = sums[1];
+		final double concaveDelta = sums[2];
+		final double convexArea = sums[3];
+		final double concaveArea = sums[4];
+
+		if (do3D) {
+			final float[] vertices = smoothed.getVertices();
+			final int[] indices = smoothed.getIndices();
+			final int nTriangles = smoothed.getTriangleCount();
+			for (int t = 0; t < nTriangles; t++) {
+				final Point3f point0 = movedPoint(vertices, normals, indices[3 * t], r);
+				final Point3f point1 = movedPoint(vertices, normals, indices[3 * t + 1], r);
+				final Point3f point2 = movedPoint(vertices, normals, indices[3 * t + 2], r);
+				addTo3DUniverse(point0, point1, point2, smoothed.triangleArea(t), deltaAreas[t]);
 			}
 		}
 
@@ -366,7 +278,6 @@ public class StructureModelIndex implements PlugIn {
 		ri.setResultInRow(imp, "SMI-", concaveSMI);
 		ri.updateTable();
 
-		final double s2 = MeasureSurface.getSurfaceArea(movedTriangles);
 		final double sR = (s2 - s1) / r;
 		final double smi = 6 * sR * v / (s1 * s1);
 		IJ.showStatus("SMI calculated.");
@@ -374,6 +285,92 @@ public class StructureModelIndex implements PlugIn {
 		return smi;
 	}
 
+	/**
+	 * Dilate each triangle of a mesh by moving its corners a distance r
+	 * outwards along their vertex normals, and sum the change in area. The
+	 * dilated triangles are calculated on the fly and not stored.
+	 *
+	 * @param mesh
+	 *            surface mesh
+	 * @param normals
+	 *            unit vertex normals, pointing into the surface
+	 * @param r
+	 *            dilation distance
+	 * @param deltaAreas
+	 *            if not null, filled with each triangle's change in area
+	 * @return dilated area, convex change in area, concave change in area,
+	 *         original convex area and original concave area
+	 */
+	private static double[] dilate(final IndexedTriangleMesh mesh, final float[] normals, final double r,
+			final float[] deltaAreas) {
+		final float[] vertices = mesh.getVertices();
+		final int[] indices = mesh.getIndices();
+		final int nTriangles = mesh.getTriangleCount();
+		final int chunk = 16384;
+		final int nChunks = (nTriangles + chunk - 1) / chunk;
+		final double[][] partials = new double[nChunks][5];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final float[] moved = new float[9];
+					for (int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement()) {
+						final double[] sums = partials[c];
+						final int end = Math.min(nTriangles, (c + 1) * chunk);
+						for (int t = c * chunk; t < end; t++) {
+							for (int k = 0; k < 3; k++) {
+								final int v = 3 * indices[3 * t + k];
+								moved[3 * k] = (float) (vertices[v] - normals[v] * r);
+								moved[3 * k + 1] = (float) (vertices[v + 1] - normals[v + 1] * r);
+								moved[3 * k + 2] = (float) (vertices[v + 2] - normals[v + 2] * r);
+							}
+							final double area1 = mesh.triangleArea(t);
+							final double area2 = triangleArea(moved);
+							final double deltaArea = area2 - area1;
+							if (deltaAreas != null)
+								deltaAreas[t] = (float) deltaArea;
+							sums[0] += area2;
+							if (deltaArea >= 0) {
+								sums[1] += deltaArea;
+								sums[3] += area1;
+							} else if (deltaArea < 0) {
+								sums[2] += deltaArea;
+								sums[4] += area1;
+							}
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		final double[] sums = new double[5];
+		for (int c = 0; c < nChunks; c++)
+			for (int i = 0; i < 5; i++)
+				sums[i] += partials[c][i];
+		return sums;
+	}
+
+	private static double triangleArea(final float[] p) {
+		final double x1 = p[3] - p[0];
+		final double y1 = p[4] - p[1];
+		final double z1 = p[5] - p[2];
+		final double x2 = p[6] - p[0];
+		final double y2 = p[7] - p[1];
+		final double z2 = p[8] - p[2];
+		final double cx = y1 * z2 - z1 * y2;
+		final double cy = z1 * x2 - x1 * z2;
+		final double cz = x1 * y2 - y1 * x2;
+		return 0.5 * Math.sqrt(cx * cx + cy * cy + cz * cz);
+	}
+
+	private static Point3f movedPoint(final float[] vertices, final float[] normals, final int index,
+			final double r) {
+		final int v = 3 * index;
+		return new Point3f((float) (vertices[v] - normals[v] * r), (float) (vertices[v + 1] - normals[v + 1] * r),
+				(float) (vertices[v + 2] - normals[v + 2] * r));
+	}
+
 	private static void addTo3DUniverse(final Point3f point0, final Point3f point1, final Point3f point2,
 			final double area1, final double deltaArea) {
 
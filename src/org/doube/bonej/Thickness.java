@@ -3,7 +3,7 @@ package org.doube.bonej;
 import java.awt.Checkbox;
 
 import org.doube.util.ImageCheck;
-import org.doube.util.ResultInserter;
+import org.doube.util.ResultsSink;
 import org.doube.util.RoiMan;
 import org.doube.util.StackStats;
 import org.doube.util.UsageReporter;
@@ -763,7 +763,7 @@ public class Thickness implements PlugIn {
 	 * of radius r1 centered at (dx,dy,dz) includes a "ball" of radius r
 	 * centered at the origin. "Ball" refers to a 3D integer grid.
 	 */
-	int[] scanCube(final int dx, final int dy, final int dz, final int[] distSqValues) {
+	static int[] scanCube(final int dx, final int dy, final int dz, final int[] distSqValues) {
 		final int numRadii = distSqValues.length;
 		final int[] r1Sq = new int[numRadii];
 		if ((dx == 0) && (dy == 0) && (dz == 0)) {
@@ -1343,19 +1343,19 @@ public class Thickness implements PlugIn {
 		final double maxThick = stats[2];
 		final String units = imp.getCalibration().getUnits();
 
-		final ResultInserter ri = ResultInserter.getInstance();
+		final ResultsSink sink = ResultsSink.getInstance();
 		if (!inverse) {
 			// trab thickness
-			ri.setResultInRow(imp, "Tb.Th Mean (" + units + ")", meanThick);
-			ri.setResultInRow(imp, "Tb.Th Std Dev (" + units + ")", stDev);
-			ri.setResultInRow(imp, "Tb.Th Max (" + units + ")", maxThick);
+			sink.setResultInRow(imp, "Tb.Th Mean (" + units + ")", meanThick);
+			sink.setResultInRow(imp, "Tb.Th Std Dev (" + units + ")", stDev);
+			sink.setResultInRow(imp, "Tb.Th Max (" + units + ")", maxThick);
 		} else {
 			// trab separation
-			ri.setResultInRow(imp, "Tb.Sp Mean (" + units + ")", meanThick);
-			ri.setResultInRow(imp, "Tb.Sp Std Dev (" + units + ")", stDev);
-			ri.setResultInRow(imp, "Tb.Sp Max (" + units + ")", maxThick);
+			sink.setResultInRow(imp, "Tb.Sp Mean (" + units + ")", meanThick);
+			sink.setResultInRow(imp, "Tb.Sp Std Dev (" + units + ")", stDev);
+			sink.setResultInRow(imp, "Tb.Sp Max (" + units + ")", maxThick);
 		}
-		ri.updateTable();
+		sink.updateTable();
 	}
 
 	/**
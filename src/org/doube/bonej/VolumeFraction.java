@@ -24,13 +24,13 @@ import java.awt.Choice;
 import java.awt.Rectangle;
 import java.awt.TextField;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Color3f;
-import javax.vecmath.Point3f;
 
+import org.doube.geometry.SlabMarchingCubes;
+import org.doube.geometry.SlabMarchingCubes.MeshCollector;
 import org.doube.util.DialogModifier;
 import org.doube.util.ImageCheck;
 import org.doube.util.Multithreader;
@@ -51,7 +51,6 @@ import ij.plugin.PlugIn;
 import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 import ij3d.Image3DUniverse;
-import marchingcubes.MCTriangulator;
 
 public class VolumeFraction implements PlugIn, DialogListener {
 
@@ -245,7 +244,6 @@ public class VolumeFraction implements PlugIn, DialogListener {
 	 *            display bone surface and ROI surface in the 3D Viewer
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public double[] getSurfaceVolume(final ImagePlus imp, final double minT, final double maxT, final int resampling,
 			final boolean useRoiMan, final boolean show3D) {
 		final ImageStack stack = imp.getImageStack();
@@ -343,23 +341,24 @@ public class VolumeFraction implements PlugIn, DialogListener {
 		IJ.showStatus("Creating surface mesh...");
 		final Color3f yellow = new Color3f(1.0f, 1.0f, 0.0f);
 		final Color3f blue = new Color3f(0.0f, 0.0f, 1.0f);
-		final boolean[] channels = { true, false, false };
-		final MCTriangulator mct = new MCTriangulator();
-		List<Point3f> points = mct.getTriangles(outImp, 128, channels, resampling);
-		final CustomTriangleMesh surface = new CustomTriangleMesh(points, yellow, 0.4f);
+		// only keep the triangles if they are going to be displayed
+		final SlabMarchingCubes boneMC = new SlabMarchingCubes(outImp, 128, resampling);
+		final MeshCollector surface = show3D ? new MeshCollector() : null;
+		boneMC.run(surface);
 		IJ.showStatus("Calculating BV...");
-		final double boneVolume = Math.abs(surface.getVolume());
+		final double boneVolume = Math.abs(boneMC.getVolume());
 		IJ.showStatus("Creating surface mesh...");
-		points = mct.getTriangles(maskImp, 128, channels, resampling);
-		final CustomTriangleMesh mask = new CustomTriangleMesh(points, blue, 0.65f);
+		final SlabMarchingCubes maskMC = new SlabMarchingCubes(maskImp, 128, resampling);
+		final MeshCollector mask = show3D ? new MeshCollector() : null;
+		maskMC.run(mask);
 		IJ.showStatus("Calculating TV...");
-		final double totalVolume = Math.abs(mask.getVolume());
+		final double totalVolume = Math.abs(maskMC.getVolume());
 		final double[] volumes = { boneVolume, totalVolume };
 		IJ.showStatus("");
 		if (show3D) {
 			final Image3DUniverse univ = new Image3DUniverse();
-			univ.addCustomMesh(surface, "BV");
-			univ.addCustomMesh(mask, "TV");
+			univ.addCustomMesh(new CustomTriangleMesh(surface.getMesh().toTriangles(), yellow, 0.4f), "BV");
+			univ.addCustomMesh(new CustomTriangleMesh(mask.getMesh().toTriangles(), blue, 0.65f), "TV");
 			univ.show();
 		}
 		return volumes;
@@ -0,0 +1,294 @@
+package org.doube.bonej.pqct;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.bonej.pqct.analysis.ConcentricRingAnalysis;
+import org.doube.bonej.pqct.analysis.CorticalAnalysis;
+import org.doube.bonej.pqct.analysis.DetermineAlfa;
+import org.doube.bonej.pqct.analysis.DistributionAnalysis;
+import org.doube.bonej.pqct.analysis.MassDistribution;
+import org.doube.bonej.pqct.analysis.SoftTissueAnalysis;
+import org.doube.bonej.pqct.io.DeviceCalibration;
+import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
+import org.doube.bonej.pqct.io.ScaledImageData;
+import org.doube.bonej.pqct.io.StratecHeader;
+import org.doube.bonej.pqct.selectroi.RoiSelector;
+import org.doube.bonej.pqct.selectroi.SelectROI;
+import org.doube.bonej.pqct.selectroi.SelectSoftROI;
+import org.doube.bonej.pqct.utils.ResultsWriter;
+import org.doube.util.Multithreader;
+
+import ij.ImagePlus;
+
+/**
+ * <p>
+ * Runs Distribution Analysis on every Stratec file in a directory without a
+ * GUI. Files are analysed in parallel, one per thread, and each file's results
+ * are written as a CSV row in file name order as soon as the rows before it
+ * are done, so the output of a long run can be followed while it grows.
+ * </p>
+ * <p>
+ * Rows hold the same columns as the Distribution Analysis results table. No
+ * result images are made, and ROIs are not added to the images.
+ * </p>
+ */
+public class DistributionBatch {
+
+	/** Sector widths and numbers of divisions, as used by the plugin */
+	private static final int[] SECTORS_AND_DIVISIONS = { 10, 3, 10, 10 };
+
+	/** Median filter sizes for bone and soft tissue, as used by the plugin */
+	private static final int[] FILTER_SIZES = { 3, 7 };
+
+	final ImageAndAnalysisDetails details;
+	private final boolean deviceCalibration;
+	final boolean alphaOn;
+
+	/**
+	 * @param details
+	 *            analysis parameters applied to every file
+	 * @param deviceCalibration
+	 *            replace the scaling coefficient and constant in details with
+	 *            the calibration of the device that acquired each file
+	 */
+	public DistributionBatch(final ImageAndAnalysisDetails details, final boolean deviceCalibration) {
+		alphaOn = details.cOn || details.mOn || details.conOn || details.dOn;
+		if (!alphaOn && !details.stOn)
+			throw new IllegalArgumentException("No analysis was selected");
+		this.details = new ImageAndAnalysisDetails(details);
+		this.details.suppressImages = true;
+		this.details.saveImageOnDisk = false;
+		this.details.manualRoi = false;
+		this.deviceCalibration = deviceCalibration;
+	}
+
+	/**
+	 * Get the parameters Distribution Analysis offers by default
+	 *
+	 * @param scalingFactor
+	 *            slope converting pixel values to mg/cm&sup3;
+	 * @param constant
+	 *            intercept converting pixel values to mg/cm&sup3;
+	 * @return default analysis parameters
+	 */
+	public static ImageAndAnalysisDetails getDefaultDetails(final double scalingFactor, final double constant) {
+		final boolean[] topValues = new boolean[4];
+		final double[] thresholdsAndScaling = { -40, 40, 40, 80, 200, 200, 550, 690, scalingFactor, constant };
+		final String[] choiceLabels = Distribution_Analysis.CHOICE_LABELS.clone();
+		final String[] rotationLabels = Distribution_Analysis.ROTATION_LABELS.clone();
+		final String[] alignmentStrings = { choiceLabels[0], choiceLabels[0], rotationLabels[0] };
+		final boolean[] middleValues = new boolean[10];
+		middleValues[3] = true;
+		final boolean[] bottomValues = new boolean[8];
+		return new ImageAndAnalysisDetails(topValues, thresholdsAndScaling, alignmentStrings, choiceLabels,
+				rotationLabels, middleValues, 0, bottomValues, SECTORS_AND_DIVISIONS.clone(), FILTER_SIZES.clone());
+	}
+
+	/** @return CSV header row, without a line terminator */
+	public String getHeader() {
+		return toCSV(new ResultsWriter("", alphaOn).getHeadings(details));
+	}
+
+	/**
+	 * Analyse every Stratec file in a directory and write the results as CSV
+	 *
+	 * @param directory
+	 * @param out
+	 *            receives a header row, then a row for each file in file name
+	 *            order. Files which could not be analysed get a row with their
+	 *            name and the error.
+	 * @return number of files analysed without error
+	 * @throws IOException
+	 *             if the directory cannot be listed or out cannot be written
+	 */
+	public int run(final File directory, final Writer out) throws IOException {
+		final File[] files = listStratecFiles(directory);
+		final String[] rows = new String[files.length];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final AtomicInteger analysed = new AtomicInteger(0);
+		final int[] nextRow = { 0 };
+		final IOException[] writeError = new IOException[1];
+		out.write(getHeader() + "\n");
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int f = ai.getAndIncrement(); f < files.length; f = ai.getAndIncrement()) {
+						String row;
+						try {
+							row = toCSV(analyse(files[f]));
+							analysed.incrementAndGet();
+						} catch (final Exception e) {
+							row = toCSV(files[f].getName() + "\tError: " + e);
+						}
+						synchronized (rows) {
+							rows[f] = row;
+							// write this and any later rows which were waiting
+							// for it
+							try {
+								while (writeError[0] == null && nextRow[0] < rows.length
+										&& rows[nextRow[0]] != null) {
+									out.write(rows[nextRow[0]] + "\n");
+									rows[nextRow[0]++] = "";
+								}
+								out.flush();
+							} catch (final IOException e) {
+								writeError[0] = e;
+							}
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		if (writeError[0] != null)
+			throw writeError[0];
+		return analysed.get();
+	}
+
+	/**
+	 * Analyse one Stratec file
+	 *
+	 * @param file
+	 * @return the file's results, tab separated in the order of the results
+	 *         table's columns
+	 * @throws IOException
+	 *             if the file cannot be read, or there is no calibration for
+	 *             its device
+	 */
+	public String analyse(final File file) throws IOException {
+		final ImagePlus imp = new Read_Stratec_File().load(file.getPath());
+		final String imageInfo = (String) imp.getProperty("Info");
+		final ImageAndAnalysisDetails fileDetails = new ImageAndAnalysisDetails(details);
+		if (deviceCalibration) {
+			final double[] coefficients = DeviceCalibration
+					.getCoefficients(Distribution_Analysis.getInfoProperty(imageInfo, "Device"));
+			fileDetails.constant = coefficients[0];
+			fileDetails.scalingFactor = coefficients[1];
+		}
+		final double resolution = Distribution_Analysis.getResolution(imageInfo, imp.getCalibration());
+		final ScaledImageData scaledImageData = new ScaledImageData(Distribution_Analysis.getSignedPixels(imp),
+				imp.getWidth(), imp.getHeight(), resolution, fileDetails.scalingFactor, fileDetails.constant, 3,
+				fileDetails.flipHorizontal, fileDetails.flipVertical, fileDetails.noFiltering);
+		return analyse(imp, imageInfo, fileDetails, scaledImageData, null, null);
+	}
+
+	/**
+	 * Run the selected analyses on a scaled image
+	 *
+	 * @param imp
+	 *            image the data came from
+	 * @param imageInfo
+	 * @param fileDetails
+	 *            parameters for this image, which are updated with the
+	 *            stacked and flip guesses
+	 * @param scaledImageData
+	 * @param boneRoi
+	 *            bone ROI if it has already been selected, or null to select it
+	 *            by the ROI choice
+	 * @param distribution
+	 *            if not null, receives the distribution analysis, if one is run
+	 * @return tab separated results
+	 */
+	String analyse(final ImagePlus imp, final String imageInfo, final ImageAndAnalysisDetails fileDetails,
+			final ScaledImageData scaledImageData, final SelectROI boneRoi, final DistributionAnalysis[] distribution) {
+		RoiSelector roi = boneRoi;
+		if (alphaOn && roi == null)
+			roi = new SelectROI(scaledImageData, fileDetails, imp, fileDetails.boneThreshold, false);
+		SelectSoftROI softRoi = null;
+		if (fileDetails.stOn) {
+			softRoi = new SelectSoftROI(scaledImageData, fileDetails, imp, fileDetails.boneThreshold, false);
+			if (roi == null)
+				roi = softRoi;
+		}
+		DetermineAlfa determineAlfa = null;
+		if (alphaOn)
+			determineAlfa = new DetermineAlfa((SelectROI) roi, fileDetails);
+		fileDetails.flipDistribution = roi.details.flipDistribution;
+		fileDetails.stacked = roi.details.stacked;
+
+		final ResultsWriter resultsWriter = new ResultsWriter(imageInfo, alphaOn);
+		String results = resultsWriter.printResults("", fileDetails, imp);
+		if (determineAlfa != null)
+			results = resultsWriter.printAlfa(results, determineAlfa);
+		if (fileDetails.stOn)
+			results = resultsWriter.printSoftTissueResults(results, new SoftTissueAnalysis(softRoi));
+		if (fileDetails.cOn)
+			results = resultsWriter.printCorticalResults(results, new CorticalAnalysis((SelectROI) roi));
+		if (fileDetails.mOn)
+			results = resultsWriter.printMassDistributionResults(results,
+					new MassDistribution((SelectROI) roi, fileDetails, determineAlfa), fileDetails);
+		if (fileDetails.conOn)
+			results = resultsWriter.printConcentricRingResults(results,
+					new ConcentricRingAnalysis((SelectROI) roi, fileDetails, determineAlfa), fileDetails);
+		if (fileDetails.dOn) {
+			final DistributionAnalysis distributionAnalysis = new DistributionAnalysis((SelectROI) roi, fileDetails,
+					determineAlfa);
+			results = resultsWriter.printDistributionResults(results, distributionAnalysis, fileDetails);
+			if (distribution != null)
+				distribution[0] = distributionAnalysis;
+		}
+		return results;
+	}
+
+	/**
+	 * List the files in a directory which have a Stratec header
+	 *
+	 * @param directory
+	 * @return Stratec files sorted by name
+	 * @throws IOException
+	 *             if the directory cannot be listed
+	 */
+	public static File[] listStratecFiles(final File directory) throws IOException {
+		final File[] all = directory.listFiles();
+		if (all == null)
+			throw new IOException("Cannot list " + directory);
+		Arrays.sort(all);
+		int n = 0;
+		for (final File file : all)
+			if (isStratecFile(file))
+				all[n++] = file;
+		return Arrays.copyOf(all, n);
+	}
+
+	/**
+	 * Check the header for a device name, as Read_Stratec_File does
+	 *
+	 * @param file
+	 * @return true if the file looks like a Stratec pQCT file
+	 */
+	static boolean isStratecFile(final File file) {
+		if (!file.isFile() || file.length() <= StratecHeader.LENGTH)
+			return false;
+		try {
+			return StratecHeader.read(file.getPath()).isStratecFile();
+		} catch (final IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Convert a tab separated results row to CSV, quoting fields which need it
+	 *
+	 * @param row
+	 * @return comma separated row
+	 */
+	static String toCSV(final String row) {
+		final String[] fields = row.split("\t");
+		final StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				csv.append(',');
+			final String field = fields[i];
+			if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0)
+				csv.append('"').append(field.replace("\"", "\"\"")).append('"');
+			else
+				csv.append(field);
+		}
+		return csv.toString();
+	}
+}
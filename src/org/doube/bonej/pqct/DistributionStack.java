@@ -0,0 +1,286 @@
+package org.doube.bonej.pqct;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.bonej.pqct.analysis.DistributionAnalysis;
+import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
+import org.doube.bonej.pqct.io.ScaledImageData;
+import org.doube.bonej.pqct.selectroi.DetectedEdge;
+import org.doube.bonej.pqct.selectroi.SelectROI;
+import org.doube.util.Multithreader;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/**
+ * <p>
+ * Runs Distribution Analysis on every slice of a stack of contiguous pQCT
+ * slices without a GUI. The bone of the middle slice is selected by the ROI
+ * choice, and every other slice's bone is searched for around the bone found
+ * in its neighbour towards the middle, so that edge tracing stays local and
+ * the same bone is followed through the stack. The two halves of the stack are
+ * propagated in parallel, and slices are scaled and analysed in parallel.
+ * </p>
+ * <p>
+ * The output has a row per slice, with the slice number followed by the
+ * Distribution Analysis columns. If the distribution analysis is selected, it
+ * ends with a summary of cortical thickness and density through the stack.
+ * </p>
+ */
+public class DistributionStack {
+
+	private final DistributionBatch batch;
+
+	/**
+	 * @param details
+	 *            analysis parameters applied to every slice
+	 */
+	public DistributionStack(final ImageAndAnalysisDetails details) {
+		batch = new DistributionBatch(details, false);
+	}
+
+	/** @return CSV header row, without a line terminator */
+	public String getHeader() {
+		return "Slice," + batch.getHeader();
+	}
+
+	/**
+	 * Analyse every slice of a stack and write the results as CSV
+	 *
+	 * @param stack
+	 *            16-bit stack, calibrated as Distribution Analysis expects
+	 * @param out
+	 *            receives a header row, a row for each slice and the summary.
+	 *            Slices which could not be analysed get a row with the error.
+	 * @return summary of the slices' distribution analyses, or null if the
+	 *         distribution analysis was not selected
+	 * @throws IOException
+	 *             if out cannot be written
+	 */
+	public Summary run(final ImagePlus stack, final Writer out) throws IOException {
+		final int n = stack.getImageStackSize();
+		final ImageStack imageStack = stack.getStack();
+		final String imageInfo = getImageInfo(stack);
+		final double resolution = Distribution_Analysis.getResolution(imageInfo, stack.getCalibration());
+		final ImageAndAnalysisDetails[] details = new ImageAndAnalysisDetails[n];
+		final ScaledImageData[] data = new ScaledImageData[n];
+		final SelectROI[] rois = new SelectROI[n];
+		final DistributionAnalysis[][] distributions = new DistributionAnalysis[n][1];
+		final String[] rows = new String[n];
+
+		// Scale and filter the slices
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int s = ai.getAndIncrement(); s < n; s = ai.getAndIncrement()) {
+						details[s] = new ImageAndAnalysisDetails(batch.details);
+						try {
+							data[s] = new ScaledImageData(
+									Distribution_Analysis.getSignedPixels(stack, imageStack.getProcessor(s + 1)),
+									stack.getWidth(), stack.getHeight(), resolution, details[s].scalingFactor,
+									details[s].constant, 3, details[s].flipHorizontal, details[s].flipVertical,
+									details[s].noFiltering);
+						} catch (final Exception e) {
+							rows[s] = "Error: " + e;
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+
+		// Select the middle slice's bone, then follow it up and down the stack
+		if (batch.alphaOn) {
+			final int middle = n / 2;
+			propagate(stack, middle, middle + 1, details, data, rois, rows);
+			threads = Multithreader.newThreads(2);
+			for (int thread = 0; thread < threads.length; thread++) {
+				final int step = thread == 0 ? -1 : 1;
+				threads[thread] = new Thread(new Runnable() {
+					public void run() {
+						propagate(stack, middle + step, step < 0 ? -1 : n, details, data, rois, rows);
+					}
+				});
+			}
+			Multithreader.startAndJoin(threads);
+		}
+
+		// Analyse the slices
+		ai.set(0);
+		threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int s = ai.getAndIncrement(); s < n; s = ai.getAndIncrement()) {
+						if (rows[s] != null)
+							continue;
+						try {
+							rows[s] = batch.analyse(stack, imageInfo, details[s], data[s], rois[s],
+									distributions[s]);
+						} catch (final Exception e) {
+							rows[s] = "Error: " + e;
+						}
+						data[s] = null;
+						rois[s] = null;
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+
+		out.write(getHeader() + "\n");
+		for (int s = 0; s < n; s++)
+			out.write((s + 1) + "," + DistributionBatch.toCSV(rows[s]) + "\n");
+		Summary summary = null;
+		if (batch.details.dOn) {
+			final DistributionAnalysis[] analyses = new DistributionAnalysis[n];
+			for (int s = 0; s < n; s++)
+				analyses[s] = distributions[s][0];
+			summary = new Summary(analyses);
+			out.write("\n");
+			summary.write(out);
+		}
+		out.flush();
+		return summary;
+	}
+
+	/*
+	 * Select the bone of each slice from from towards to, seeding each search
+	 * with the last bone found before it. The seeded slices keep the stacked
+	 * and flip settings of the slice their seed came from.
+	 */
+	private void propagate(final ImagePlus stack, final int from, final int to,
+			final ImageAndAnalysisDetails[] details, final ScaledImageData[] data, final SelectROI[] rois,
+			final String[] rows) {
+		final int step = to > from ? 1 : -1;
+		// the slice next to from, towards the middle, supplies the first seed
+		SelectROI seed = from - step >= 0 && from - step < rois.length ? rois[from - step] : null;
+		for (int s = from; s != to; s += step) {
+			if (data[s] == null)
+				continue;
+			try {
+				DetectedEdge seedEdge = null;
+				if (seed != null) {
+					seedEdge = seed.edges.get(seed.selection);
+					details[s].stacked = seed.details.stacked;
+					details[s].flipDistribution = seed.details.flipDistribution;
+				}
+				rois[s] = new SelectROI(data[s], details[s], stack, details[s].boneThreshold, false, seedEdge);
+				seed = rois[s];
+			} catch (final Exception e) {
+				rows[s] = "Error: " + e;
+			}
+		}
+	}
+
+	/* Image info with a file name, as the results table expects */
+	private static String getImageInfo(final ImagePlus stack) {
+		String imageInfo = (String) stack.getProperty("Info");
+		if (imageInfo == null)
+			imageInfo = "";
+		if (imageInfo.indexOf("File Name") < 0)
+			imageInfo = "File Name:" + stack.getTitle() + "\n" + imageInfo;
+		return imageInfo;
+	}
+
+	/** Cortical thickness and density through a stack */
+	public static class Summary {
+		/** number of slices analysed without error */
+		public int slices;
+		/** mean cortical thickness of each slice in mm, NaN if not analysed */
+		public double[] thickness;
+		/** mean cortical vBMD of each slice, NaN if not analysed */
+		public double[] density;
+		/** vBMD of each division from endo- to pericortical, over all slices */
+		public double[] radialProfile;
+		/** cortical thickness of each sector in mm, over all slices */
+		public double[] sectorThickness;
+
+		/**
+		 * @param analyses
+		 *            distribution analysis of each slice, null if the slice
+		 *            could not be analysed
+		 */
+		public Summary(final DistributionAnalysis[] analyses) {
+			thickness = new double[analyses.length];
+			density = new double[analyses.length];
+			for (int s = 0; s < analyses.length; s++) {
+				final DistributionAnalysis analysis = analyses[s];
+				if (analysis == null) {
+					thickness[s] = Double.NaN;
+					density[s] = Double.NaN;
+					continue;
+				}
+				if (slices == 0) {
+					radialProfile = new double[analysis.radialDistribution.length];
+					sectorThickness = new double[analysis.endocorticalRadii.length];
+				}
+				slices++;
+				for (int d = 0; d < radialProfile.length; d++) {
+					radialProfile[d] += analysis.radialDistribution[d];
+					density[s] += analysis.radialDistribution[d] / radialProfile.length;
+				}
+				for (int k = 0; k < sectorThickness.length; k++) {
+					final double sector = analysis.pericorticalRadii[k] - analysis.endocorticalRadii[k];
+					sectorThickness[k] += sector;
+					thickness[s] += sector / sectorThickness.length;
+				}
+			}
+			if (slices == 0) {
+				radialProfile = new double[0];
+				sectorThickness = new double[0];
+				return;
+			}
+			for (int d = 0; d < radialProfile.length; d++)
+				radialProfile[d] /= slices;
+			for (int k = 0; k < sectorThickness.length; k++)
+				sectorThickness[k] /= slices;
+		}
+
+		/** @return mean of the analysed slices' thickness */
+		public double getMeanThickness() {
+			return mean(thickness);
+		}
+
+		/** @return mean of the analysed slices' density */
+		public double getMeanDensity() {
+			return mean(density);
+		}
+
+		private double mean(final double[] values) {
+			double sum = 0;
+			for (final double value : values)
+				if (!Double.isNaN(value))
+					sum += value;
+			return sum / slices;
+		}
+
+		/**
+		 * Write the summary as CSV, one labelled row per measure
+		 *
+		 * @param out
+		 * @throws IOException
+		 */
+		public void write(final Writer out) throws IOException {
+			out.write("Slices analysed," + slices + "\n");
+			out.write("Mean cortical thickness [mm]," + getMeanThickness() + "\n");
+			out.write("Mean cortical vBMD [mg/cm3]," + getMeanDensity() + "\n");
+			writeRow(out, "Cortical thickness by slice [mm]", thickness);
+			writeRow(out, "Cortical vBMD by slice [mg/cm3]", density);
+			writeRow(out, "Radial vBMD endo- to pericortical [mg/cm3]", radialProfile);
+			writeRow(out, "Cortical thickness by sector [mm]", sectorThickness);
+		}
+
+		private static void writeRow(final Writer out, final String label, final double[] values)
+				throws IOException {
+			out.write(label);
+			for (final double value : values)
+				out.write("," + value);
+			out.write("\n");
+		}
+	}
+}
@@ -21,11 +21,7 @@
 
 package org.doube.bonej.pqct;
 
-//File IO for reading .TYP files
-import java.io.InputStream;
-//Vector
 import java.util.StringTokenizer;
-import java.util.Vector;
 
 //Analysis stuff..
 import org.doube.bonej.pqct.analysis.ConcentricRingAnalysis;
@@ -35,6 +31,7 @@ import org.doube.bonej.pqct.analysis.DistributionAnalysis;
 import org.doube.bonej.pqct.analysis.MassDistribution;
 import org.doube.bonej.pqct.analysis.SoftTissueAnalysis;
 //image data
+import org.doube.bonej.pqct.io.DeviceCalibration;
 import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
 import org.doube.bonej.pqct.io.ScaledImageData;
 //ROI selection..
@@ -51,15 +48,27 @@ import ij.ImagePlus;
 import ij.Prefs;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
+import ij.io.FileInfo;
 import ij.io.FileSaver;
 //Calibration
 import ij.measure.Calibration;
 import ij.plugin.PlugIn;
 import ij.plugin.filter.Info;
+import ij.process.ImageProcessor;
 import ij.text.TextPanel;
 
 public class Distribution_Analysis implements PlugIn {
 
+	/** Ways of choosing the bone and soft tissue ROIs */
+	public static final String[] CHOICE_LABELS = { "Bigger", "Smaller", "Left", "Right", "Top", "Bottom", "Central",
+			"Peripheral", "SecondLargest", "TwoLargestLeft", "TwoLargestRight", "FirstFromLeft", "SecondFromLeft",
+			"ThirdFromLeft", "FourthFromLeft", "FifthFromLeft", "FirstFromTop", "SecondFromTop", "ThirdFromTop",
+			"FourthFromTop", "FifthFromTop" };
+
+	/** Ways of choosing the rotation of the distribution results */
+	public static final String[] ROTATION_LABELS = { "According_to_Imax/Imin", "Furthest_point",
+			"All_Bones_Imax/Imin", "Not_selected_to_right", "Selected_to_right" };
+
 	String resultString;
 	String imageInfo;
 	double resolution;
@@ -98,56 +107,17 @@ public class Distribution_Analysis implements PlugIn {
 				return;
 			}
 		} else {
-			calibrationCoefficients = new double[2];
 			/* Read calibration from TYP file database */
 			final String typFileName = getInfoProperty(imageInfo, "Device");
 			try {
-				final InputStream ir = this.getClass().getClassLoader()
-						.getResourceAsStream("org/doube/bonej/pqct/typ/" + typFileName);
-				final byte[] typFileData = new byte[ir.available()];
-				ir.read(typFileData);
-				ir.close();
-				final String typFiledDataString = new String(typFileData, "ISO-8859-1");
-				// break the typFileDataString into lines
-				final StringTokenizer st = new StringTokenizer(typFiledDataString, "\n");
-				final Vector<String> typFileLines = new Vector<String>();
-				while (st.hasMoreTokens()) {
-					typFileLines.add(st.nextToken());
-				}
-				// Search for XSlope and XInter
-				final String[] searchFor = { "XInter", "XSlope" };
-				for (int i = 0; i < searchFor.length; ++i) {
-					int index = 0;
-					String temp = typFileLines.get(index);
-					while (temp.indexOf(searchFor[i]) < 0 && index < typFileLines.size()) {
-						++index;
-						temp = typFileLines.get(index);
-					}
-					if (temp.indexOf(searchFor[i]) >= 0) { // Found line
-						final StringTokenizer st2 = new StringTokenizer(temp, "=");
-						final Vector<String> typFileLineTokens = new Vector<String>();
-						while (st2.hasMoreTokens()) {
-							typFileLineTokens.add(st2.nextToken().trim());
-						}
-						calibrationCoefficients[i] = Double.valueOf(typFileLineTokens.get(1));
-					} else {
-						calibrationCoefficients[i] = i * 1000.0;
-					}
-				}
-				calibrationCoefficients[1] /= 1000.0; // 1.495
+				calibrationCoefficients = DeviceCalibration.getCoefficients(typFileName);
 			} catch (final Exception err) {
+				calibrationCoefficients = new double[2];
 				System.err.println("Error: " + err.getMessage());
 			}
 		}
 
-		resolution = cal.pixelWidth;
-		if (getInfoProperty(imageInfo, "Pixel Spacing") != null) {
-			String temp = getInfoProperty(imageInfo, "Pixel Spacing");
-			if (temp.indexOf("\\") != -1) {
-				temp = temp.substring(0, temp.indexOf("\\"));
-			}
-			resolution = Double.valueOf(temp);
-		}
+		resolution = getResolution(imageInfo, cal);
 		// Get parameters for scaling the image and for thresholding
 		final GenericDialog dialog = new GenericDialog("Analysis parameters");
 		final String[] topLabels = new String[4];
@@ -207,14 +177,10 @@ public class Distribution_Analysis implements PlugIn {
 		 * "Scaling_constant (intercept)",-856.036, 4, 8, null);
 		 */
 		// Get ROI selection
-		final String[] choiceLabels = { "Bigger", "Smaller", "Left", "Right", "Top", "Bottom", "Central", "Peripheral",
-				"SecondLargest", "TwoLargestLeft", "TwoLargestRight", "FirstFromLeft", "SecondFromLeft",
-				"ThirdFromLeft", "FourthFromLeft", "FifthFromLeft", "FirstFromTop", "SecondFromTop", "ThirdFromTop",
-				"FourthFromTop", "FifthFromTop" };
+		final String[] choiceLabels = CHOICE_LABELS.clone();
 		dialog.addChoice("Roi_selection", choiceLabels, choiceLabels[0]);
 		dialog.addChoice("Soft_Tissue_Roi_selection", choiceLabels, choiceLabels[0]);
-		final String[] rotationLabels = { "According_to_Imax/Imin", "Furthest_point", "All_Bones_Imax/Imin",
-				"Not_selected_to_right", "Selected_to_right" };
+		final String[] rotationLabels = ROTATION_LABELS.clone();
 		dialog.addChoice("Rotation_selection", rotationLabels, rotationLabels[0]); // "According_to_Imax/Imin"
 
 		final String[] middleLabels = new String[10];
@@ -262,6 +228,7 @@ public class Distribution_Analysis implements PlugIn {
 		bottomLabels[7] = "Save_visual_result_image_on_disk";
 		bottomDefaults[7] = false;
 		dialog.addCheckboxGroup(2, 5, bottomLabels, bottomDefaults);
+		dialog.addCheckbox("Polar_resampling", false);
 
 		dialog.addStringField("Image_save_path", Prefs.getDefaultDirectory(), 40);
 		dialog.addHelp("http://bonej.org/densitydistribution");
@@ -286,6 +253,7 @@ public class Distribution_Analysis implements PlugIn {
 			for (int i = 0; i < bottomDefaults.length; ++i) {
 				bottomDefaults[i] = dialog.getNextBoolean();
 			}
+			final boolean polarResampling = dialog.getNextBoolean();
 			final String imageSavePath = dialog.getNextString();
 			ScaledImageData scaledImageData;
 
@@ -309,33 +277,12 @@ public class Distribution_Analysis implements PlugIn {
 			 * (checkDate.indexOf("2005") >-1 || checkDate.indexOf("2006") >-1){
 			 * flipHorizontal = true; }
 			 */
-			final short[] tempPointer = (short[]) imp.getProcessor().getPixels();
-			final int[] signedShort = new int[tempPointer.length];
-
-			if (imp.getOriginalFileInfo().fileType == ij.io.FileInfo.GRAY16_SIGNED || cal.isSigned16Bit()) {
-				final float[] floatPointer = (float[]) imp.getProcessor().toFloat(1, null).getPixels();
-				for (int i = 0; i < tempPointer.length; ++i) {
-					signedShort[i] = (int) (floatPointer[i] - Math.pow(2.0, 15.0));
-				}
-			} else {
-				/*
-				 * Apply the original calibration of the image prior to applying
-				 * the calibration got from the user -> enables using ImageJ for
-				 * figuring out the calibration without too much fuss.
-				 */
-				double[] origCalCoeffs = imp.getOriginalFileInfo().coefficients;
-				if (origCalCoeffs == null) {
-					origCalCoeffs = cal.getCoefficients();
-				}
-				final float[] floatPointer = (float[]) imp.getProcessor().toFloat(1, null).getPixels();
-				for (int i = 0; i < tempPointer.length; ++i) {
-					signedShort[i] = (int) (floatPointer[i] * origCalCoeffs[1] + origCalCoeffs[0]);
-				}
-			}
+			final int[] signedShort = getSignedPixels(imp);
 
 			final ImageAndAnalysisDetails imageAndAnalysisDetails = new ImageAndAnalysisDetails(defaultTopValues,
 					thresholdsAndScaling, alignmentStrings, choiceLabels, rotationLabels, middleDefaults, manualAlfa,
 					bottomDefaults, sectorsAndDivisions, filterSizes);
+			imageAndAnalysisDetails.polarResampling = polarResampling;
 			scaledImageData = new ScaledImageData(signedShort, imp.getWidth(), imp.getHeight(), resolution,
 					imageAndAnalysisDetails.scalingFactor, imageAndAnalysisDetails.constant, 3,
 					imageAndAnalysisDetails.flipHorizontal, imageAndAnalysisDetails.flipVertical,
@@ -517,6 +464,73 @@ public class Distribution_Analysis implements PlugIn {
 		UsageReporter.reportEvent(this).send();
 	}
 
+	/**
+	 * Get the pixel spacing from an image's info, falling back on its
+	 * calibration
+	 *
+	 * @param imageInfo
+	 * @param cal
+	 * @return pixel width in mm
+	 */
+	public static double getResolution(final String imageInfo, final Calibration cal) {
+		String temp = getInfoProperty(imageInfo, "Pixel Spacing");
+		if (temp == null)
+			return cal.pixelWidth;
+		if (temp.indexOf("\\") != -1) {
+			temp = temp.substring(0, temp.indexOf("\\"));
+		}
+		return Double.valueOf(temp);
+	}
+
+	/**
+	 * Get an image's pixels as signed values, ready for scaling to density
+	 *
+	 * @param imp
+	 *            16-bit image
+	 * @return pixel values
+	 */
+	public static int[] getSignedPixels(final ImagePlus imp) {
+		return getSignedPixels(imp, imp.getProcessor());
+	}
+
+	/**
+	 * Get the pixels of one slice of a stack as signed values
+	 *
+	 * @param imp
+	 *            16-bit image, whose calibration is applied
+	 * @param ip
+	 *            slice of the image
+	 * @return pixel values
+	 */
+	public static int[] getSignedPixels(final ImagePlus imp, final ImageProcessor ip) {
+		final Calibration cal = imp.getCalibration();
+		final FileInfo fileInfo = imp.getOriginalFileInfo();
+		final short[] tempPointer = (short[]) ip.getPixels();
+		final int[] signedShort = new int[tempPointer.length];
+
+		if ((fileInfo != null && fileInfo.fileType == FileInfo.GRAY16_SIGNED) || cal.isSigned16Bit()) {
+			final float[] floatPointer = (float[]) ip.toFloat(1, null).getPixels();
+			for (int i = 0; i < tempPointer.length; ++i) {
+				signedShort[i] = (int) (floatPointer[i] - Math.pow(2.0, 15.0));
+			}
+		} else {
+			/*
+			 * Apply the original calibration of the image prior to applying
+			 * the calibration got from the user -> enables using ImageJ for
+			 * figuring out the calibration without too much fuss.
+			 */
+			double[] origCalCoeffs = fileInfo == null ? null : fileInfo.coefficients;
+			if (origCalCoeffs == null) {
+				origCalCoeffs = cal.getCoefficients();
+			}
+			final float[] floatPointer = (float[]) ip.toFloat(1, null).getPixels();
+			for (int i = 0; i < tempPointer.length; ++i) {
+				signedShort[i] = (int) (floatPointer[i] * origCalCoeffs[1] + origCalCoeffs[0]);
+			}
+		}
+		return signedShort;
+	}
+
 	public static String getInfoProperty(final String properties, final String propertyToGet) {
 		final String toTokenize = properties;
 		final StringTokenizer st = new StringTokenizer(toTokenize, "\n");
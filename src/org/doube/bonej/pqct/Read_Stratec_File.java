@@ -25,10 +25,12 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 
 //UnsupportedDataTypeException
 import javax.activation.UnsupportedDataTypeException;
 
+import org.doube.bonej.pqct.io.StratecHeader;
 import org.doube.util.UsageReporter;
 
 import ij.IJ;
@@ -74,6 +76,27 @@ public class Read_Stratec_File extends ImagePlus implements PlugIn {
 	 *             if the path is null or the file is not normal
 	 */
 	public ImagePlus open(final String path) throws IllegalArgumentException {
+		try {
+			return load(path);
+		} catch (final IOException err) {
+			IJ.error("Stratec file read failed ", err.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Opens a Stratec pQCT file without reporting errors to the user, for
+	 * headless use
+	 *
+	 * @param path
+	 *            full path to the file
+	 * @return ImagePlus containing the calibrated pQCT image
+	 * @throws IllegalArgumentException
+	 *             if the path is null or the file is not normal
+	 * @throws IOException
+	 *             if the file cannot be read or is not a Stratec file
+	 */
+	public ImagePlus load(final String path) throws IOException {
 		if (path == null)
 			throw new IllegalArgumentException("Path cannot be null");
 		final File theFile = new File(path);
@@ -81,14 +104,9 @@ public class Read_Stratec_File extends ImagePlus implements PlugIn {
 			throw new IllegalArgumentException("Path is not a normal file");
 		final String directory = theFile.getParent() + "/";
 		fileName = theFile.getName();
-		try {
-			read(directory);
-			fileInfo();
-			return this;
-		} catch (final Exception err) {
-			IJ.error("Stratec file read failed ", err.getMessage());
-			return null;
-		}
+		read(directory);
+		fileInfo();
+		return this;
 	}
 
 	// Overriding the abstract runnable run method. Apparently plugins run in
@@ -147,7 +165,7 @@ public class Read_Stratec_File extends ImagePlus implements PlugIn {
 	 * @param directory
 	 * @throws Exception
 	 */
-	private void read(final String directory) throws Exception {
+	private void read(final String directory) throws IOException {
 		final File fileIn = new File(directory + fileName);
 		final long fileLength = fileIn.length();
 		byte[] fileData;
@@ -164,14 +182,13 @@ public class Read_Stratec_File extends ImagePlus implements PlugIn {
 			throw new UnsupportedDataTypeException("Could not read input file.");
 		}
 		// Read some data from the file Header
-		if (fileLength > 1609) {
-			Device = new String(fileData, 1051, fileData[1050]);
-		} else {
+		if (fileLength <= StratecHeader.LENGTH) {
 			throw new UnsupportedDataTypeException("Apparently not a Stratec file, file length < 1609 bytes.");
 		}
-
-		if (fileLength > 1609 && Device.toLowerCase().indexOf(".typ") >= 0) {
-			readHeader(fileData);
+		final StratecHeader header = new StratecHeader(fileData);
+		Device = header.getDevice();
+		if (header.isStratecFile()) {
+			readHeader(header);
 		} else {
 			throw new UnsupportedDataTypeException("Apparently not a Stratec file, device string not found.");
 		}
@@ -213,57 +230,20 @@ public class Read_Stratec_File extends ImagePlus implements PlugIn {
 		cal.pixelWidth = cal.pixelHeight = cal.pixelDepth = VoxelSize;
 	}
 
-	private void readHeader(final byte[] fileData) {
-		// byte stringLength;
-		int offset = 12;
-		VoxelSize = Double.longBitsToDouble(
-				((long) (fileData[offset + 7] & 0xFF)) << 56 | ((long) (fileData[offset + 6] & 0xFF)) << 48
-						| ((long) (fileData[offset + 5] & 0xFF)) << 40 | ((long) (fileData[offset + 4] & 0xFF)) << 32
-						| ((long) (fileData[offset + 3] & 0xFF)) << 24 | ((long) (fileData[offset + 2] & 0xFF)) << 16
-						| ((long) (fileData[offset + 1] & 0xFF)) << 8 | ((long) (fileData[offset + 0] & 0xFF)) << 0);
-
-		offset = 318;
-		ObjLen = Double.longBitsToDouble(
-				((long) (fileData[offset + 7] & 0xFF)) << 56 | ((long) (fileData[offset + 6] & 0xFF)) << 48
-						| ((long) (fileData[offset + 5] & 0xFF)) << 40 | ((long) (fileData[offset + 4] & 0xFF)) << 32
-						| ((long) (fileData[offset + 3] & 0xFF)) << 24 | ((long) (fileData[offset + 2] & 0xFF)) << 16
-						| ((long) (fileData[offset + 1] & 0xFF)) << 8 | ((long) (fileData[offset + 0] & 0xFF)) << 0);
-
-		offset = 662;
-		MeasInfo = new String(fileData, offset + 1, fileData[offset]);
-
-		offset = 986;
-		MeasDate = ((long) (fileData[offset + 3] & 0xFF)) << 24 | ((long) (fileData[offset + 2] & 0xFF)) << 16
-				| ((long) (fileData[offset + 1] & 0xFF)) << 8 | (fileData[offset + 0] & 0xFF);
-
-		offset = 1085;
-		PatMeasNo = ((fileData[offset + 1] & 0xFF) << 8 | (fileData[offset + 0] & 0xFF));
-
-		offset = 1087;
-		PatNo = ((long) (fileData[offset + 3] & 0xFF)) << 24 | ((long) (fileData[offset + 2] & 0xFF)) << 16
-				| ((long) (fileData[offset + 1] & 0xFF)) << 8 | (fileData[offset + 0] & 0xFF);
-
-		offset = 1091;
-		PatBirth = ((long) (fileData[offset + 3] & 0xFF)) << 24 | ((long) (fileData[offset + 2] & 0xFF)) << 16
-				| ((long) (fileData[offset + 1] & 0xFF)) << 8 | (fileData[offset + 0] & 0xFF);
-
-		offset = 1099;
-		PatName = new String(fileData, offset + 1, fileData[offset]);
-
-		offset = 1282;
-		PatID = new String(fileData, offset + 1, fileData[offset]);
-
-		offset = 1525;
-		PicX0 = ((fileData[offset + 1] & 0xFF) << 8 | (fileData[offset + 0] & 0xFF));
-
-		offset = 1527;
-		PicY0 = ((fileData[offset + 1] & 0xFF) << 8 | (fileData[offset + 0] & 0xFF));
-
-		offset = 1529;
-		PicMatrixX = ((fileData[offset + 1] & 0xFF) << 8 | (fileData[offset + 0] & 0xFF));
-
-		offset = 1531;
-		PicMatrixY = ((fileData[offset + 1] & 0xFF) << 8 | (fileData[offset + 0] & 0xFF));
+	private void readHeader(final StratecHeader header) {
+		VoxelSize = header.getVoxelSize();
+		ObjLen = header.getObjLen();
+		MeasInfo = header.getMeasInfo();
+		MeasDate = header.getMeasDate();
+		PatMeasNo = header.getPatMeasNo();
+		PatNo = header.getPatNo();
+		PatBirth = header.getPatBirth();
+		PatName = header.getPatName();
+		PatID = header.getPatID();
+		PicX0 = header.getPicX0();
+		PicY0 = header.getPicY0();
+		PicMatrixX = header.getPicMatrixX();
+		PicMatrixY = header.getPicMatrixY();
 	}
 
 	private void setProperties(final String directory) {
@@ -48,14 +48,16 @@ public class ConcentricRingAnalysis {
 	Vector<double[]> BMDj;
 
 	// Variables for moment calculations
-	public Vector<Integer> pind;
-	public Vector<Integer> pindColor;
+	public int[] pind;
+	public int[] pindColor;
 
 	// Density distribution variables
 	public double[] pRad;
 	public double[] pericorticalRadii;
 	public Vector<double[]> BMDs;
 	SelectROI roi;
+	/** divide the rings by scanning a polar resampling of the image */
+	boolean polarResampling;
 
 	public ConcentricRingAnalysis(final SelectROI roi, final ImageAndAnalysisDetails details,
 			final DetermineAlfa determineAlfa) {
@@ -69,6 +71,7 @@ public class ConcentricRingAnalysis {
 		height = roi.height;
 		width = roi.width;
 		pixelSpacing = roi.pixelSpacing;
+		polarResampling = details.polarResampling;
 		boneCenter = new double[2];
 		int points = 0;
 		for (int j = 0; j < height; j++) {
@@ -107,9 +110,9 @@ public class ConcentricRingAnalysis {
 		// Calculate the division and sector values of vBMD
 		for (pp = 0; pp < (int) (360 / sectorWidth); pp++) {
 			for (dd = 0; dd < (int) sectorWidth; dd++) {
-				pericorticalRadii[pp] += pRad[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
+				pericorticalRadii[pp] += pRad[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
 				for (int div = 0; div < divisions; ++div) {
-					BMDs.get(div)[pp] += BMDj.get(div)[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
+					BMDs.get(div)[pp] += BMDj.get(div)[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
 				}
 			}
 		}
@@ -125,57 +128,37 @@ public class ConcentricRingAnalysis {
 		for (int i = 0; i < divisions; ++i) {
 			BMDj.add(new double[360]);
 		}
-		final Vector<Double> BMD_temp = new Vector<Double>();
-		final double rIncrement = 0.1;
-		for (int et = 0; et < 360; ++et) { // Finding endocortical and
-											// pericortical borders uMath.sing
-											// polar coordinates
-			Theta[et] = Math.PI / 180.0 * et;
-			BMD_temp.clear();
-			double R = 0;
-			while (roi.sieve[(int) (boneCenter[0] + R * Math.cos(Theta[et]))
-					+ ((int) ((boneCenter[1] + R * Math.sin(Theta[et]))) * width)] > 0
-					|| roi.sieve[(int) (boneCenter[0] + (R + 0.5) * Math.cos(Theta[et]))
-							+ ((int) ((boneCenter[1] + (R + 0.5) * Math.sin(Theta[et]))) * width)] > 0
-					|| roi.sieve[(int) (boneCenter[0] + (R + 1) * Math.cos(Theta[et]))
-							+ ((int) ((boneCenter[1] + (R + 1) * Math.sin(Theta[et]))) * width)] > 0
-					|| roi.sieve[(int) (boneCenter[0] + (R + 2) * Math.cos(Theta[et]))
-							+ ((int) ((boneCenter[1] + (R + 2) * Math.sin(Theta[et]))) * width)] > 0
-					|| roi.sieve[(int) (boneCenter[0] + (R + 3) * Math.cos(Theta[et]))
-							+ ((int) ((boneCenter[1] + (R + 3) * Math.sin(Theta[et]))) * width)] > 0
-					|| roi.sieve[(int) (boneCenter[0] + (R + 4) * Math.cos(Theta[et]))
-							+ ((int) ((boneCenter[1] + (R + 4) * Math.sin(Theta[et]))) * width)] > 0
-					|| roi.sieve[(int) (boneCenter[0] + (R + 6) * Math.cos(Theta[et]))
-							+ ((int) ((boneCenter[1] + (R + 6) * Math.sin(Theta[et]))) * width)] > 0) {
+		final double[][] bmd = BMDj.toArray(new double[BMDj.size()][]);
+		final PolarSampling rays = new PolarSampling(boneCenter, width);
+		final PolarSampling.PolarImage image = rays.polarImage(roi.scaledImage, height, polarResampling);
+		final int last = PolarSampling.traceAll(new PolarSampling.Ray() {
+			public boolean trace(final int et, final PolarSampling.Samples samples) {
+				Theta[et] = PolarSampling.theta(et);
+				int k = 0;
+				while (rays.anyAbove(roi.sieve, et, k)) {
+					++k;
+				}
+				Ru[et] = PolarSampling.radius(k);
 				// Calculate BMC rho*dV, dV=dA*slice_thickness
 				// dA=pi*((R(et)*resolution)^2-((R(et)-0.1)*resolution)^2),
 				// slice_thickness = 1 mm
 				// (could be set to actual slice thickness, but makes no
-				// difference for comparisons -> 1 mm is used BMD divided by
-				// 1000, because unit is mg/cm3 and area is mm2
-				BMD_temp.add(roi.scaledImage[(int) (boneCenter[0] + R * Math.cos(Theta[et]))
-						+ ((int) ((boneCenter[1] + R * Math.sin(Theta[et]))) * width)]);
-				R += rIncrement;
+				// difference for comparisons -> 1 mm is used BMD divided
+				// by 1000, because unit is mg/cm3 and area is mm2
+				// Dividing the cortex to three divisions -> save the mean vBMD
+				// for each division
+				return rays.divide(image, null, et, 0, k, samples, bmd, divisions);
 			}
-			Ru[et] = R;
-			final int analysisThickness = BMD_temp.size();
-			// Dividing the cortex to three divisions -> save the mean vBMD for
-			// each division
-			if (analysisThickness < divisions) {
-				break;
-			} else {
-				// cortex
-				for (int div = 0; div < divisions; ++div) {
-					int mo = 0;
-					for (int ka = (int) ((double) analysisThickness * (double) div
-							/ divisions); ka < (int) (analysisThickness * (div + 1.0) / divisions); ka++) {
-						BMDj.get(div)[et] += BMD_temp.get(ka);
-						mo++;
-					}
-					BMDj.get(div)[et] /= mo;
-				}
+		});
+		// Rays after the first one too thin to divide are left unset
+		for (int et = last; et < 360; ++et) {
+			if (et > last) {
+				Theta[et] = 0;
+				Ru[et] = 0;
+			}
+			for (int div = 0; div < bmd.length; ++div) {
+				bmd[div][et] = 0;
 			}
-
 		}
 	}
 
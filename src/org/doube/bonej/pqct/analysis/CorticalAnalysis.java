@@ -21,6 +21,7 @@
 package org.doube.bonej.pqct.analysis;
 
 //ROI selection..
+import org.doube.bonej.pqct.selectroi.RowSpanMask;
 import org.doube.bonej.pqct.selectroi.SelectROI;
 
 //import SelectROI.*;
@@ -58,8 +59,10 @@ public class CorticalAnalysis {
 		ToD = 0;
 		MaA = 0;
 		MaD = 0;
-		for (int i = 0; i < roi.width * roi.height; i++) {
-			if (roi.sieve[i] > 0) {
+		final RowSpanMask bone = RowSpanMask.fromSieve(roi.sieve, roi.width, roi.height);
+		for (int s = 0; s < bone.getSpanCount(); s++) {
+			final int offset = bone.getRow(s) * roi.width;
+			for (int i = offset + bone.getStart(s); i < offset + bone.getEnd(s); i++) {
 				ToA += 1;
 				ToD += roi.scaledImage[i];
 				if (roi.scaledImage[i] < roi.details.marrowThreshold) { // Marrow
@@ -104,30 +107,37 @@ public class CorticalAnalysis {
 		BMD = 0;
 		AREA = 0;
 		cortexCenter = new double[2];
-		for (int j = 0; j < roi.cortexRoiI.size(); j++) {
-			BMD += roi.cortexROI[roi.cortexRoiI.get(j) + roi.cortexRoiJ.get(j) * roi.width];
+		final RowSpanMask cortex = roi.cortexRoi;
+		for (int s = 0; s < cortex.getSpanCount(); s++) {
+			final int j = cortex.getRow(s);
+			for (int i = cortex.getStart(s); i < cortex.getEnd(s); i++) {
+				BMD += roi.cortexROI[i + j * roi.width];
+			}
 		}
-		BMD /= roi.cortexRoiI.size();
+		BMD /= cortex.getArea();
 		// Calculate cortical area from 550 threshold...
-		for (int j = 0; j < roi.cortexAreaRoiI.size(); j++) {
-			cortexCenter[0] += (double) roi.cortexAreaRoiI.get(j);
-			cortexCenter[1] += (double) roi.cortexAreaRoiJ.get(j);
+		final RowSpanMask cortexArea = roi.cortexAreaRoi;
+		for (int s = 0; s < cortexArea.getSpanCount(); s++) {
+			final int j = cortexArea.getRow(s);
+			for (int i = cortexArea.getStart(s); i < cortexArea.getEnd(s); i++) {
+				cortexCenter[0] += i;
+				cortexCenter[1] += j;
+			}
 		}
-		AREA = roi.cortexAreaRoiI.size() * roi.pixelSpacing * roi.pixelSpacing;
+		AREA = cortexArea.getArea() * roi.pixelSpacing * roi.pixelSpacing;
 		MeA = ToA - AREA;
-		cortexCenter[0] /= roi.cortexAreaRoiI.size();
-		cortexCenter[1] /= roi.cortexAreaRoiJ.size();
+		cortexCenter[0] /= cortexArea.getArea();
+		cortexCenter[1] /= cortexArea.getArea();
 		maxRadiusY = 0; // y for cortical pixels. used for BSI calculations,
 						// i.e. density weighted section modulus
-		for (int i = 0; i < roi.cortexAreaRoiI.size(); i++) {
-			if (Math.sqrt(((double) roi.cortexAreaRoiI.get(i) - cortexCenter[0])
-					* ((double) roi.cortexAreaRoiI.get(i) - cortexCenter[0])
-					+ ((double) roi.cortexAreaRoiJ.get(i) - cortexCenter[1])
-							* ((double) roi.cortexAreaRoiJ.get(i) - cortexCenter[1])) > maxRadiusY) {
-				maxRadiusY = Math.sqrt(((double) roi.cortexAreaRoiI.get(i) - cortexCenter[0])
-						* ((double) roi.cortexAreaRoiI.get(i) - cortexCenter[0])
-						+ ((double) roi.cortexAreaRoiJ.get(i) - cortexCenter[1])
-								* ((double) roi.cortexAreaRoiJ.get(i) - cortexCenter[1]));
+		for (int s = 0; s < cortexArea.getSpanCount(); s++) {
+			final int j = cortexArea.getRow(s);
+			for (int i = cortexArea.getStart(s); i < cortexArea.getEnd(s); i++) {
+				if (Math.sqrt((i - cortexCenter[0]) * (i - cortexCenter[0])
+						+ (j - cortexCenter[1]) * (j - cortexCenter[1])) > maxRadiusY) {
+					maxRadiusY = Math.sqrt((i - cortexCenter[0]) * (i - cortexCenter[0])
+							+ (j - cortexCenter[1]) * (j - cortexCenter[1]));
+				}
 			}
 		}
 		// Calculate CSMIs and rotation angle to align maximal and minimal
@@ -144,47 +154,36 @@ public class CorticalAnalysis {
 		SSI = 0;
 		// Calculating cross-sectional moment of inertia in the original image
 		// orientation
-		for (int i = 0; i < roi.cortexAreaRoiI.size(); i++) {
-			xmax = xmax + ((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing)
-					* ((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing) * roi.pixelSpacing
-					* roi.pixelSpacing;
-			ymax = ymax + ((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing)
-					* ((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing) * roi.pixelSpacing
-					* roi.pixelSpacing;
-			moment = moment + ((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing)
-					* ((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing) * roi.pixelSpacing
-					* roi.pixelSpacing;
-			dwxmax = dwxmax + ((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing / 10)
-					* ((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing / 10) * (roi.pixelSpacing / 10)
-					* (roi.pixelSpacing / 10)
-					* (roi.scaledImage[roi.cortexAreaRoiI.get(i) + roi.cortexAreaRoiJ.get(i) * roi.width]);
-			dwymax = dwymax + ((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing / 10)
-					* ((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing / 10) * (roi.pixelSpacing / 10)
-					* (roi.pixelSpacing / 10)
-					* (roi.scaledImage[roi.cortexAreaRoiI.get(i) + roi.cortexAreaRoiJ.get(i) * roi.width]);
-			dwmo = dwmo + ((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing / 10)
-					* ((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing / 10) * (roi.pixelSpacing / 10)
-					* (roi.pixelSpacing / 10)
-					* (roi.scaledImage[roi.cortexAreaRoiI.get(i) + roi.cortexAreaRoiJ.get(i) * roi.width]);
-			ssixmax += Math.pow((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing, 2.0)
-					* Math.pow(roi.pixelSpacing, 2.0)
-					* (roi.scaledImage[roi.cortexAreaRoiI.get(i) + roi.cortexAreaRoiJ.get(i) * roi.width] / 1200)
-					/ (maxRadiusY * roi.pixelSpacing);
-			ssiymax += Math.pow((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing, 2.0)
-					* Math.pow(roi.pixelSpacing, 2.0)
-					* (roi.scaledImage[roi.cortexAreaRoiI.get(i) + roi.cortexAreaRoiJ.get(i) * roi.width] / 1200)
-					/ (maxRadiusY * roi.pixelSpacing);
-			ssimo += (roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing
-					* (roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing * Math.pow(roi.pixelSpacing, 2.0)
-					* (roi.scaledImage[roi.cortexAreaRoiI.get(i) + roi.cortexAreaRoiJ.get(i) * roi.width] / 1200)
-					/ (maxRadiusY * roi.pixelSpacing);
-			SSI = SSI + ((((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing)
-					* ((roi.cortexAreaRoiI.get(i) - cortexCenter[0]) * roi.pixelSpacing)
-					+ ((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing)
-							* ((roi.cortexAreaRoiJ.get(i) - cortexCenter[1]) * roi.pixelSpacing))
-					* roi.pixelSpacing * roi.pixelSpacing
-					* (roi.scaledImage[roi.cortexAreaRoiI.get(i) + roi.cortexAreaRoiJ.get(i) * roi.width] / 1200))
-					/ (maxRadiusY * roi.pixelSpacing);
+		for (int s = 0; s < cortexArea.getSpanCount(); s++) {
+			final int j = cortexArea.getRow(s);
+			for (int i = cortexArea.getStart(s); i < cortexArea.getEnd(s); i++) {
+				xmax = xmax + ((i - cortexCenter[0]) * roi.pixelSpacing) * ((i - cortexCenter[0]) * roi.pixelSpacing)
+						* roi.pixelSpacing * roi.pixelSpacing;
+				ymax = ymax + ((j - cortexCenter[1]) * roi.pixelSpacing) * ((j - cortexCenter[1]) * roi.pixelSpacing)
+						* roi.pixelSpacing * roi.pixelSpacing;
+				moment = moment + ((i - cortexCenter[0]) * roi.pixelSpacing)
+						* ((j - cortexCenter[1]) * roi.pixelSpacing) * roi.pixelSpacing * roi.pixelSpacing;
+				dwxmax = dwxmax + ((i - cortexCenter[0]) * roi.pixelSpacing / 10)
+						* ((i - cortexCenter[0]) * roi.pixelSpacing / 10) * (roi.pixelSpacing / 10)
+						* (roi.pixelSpacing / 10) * (roi.scaledImage[i + j * roi.width]);
+				dwymax = dwymax + ((j - cortexCenter[1]) * roi.pixelSpacing / 10)
+						* ((j - cortexCenter[1]) * roi.pixelSpacing / 10) * (roi.pixelSpacing / 10)
+						* (roi.pixelSpacing / 10) * (roi.scaledImage[i + j * roi.width]);
+				dwmo = dwmo + ((i - cortexCenter[0]) * roi.pixelSpacing / 10)
+						* ((j - cortexCenter[1]) * roi.pixelSpacing / 10) * (roi.pixelSpacing / 10)
+						* (roi.pixelSpacing / 10) * (roi.scaledImage[i + j * roi.width]);
+				ssixmax += Math.pow((i - cortexCenter[0]) * roi.pixelSpacing, 2.0) * Math.pow(roi.pixelSpacing, 2.0)
+						* (roi.scaledImage[i + j * roi.width] / 1200) / (maxRadiusY * roi.pixelSpacing);
+				ssiymax += Math.pow((j - cortexCenter[1]) * roi.pixelSpacing, 2.0) * Math.pow(roi.pixelSpacing, 2.0)
+						* (roi.scaledImage[i + j * roi.width] / 1200) / (maxRadiusY * roi.pixelSpacing);
+				ssimo += (i - cortexCenter[0]) * roi.pixelSpacing * (j - cortexCenter[1]) * roi.pixelSpacing
+						* Math.pow(roi.pixelSpacing, 2.0) * (roi.scaledImage[i + j * roi.width] / 1200)
+						/ (maxRadiusY * roi.pixelSpacing);
+				SSI = SSI + ((((i - cortexCenter[0]) * roi.pixelSpacing) * ((i - cortexCenter[0]) * roi.pixelSpacing)
+						+ ((j - cortexCenter[1]) * roi.pixelSpacing) * ((j - cortexCenter[1]) * roi.pixelSpacing))
+						* roi.pixelSpacing * roi.pixelSpacing * (roi.scaledImage[i + j * roi.width] / 1200))
+						/ (maxRadiusY * roi.pixelSpacing);
+			}
 		}
 
 		double vali1, vali2, vali3, vali4;
@@ -20,13 +20,12 @@
 
 package org.doube.bonej.pqct.analysis;
 
-//Vector, Collections
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Vector;
 
 import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
 //ROI selection..
+import org.doube.bonej.pqct.selectroi.CoordinateBuffer;
+import org.doube.bonej.pqct.selectroi.RowSpanMask;
 import org.doube.bonej.pqct.selectroi.SelectROI;
 
 public class DetermineAlfa {
@@ -34,8 +33,8 @@ public class DetermineAlfa {
 	public double alfa = 0;
 	public double rotationCorrection = 0;
 	public double distanceBetweenBones = 0;
-	public Vector<Integer> pind;
-	public Vector<Integer> pindColor;
+	public int[] pind;
+	public int[] pindColor;
 	ImageAndAnalysisDetails details;
 
 	public DetermineAlfa(final SelectROI roi, final ImageAndAnalysisDetails details) {
@@ -103,16 +102,21 @@ public class DetermineAlfa {
 		if (details.rotationChoice.equals(details.rotationLabels[1])) {
 			/* Calculate alfa from periosteal radii */
 			final double[] marrowCenter = new double[2];
-			for (int i = 0; i < roi.boneMarrowRoiI.size(); i++) {
-				marrowCenter[0] += (double) roi.boneMarrowRoiI.get(i);
-				marrowCenter[1] += (double) roi.boneMarrowRoiJ.get(i);
+			final RowSpanMask marrow = roi.boneMarrowRoi;
+			for (int s = 0; s < marrow.getSpanCount(); s++) {
+				final int j = marrow.getRow(s);
+				for (int i = marrow.getStart(s); i < marrow.getEnd(s); i++) {
+					marrowCenter[0] += i;
+					marrowCenter[1] += j;
+				}
 			}
-			marrowCenter[0] /= roi.boneMarrowRoiI.size();
-			marrowCenter[1] /= roi.boneMarrowRoiJ.size();
+			marrowCenter[0] /= marrow.getArea();
+			marrowCenter[1] /= marrow.getArea();
+			final CoordinateBuffer edge = roi.edges.get(roi.selection).edge;
 			final double[] radii = new double[roi.edges.get(roi.selection).length];
 			for (int i = 0; i < roi.edges.get(roi.selection).length; ++i) {
-				radii[i] = Math.sqrt(Math.pow(roi.edges.get(roi.selection).iit.get(i) - marrowCenter[0], 2)
-						+ Math.pow(roi.edges.get(roi.selection).jiit.get(i) - marrowCenter[1], 2));
+				radii[i] = Math.sqrt(
+						Math.pow(edge.getI(i) - marrowCenter[0], 2) + Math.pow(edge.getJ(i) - marrowCenter[1], 2));
 			}
 			final double[] sumRadii = new double[radii.length];
 			for (int i = 5; i < radii.length - 6; ++i) {
@@ -127,8 +131,8 @@ public class DetermineAlfa {
 				++largest;
 			}
 			double x, y;
-			x = roi.edges.get(roi.selection).iit.get(largest) - marrowCenter[0];
-			y = roi.edges.get(roi.selection).jiit.get(largest) - marrowCenter[1];
+			x = edge.getI(largest) - marrowCenter[0];
+			y = edge.getJ(largest) - marrowCenter[1];
 			alfa = Math.PI - Math.atan2(y, x);
 		}
 
@@ -150,11 +154,10 @@ public class DetermineAlfa {
 				otherBoneSelection = twoBones[0];
 			}
 			/* Fill a sieve with a second bone and acquire coordinates... */
-			final Vector<Integer> sRoiI = tempRoi.edges.get(otherBoneSelection).iit;
-			final Vector<Integer> sRoiJ = tempRoi.edges.get(otherBoneSelection).jiit;
+			final CoordinateBuffer sRoi = tempRoi.edges.get(otherBoneSelection).edge;
 
-			final byte[] secondBoneSieve = tempRoi.fillSieve(sRoiI, sRoiJ, tempRoi.width, tempRoi.height,
-					tempRoi.scaledImage, details.rotationThreshold);
+			final byte[] secondBoneSieve = tempRoi.fillSieve(sRoi, tempRoi.width, tempRoi.height, tempRoi.scaledImage,
+					details.rotationThreshold);
 
 			final double[] selectedBoneCenter = calculateCenter(tempRoi.sieve, tempRoi.width,
 					tempRoi.height); /* Calculate selected bone centre */
@@ -233,51 +236,50 @@ public class DetermineAlfa {
 		return originBone;
 	}
 
-	Vector<Integer> rotateIndex(final int rotationAngle) {
+	int[] rotateIndex(final int rotationAngle) {
 		int initialIndex = 0;
-		final Vector<Integer> rotateIndexVector = new Vector<Integer>();
 		if (rotationAngle >= 0) {
 			initialIndex = 360 - rotationAngle;
 		} else {
 			initialIndex = -rotationAngle;
 		}
+		final int[] rotateIndexVector = new int[Math.max(0, 360 - initialIndex) + Math.max(0, initialIndex)];
+		int n = 0;
 		int inde;
 		inde = initialIndex;
 		while (inde < 360) {
-			rotateIndexVector.add(inde);
+			rotateIndexVector[n++] = inde;
 			++inde;
 		}
 		inde = 0;
 		while (inde < initialIndex) {
-			rotateIndexVector.add(inde);
+			rotateIndexVector[n++] = inde;
 			++inde;
 		}
 
 		/* Flip rotateIndexVector, for e.g. comparing left to right */
 		if (details.flipDistribution) {
-			Collections.reverse(rotateIndexVector);
+			for (int a = 0, b = n - 1; a < b; a++, b--) {
+				final int temp = rotateIndexVector[a];
+				rotateIndexVector[a] = rotateIndexVector[b];
+				rotateIndexVector[b] = temp;
+			}
 		}
 		return rotateIndexVector;
 	}
 
 	double[] csmi(final byte[] sieve, final int width, final int height) {
 		final double[] cortexCenter = new double[2];
-		int points = 0;
-		final Vector<Integer> bmcI = new Vector<Integer>();
-		final Vector<Integer> bmcJ = new Vector<Integer>();
-		for (int j = 0; j < height; j++) {
-			for (int i = 0; i < width; i++) {
-				if (sieve[i + j * width] > 0) {
-					cortexCenter[0] += i;
-					cortexCenter[1] += j;
-					bmcI.add(i);
-					bmcJ.add(j);
-					++points;
-				}
+		final RowSpanMask bmc = RowSpanMask.fromSieve(sieve, width, height);
+		for (int s = 0; s < bmc.getSpanCount(); s++) {
+			final int j = bmc.getRow(s);
+			for (int i = bmc.getStart(s); i < bmc.getEnd(s); i++) {
+				cortexCenter[0] += i;
+				cortexCenter[1] += j;
 			}
 		}
-		cortexCenter[0] /= points;
-		cortexCenter[1] /= points;
+		cortexCenter[0] /= bmc.getArea();
+		cortexCenter[1] /= bmc.getArea();
 
 		final double[] returnValues = new double[3];
 		for (int i = 0; i < returnValues.length; ++i) {
@@ -285,10 +287,13 @@ public class DetermineAlfa {
 		}
 		// Calculating cross-sectional moment of inertia in the original image
 		// orientation
-		for (int i = 0; i < bmcI.size(); i++) {
-			returnValues[0] += ((bmcI.get(i) - cortexCenter[0])) * ((bmcI.get(i) - cortexCenter[0]));
-			returnValues[1] += ((bmcJ.get(i) - cortexCenter[1])) * ((bmcJ.get(i) - cortexCenter[1]));
-			returnValues[2] += ((bmcI.get(i) - cortexCenter[0])) * ((bmcJ.get(i) - cortexCenter[1]));
+		for (int s = 0; s < bmc.getSpanCount(); s++) {
+			final int j = bmc.getRow(s);
+			for (int i = bmc.getStart(s); i < bmc.getEnd(s); i++) {
+				returnValues[0] += ((i - cortexCenter[0])) * ((i - cortexCenter[0]));
+				returnValues[1] += ((j - cortexCenter[1])) * ((j - cortexCenter[1]));
+				returnValues[2] += ((i - cortexCenter[0])) * ((j - cortexCenter[1]));
+			}
 		}
 		return returnValues;
 	}
@@ -25,6 +25,7 @@ import java.util.Vector;
 
 import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
 //ROI selection..
+import org.doube.bonej.pqct.selectroi.RowSpanMask;
 import org.doube.bonej.pqct.selectroi.SelectROI;
 
 public class DistributionAnalysis {
@@ -43,11 +44,9 @@ public class DistributionAnalysis {
 	public int width;
 	public double threshold;
 
-	// Vectors for bone and marrow bone pixel coordinates
-	Vector<Integer> marrowI;
-	Vector<Integer> marrowJ;
-	Vector<Integer> cortexI;
-	Vector<Integer> cortexJ;
+	// Bone and marrow bone pixels
+	RowSpanMask marrow;
+	RowSpanMask cortex;
 	double maxRadius;
 	double maxRadiusY;
 	public double[] marrowCenter;
@@ -62,8 +61,8 @@ public class DistributionAnalysis {
 	Vector<double[]> BMDj;
 
 	// Variables for moment calculations
-	public Vector<Integer> pind;
-	public Vector<Integer> pindColor;
+	public int[] pind;
+	public int[] pindColor;
 
 	// Density distribution variables
 	public double[] pRad;
@@ -80,6 +79,8 @@ public class DistributionAnalysis {
 	public double[] radialDistribution;
 	public double[] polarDistribution;
 	public boolean preventPeeling;
+	/** divide the cortex by scanning a polar resampling of the image */
+	boolean polarResampling;
 
 	public double peeledBMD;
 
@@ -90,11 +91,11 @@ public class DistributionAnalysis {
 		sectorWidth = details.sectorWidth;
 		divisions = details.divisions;
 		preventPeeling = details.preventPeeling;
+		polarResampling = details.polarResampling;
 		threshold = details.BMDthreshold;
 		minimum = roi.minimum;
 		maximum = roi.maximum;
-		marrowI = roi.boneMarrowRoiI;
-		marrowJ = roi.boneMarrowRoiJ;
+		marrow = roi.boneMarrowRoi;
 		height = roi.height;
 		width = roi.width;
 		pixelSpacing = roi.pixelSpacing;
@@ -104,16 +105,18 @@ public class DistributionAnalysis {
 		peeledROI = roi.cortexROI.clone();
 		erode(peeledROI);
 		marrowCenter = new double[2];
-		for (int i = 0; i < marrowI.size(); i++) {
-			marrowCenter[0] += (double) marrowI.get(i);
-			marrowCenter[1] += (double) marrowJ.get(i);
+		for (int s = 0; s < marrow.getSpanCount(); s++) {
+			final int j = marrow.getRow(s);
+			for (int i = marrow.getStart(s); i < marrow.getEnd(s); i++) {
+				marrowCenter[0] += i;
+				marrowCenter[1] += j;
+			}
 		}
-		marrowCenter[0] /= marrowI.size();
-		marrowCenter[1] /= marrowJ.size();
+		marrowCenter[0] /= marrow.getArea();
+		marrowCenter[1] /= marrow.getArea();
 		// IJ.log("C0 "+marrowCenter[0]+" C1 "+marrowCenter[1]);
 		maxRadius = 0;
-		cortexI = new Vector<Integer>();
-		cortexJ = new Vector<Integer>();
+		cortex = new RowSpanMask();
 		peeledBMD = 0;
 		int tempCounter = 0;
 		for (int j = 0; j < height; j++) {
@@ -128,30 +131,32 @@ public class DistributionAnalysis {
 					peeledBMD += peeledROI[i + j * width];
 				}
 				if (originalROI[i + j * width] >= threshold) {
-					cortexI.add(i);
-					cortexJ.add(j);
+					cortex.add(i, j);
 				}
 			}
 		}
 		peeledBMD /= (tempCounter);
 
 		cortexCenter = new double[2];
-		for (int i = 0; i < cortexI.size(); i++) {
-			cortexCenter[0] += (double) cortexI.get(i);
-			cortexCenter[1] += (double) cortexJ.get(i);
-
+		for (int s = 0; s < cortex.getSpanCount(); s++) {
+			final int j = cortex.getRow(s);
+			for (int i = cortex.getStart(s); i < cortex.getEnd(s); i++) {
+				cortexCenter[0] += i;
+				cortexCenter[1] += j;
+			}
 		}
-		cortexCenter[0] /= cortexI.size();
-		cortexCenter[1] /= cortexJ.size();
+		cortexCenter[0] /= cortex.getArea();
+		cortexCenter[1] /= cortex.getArea();
 		maxRadiusY = 0; // y for cortical pixels. used for BSI calculations,
 						// i.e. density weighted section modulus
-		for (int i = 0; i < cortexI.size(); i++) {
-			if (Math.sqrt(((double) cortexI.get(i) - cortexCenter[0]) * ((double) cortexI.get(i) - cortexCenter[0])
-					+ ((double) cortexJ.get(i) - cortexCenter[1])
-							* ((double) cortexJ.get(i) - cortexCenter[1])) > maxRadiusY) {
-				maxRadiusY = Math.sqrt(((double) cortexI.get(i) - cortexCenter[0])
-						* ((double) cortexI.get(i) - cortexCenter[0])
-						+ ((double) cortexJ.get(i) - cortexCenter[1]) * ((double) cortexJ.get(i) - cortexCenter[1]));
+		for (int s = 0; s < cortex.getSpanCount(); s++) {
+			final int j = cortex.getRow(s);
+			for (int i = cortex.getStart(s); i < cortex.getEnd(s); i++) {
+				if (Math.sqrt((i - cortexCenter[0]) * (i - cortexCenter[0])
+						+ (j - cortexCenter[1]) * (j - cortexCenter[1])) > maxRadiusY) {
+					maxRadiusY = Math.sqrt((i - cortexCenter[0]) * (i - cortexCenter[0])
+							+ (j - cortexCenter[1]) * (j - cortexCenter[1]));
+				}
 			}
 		}
 		if (preventPeeling) {
@@ -194,14 +199,14 @@ public class DistributionAnalysis {
 		// Calculate the division and sector values of vBMD
 		for (pp = 0; pp < (int) (360 / sectorWidth); ++pp) {
 			for (dd = 0; dd < (int) sectorWidth; ++dd) {
-				endocorticalRadii[pp] += eRad[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
-				pericorticalRadii[pp] += pRad[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
-				peeledEndocorticalRadii[pp] += pERad[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
-				peeledPericorticalRadii[pp] += pPRad[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
+				endocorticalRadii[pp] += eRad[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
+				pericorticalRadii[pp] += pRad[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
+				peeledEndocorticalRadii[pp] += pERad[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
+				peeledPericorticalRadii[pp] += pPRad[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
 				// Cortex
-				endoCorticalBMDs[pp] += BMDj.get(0)[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
-				midCorticalBMDs[pp] += BMDj.get(1)[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
-				periCorticalBMDs[pp] += BMDj.get(2)[pind.get((int) (pp * sectorWidth + dd))] / sectorWidth;
+				endoCorticalBMDs[pp] += BMDj.get(0)[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
+				midCorticalBMDs[pp] += BMDj.get(1)[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
+				periCorticalBMDs[pp] += BMDj.get(2)[pind[(int) (pp * sectorWidth + dd)]] / sectorWidth;
 			}
 			corticalDensity[0][pp] = endoCorticalBMDs[pp];
 			corticalDensity[1][pp] = midCorticalBMDs[pp];
@@ -231,8 +236,18 @@ public class DistributionAnalysis {
 	}
 
 	void calculateRadiiNoPeeling() {
-		// Calculate radii in polar coordinate system originating from bone
-		// marrow center of mass
+		traceRays(false);
+	}
+
+	void calculateRadii() {
+		traceRays(true);
+	}
+
+	/*
+	 * Calculate radii in polar coordinate system originating from bone marrow
+	 * center of mass, tracing the rays in parallel
+	 */
+	private void traceRays(final boolean peel) {
 		Theta = new double[360];
 		R = new double[360];
 		R2 = new double[360];
@@ -242,160 +257,87 @@ public class DistributionAnalysis {
 		for (int i = 0; i < divisions; ++i) {
 			BMDj.add(new double[360]);
 		}
-		final Vector<Double> BMD_temp = new Vector<Double>();
-		int et;
-		for (et = 0; et < 360; ++et) { // Finding endocortical and pericortical
-										// borders uMath.sing polar coordinates
-			Theta[et] = Math.PI / 180.0 * et;
-			BMD_temp.clear();
-			// Anatomical endosteal border
-			while (originalROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-					+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)] < threshold
-					&& R[et] < maxRadius / pixelSpacing) {
-				R[et] = R[et] + 0.1;
-			}
-			R2[et] = R[et];
-			Rs[et] = R[et];
-			// Anatomical periosteal border
-			while (originalROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-					+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)] > 0
-					|| originalROI[(int) (marrowCenter[0] + (R[et] + 0.5) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 0.5) * Math.sin(Theta[et]))) * width)] > 0
-					|| originalROI[(int) (marrowCenter[0] + (R[et] + 1) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 1) * Math.sin(Theta[et]))) * width)] > 0
-					|| originalROI[(int) (marrowCenter[0] + (R[et] + 2) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 2) * Math.sin(Theta[et]))) * width)] > 0
-					|| originalROI[(int) (marrowCenter[0] + (R[et] + 3) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 3) * Math.sin(Theta[et]))) * width)] > 0
-					|| originalROI[(int) (marrowCenter[0] + (R[et] + 4) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 4) * Math.sin(Theta[et]))) * width)] > 0
-					|| originalROI[(int) (marrowCenter[0] + (R[et] + 6) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 6) * Math.sin(Theta[et]))) * width)] > 0) {
-				R[et] = R[et] + 0.1;
-				// increments++;
-				if (originalROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-						+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)] > 0) {
-					BMD_temp.add(originalROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)]);
+		final double[][] bmd = BMDj.toArray(new double[BMDj.size()][]);
+		final PolarSampling rays = new PolarSampling(marrowCenter, width);
+		final PolarSampling.PolarImage original = rays.polarImage(originalROI, height, polarResampling);
+		final PolarSampling.PolarImage peeled = peel ? rays.polarImage(peeledROI, height, polarResampling) : null;
+		final int last = PolarSampling.traceAll(new PolarSampling.Ray() {
+			public boolean trace(final int et, final PolarSampling.Samples samples) {
+				if (peel) {
+					return traceRay(rays, original, peeled, et, samples, bmd);
 				}
+				return traceRayNoPeeling(rays, original, et, samples, bmd);
 			}
-			Ru[et] = R[et];
-			final int analysisThickness = BMD_temp.size();
-			// Dividing the cortex to three divisions -> save the mean vBMD for
-			// each division
-			if (analysisThickness < divisions) {
-				break;
-			} else {
-				// cortex
-				for (int div = 0; div < divisions; ++div) {
-					int mo = 0;
-					for (int ka = (int) ((double) analysisThickness * (double) div
-							/ divisions); ka < (int) (analysisThickness * (div + 1.0) / divisions); ka++) {
-						BMDj.get(div)[et] += BMD_temp.get(ka);
-						mo++;
-					}
-					BMDj.get(div)[et] /= mo;
-				}
+		});
+		// Rays after the first one too thin to divide are left unset
+		for (int et = last; et < 360; ++et) {
+			if (et > last) {
+				Theta[et] = 0;
+				R[et] = 0;
+				R2[et] = 0;
+				Rs[et] = 0;
+				Ru[et] = 0;
+			}
+			for (int div = 0; div < bmd.length; ++div) {
+				bmd[div][et] = 0;
 			}
-
 		}
-
 	}
 
-	void calculateRadii() {
-		// Calculate radii in polar coordinate system originating from bone
-		// marrow center of mass
-		Theta = new double[360];
-		R = new double[360];
-		R2 = new double[360];
-		Rs = new double[360];
-		Ru = new double[360];
-		BMDj = new Vector<double[]>();
-		for (int i = 0; i < divisions; ++i) {
-			BMDj.add(new double[360]);
+	/* Anatomical endosteal border, returning the step at which it is found */
+	private int endostealBorder(final PolarSampling rays, final int et) {
+		int k = 0;
+		while (originalROI[rays.offset(et, k, 0)] < threshold && PolarSampling.radius(k) < maxRadius / pixelSpacing) {
+			++k;
 		}
-		final Vector<Double> BMD_temp = new Vector<Double>();
-		int et;
-		for (et = 0; et < 360; ++et) { // Finding endocortical and pericortical
-										// borders uMath.sing polar coordinates
-			Theta[et] = Math.PI / 180.0 * et;
-			BMD_temp.clear();
-			// Anatomical endosteal border
-			while (originalROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-					+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)] < threshold
-					&& R[et] < maxRadius / pixelSpacing) {
-				R[et] = R[et] + 0.1;
-			}
-			Rs[et] = R[et];
-			// Peeled endosteal border
-			while (peeledROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-					+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)] < 1
-					&& R[et] < maxRadius / pixelSpacing) {
-				R[et] = R[et] + 0.1;
-			}
-			R2[et] = R[et];
-			R[et] = R[et] + 0.1;
-			// Peeled periosteal border
-			while (peeledROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-					+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)] > 0
-					|| peeledROI[(int) (marrowCenter[0] + (R[et] + 0.5) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 0.5) * Math.sin(Theta[et]))) * width)] > 0
-					|| peeledROI[(int) (marrowCenter[0] + (R[et] + 1) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 1) * Math.sin(Theta[et]))) * width)] > 0
-					|| peeledROI[(int) (marrowCenter[0] + (R[et] + 2) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 2) * Math.sin(Theta[et]))) * width)] > 0
-					|| peeledROI[(int) (marrowCenter[0] + (R[et] + 3) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 3) * Math.sin(Theta[et]))) * width)] > 0
-					|| peeledROI[(int) (marrowCenter[0] + (R[et] + 4) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 4) * Math.sin(Theta[et]))) * width)] > 0
-					|| peeledROI[(int) (marrowCenter[0] + (R[et] + 6) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (R[et] + 6) * Math.sin(Theta[et]))) * width)] > 0) {
-				R[et] = R[et] + 0.1;
-				// increments++;
-				if (peeledROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-						+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)] > 0) {
-					BMD_temp.add(originalROI[(int) (marrowCenter[0] + R[et] * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + R[et] * Math.sin(Theta[et]))) * width)]);
-				}
-			}
-			// Anatomical periosteal border
-			Ru[et] = R[et];
-			while (originalROI[(int) (marrowCenter[0] + Ru[et] * Math.cos(Theta[et]))
-					+ ((int) ((marrowCenter[1] + Ru[et] * Math.sin(Theta[et]))) * width)] > threshold
-					|| originalROI[(int) (marrowCenter[0] + (Ru[et] + 0.5) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (Ru[et] + 0.5) * Math.sin(Theta[et]))) * width)] > threshold
-					|| originalROI[(int) (marrowCenter[0] + (Ru[et] + 1) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (Ru[et] + 1) * Math.sin(Theta[et]))) * width)] > threshold
-					|| originalROI[(int) (marrowCenter[0] + (Ru[et] + 2) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (Ru[et] + 2) * Math.sin(Theta[et]))) * width)] > threshold
-					|| originalROI[(int) (marrowCenter[0] + (Ru[et] + 3) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (Ru[et] + 3) * Math.sin(Theta[et]))) * width)] > threshold
-					|| originalROI[(int) (marrowCenter[0] + (Ru[et] + 4) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (Ru[et] + 4) * Math.sin(Theta[et]))) * width)] > threshold
-					|| originalROI[(int) (marrowCenter[0] + (Ru[et] + 6) * Math.cos(Theta[et]))
-							+ ((int) ((marrowCenter[1] + (Ru[et] + 6) * Math.sin(Theta[et]))) * width)] > threshold) {
-				Ru[et] = Ru[et] + 0.1;
-			}
+		return k;
+	}
 
-			final int analysisThickness = BMD_temp.size();
-			// Dividing the cortex to three divisions -> save the mean vBMD for
-			// each division
-			if (analysisThickness < divisions) {
-				break;
-			} else {
-				// cortex
-				for (int div = 0; div < divisions; ++div) {
-					int mo = 0;
-					for (int ka = (int) ((double) analysisThickness * (double) div
-							/ divisions); ka < (int) (analysisThickness * (div + 1.0) / divisions); ka++) {
-						BMDj.get(div)[et] += BMD_temp.get(ka);
-						mo++;
-					}
-					BMDj.get(div)[et] /= mo;
-				}
-			}
+	private boolean traceRayNoPeeling(final PolarSampling rays, final PolarSampling.PolarImage original,
+			final int et, final PolarSampling.Samples samples, final double[][] bmd) {
+		Theta[et] = PolarSampling.theta(et);
+		int k = endostealBorder(rays, et);
+		R2[et] = PolarSampling.radius(k);
+		Rs[et] = R2[et];
+		final int first = k + 1;
+		// Anatomical periosteal border
+		while (rays.anyAbove(originalROI, et, k, 0)) {
+			++k;
+		}
+		R[et] = PolarSampling.radius(k);
+		Ru[et] = R[et];
+		// Dividing the positive densities within the cortex to three
+		// divisions -> save the mean vBMD for each division
+		return rays.divide(original, original, et, first, k + 1, samples, bmd, divisions);
+	}
 
+	private boolean traceRay(final PolarSampling rays, final PolarSampling.PolarImage original,
+			final PolarSampling.PolarImage peeled, final int et, final PolarSampling.Samples samples,
+			final double[][] bmd) {
+		Theta[et] = PolarSampling.theta(et);
+		int k = endostealBorder(rays, et);
+		Rs[et] = PolarSampling.radius(k);
+		// Peeled endosteal border
+		while (peeledROI[rays.offset(et, k, 0)] < 1 && PolarSampling.radius(k) < maxRadius / pixelSpacing) {
+			++k;
+		}
+		R2[et] = PolarSampling.radius(k);
+		++k;
+		final int first = k + 1;
+		// Peeled periosteal border
+		while (rays.anyAbove(peeledROI, et, k, 0)) {
+			++k;
+		}
+		R[et] = PolarSampling.radius(k);
+		// Anatomical periosteal border
+		int ku = k;
+		while (rays.anyAbove(originalROI, et, ku, threshold)) {
+			++ku;
 		}
+		Ru[et] = PolarSampling.radius(ku);
+		// Dividing the densities within the peeled cortex to three
+		// divisions -> save the mean vBMD for each division
+		return rays.divide(original, peeled, et, first, k + 1, samples, bmd, divisions);
 	}
 
 	void erode(final double[] data) {
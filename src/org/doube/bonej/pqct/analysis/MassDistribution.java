@@ -20,8 +20,6 @@
 
 package org.doube.bonej.pqct.analysis;
 
-//Vector, Collections
-import java.util.Vector;
 
 import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
 //ROI selection..
@@ -42,7 +40,7 @@ public class MassDistribution {
 	// Variables for moment calculations
 	public double rotationCorrection;
 	public double alfa;
-	public Vector<Integer> pind;
+	public int[] pind;
 
 	// Mass distribution variables
 	public double[] BMCs;
@@ -124,7 +122,7 @@ public class MassDistribution {
 		// Calculate the division and sector values of vBMD
 		for (int pp = 0; pp < (int) (360 / sectorWidth); pp++) {
 			for (int dd = 0; dd < (int) sectorWidth; dd++) {
-				BMCs[pp] += BMC[pind.get((int) (pp * sectorWidth + dd))];
+				BMCs[pp] += BMC[pind[(int) (pp * sectorWidth + dd)]];
 			}
 		}
 
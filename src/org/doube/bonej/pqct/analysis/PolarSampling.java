@@ -0,0 +1,366 @@
+package org.doube.bonej.pqct.analysis;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.util.Multithreader;
+
+/**
+ * Pixel offsets of the points sampled along 360 one-degree rays from a centre
+ * in 0.1 pixel steps, computed once per centre and image width and shared by
+ * every border search along a ray. Radii are accumulated by repeated addition
+ * of the increment and each probe is computed with the same expression as the
+ * original per-sample trigonometry, so the tables hit exactly the same pixels.
+ * An image may also be resampled once onto every step of every ray, so that
+ * densities along a ray are divided in a contiguous scan.
+ */
+class PolarSampling {
+
+	static final int RAYS = 360;
+	static final double R_INCREMENT = 0.1;
+	/**
+	 * Distances beyond the current radius probed before a border is accepted,
+	 * in the order in which they are tested
+	 */
+	static final double[] LOOKAHEAD = { 0, 0.5, 1, 2, 3, 4, 6 };
+
+	private static final double[] THETA = new double[RAYS];
+	private static final double[] COS = new double[RAYS];
+	private static final double[] SIN = new double[RAYS];
+	static {
+		for (int et = 0; et < RAYS; ++et) {
+			THETA[et] = Math.PI / 180.0 * et;
+			COS[et] = Math.cos(THETA[et]);
+			SIN[et] = Math.sin(THETA[et]);
+		}
+	}
+
+	/** radii[k] is the sum of k increments */
+	private static volatile double[] radii = accumulate(new double[0], 4096);
+
+	private final double centreI;
+	private final double centreJ;
+	private final int width;
+	/** per ray, LOOKAHEAD.length offsets per step, grown as rays are traced */
+	private final int[][] offsets = new int[RAYS][];
+	private final int[] steps = new int[RAYS];
+
+	/**
+	 * @param centre
+	 *            origin of the rays in pixels, {i, j}
+	 * @param width
+	 *            image width
+	 */
+	PolarSampling(final double[] centre, final int width) {
+		centreI = centre[0];
+		centreJ = centre[1];
+		this.width = width;
+		for (int et = 0; et < RAYS; ++et)
+			offsets[et] = new int[0];
+	}
+
+	private static double[] accumulate(final double[] from, final int length) {
+		final double[] r = Arrays.copyOf(from, length);
+		for (int k = Math.max(from.length, 1); k < length; ++k)
+			r[k] = r[k - 1] + R_INCREMENT;
+		return r;
+	}
+
+	private static synchronized double[] growRadii(final int step) {
+		if (step >= radii.length)
+			radii = accumulate(radii, Math.max(2 * radii.length, step + 1));
+		return radii;
+	}
+
+	/** @return angle of a ray in radians */
+	static double theta(final int et) {
+		return THETA[et];
+	}
+
+	/** @return radius in pixels after a number of steps */
+	static double radius(final int step) {
+		double[] r = radii;
+		if (step >= r.length)
+			r = growRadii(step);
+		return r[step];
+	}
+
+	/**
+	 * Offset of a probe along a ray. Rays grow on demand, so each ray should
+	 * only be traced by one thread at a time.
+	 *
+	 * @param et
+	 *            ray, in degrees
+	 * @param step
+	 *            number of increments from the centre
+	 * @param probe
+	 *            index into LOOKAHEAD
+	 * @return index of the pixel in the image array, which may lie outside it
+	 */
+	int offset(final int et, final int step, final int probe) {
+		if (step >= steps[et])
+			grow(et, step);
+		return offsets[et][step * LOOKAHEAD.length + probe];
+	}
+
+	private void grow(final int et, final int step) {
+		final int n = Math.max(2 * steps[et], step + 64);
+		final int[] table = Arrays.copyOf(offsets[et], n * LOOKAHEAD.length);
+		for (int k = steps[et]; k < n; ++k) {
+			final double r = radius(k);
+			for (int p = 0; p < LOOKAHEAD.length; ++p)
+				table[k * LOOKAHEAD.length + p] = probe(et, r, p);
+		}
+		offsets[et] = table;
+		steps[et] = n;
+	}
+
+	private int probe(final int et, final double r, final int p) {
+		return (int) (centreI + (r + LOOKAHEAD[p]) * COS[et])
+				+ ((int) ((centreJ + (r + LOOKAHEAD[p]) * SIN[et])) * width);
+	}
+
+	/**
+	 * @return true if the image is above limit at the step or at any
+	 *         lookahead beyond it
+	 */
+	boolean anyAbove(final double[] image, final int et, final int step, final double limit) {
+		for (int p = 0; p < LOOKAHEAD.length; ++p)
+			if (image[offset(et, step, p)] > limit)
+				return true;
+		return false;
+	}
+
+	/** @return true if the sieve is set at the step or any lookahead beyond it */
+	boolean anyAbove(final byte[] sieve, final int et, final int step) {
+		for (int p = 0; p < LOOKAHEAD.length; ++p)
+			if (sieve[offset(et, step, p)] > 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Wrap an image for division along the rays, optionally resampling it at
+	 * every step of every ray out to its farthest corner. Rays are resampled
+	 * in parallel, each at the same pixels as offset(et, step, 0).
+	 *
+	 * @param image
+	 * @param height
+	 *            image height
+	 * @param resample
+	 *            true to build the polar image, false to read the image
+	 *            through the offset tables
+	 * @return the wrapped image
+	 */
+	PolarImage polarImage(final double[] image, final int height, final boolean resample) {
+		if (!resample)
+			return new PolarImage(image, null, 0);
+		final double reach = Math.hypot(Math.max(centreI, width - centreI), Math.max(centreJ, height - centreJ));
+		int n = 1;
+		while (radius(n - 1) <= reach)
+			++n;
+		final int nSteps = n;
+		final double[] values = new double[RAYS * nSteps];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int et = ai.getAndIncrement(); et < RAYS; et = ai.getAndIncrement()) {
+						for (int k = 0; k < nSteps; ++k) {
+							final int offset = probe(et, radius(k), 0);
+							values[et * nSteps + k] = offset >= 0 && offset < image.length ? image[offset] : Double.NaN;
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return new PolarImage(image, values, nSteps);
+	}
+
+	/**
+	 * Mean of each division of an image's values at steps from to to - 1
+	 * along a ray, keeping only those where the selector is positive. The
+	 * polar images are scanned if they reach far enough, otherwise the values
+	 * are read through the offset tables into the samples.
+	 *
+	 * @param image
+	 * @param selector
+	 *            image deciding which steps are kept, or null to keep all
+	 * @param et
+	 *            ray, in degrees
+	 * @param from
+	 *            first step
+	 * @param to
+	 *            step after the last one
+	 * @param samples
+	 *            cleared buffer owned by the calling thread
+	 * @param BMDj
+	 *            one array per division to receive the mean
+	 * @param divisions
+	 * @return false if fewer values were kept than there are divisions, in
+	 *         which case BMDj is left unchanged
+	 */
+	boolean divide(final PolarImage image, final PolarImage selector, final int et, final int from, final int to,
+			final Samples samples, final double[][] BMDj, final double divisions) {
+		if (image.covers(to) && (selector == null || selector.covers(to)))
+			return image.divide(selector, et, from, to, BMDj, divisions);
+		for (int k = from; k < to; ++k) {
+			final int offset = offset(et, k, 0);
+			if (selector == null || selector.image[offset] > 0)
+				samples.add(image.image[offset]);
+		}
+		if (samples.size() < divisions)
+			return false;
+		samples.divide(BMDj, divisions, et);
+		return true;
+	}
+
+	/**
+	 * An image and, if it was resampled, its values at every step of every
+	 * ray, ray et occupying the steps values from et * steps. Steps falling
+	 * outside the image array are NaN.
+	 */
+	static class PolarImage {
+		final double[] image;
+		private final double[] values;
+		private final int steps;
+
+		private PolarImage(final double[] image, final double[] values, final int steps) {
+			this.image = image;
+			this.values = values;
+			this.steps = steps;
+		}
+
+		/** @return true if the image was resampled up to the step before to */
+		boolean covers(final int to) {
+			return values != null && to <= steps;
+		}
+
+		/**
+		 * Contiguous scan version of Samples.divide, summing the kept values in
+		 * the same order so that the means are identical
+		 */
+		private boolean divide(final PolarImage selector, final int et, final int from, final int to,
+				final double[][] BMDj, final double divisions) {
+			final double[] keep = selector == null ? null : selector.values;
+			final int start = et * steps + from;
+			final int end = et * steps + to;
+			int size = to - from;
+			if (keep != null) {
+				size = 0;
+				for (int i = start; i < end; ++i)
+					if (keep[i] > 0)
+						++size;
+			}
+			if (size < divisions)
+				return false;
+			int i = start;
+			for (int div = 0; div < divisions; ++div) {
+				int mo = 0;
+				for (int ka = (int) ((double) size * (double) div / divisions); ka < (int) (size * (div + 1.0)
+						/ divisions); ka++) {
+					while (keep != null && !(keep[i] > 0))
+						++i;
+					BMDj[div][et] += values[i++];
+					mo++;
+				}
+				BMDj[div][et] /= mo;
+			}
+			return true;
+		}
+	}
+
+	/** Densities collected along a ray, reused between rays */
+	static class Samples {
+		private double[] values = new double[256];
+		private int size;
+
+		void add(final double value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, 2 * size);
+			values[size++] = value;
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Mean of each division of the samples, as the cortex is divided into
+		 * endo-, mid- and pericortical parts
+		 *
+		 * @param BMDj
+		 *            one array per division to receive the mean
+		 * @param divisions
+		 * @param et
+		 *            ray, in degrees
+		 */
+		void divide(final double[][] BMDj, final double divisions, final int et) {
+			for (int div = 0; div < divisions; ++div) {
+				int mo = 0;
+				for (int ka = (int) ((double) size * (double) div / divisions); ka < (int) (size * (div + 1.0)
+						/ divisions); ka++) {
+					BMDj[div][et] += values[ka];
+					mo++;
+				}
+				BMDj[div][et] /= mo;
+			}
+		}
+	}
+
+	/** Border search along a single ray */
+	interface Ray {
+		/**
+		 * @param et
+		 *            ray, in degrees
+		 * @param samples
+		 *            cleared buffer owned by the calling thread
+		 * @return false if the cortex along the ray is too thin to divide,
+		 *         which ends the analysis at this ray
+		 */
+		boolean trace(int et, Samples samples);
+	}
+
+	/**
+	 * Trace all rays in parallel. Rays are reconciled in order afterwards, so
+	 * that the first ray to fail or throw stops the analysis just as a
+	 * sequential loop would.
+	 *
+	 * @return the first ray that returned false, or RAYS if none did
+	 */
+	static int traceAll(final Ray ray) {
+		final boolean[] traced = new boolean[RAYS];
+		final RuntimeException[] thrown = new RuntimeException[RAYS];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final Samples samples = new Samples();
+					for (int et = ai.getAndIncrement(); et < RAYS; et = ai.getAndIncrement()) {
+						samples.clear();
+						try {
+							traced[et] = ray.trace(et, samples);
+						} catch (final RuntimeException e) {
+							thrown[et] = e;
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		for (int et = 0; et < RAYS; ++et) {
+			if (thrown[et] != null)
+				throw thrown[et];
+			if (!traced[et])
+				return et;
+		}
+		return RAYS;
+	}
+}
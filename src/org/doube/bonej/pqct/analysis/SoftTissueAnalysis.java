@@ -21,6 +21,7 @@
 package org.doube.bonej.pqct.analysis;
 
 //ROI selection..
+import org.doube.bonej.pqct.selectroi.RowSpanMask;
 import org.doube.bonej.pqct.selectroi.SelectSoftROI;
 
 public class SoftTissueAnalysis {
@@ -53,33 +54,38 @@ public class SoftTissueAnalysis {
 		SubCutFatD = 0;
 		double weightedFatArea = 0;
 		double weightedLimbArea = 0;
-		for (int i = 0; i < roi.width * roi.height; i++) {
-			if (roi.softSieve[i] > 0) { // Bone & Marrow not excluded!!
-				LimbA += 1;
-				LimbD += roi.softScaledImage[i];
-				weightedLimbArea += roi.softScaledImage[i] + 1000.0;
-			}
-			if (roi.softSieve[i] == 2 || roi.softSieve[i] == 5) { // Fat
-				FatA += 1;
-				FatD += roi.softScaledImage[i];
-				weightedFatArea += roi.softScaledImage[i] + 1000.0;
-			}
-			if (roi.softSieve[i] == 3) { // Muscle no IntraFat
-				MuA += 1;
-				MuD += roi.softScaledImage[i];
-				TotalMuA += 1;
-				TotalMuD += roi.softScaledImage[i];
-			}
-			if (roi.softSieve[i] == 4) { // IntraFat
-				IntraMuFatA += 1;
-				IntraMuFatD += roi.softScaledImage[i];
-				TotalMuA += 1;
-				TotalMuD += roi.softScaledImage[i];
-				weightedFatArea += roi.softScaledImage[i] + 1000.0;
-			}
-			if (roi.softSieve[i] == 5) { // subCutFat
-				SubCutFatA += 1;
-				SubCutFatD += roi.softScaledImage[i];
+		/* Only the limb, softSieve > 0, contributes to the sums */
+		final RowSpanMask limb = RowSpanMask.fromSieve(roi.softSieve, roi.width, roi.height);
+		for (int s = 0; s < limb.getSpanCount(); s++) {
+			final int offset = limb.getRow(s) * roi.width;
+			for (int i = offset + limb.getStart(s); i < offset + limb.getEnd(s); i++) {
+				if (roi.softSieve[i] > 0) { // Bone & Marrow not excluded!!
+					LimbA += 1;
+					LimbD += roi.softScaledImage[i];
+					weightedLimbArea += roi.softScaledImage[i] + 1000.0;
+				}
+				if (roi.softSieve[i] == 2 || roi.softSieve[i] == 5) { // Fat
+					FatA += 1;
+					FatD += roi.softScaledImage[i];
+					weightedFatArea += roi.softScaledImage[i] + 1000.0;
+				}
+				if (roi.softSieve[i] == 3) { // Muscle no IntraFat
+					MuA += 1;
+					MuD += roi.softScaledImage[i];
+					TotalMuA += 1;
+					TotalMuD += roi.softScaledImage[i];
+				}
+				if (roi.softSieve[i] == 4) { // IntraFat
+					IntraMuFatA += 1;
+					IntraMuFatD += roi.softScaledImage[i];
+					TotalMuA += 1;
+					TotalMuD += roi.softScaledImage[i];
+					weightedFatArea += roi.softScaledImage[i] + 1000.0;
+				}
+				if (roi.softSieve[i] == 5) { // subCutFat
+					SubCutFatA += 1;
+					SubCutFatD += roi.softScaledImage[i];
+				}
 			}
 		}
 		LimbD /= LimbA;
@@ -0,0 +1,87 @@
+package org.doube.bonej.pqct.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Density calibrations of Stratec pQCT devices, read from the .TYP files
+ * bundled with the plugin. Each device's file is read and parsed once, and
+ * the coefficients kept for the rest of the session.
+ */
+public class DeviceCalibration {
+
+	/** Calibration coefficients by TYP file name */
+	private static final ConcurrentHashMap<String, double[]> cache = new ConcurrentHashMap<String, double[]>();
+
+	/**
+	 * Get a device's calibration from its TYP file
+	 *
+	 * @param typFileName
+	 *            the Device entry of a Stratec header, e.g. XCT3000.TYP
+	 * @return intercept and slope converting pixel values to mg/cm&sup3;
+	 * @throws IOException
+	 *             if there is no TYP file for the device or it cannot be read
+	 */
+	public static double[] getCoefficients(final String typFileName) throws IOException {
+		double[] coefficients = cache.get(typFileName);
+		if (coefficients == null) {
+			coefficients = read(typFileName);
+			cache.putIfAbsent(typFileName, coefficients);
+		}
+		return coefficients.clone();
+	}
+
+	private static double[] read(final String typFileName) throws IOException {
+		final InputStream ir = DeviceCalibration.class.getClassLoader()
+				.getResourceAsStream("org/doube/bonej/pqct/typ/" + typFileName);
+		if (ir == null)
+			throw new IOException("No TYP file for device " + typFileName);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			final byte[] buffer = new byte[4096];
+			for (int n = ir.read(buffer); n >= 0; n = ir.read(buffer))
+				bytes.write(buffer, 0, n);
+		} finally {
+			ir.close();
+		}
+		return parse(bytes.toString("ISO-8859-1"));
+	}
+
+	/**
+	 * Find XInter and XSlope in the text of a TYP file. Missing entries
+	 * default to an intercept of 0 and a slope of 1.
+	 *
+	 * @param typFile
+	 * @return intercept and slope, the slope divided by 1000
+	 * @throws IOException
+	 *             if an entry's value is not a number
+	 */
+	static double[] parse(final String typFile) throws IOException {
+		final String[] searchFor = { "XInter", "XSlope" };
+		final double[] coefficients = { 0, 1000 };
+		final boolean[] found = new boolean[searchFor.length];
+		final StringTokenizer st = new StringTokenizer(typFile, "\n");
+		while (st.hasMoreTokens()) {
+			final String line = st.nextToken();
+			for (int i = 0; i < searchFor.length; ++i) {
+				if (found[i] || line.indexOf(searchFor[i]) < 0)
+					continue;
+				found[i] = true;
+				final StringTokenizer st2 = new StringTokenizer(line, "=");
+				st2.nextToken();
+				if (!st2.hasMoreTokens())
+					throw new IOException("No value for " + searchFor[i]);
+				try {
+					coefficients[i] = Double.parseDouble(st2.nextToken().trim());
+				} catch (final NumberFormatException e) {
+					throw new IOException("Bad value for " + searchFor[i] + ": " + line);
+				}
+			}
+		}
+		coefficients[1] /= 1000.0;
+		return coefficients;
+	}
+}
@@ -73,6 +73,11 @@ public class ImageAndAnalysisDetails {
 	public boolean guessStacked;
 	public boolean invertGuess;
 	public boolean saveImageOnDisk;
+	/**
+	 * Resample the image along the analysis rays once, so that radial
+	 * divisions are scanned contiguously. Results are unchanged.
+	 */
+	public boolean polarResampling;
 
 	// ImageJ plugin constructor
 	public ImageAndAnalysisDetails(final boolean[] defaultTopValues, final double[] thresholdsAndScaling,
@@ -191,4 +196,61 @@ public class ImageAndAnalysisDetails {
 		/* Can't remember whether this is needed... */
 		this.imageSavePath = new String("");
 	}
+
+	/**
+	 * Copy another set of details, so that analyses running side by side
+	 * can each change their own
+	 *
+	 * @param other
+	 */
+	public ImageAndAnalysisDetails(final ImageAndAnalysisDetails other) {
+		this.flipHorizontal = other.flipHorizontal;
+		this.flipVertical = other.flipVertical;
+		this.noFiltering = other.noFiltering;
+		this.sleeveOn = other.sleeveOn;
+		this.scalingFactor = other.scalingFactor;
+		this.constant = other.constant;
+		this.airThreshold = other.airThreshold;
+		this.fatThreshold = other.fatThreshold;
+		this.muscleThreshold = other.muscleThreshold;
+		this.marrowThreshold = other.marrowThreshold;
+		this.softThreshold = other.softThreshold;
+		this.areaThreshold = other.areaThreshold;
+		this.rotationThreshold = other.rotationThreshold;
+		this.BMDthreshold = other.BMDthreshold;
+		this.boneThreshold = other.boneThreshold;
+		this.cOn = other.cOn;
+		this.mOn = other.mOn;
+		this.conOn = other.conOn;
+		this.dOn = other.dOn;
+		this.stOn = other.stOn;
+		this.alphaOn = other.alphaOn;
+		this.filterSize = other.filterSize;
+		this.softFilterSize = other.softFilterSize;
+		this.sectorWidth = other.sectorWidth;
+		this.divisions = other.divisions;
+		this.concentricSector = other.concentricSector;
+		this.concentricDivisions = other.concentricDivisions;
+		this.imageSavePath = other.imageSavePath;
+		this.roiChoice = other.roiChoice;
+		this.roiChoiceSt = other.roiChoiceSt;
+		this.rotationChoice = other.rotationChoice;
+		this.choiceLabels = other.choiceLabels;
+		this.rotationLabels = other.rotationLabels;
+		this.preventPeeling = other.preventPeeling;
+		this.allowCleaving = other.allowCleaving;
+		this.suppressImages = other.suppressImages;
+		this.manualRoi = other.manualRoi;
+		this.manualRotation = other.manualRotation;
+		this.manualAlfa = other.manualAlfa;
+		this.flipDistribution = other.flipDistribution;
+		this.guessFlip = other.guessFlip;
+		this.guessRight = other.guessRight;
+		this.guessLarger = other.guessLarger;
+		this.stacked = other.stacked;
+		this.guessStacked = other.guessStacked;
+		this.invertGuess = other.invertGuess;
+		this.saveImageOnDisk = other.saveImageOnDisk;
+		this.polarResampling = other.polarResampling;
+	}
 }
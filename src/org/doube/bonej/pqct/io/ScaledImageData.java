@@ -22,6 +22,9 @@ package org.doube.bonej.pqct.io;
 
 //Vector, Collections
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.util.Multithreader;
 
 public class ScaledImageData {
 	public double[] scaledImage;
@@ -34,6 +37,9 @@ public class ScaledImageData {
 	public double pixelSpacing;
 	int filterSize;
 
+	/** Rows per strip of the median filter */
+	private static final int STRIP_ROWS = 32;
+
 	// Constructor
 	public ScaledImageData(final int[] data, final int widthIn, final int heightIn, final double VoxelSize,
 			final double scalingFactor, final double constant, int filterSize, final boolean flipHorizontal,
@@ -52,15 +58,14 @@ public class ScaledImageData {
 		Arrays.sort(tempSort);
 		minimum = tempSort[0];
 		maximum = tempSort[tempSort.length - 1];
-		softScaledImage = medianFilter(unFiltered, width, height, 7); // Median
-																		// filter
-																		// data
 		if (noFiltering) {
+			softScaledImage = medianFilter(unFiltered, tempSort, width, height, new int[] { 7 })[0];
 			scaledImage = unFiltered.clone();
 		} else {
-			scaledImage = medianFilter(unFiltered, width, height, filterSize); // Median
-																				// filter
-																				// data
+			/* Median filter the data for soft tissue and bone in one pass */
+			final double[][] filtered = medianFilter(unFiltered, tempSort, width, height, new int[] { 7, filterSize });
+			softScaledImage = filtered[0];
+			scaledImage = filtered[1];
 		}
 
 		if (flipHorizontal) {// Flip the image around the horizontal axis...
@@ -95,43 +100,163 @@ public class ScaledImageData {
 
 	// Meadian filter
 	public double[] medianFilter(final double[] data, final int width, final int height, final int filterSize) {
-		final double[] filtered = new double[width * height];
-		final double[] toMedian = new double[filterSize * filterSize];
-		for (int i = 0; i < filtered.length; ++i) {
-			filtered[i] = minimum;
-		}
-		/*
-		 * Fill filtered with min value to get the frame from messing up with
-		 * edge detection
-		 */
+		final double[] sorted = data.clone();
+		Arrays.sort(sorted);
+		return medianFilter(data, sorted, width, height, new int[] { filterSize })[0];
+	}
+
+	/**
+	 * Median filter with several kernel sizes at once. Pixels are replaced by
+	 * their rank among the image's distinct values, and the median is tracked
+	 * in a histogram of ranks as a window snakes along each strip of rows
+	 * (Huang's algorithm), so each step adds and removes one column or row
+	 * instead of sorting the whole window. Strips are filtered in parallel.
+	 * The results equal sorting each window: pixels closer than filterSize /
+	 * 2 to the edge are set to minimum.
+	 *
+	 * @param data
+	 * @param sorted
+	 *            data sorted in ascending order
+	 * @param width
+	 * @param height
+	 * @param filterSizes
+	 *            odd kernel widths
+	 * @return one filtered image for each kernel size
+	 */
+	private double[][] medianFilter(final double[] data, final double[] sorted, final int width, final int height,
+			final int[] filterSizes) {
+		/* Distinct values in ascending order, and each pixel's index among them */
+		int nLevels = 0;
+		final double[] levels = new double[sorted.length];
+		for (int i = 0; i < sorted.length; ++i) {
+			if (nLevels == 0 || Double.compare(levels[nLevels - 1], sorted[i]) != 0) {
+				levels[nLevels++] = sorted[i];
+			}
+		}
+		final int[] ranks = new int[data.length];
+		for (int i = 0; i < data.length; ++i) {
+			ranks[i] = Arrays.binarySearch(levels, 0, nLevels, data[i]);
+		}
 
-		final int noGo = (int) Math.floor((filterSize) / 2.0);
-		final int median = (int) Math.floor((filterSize * filterSize) / 2.0); // would
-																				// be
-																				// ceil,
-																				// but
-																				// indexing
-																				// begins
-																				// from
-																				// 0!
-		int rowTotal, colTotal;
-		for (int row = noGo; row < height - noGo; row++) {
-			for (int col = noGo; col < width - noGo; col++) {
-				int newPixel = 0;
-				for (int rowOffset = -noGo; rowOffset <= noGo; rowOffset++) {
-					for (int colOffset = -noGo; colOffset <= noGo; colOffset++) {
-						rowTotal = row + rowOffset;
-						colTotal = col + colOffset;
-						toMedian[newPixel] = data[rowTotal * width + colTotal];
-						newPixel++;
+		final double[][] filtered = new double[filterSizes.length][width * height];
+		for (int f = 0; f < filterSizes.length; ++f) {
+			Arrays.fill(filtered[f], minimum);
+		}
+		final int nStrips = (height + STRIP_ROWS - 1) / STRIP_ROWS;
+		final int levelCount = nLevels;
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final MedianWindow[] windows = new MedianWindow[filterSizes.length];
+					for (int f = 0; f < filterSizes.length; ++f) {
+						windows[f] = new MedianWindow(levelCount, filterSizes[f]);
+					}
+					for (int strip = ai.getAndIncrement(); strip < nStrips; strip = ai.getAndIncrement()) {
+						final int y0 = strip * STRIP_ROWS;
+						final int y1 = Math.min(height, y0 + STRIP_ROWS);
+						for (int f = 0; f < filterSizes.length; ++f) {
+							windows[f].filterStrip(ranks, levels, width, height, y0, y1, filtered[f]);
+						}
 					}
 				}
-				Arrays.sort(toMedian);
-				filtered[row * width + col] = toMedian[median];
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return filtered;
+	}
+
+	/** Histogram of the ranks in a square window, and the rank of their median */
+	private static final class MedianWindow {
+		private final int[] histogram;
+		private final int size;
+		private final int half;
+		/** Index of the median in the sorted window */
+		private final int medianIndex;
+		private int median;
+		/** Number of pixels in the window ranked below median */
+		private int below;
+
+		MedianWindow(final int nLevels, final int size) {
+			histogram = new int[nLevels];
+			this.size = size;
+			half = size / 2;
+			medianIndex = size * size / 2;
+		}
+
+		/**
+		 * Filter the rows y0 to y1 - 1, going right along one row and left
+		 * along the next so that each step moves the window by one pixel
+		 */
+		void filterStrip(final int[] ranks, final double[] levels, final int width, final int height, final int y0,
+				final int y1, final double[] filtered) {
+			final int rowStart = Math.max(y0, half);
+			final int rowEnd = Math.min(y1, height - half);
+			if (rowStart >= rowEnd || width < size) {
+				return;
+			}
+			for (int y = rowStart - half; y <= rowStart + half; ++y) {
+				addRow(ranks, width, y, 0, size - 1, 1);
+			}
+			int x = half;
+			int direction = 1;
+			for (int y = rowStart;; ++y) {
+				while (true) {
+					filtered[y * width + x] = levels[findMedian()];
+					final int next = x + direction;
+					if (next < half || next >= width - half) {
+						break;
+					}
+					/* Drop the trailing column and take in the leading one */
+					addColumn(ranks, width, x - direction * half, y, -1);
+					addColumn(ranks, width, next + direction * half, y, 1);
+					x = next;
+				}
+				if (y + 1 >= rowEnd) {
+					break;
+				}
+				addRow(ranks, width, y - half, x - half, x + half, -1);
+				addRow(ranks, width, y + half + 1, x - half, x + half, 1);
+				direction = -direction;
+			}
+			/* Empty the histogram for the next strip */
+			for (int y = rowEnd - 1 - half; y <= rowEnd - 1 + half; ++y) {
+				addRow(ranks, width, y, x - half, x + half, -1);
 			}
 		}
 
-		return filtered;
+		private void addRow(final int[] ranks, final int width, final int y, final int x0, final int x1,
+				final int count) {
+			for (int x = x0; x <= x1; ++x) {
+				add(ranks[y * width + x], count);
+			}
+		}
+
+		private void addColumn(final int[] ranks, final int width, final int x, final int y, final int count) {
+			for (int dy = -half; dy <= half; ++dy) {
+				add(ranks[(y + dy) * width + x], count);
+			}
+		}
+
+		private void add(final int rank, final int count) {
+			histogram[rank] += count;
+			if (rank < median) {
+				below += count;
+			}
+		}
+
+		private int findMedian() {
+			while (below > medianIndex) {
+				--median;
+				below -= histogram[median];
+			}
+			while (below + histogram[median] <= medianIndex) {
+				below += histogram[median];
+				++median;
+			}
+			return median;
+		}
 	}
 
 }
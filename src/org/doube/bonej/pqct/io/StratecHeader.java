@@ -0,0 +1,214 @@
+package org.doube.bonej.pqct.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Immutable model of the 1609-byte header of a Stratec pQCT file, parsed from
+ * a single read of the header alone. Strings are stored as a length byte
+ * followed by that many Latin-1 characters; numbers are little-endian.
+ */
+public final class StratecHeader {
+
+	/** Length of the header in bytes; pixel data start here */
+	public static final int LENGTH = 1609;
+
+	private final long lastModified;
+	private final long fileLength;
+
+	private final double voxelSize;
+	private final double objLen;
+	private final String measInfo;
+	private final long measDate;
+	private final String device;
+	private final int patMeasNo;
+	private final long patNo;
+	private final long patBirth;
+	private final String patName;
+	private final String patID;
+	private final int picX0;
+	private final int picY0;
+	private final int picMatrixX;
+	private final int picMatrixY;
+
+	/**
+	 * Parse a header
+	 *
+	 * @param bytes
+	 *            the first 1609 bytes of a Stratec file, or the whole file;
+	 *            shorter arrays are treated as if padded with zeros
+	 */
+	public StratecHeader(final byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+
+	private StratecHeader(final byte[] bytes, final long lastModified, final long fileLength) {
+		this.lastModified = lastModified;
+		this.fileLength = fileLength;
+		final ByteBuffer bb = ByteBuffer.wrap(bytes.length >= LENGTH ? bytes : Arrays.copyOf(bytes, LENGTH))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		voxelSize = bb.getDouble(12);
+		objLen = bb.getDouble(318);
+		measInfo = string(bb, 662);
+		measDate = bb.getInt(986) & 0xFFFFFFFFL;
+		device = string(bb, 1050);
+		patMeasNo = bb.getShort(1085) & 0xFFFF;
+		patNo = bb.getInt(1087) & 0xFFFFFFFFL;
+		patBirth = bb.getInt(1091) & 0xFFFFFFFFL;
+		patName = string(bb, 1099);
+		patID = string(bb, 1282);
+		picX0 = bb.getShort(1525) & 0xFFFF;
+		picY0 = bb.getShort(1527) & 0xFFFF;
+		picMatrixX = bb.getShort(1529) & 0xFFFF;
+		picMatrixY = bb.getShort(1531) & 0xFFFF;
+	}
+
+	/**
+	 * Create a header from values kept in a {@link StratecIndex}
+	 */
+	StratecHeader(final long lastModified, final long fileLength, final double voxelSize, final double objLen,
+			final String measInfo, final long measDate, final String device, final int patMeasNo, final long patNo,
+			final long patBirth, final String patName, final String patID, final int picX0, final int picY0,
+			final int picMatrixX, final int picMatrixY) {
+		this.lastModified = lastModified;
+		this.fileLength = fileLength;
+		this.voxelSize = voxelSize;
+		this.objLen = objLen;
+		this.measInfo = measInfo;
+		this.measDate = measDate;
+		this.device = device;
+		this.patMeasNo = patMeasNo;
+		this.patNo = patNo;
+		this.patBirth = patBirth;
+		this.patName = patName;
+		this.patID = patID;
+		this.picX0 = picX0;
+		this.picY0 = picY0;
+		this.picMatrixX = picMatrixX;
+		this.picMatrixY = picMatrixY;
+	}
+
+	/**
+	 * Read a file's header, without reading its pixels
+	 *
+	 * @param path
+	 * @return the file's header
+	 * @throws IOException
+	 */
+	public static StratecHeader read(final String path) throws IOException {
+		if (path == null)
+			throw new IllegalArgumentException();
+		final File file = new File(path);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[LENGTH];
+			int n = 0;
+			while (n < LENGTH) {
+				final int count = raf.read(bytes, n, LENGTH - n);
+				if (count < 0)
+					break;
+				n += count;
+			}
+			return new StratecHeader(bytes, file.lastModified(), file.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** Read a length-prefixed string, truncated at the end of the header */
+	private static String string(final ByteBuffer bb, final int offset) {
+		final int length = Math.min(bb.get(offset) & 0xFF, LENGTH - offset - 1);
+		final byte[] chars = new byte[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = bb.get(offset + 1 + i);
+		try {
+			return new String(chars, "ISO-8859-1");
+		} catch (final UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return true if the file is longer than the header and names a device
+	 *         TYP file, the test Read_Stratec_File applies
+	 */
+	public boolean isStratecFile() {
+		return fileLength > LENGTH && device.toLowerCase().indexOf(".typ") >= 0;
+	}
+
+	/** @return modification time of the file when the header was read */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/** @return length of the file in bytes */
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	/** @return pixel spacing in mm */
+	public double getVoxelSize() {
+		return voxelSize;
+	}
+
+	public double getObjLen() {
+		return objLen;
+	}
+
+	public String getMeasInfo() {
+		return measInfo;
+	}
+
+	/** @return acquisition date as stored, e.g. 20110523 */
+	public long getMeasDate() {
+		return measDate;
+	}
+
+	/** @return name of the device's TYP file, e.g. XCT3000.TYP */
+	public String getDevice() {
+		return device;
+	}
+
+	public int getPatMeasNo() {
+		return patMeasNo;
+	}
+
+	public long getPatNo() {
+		return patNo;
+	}
+
+	public long getPatBirth() {
+		return patBirth;
+	}
+
+	public String getPatName() {
+		return patName;
+	}
+
+	public String getPatID() {
+		return patID;
+	}
+
+	public int getPicX0() {
+		return picX0;
+	}
+
+	public int getPicY0() {
+		return picY0;
+	}
+
+	/** @return image width in pixels */
+	public int getPicMatrixX() {
+		return picMatrixX;
+	}
+
+	/** @return image height in pixels */
+	public int getPicMatrixY() {
+		return picMatrixY;
+	}
+}
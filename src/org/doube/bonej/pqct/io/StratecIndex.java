@@ -0,0 +1,291 @@
+package org.doube.bonej.pqct.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.util.Multithreader;
+
+/**
+ * <p>
+ * Index of the Stratec headers in a directory, kept in a tab separated text
+ * file so that studies can be picked from large archives without opening
+ * every file. {@link #update(File, File)} reads only the headers of files
+ * which are new or whose length or modification time has changed since the
+ * index was written, in parallel, and carries the rest over from the old
+ * index. Files which are not Stratec files are indexed too, without a header,
+ * so they are not read again either.
+ * </p>
+ * <p>
+ * Each line of the index file holds a file's name, length, modification time
+ * and, for Stratec files, the header fields in {@link #COLUMNS} order. Tabs,
+ * newlines and backslashes in strings are escaped with a backslash.
+ * </p>
+ */
+public class StratecIndex {
+
+	/** First line of an index file */
+	private static final String MAGIC = "#StratecIndex\t1";
+
+	/** Column headings of an index file */
+	public static final String[] COLUMNS = { "File Name", "File Length", "Last Modified", "Device", "Patient ID",
+			"Patient's Name", "PatNo", "Patient's Birth Date", "Acquisition Date", "PatMeasNo", "MeasInfo",
+			"Pixel Spacing", "ObjLen", "PicX0", "PicY0", "Width", "Height" };
+
+	/** A file in the index */
+	public static class Entry {
+		private final String fileName;
+		private final long fileLength;
+		private final long lastModified;
+		private final StratecHeader header;
+
+		Entry(final String fileName, final long fileLength, final long lastModified, final StratecHeader header) {
+			this.fileName = fileName;
+			this.fileLength = fileLength;
+			this.lastModified = lastModified;
+			this.header = header;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		/** @return the file's header, or null if it is not a Stratec file */
+		public StratecHeader getHeader() {
+			return header;
+		}
+
+		/** @return true if the file on disk is the one that was indexed */
+		boolean matches(final File file) {
+			return file.length() == fileLength && file.lastModified() == lastModified;
+		}
+	}
+
+	/** Entries by file name, in file name order */
+	private final Map<String, Entry> entries;
+
+	private StratecIndex(final Map<String, Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * Bring a directory's index up to date, reading the headers of new and
+	 * changed files, and save it
+	 *
+	 * @param directory
+	 *            directory of Stratec files
+	 * @param indexFile
+	 *            index to update; it is created if it does not exist
+	 * @return the updated index
+	 * @throws IOException
+	 *             if the directory cannot be listed or the index cannot be
+	 *             read or written
+	 */
+	public static StratecIndex update(final File directory, final File indexFile) throws IOException {
+		final Map<String, Entry> old = indexFile.isFile() ? load(indexFile).entries
+				: Collections.<String, Entry> emptyMap();
+		final File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Cannot list " + directory);
+		Arrays.sort(files);
+		final Entry[] updated = new Entry[files.length];
+		final List<Integer> toRead = new ArrayList<Integer>();
+		for (int f = 0; f < files.length; f++) {
+			if (!files[f].isFile() || files[f].equals(indexFile))
+				continue;
+			final Entry entry = old.get(files[f].getName());
+			if (entry != null && entry.matches(files[f]))
+				updated[f] = entry;
+			else
+				toRead.add(f);
+		}
+
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = ai.getAndIncrement(); i < toRead.size(); i = ai.getAndIncrement()) {
+						final File file = files[toRead.get(i)];
+						StratecHeader header;
+						try {
+							header = StratecHeader.read(file.getPath());
+						} catch (final IOException e) {
+							header = null;
+						}
+						updated[toRead.get(i)] = new Entry(file.getName(), file.length(), file.lastModified(),
+								header != null && header.isStratecFile() ? header : null);
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+
+		final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		for (final Entry entry : updated)
+			if (entry != null)
+				entries.put(entry.fileName, entry);
+		final StratecIndex index = new StratecIndex(entries);
+		index.save(indexFile);
+		return index;
+	}
+
+	/**
+	 * Read an index file
+	 *
+	 * @param indexFile
+	 * @return the index
+	 * @throws IOException
+	 *             if the file cannot be read or is not an index
+	 */
+	public static StratecIndex load(final File indexFile) throws IOException {
+		final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		final BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+		try {
+			if (!MAGIC.equals(in.readLine()))
+				throw new IOException(indexFile + " is not a Stratec index");
+			in.readLine(); // column headings
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				final Entry entry = parse(line);
+				entries.put(entry.fileName, entry);
+			}
+		} catch (final NumberFormatException e) {
+			throw new IOException("Bad entry in " + indexFile + ": " + e.getMessage());
+		} catch (final ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Truncated entry in " + indexFile);
+		} finally {
+			in.close();
+		}
+		return new StratecIndex(entries);
+	}
+
+	/**
+	 * Write the index, replacing the file only once it is complete
+	 *
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public void save(final File indexFile) throws IOException {
+		final File temp = new File(indexFile.getPath() + ".tmp");
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+		try {
+			out.write(MAGIC + "\n");
+			for (int i = 0; i < COLUMNS.length; i++)
+				out.write(COLUMNS[i] + (i < COLUMNS.length - 1 ? "\t" : "\n"));
+			for (final Entry entry : entries.values())
+				out.write(format(entry) + "\n");
+		} finally {
+			out.close();
+		}
+		if (indexFile.exists() && !indexFile.delete())
+			throw new IOException("Cannot replace " + indexFile);
+		if (!temp.renameTo(indexFile))
+			throw new IOException("Cannot write " + indexFile);
+	}
+
+	private static String format(final Entry entry) {
+		final StringBuilder line = new StringBuilder();
+		line.append(escape(entry.fileName)).append('\t').append(entry.fileLength).append('\t')
+				.append(entry.lastModified);
+		final StratecHeader h = entry.header;
+		if (h == null)
+			return line.toString();
+		final Object[] fields = { escape(h.getDevice()), escape(h.getPatID()), escape(h.getPatName()), h.getPatNo(),
+				h.getPatBirth(), h.getMeasDate(), h.getPatMeasNo(), escape(h.getMeasInfo()), h.getVoxelSize(),
+				h.getObjLen(), h.getPicX0(), h.getPicY0(), h.getPicMatrixX(), h.getPicMatrixY() };
+		for (final Object field : fields)
+			line.append('\t').append(field);
+		return line.toString();
+	}
+
+	private static Entry parse(final String line) {
+		final String[] f = line.split("\t", -1);
+		final String fileName = unescape(f[0]);
+		final long fileLength = Long.parseLong(f[1]);
+		final long lastModified = Long.parseLong(f[2]);
+		if (f.length == 3)
+			return new Entry(fileName, fileLength, lastModified, null);
+		final StratecHeader header = new StratecHeader(lastModified, fileLength, Double.parseDouble(f[11]),
+				Double.parseDouble(f[12]), unescape(f[10]), Long.parseLong(f[8]), unescape(f[3]),
+				Integer.parseInt(f[9]), Long.parseLong(f[6]), Long.parseLong(f[7]), unescape(f[5]), unescape(f[4]),
+				Integer.parseInt(f[13]), Integer.parseInt(f[14]), Integer.parseInt(f[15]), Integer.parseInt(f[16]));
+		return new Entry(fileName, fileLength, lastModified, header);
+	}
+
+	private static String escape(final String s) {
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(final String s) {
+		if (s.indexOf('\\') < 0)
+			return s;
+		final StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				c = s.charAt(++i);
+				if (c == 't')
+					c = '\t';
+				else if (c == 'n')
+					c = '\n';
+				else if (c == 'r')
+					c = '\r';
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/** @return all entries, in file name order, including non-Stratec files */
+	public List<Entry> getEntries() {
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	/**
+	 * @param fileName
+	 * @return the file's entry, or null if it is not in the index
+	 */
+	public Entry get(final String fileName) {
+		return entries.get(fileName);
+	}
+
+	/**
+	 * Find the Stratec files matching all of the given criteria
+	 *
+	 * @param patID
+	 *            patient ID, or null for any
+	 * @param device
+	 *            device TYP file name, ignoring case, or null for any
+	 * @param firstDate
+	 *            earliest acquisition date, as stored in the header
+	 * @param lastDate
+	 *            latest acquisition date
+	 * @return matching entries in file name order
+	 */
+	public List<Entry> select(final String patID, final String device, final long firstDate, final long lastDate) {
+		final List<Entry> selected = new ArrayList<Entry>();
+		for (final Entry entry : entries.values()) {
+			final StratecHeader h = entry.header;
+			if (h == null || (patID != null && !patID.equals(h.getPatID()))
+					|| (device != null && !device.equalsIgnoreCase(h.getDevice())) || h.getMeasDate() < firstDate
+					|| h.getMeasDate() > lastDate)
+				continue;
+			selected.add(entry);
+		}
+		return selected;
+	}
+}
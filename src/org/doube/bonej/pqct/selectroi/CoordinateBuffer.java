@@ -0,0 +1,167 @@
+package org.doube.bonej.pqct.selectroi;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of (i, j) pixel coordinates kept in a single int array, used
+ * for traced edges and flood fill stacks instead of a pair of Vector&lt;Integer&gt;
+ * so that adding and reading a coordinate neither locks nor boxes.
+ */
+public class CoordinateBuffer {
+
+	/** i and j of each coordinate, interleaved */
+	private int[] coordinates;
+	private int size;
+
+	public CoordinateBuffer() {
+		coordinates = new int[64];
+	}
+
+	/**
+	 * Copy a buffer
+	 *
+	 * @param other
+	 */
+	public CoordinateBuffer(final CoordinateBuffer other) {
+		coordinates = Arrays.copyOf(other.coordinates, Math.max(2 * other.size, 64));
+		size = other.size;
+	}
+
+	private void ensureCapacity(final int n) {
+		if (2 * n > coordinates.length)
+			coordinates = Arrays.copyOf(coordinates, Math.max(2 * n, 2 * coordinates.length));
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size)
+			throw new ArrayIndexOutOfBoundsException(index);
+	}
+
+	/** Append a coordinate */
+	public void add(final int i, final int j) {
+		ensureCapacity(size + 1);
+		coordinates[2 * size] = i;
+		coordinates[2 * size + 1] = j;
+		size++;
+	}
+
+	/** Append all coordinates of another buffer */
+	public void addAll(final CoordinateBuffer other) {
+		insert(size, other);
+	}
+
+	/**
+	 * Insert all coordinates of another buffer
+	 *
+	 * @param index
+	 *            position of the first inserted coordinate, 0 to size()
+	 * @param other
+	 */
+	public void insert(final int index, final CoordinateBuffer other) {
+		if (index < 0 || index > size)
+			throw new ArrayIndexOutOfBoundsException(index);
+		final int n = other.size;
+		ensureCapacity(size + n);
+		System.arraycopy(coordinates, 2 * index, coordinates, 2 * (index + n), 2 * (size - index));
+		System.arraycopy(other.coordinates, 0, coordinates, 2 * index, 2 * n);
+		size += n;
+	}
+
+	/**
+	 * Remove a range of coordinates
+	 *
+	 * @param from
+	 *            first coordinate to remove
+	 * @param to
+	 *            coordinate after the last one to remove
+	 */
+	public void remove(final int from, final int to) {
+		if (from < 0 || to > size || from > to)
+			throw new ArrayIndexOutOfBoundsException(from < 0 || from > to ? from : to);
+		System.arraycopy(coordinates, 2 * to, coordinates, 2 * from, 2 * (size - to));
+		size -= to - from;
+	}
+
+	/** Remove the last coordinate */
+	public void removeLast() {
+		checkIndex(size - 1);
+		size--;
+	}
+
+	/**
+	 * @param from
+	 *            first coordinate to copy
+	 * @param to
+	 *            coordinate after the last one to copy
+	 * @return a new buffer holding the range
+	 */
+	public CoordinateBuffer copy(final int from, final int to) {
+		if (from < 0 || to > size || from > to)
+			throw new ArrayIndexOutOfBoundsException(from < 0 || from > to ? from : to);
+		final CoordinateBuffer copy = new CoordinateBuffer();
+		copy.ensureCapacity(to - from);
+		System.arraycopy(coordinates, 2 * from, copy.coordinates, 0, 2 * (to - from));
+		copy.size = to - from;
+		return copy;
+	}
+
+	/** Reverse the order of the coordinates */
+	public void reverse() {
+		for (int a = 0, b = size - 1; a < b; a++, b--) {
+			final int i = coordinates[2 * a];
+			final int j = coordinates[2 * a + 1];
+			coordinates[2 * a] = coordinates[2 * b];
+			coordinates[2 * a + 1] = coordinates[2 * b + 1];
+			coordinates[2 * b] = i;
+			coordinates[2 * b + 1] = j;
+		}
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** @return x-coordinate at index */
+	public int getI(final int index) {
+		checkIndex(index);
+		return coordinates[2 * index];
+	}
+
+	/** @return y-coordinate at index */
+	public int getJ(final int index) {
+		checkIndex(index);
+		return coordinates[2 * index + 1];
+	}
+
+	public int lastI() {
+		return getI(size - 1);
+	}
+
+	public int lastJ() {
+		return getJ(size - 1);
+	}
+
+	/** @return x-coordinates, e.g. for a PolygonRoi */
+	public int[] toIArray() {
+		final int[] i = new int[size];
+		for (int k = 0; k < size; k++)
+			i[k] = coordinates[2 * k];
+		return i;
+	}
+
+	/** @return y-coordinates, e.g. for a PolygonRoi */
+	public int[] toJArray() {
+		final int[] j = new int[size];
+		for (int k = 0; k < size; k++)
+			j[k] = coordinates[2 * k + 1];
+		return j;
+	}
+}
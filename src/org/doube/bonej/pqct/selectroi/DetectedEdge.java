@@ -20,23 +20,14 @@
 
 package org.doube.bonej.pqct.selectroi;
 
-//Vector, Collections
-import java.util.Vector;
-
-@SuppressWarnings(value = { "serial", "unchecked" }) // Unchecked for obtaining
-														// Vector<Object> as a
-														// returnvalue
-
 public class DetectedEdge implements Comparable<DetectedEdge> {
-	public Vector<Integer> iit; // indexes for x-coordinates
-	public Vector<Integer> jiit; // indexes for y-coordinates
+	public CoordinateBuffer edge; // x- and y-coordinates of the traced edge
 	public int area;
 	public int length;
 
-	public DetectedEdge(final Vector<Integer> iit, final Vector<Integer> jiit, final int area) {
-		this.iit = iit;
-		this.jiit = jiit;
-		this.length = iit.size();
+	public DetectedEdge(final CoordinateBuffer edge, final int area) {
+		this.edge = edge;
+		this.length = edge.size();
 		this.area = area;
 	}
 
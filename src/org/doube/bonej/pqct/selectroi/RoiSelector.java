@@ -44,20 +44,10 @@ public abstract class RoiSelector {
 	public double[] cortexROI;
 	public double minimum;
 	public double maximum;
-	public Vector<Integer> iit; // indexes for x-coordinates
-	public Vector<Integer> jiit; // indexes for y-coordinates
-	public Vector<Integer> roiI;
-	public Vector<Integer> roiJ;
-
-	public Vector<Integer> boneMarrowRoiI;
-	public Vector<Integer> boneMarrowRoiJ;
-	public Vector<Integer> cortexRoiI; // For BMD analyses
-	public Vector<Integer> cortexRoiJ; // For BMD analyses
-	public Vector<Integer> cortexAreaRoiI; // For AREA analyses
-	public Vector<Integer> cortexAreaRoiJ; // For AREA analyses
-	public Vector<Integer> area;
-	public Vector<Integer> length;
-	public Vector<Integer> beginnings;
+
+	public RowSpanMask boneMarrowRoi;
+	public RowSpanMask cortexRoi; // For BMD analyses
+	public RowSpanMask cortexAreaRoi; // For AREA analyses
 
 	public int height;
 	public int width;
@@ -134,38 +124,31 @@ public abstract class RoiSelector {
 		}
 		// Sleeve found
 		sleeve = new byte[width * height];
-		final Vector<Integer> initialI = new Vector<Integer>();
-		final Vector<Integer> initialJ = new Vector<Integer>();
-		initialI.add(i);
-		initialJ.add(j);
-		while (initialI.size() > 0 && initialI.lastElement() > 0 && initialI.lastElement() < width - 1
-				&& initialJ.lastElement() > 0 && initialJ.lastElement() < height - 1) {
-			i = initialI.lastElement();
-			j = initialJ.lastElement();
-			initialI.remove(initialI.size() - 1);
-			initialJ.remove(initialJ.size() - 1);
+		final CoordinateBuffer initial = new CoordinateBuffer();
+		initial.add(i, j);
+		while (!initial.isEmpty() && initial.lastI() > 0 && initial.lastI() < width - 1 && initial.lastJ() > 0
+				&& initial.lastJ() < height - 1) {
+			i = initial.lastI();
+			j = initial.lastJ();
+			initial.removeLast();
 			if (scaledImage[i + j * width] > sleeveThreshold && sleeve[i + j * width] == 0) {
 				sleeve[i + j * width] = 1;
 			}
 
 			if (scaledImage[i - 1 + j * width] > sleeveThreshold && sleeve[i - 1 + j * width] == 0) {
-				initialI.add(new Integer(i - 1));
-				initialJ.add(new Integer(j));
+				initial.add(i - 1, j);
 			}
 
 			if (scaledImage[i + 1 + j * width] > sleeveThreshold && sleeve[i + 1 + j * width] == 0) {
-				initialI.add(new Integer(i + 1));
-				initialJ.add(new Integer(j));
+				initial.add(i + 1, j);
 			}
 
 			if (scaledImage[i + (j - 1) * width] > sleeveThreshold && sleeve[i + (j - 1) * width] == 0) {
-				initialI.add(new Integer(i));
-				initialJ.add(new Integer(j - 1));
+				initial.add(i, j - 1);
 			}
 
 			if (scaledImage[i + (j + 1) * width] > sleeveThreshold && sleeve[i + (j + 1) * width] == 0) {
-				initialI.add(new Integer(i));
-				initialJ.add(new Integer(j + 1));
+				initial.add(i, j + 1);
 			}
 
 		}
@@ -231,13 +214,112 @@ public abstract class RoiSelector {
 	/* DetectedEdges */
 	public Vector<Object> getSieve(final double[] tempScaledImage, final double boneThreshold, final String roiChoice,
 			final boolean guessStacked, final boolean stacked, final boolean guessFlip, final boolean allowCleaving) {
-		final Vector<Object> results = findEdge(tempScaledImage, boneThreshold, allowCleaving); // Trace
+		return getSieve(tempScaledImage, boneThreshold, roiChoice, guessStacked, stacked, guessFlip, allowCleaving,
+				null);
+	}
+
+	/**
+	 * Trace the bones and fill the selected one
+	 *
+	 * @param seed
+	 *            edge of a bone selected in a neighbouring slice. If given, the
+	 *            bone nearest to it is selected instead of the roiChoice.
+	 * @return sieve, result, edges and selection, or null if there was a seed
+	 *         but no bone was found
+	 */
+	public Vector<Object> getSieve(final double[] tempScaledImage, final double boneThreshold, final String roiChoice,
+			final boolean guessStacked, final boolean stacked, final boolean guessFlip, final boolean allowCleaving,
+			final DetectedEdge seed) {
+		return getSieve(tempScaledImage, boneThreshold, roiChoice, guessStacked, stacked, guessFlip, allowCleaving,
+				seed, fullWindow());
+	}
+
+	/**
+	 * Trace the bones within a window and fill the selected one. Pixels
+	 * outside the window are treated as below the threshold.
+	 *
+	 * @param window
+	 *            first column, first row, last column and last row to trace
+	 */
+	Vector<Object> getSieve(final double[] tempScaledImage, final double boneThreshold, final String roiChoice,
+			final boolean guessStacked, final boolean stacked, final boolean guessFlip, final boolean allowCleaving,
+			final DetectedEdge seed, final int[] window) {
+		final Vector<Object> results = findEdge(tempScaledImage, boneThreshold, allowCleaving, window); // Trace
 																								// bone
 																								// edges
 		result = (byte[]) results.get(0);
 		final Vector<DetectedEdge> edges = (Vector<DetectedEdge>) results.get(1);
 
 		/* Select correct bone outline */
+		int selection;
+		if (seed != null) {
+			if (edges.isEmpty()) {
+				return null;
+			}
+			selection = selectRoiNearestSeed(edges, seed);
+		} else {
+			selection = selectRoi(edges, tempScaledImage, roiChoice);
+		}
+		/* Debugging */
+		/*
+		 * for (int i = 0; i<edges.size();++i){ System.out.println("RoiArea "
+		 * +edges.get(i).area); } System.out.println("RoiChoice "+roiChoice+
+		 * " selection "+selection+" lengthEdges "+edges.size());
+		 *
+		 * System.out.println("RoiChoice "+roiChoice+" selection "+selection+
+		 * " lengthEdges "+edges.size());
+		 */
+		// IJ.error(roiChoice + " selection "+selection);
+		// Try to guess whether the bones were stacked or not....
+		if (guessStacked) {
+			final int[] guessingStack = twoLargestBonesDetectedEdges(edges);
+
+			if (Math.abs((double) edges.get(guessingStack[0]).edge.getJ(0)
+					- (double) edges.get(guessingStack[1]).edge.getJ(1)) > 1.1
+							* Math.abs((double) edges.get(guessingStack[0]).edge.getI(0)
+									- (double) edges.get(guessingStack[1]).edge.getI(1))) {
+				details.stacked = true;
+			} else {
+				details.stacked = false;
+			}
+			// IJ.log("Guessing Stacked
+			// "+Math.abs((double)edges.get(guessingStack[0]).edge.getJ(0)-
+			// (double)edges.get(guessingStack[1]).edge.getJ(1)) +"
+			// "+(1.1*Math.abs((double)edges.get(guessingStack[0]).edge.getI(0)-
+			// (double)edges.get(guessingStack[1]).edge.getI(1)))+" onko
+			// "+(Math.abs((double)edges.get(guessingStack[0]).edge.getJ(0)-
+			// (double)edges.get(guessingStack[1]).edge.getJ(1))>1.1*Math.abs((double)edges.get(guessingStack[0]).edge.getI(0)-
+			// (double)edges.get(guessingStack[1]).edge.getI(1)))+" paatos
+			// "+details.stacked);
+		}
+
+		/* Try to guess whether to flip the distribution */
+		if (guessFlip) {
+			if (details.guessLarger) {
+				details.flipDistribution = guessFlipLarger(edges, stacked);
+			} else {
+				details.flipDistribution = guessFlipSelection(edges, selection, stacked);
+			}
+			if (details.invertGuess) { // Flip flip, if roiChoice is smaller or
+										// second Largest
+				details.flipDistribution = !details.flipDistribution;
+			}
+		}
+
+		/* fill roiI & roiJ */
+
+		final byte[] tempSieve = fillSieve(edges.get(selection).edge, width, height, tempScaledImage, boneThreshold,
+				window);
+		final Vector<Object> returnVector = new Vector<Object>();
+		returnVector.add(tempSieve);
+		returnVector.add(result);
+		returnVector.add(edges);
+		returnVector.add(new Integer(selection));
+		return returnVector;
+	}
+
+	/* Select a bone by one of the ROI choices */
+	int selectRoi(final Vector<DetectedEdge> edges, final double[] tempScaledImage, final String roiChoice) {
 		int selection = 0;
 
 		if (roiChoice.equals(details.choiceLabels[0])) {
@@ -317,62 +399,7 @@ public abstract class RoiSelector {
 			selection = selectRoiFirstNthFromTop(edges, i - 16);
 		}
 		i = i + 1;
-		/* Debugging */
-		/*
-		 * for (int i = 0; i<edges.size();++i){ System.out.println("RoiArea "
-		 * +edges.get(i).area); } System.out.println("RoiChoice "+roiChoice+
-		 * " selection "+selection+" lengthEdges "+edges.size());
-		 *
-		 * System.out.println("RoiChoice "+roiChoice+" selection "+selection+
-		 * " lengthEdges "+edges.size());
-		 */
-		// IJ.error(roiChoice + " selection "+selection);
-		// Try to guess whether the bones were stacked or not....
-		if (guessStacked) {
-			final int[] guessingStack = twoLargestBonesDetectedEdges(edges);
-
-			if (Math.abs((double) edges.get(guessingStack[0]).jiit.get(0)
-					- (double) edges.get(guessingStack[1]).jiit.get(1)) > 1.1
-							* Math.abs((double) edges.get(guessingStack[0]).iit.get(0)
-									- (double) edges.get(guessingStack[1]).iit.get(1))) {
-				details.stacked = true;
-			} else {
-				details.stacked = false;
-			}
-			// IJ.log("Guessing Stacked
-			// "+Math.abs((double)edges.get(guessingStack[0]).jiit.get(0)-
-			// (double)edges.get(guessingStack[1]).jiit.get(1)) +"
-			// "+(1.1*Math.abs((double)edges.get(guessingStack[0]).iit.get(0)-
-			// (double)edges.get(guessingStack[1]).iit.get(1)))+" onko
-			// "+(Math.abs((double)edges.get(guessingStack[0]).jiit.get(0)-
-			// (double)edges.get(guessingStack[1]).jiit.get(1))>1.1*Math.abs((double)edges.get(guessingStack[0]).iit.get(0)-
-			// (double)edges.get(guessingStack[1]).iit.get(1)))+" paatos
-			// "+details.stacked);
-		}
-
-		/* Try to guess whether to flip the distribution */
-		if (guessFlip) {
-			if (details.guessLarger) {
-				details.flipDistribution = guessFlipLarger(edges, stacked);
-			} else {
-				details.flipDistribution = guessFlipSelection(edges, selection, stacked);
-			}
-			if (details.invertGuess) { // Flip flip, if roiChoice is smaller or
-										// second Largest
-				details.flipDistribution = !details.flipDistribution;
-			}
-		}
-
-		/* fill roiI & roiJ */
-
-		final byte[] tempSieve = fillSieve(edges.get(selection).iit, edges.get(selection).jiit, width, height,
-				tempScaledImage, boneThreshold);
-		final Vector<Object> returnVector = new Vector<Object>();
-		returnVector.add(tempSieve);
-		returnVector.add(result);
-		returnVector.add(edges);
-		returnVector.add(new Integer(selection));
-		return returnVector;
+		return selection;
 	}
 
 	/* DetectedEdge */
@@ -430,41 +457,32 @@ public abstract class RoiSelector {
 
 	/* DetectedEdge */
 	boolean guessFlipLarger(final Vector<DetectedEdge> edges, final boolean stacked) {
-		final Vector<Integer> temp = new Vector<Integer>();
-		final Vector<Integer> temp2 = new Vector<Integer>();
-		// IJ.log("Checking number of edges");
+		final int[] temp = new int[edges.size()];
 		for (int iii = 0; iii < edges.size(); iii++) {
-			temp.add(edges.get(iii).area);
-			temp2.add(edges.get(iii).area);
+			temp[iii] = edges.get(iii).area;
 		}
-		Collections.sort(temp);
+		Arrays.sort(temp);
 
 		final int[] counter = { 0, 0 };
-		// IJ.log("Sorting edges c "+counter[0]+" t2 "+temp2.get(counter[0])+"
-		// tMax "+temp.get(temp.size()-1)+" true "+(temp2.get(counter[0]) !=
-		// temp.get(temp.size()-1)));
-		while ((temp2.get(counter[0])) != (temp.get(temp.size() - 1))) {
+		while (edges.get(counter[0]).area != temp[temp.length - 1]) {
 			++counter[0];
-			// IJ.log("Sorting edges c "+counter[0]+" t2
-			// "+temp2.get(counter[0])+" tMax "+temp.get(temp.size()-1)+" true
-			// "+(temp2.get(counter[0]) !=temp.get(temp.size()-1)));
 		}
 		// IJ.log("Found largest");
 		boolean returnValue = false;
-		if (temp.size() > 1) {
-			while ((temp2.get(counter[1])) != (temp.get(temp.size() - 2))) {
+		if (temp.length > 1) {
+			while (edges.get(counter[1]).area != temp[temp.length - 2]) {
 				++counter[1];
 			}
 			if (stacked) {
 				// IJ.log("Decision
-				// "+(((int)edges.get(counter[0]).jiit.get(0))<((int)edges.get(counter[1]).jiit.get(0))));
-				if ((edges.get(counter[0]).jiit.get(0)) < (edges.get(counter[1]).jiit.get(0))) {
+				// "+(edges.get(counter[0]).edge.getJ(0)<edges.get(counter[1]).edge.getJ(0)));
+				if (edges.get(counter[0]).edge.getJ(0) < edges.get(counter[1]).edge.getJ(0)) {
 					returnValue = false;
 				} else {
 					returnValue = true;
 				}
 			} else {
-				if ((edges.get(counter[0]).iit.get(0)) < (edges.get(counter[1]).iit.get(0))) {
+				if (edges.get(counter[0]).edge.getI(0) < edges.get(counter[1]).edge.getI(0)) {
 					returnValue = false;
 				} else {
 					returnValue = true;
@@ -473,8 +491,8 @@ public abstract class RoiSelector {
 		}
 		// IJ.log("Done with largest "+returnValue);
 		// IJ.error("RV "+returnValue+" c0
-		// "+iit.get(beginning.get(counter[0]))+" c1
-		// "+iit.get(beginning.get(counter[1])));
+		// "+edges.get(counter[0]).edge.getI(0)+" c1
+		// "+edges.get(counter[1]).edge.getI(0));
 		return returnValue;
 	}
 
@@ -507,15 +525,15 @@ public abstract class RoiSelector {
 		final int[] possibleCoords = new int[2];
 		int selectionCoord = 0;
 		if (stacked) {
-			selectionCoord = edges.get(selection).jiit.get(0);
+			selectionCoord = edges.get(selection).edge.getJ(0);
 		} else {
-			selectionCoord = edges.get(selection).iit.get(0);
+			selectionCoord = edges.get(selection).edge.getI(0);
 		}
 		for (int i = 0; i < 2; ++i) {
 			if (stacked) {
-				possibleCoords[i] = edges.get(considered[i]).jiit.get(0);
+				possibleCoords[i] = edges.get(considered[i]).edge.getJ(0);
 			} else {
-				possibleCoords[i] = edges.get(considered[i]).iit.get(0);
+				possibleCoords[i] = edges.get(considered[i]).edge.getI(0);
 			}
 		}
 
@@ -620,98 +638,138 @@ public abstract class RoiSelector {
 
 	/* DetectedEdge */
 	int selectRoiLeftMostBone(final Vector<DetectedEdge> edges) {
-		final Vector<Integer> temp = new Vector<Integer>();
-		final Vector<Integer> temp2 = new Vector<Integer>();
-		for (int iii = 0; iii < edges.size(); iii++) {
-			temp.add(edges.get(iii).iit.get(0));
-			temp2.add(edges.get(iii).iit.get(0));
-		}
-		Collections.sort(temp);
-		int counter = 0;
-		while (temp2.get(counter) != temp.get(0)) {
-			++counter;
-		}
-		return counter;
+		return selectRoiNthByFirstPixel(edges, false, 0);
 	}
 
 	/* DetectedEdge , indexing from 0 */
 	int selectRoiFirstNthFromLeft(final Vector<DetectedEdge> edges, final int nth) {
-		final Vector<Integer> temp = new Vector<Integer>();
-		final Vector<Integer> temp2 = new Vector<Integer>();
-		for (int iii = 0; iii < edges.size(); iii++) {
-			temp.add(edges.get(iii).iit.get(0));
-			temp2.add(edges.get(iii).iit.get(0));
-		}
-		Collections.sort(temp);
-		int counter = 0;
-		while (temp2.get(counter) != temp.get(nth)) {
-			++counter;
-		}
-		return counter;
+		return selectRoiNthByFirstPixel(edges, false, nth);
 	}
 
 	/* DetectedEdge */
 	int selectRoiRightMostBone(final Vector<DetectedEdge> edges) {
-		final Vector<Integer> temp = new Vector<Integer>();
-		final Vector<Integer> temp2 = new Vector<Integer>();
-		for (int iii = 0; iii < edges.size(); iii++) {
-			temp.add(edges.get(iii).iit.get(0));
-			temp2.add(edges.get(iii).iit.get(0));
-		}
-		Collections.sort(temp);
-		int counter = 0;
-		while (temp2.get(counter) != temp.get(temp.size() - 1)) {
-			++counter;
-		}
-		return counter;
+		return selectRoiNthByFirstPixel(edges, false, edges.size() - 1);
 	}
 
 	/* DetectedEdge, indexing from 0 */
 	int selectRoiFirstNthFromTop(final Vector<DetectedEdge> edges, final int nth) {
-		final Vector<Integer> temp = new Vector<Integer>();
-		final Vector<Integer> temp2 = new Vector<Integer>();
-		for (int iii = 0; iii < edges.size(); iii++) {
-			temp.add(edges.get(iii).jiit.get(0));
-			temp2.add(edges.get(iii).jiit.get(0));
-		}
-		Collections.sort(temp);
-		int counter = 0;
-		while (temp2.get(counter) != temp.get(nth)) {
-			++counter;
-		}
-		return counter;
+		return selectRoiNthByFirstPixel(edges, true, nth);
 	}
 
 	/* DetectedEdge */
 	int selectRoiTopMostBone(final Vector<DetectedEdge> edges) {
-		final Vector<Integer> temp = new Vector<Integer>();
-		final Vector<Integer> temp2 = new Vector<Integer>();
-		for (int iii = 0; iii < edges.size(); iii++) {
-			temp.add(edges.get(iii).jiit.get(0));
-			temp2.add(edges.get(iii).jiit.get(0));
-		}
-		Collections.sort(temp);
-		int counter = 0;
-		while (temp2.get(counter) != temp.get(0)) {
-			++counter;
-		}
-		return counter;
+		return selectRoiNthByFirstPixel(edges, true, 0);
 	}
 
 	/* DetectedEdge */
 	int selectRoiBottomMostBone(final Vector<DetectedEdge> edges) {
-		final Vector<Integer> temp = new Vector<Integer>();
-		final Vector<Integer> temp2 = new Vector<Integer>();
+		return selectRoiNthByFirstPixel(edges, true, edges.size() - 1);
+	}
+
+	/*
+	 * DetectedEdge, indexing from 0. Rank the edges by the x (or y) coordinate
+	 * of their first pixel, edges with equal coordinates in the order they were
+	 * found, and return the index of the nth edge.
+	 */
+	int selectRoiNthByFirstPixel(final Vector<DetectedEdge> edges, final boolean vertical, final int nth) {
+		final int[] coordinates = new int[edges.size()];
 		for (int iii = 0; iii < edges.size(); iii++) {
-			temp.add(edges.get(iii).jiit.get(0));
-			temp2.add(edges.get(iii).jiit.get(0));
+			coordinates[iii] = vertical ? edges.get(iii).edge.getJ(0) : edges.get(iii).edge.getI(0);
 		}
-		Collections.sort(temp);
-		int counter = 0;
-		while (temp2.get(counter) != temp.get(temp.size() - 1)) {
-			++counter;
+		for (int iii = 0; iii < coordinates.length; iii++) {
+			int rank = 0;
+			for (int jjj = 0; jjj < coordinates.length; jjj++) {
+				if (coordinates[jjj] < coordinates[iii] || (coordinates[jjj] == coordinates[iii] && jjj < iii)) {
+					++rank;
+				}
+			}
+			if (rank == nth) {
+				return iii;
+			}
 		}
-		return counter;
+		throw new ArrayIndexOutOfBoundsException(nth);
+	}
+
+	/* Select the bone whose edge is centred nearest to the seed's */
+	int selectRoiNearestSeed(final Vector<DetectedEdge> edges, final DetectedEdge seed) {
+		final double[] seedCentre = edgeCentre(seed.edge);
+		int selection = 0;
+		double nearest = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < edges.size(); ++i) {
+			final double[] centre = edgeCentre(edges.get(i).edge);
+			final double distance = (centre[0] - seedCentre[0]) * (centre[0] - seedCentre[0])
+					+ (centre[1] - seedCentre[1]) * (centre[1] - seedCentre[1]);
+			if (distance < nearest) {
+				nearest = distance;
+				selection = i;
+			}
+		}
+		return selection;
+	}
+
+	/* The whole image as a tracing window */
+	int[] fullWindow() {
+		final int[] window = { 0, 0, width - 1, height - 1 };
+		return window;
+	}
+
+	static double[] edgeCentre(final CoordinateBuffer edge) {
+		final double[] centre = new double[2];
+		for (int k = 0; k < edge.size(); ++k) {
+			centre[0] += edge.getI(k);
+			centre[1] += edge.getJ(k);
+		}
+		centre[0] /= edge.size();
+		centre[1] /= edge.size();
+		return centre;
+	}
+
+	/**
+	 * Select the bone nearest to a bone found in a neighbouring slice. Edges
+	 * are only traced and filled within a window around the seed, which is a
+	 * quarter of the seed's size larger than it on each side, unless the bone
+	 * found reaches the border of the window. The stacked and flip settings of the
+	 * details are kept, rather than guessed again.
+	 *
+	 * @param tempScaledImage
+	 * @param boneThreshold
+	 * @param seed
+	 *            edge of the bone selected in the neighbouring slice
+	 * @return as getSieve, or null if no bone was found
+	 */
+	public Vector<Object> getSeededSieve(final double[] tempScaledImage, final double boneThreshold,
+			final DetectedEdge seed) {
+		int iMin = width;
+		int iMax = -1;
+		int jMin = height;
+		int jMax = -1;
+		for (int k = 0; k < seed.edge.size(); ++k) {
+			iMin = Math.min(iMin, seed.edge.getI(k));
+			iMax = Math.max(iMax, seed.edge.getI(k));
+			jMin = Math.min(jMin, seed.edge.getJ(k));
+			jMax = Math.max(jMax, seed.edge.getJ(k));
+		}
+		final int margin = Math.max(iMax - iMin, jMax - jMin) / 4 + 2;
+		iMin = Math.max(iMin - margin, 0);
+		iMax = Math.min(iMax + margin, width - 1);
+		jMin = Math.max(jMin - margin, 0);
+		jMax = Math.min(jMax + margin, height - 1);
+		final int[] window = { iMin, jMin, iMax, jMax };
+		final Vector<Object> windowed = getSieve(tempScaledImage, boneThreshold, details.roiChoice, false,
+				details.stacked, false, details.allowCleaving, seed, window);
+		if (windowed != null) {
+			final CoordinateBuffer edge = ((Vector<DetectedEdge>) windowed.get(2))
+					.get((Integer) windowed.get(3)).edge;
+			boolean inside = true;
+			for (int k = 0; k < edge.size() && inside; ++k) {
+				inside = edge.getI(k) > iMin && edge.getI(k) < iMax && edge.getJ(k) > jMin && edge.getJ(k) < jMax;
+			}
+			if (inside) {
+				return windowed;
+			}
+		}
+		return getSieve(tempScaledImage, boneThreshold, details.roiChoice, false, details.stacked, false,
+				details.allowCleaving, seed);
 	}
 
 	/* DetectedEdge */
@@ -757,7 +815,7 @@ public abstract class RoiSelector {
 		/* Find the centre of area of the limb */
 		final int maxIndice = selectRoiBiggestBoneDetectedEdges(edges);
 		final byte[] limbSieve = new byte[tempScaledImage.length];
-		limbSieve[edges.get(maxIndice).iit.get(0) + edges.get(maxIndice).jiit.get(0) * width] = 1;
+		limbSieve[edges.get(maxIndice).edge.getI(0) + edges.get(maxIndice).edge.getJ(0) * width] = 1;
 		/* Dilate muscleSieve, into neighbouring fat pixels */
 		int tempDil = 1;
 		while (tempDil > 0) {
@@ -784,9 +842,10 @@ public abstract class RoiSelector {
 		/* Find the centres of circumference of the bones */
 		final double[] distanceFromCentreOfLimb = new double[edges.size()];
 		for (int i = 0; i < edges.size(); ++i) {
-			for (int j = 0; j < edges.get(i).iit.size(); j++) {
-				bones.get(i)[0] += edges.get(i).iit.get(j);
-				bones.get(i)[1] += edges.get(i).jiit.get(j);
+			final CoordinateBuffer edge = edges.get(i).edge;
+			for (int j = 0; j < edge.size(); j++) {
+				bones.get(i)[0] += edge.getI(j);
+				bones.get(i)[1] += edge.getJ(j);
 				bones.get(i)[2] += 1;
 			}
 			bones.get(i)[0] /= bones.get(i)[2];
@@ -836,9 +895,22 @@ public abstract class RoiSelector {
 		return dilated;
 	}
 
-	public byte[] fillSieve(final Vector<Integer> roiI, final Vector<Integer> roiJ, final int width, final int height,
-			final double[] scaledImage, final double threshold) {
-		// Fill the area enclosed by the traced edge contained in roiI,roiJ
+	public byte[] fillSieve(final CoordinateBuffer roi, final int width, final int height, final double[] scaledImage,
+			final double threshold) {
+		final int[] window = { 0, 0, width - 1, height - 1 };
+		return fillSieve(roi, width, height, scaledImage, threshold, window);
+	}
+
+	/**
+	 * Fill the area enclosed by a traced edge, where the fill may not leave the
+	 * window
+	 *
+	 * @param window
+	 *            first column, first row, last column and last row
+	 */
+	byte[] fillSieve(final CoordinateBuffer roi, final int width, final int height, final double[] scaledImage,
+			final double threshold, final int[] window) {
+		// Fill the area enclosed by the traced edge contained in roi
 		// beginning needs to be within the traced edge
 		byte[] sieveTemp = new byte[width * height];
 		int z = 0;
@@ -846,17 +918,18 @@ public abstract class RoiSelector {
 		// IJ.error("Coordinates");
 		// TextWindow tw = new
 		// TextWindow("coordinates","I\tJ\tr\tno","",200,200);
-		for (z = 0; z < roiI.size(); ++z) {
-			sieveTemp[roiI.get(z) + roiJ.get(z) * width] = 1;
-			// tw.append(roiI.get(z)+"\t"+roiJ.get(z));
+		for (z = 0; z < roi.size(); ++z) {
+			sieveTemp[roi.getI(z) + roi.getJ(z) * width] = 1;
+			// tw.append(roi.getI(z)+"\t"+roi.getJ(z));
 		}
 
 		/* Determine the flood fill init */
 		int[] tempCoordinates;
 		final int tempC = 0;
+		final CoordinateBuffer initial = new CoordinateBuffer();
 		while (true) {
 
-			tempCoordinates = findFillInit(sieveTemp, roiI, roiJ, scaledImage, threshold);
+			tempCoordinates = findFillInit(sieveTemp, roi, scaledImage, threshold, window);
 			if (tempCoordinates == null) {
 				return sieveTemp;
 			}
@@ -864,50 +937,43 @@ public abstract class RoiSelector {
 			i = tempCoordinates[0];
 			j = tempCoordinates[1];
 
-			final Vector<Integer> initialI = new Vector<Integer>();
-			final Vector<Integer> initialJ = new Vector<Integer>();
-			initialI.add(i);
-			initialJ.add(j);
+			initial.clear();
+			initial.add(i, j);
 			sieveTemp[i + j * width] = 1;
 			final byte[] sieveTemp2 = sieveTemp.clone();
 			boolean noLeak = true;
-			while (initialI.size() > 0) {
-				i = initialI.lastElement();
-				j = initialJ.lastElement();
-				initialI.remove(initialI.size() - 1);
-				initialJ.remove(initialJ.size() - 1);
+			while (!initial.isEmpty()) {
+				i = initial.lastI();
+				j = initial.lastJ();
+				initial.removeLast();
 
 				if (sieveTemp2[i + j * width] == 0) {
 					sieveTemp2[i + j * width] = 1;
 
 				}
-				if (i < 1 || i >= width - 1 || j < 1 || j >= height - 1) {
+				if (i <= window[0] || i >= window[2] || j <= window[1] || j >= window[3]) {
 					noLeak = false;
 					break;
 				}
 				// check whether the neighbour to the left should be added to
 				// the queue
 				if (sieveTemp2[i - 1 + j * width] == 0) {
-					initialI.add(i - 1);
-					initialJ.add(j);
+					initial.add(i - 1, j);
 				}
 				// check whether the neighbour to the right should be added to
 				// the queue
 				if (sieveTemp2[i + 1 + j * width] == 0) {
-					initialI.add(i + 1);
-					initialJ.add(j);
+					initial.add(i + 1, j);
 				}
 				// check whether the neighbour below should be added to the
 				// queue
 				if (sieveTemp2[i + (j - 1) * width] == 0) {
-					initialI.add(i);
-					initialJ.add(j - 1);
+					initial.add(i, j - 1);
 				}
 				// check whether the neighbour above should be added to the
 				// queue
 				if (sieveTemp2[i + (j + 1) * width] == 0) {
-					initialI.add(i);
-					initialJ.add(j + 1);
+					initial.add(i, j + 1);
 				}
 			}
 			if (noLeak) {
@@ -924,11 +990,10 @@ public abstract class RoiSelector {
 	 * http://www.math.ucla.edu/~bertozzi/RTG/zhong07/report_zhong.pdf The paper
 	 * traced continent edges on map/satellite image
 	 */
-	Vector<Object> traceEdge(final double[] scaledImage, final byte[] result, final double threshold, int i, int j) {
-		final Vector<Integer> iit = new Vector<Integer>();
-		final Vector<Integer> jiit = new Vector<Integer>();
-		iit.add(i);
-		jiit.add(j);
+	Vector<Object> traceEdge(final double[] scaledImage, final byte[] result, final double threshold, int i, int j,
+			final int[] window) {
+		final CoordinateBuffer edge = new CoordinateBuffer();
+		edge.add(i, j);
 		double direction = 0; // begin by advancing right. Positive angles
 								// rotate the direction clockwise.
 		double previousDirection;
@@ -944,19 +1009,19 @@ public abstract class RoiSelector {
 			 * Handle going out of bounds by considering out of bounds to be
 			 * less than threshold
 			 */
-			if (i + ((int) Math.round(Math.cos(direction))) >= 0 && i + ((int) Math.round(Math.cos(direction))) < width
-					&& j + ((int) Math.round(Math.sin(direction))) >= 0
-					&& j + ((int) Math.round(Math.sin(direction))) < height
+			if (i + ((int) Math.round(Math.cos(direction))) >= window[0] && i + ((int) Math.round(Math.cos(direction))) <= window[2]
+					&& j + ((int) Math.round(Math.sin(direction))) >= window[1]
+					&& j + ((int) Math.round(Math.sin(direction))) <= window[3]
 					&& scaledImage[i + ((int) Math.round(Math.cos(direction)))
 							+ (j + ((int) Math.round(Math.sin(direction)))) * width] > threshold) {// Rotate
 																									// counter
 																									// clockwise
 				while ((scaledImage[i + ((int) Math.round(Math.cos(direction - Math.PI / 4.0)))
 						+ (j + ((int) Math.round(Math.sin(direction - Math.PI / 4.0)))) * width] > threshold)
-						&& counter < 8 && i + ((int) Math.round(Math.cos(direction - Math.PI / 4.0))) >= 0
-						&& i + ((int) Math.round(Math.cos(direction - Math.PI / 4.0))) < width
-						&& j + ((int) Math.round(Math.sin(direction - Math.PI / 4.0))) >= 0
-						&& j + ((int) Math.round(Math.sin(direction - Math.PI / 4.0))) < height) {
+						&& counter < 8 && i + ((int) Math.round(Math.cos(direction - Math.PI / 4.0))) >= window[0]
+						&& i + ((int) Math.round(Math.cos(direction - Math.PI / 4.0))) <= window[2]
+						&& j + ((int) Math.round(Math.sin(direction - Math.PI / 4.0))) >= window[1]
+						&& j + ((int) Math.round(Math.sin(direction - Math.PI / 4.0))) <= window[3]) {
 					direction -= Math.PI / 4.0;
 					++counter;
 					if (Math.abs(direction - previousDirection) >= 180) {
@@ -965,10 +1030,10 @@ public abstract class RoiSelector {
 
 				}
 			} else {// Rotate clockwise
-				while ((i + ((int) Math.round(Math.cos(direction))) < 0
-						|| i + ((int) Math.round(Math.cos(direction))) >= width
-						|| j + ((int) Math.round(Math.sin(direction))) < 0
-						|| j + ((int) Math.round(Math.sin(direction))) >= height
+				while ((i + ((int) Math.round(Math.cos(direction))) < window[0]
+						|| i + ((int) Math.round(Math.cos(direction))) > window[2]
+						|| j + ((int) Math.round(Math.sin(direction))) < window[1]
+						|| j + ((int) Math.round(Math.sin(direction))) > window[3]
 						|| scaledImage[i + ((int) Math.round(Math.cos(direction)))
 								+ (j + ((int) Math.round(Math.sin(direction)))) * width] < threshold)
 						&& counter < 8) {
@@ -991,8 +1056,7 @@ public abstract class RoiSelector {
 				}
 				final Vector<Object> returnVector = new Vector<Object>();
 				returnVector.add(result);
-				returnVector.add(iit);
-				returnVector.add(jiit);
+				returnVector.add(edge);
 				/* tempImage.close(); */
 				return returnVector;
 			} else {
@@ -1001,8 +1065,7 @@ public abstract class RoiSelector {
 				} else if (result[i + j * width] != 1) {
 					result[i + j * width]++;
 				}
-				iit.add(i);
-				jiit.add(j);
+				edge.add(i, j);
 
 			}
 			direction -= Math.PI / 2.0; // Keep steering counter clockwise not
@@ -1010,18 +1073,15 @@ public abstract class RoiSelector {
 		}
 	}
 
-	Vector<Object> resultFill(int i, int j, final byte[] tempResult) {
-		final Vector<Integer> initialI = new Vector<Integer>();
-		final Vector<Integer> initialJ = new Vector<Integer>();
-		initialI.add(i);
-		initialJ.add(j);
+	Vector<Object> resultFill(int i, int j, final byte[] tempResult, final int[] window) {
+		final CoordinateBuffer initial = new CoordinateBuffer();
+		initial.add(i, j);
 		int pixelsFilled = 0;
-		while (initialI.size() > 0 && initialI.lastElement() > 0 && initialI.lastElement() < width - 1
-				&& initialJ.lastElement() > 0 && initialJ.lastElement() < height - 1) {
-			i = initialI.lastElement();
-			j = initialJ.lastElement();
-			initialI.remove(initialI.size() - 1);
-			initialJ.remove(initialJ.size() - 1);
+		while (!initial.isEmpty() && initial.lastI() > window[0] && initial.lastI() < window[2]
+				&& initial.lastJ() > window[1] && initial.lastJ() < window[3]) {
+			i = initial.lastI();
+			j = initial.lastJ();
+			initial.removeLast();
 
 			if (tempResult[i + j * width] == 0) {
 				tempResult[i + j * width] = 1;
@@ -1029,28 +1089,24 @@ public abstract class RoiSelector {
 			}
 
 			if (tempResult[i - 1 + j * width] == 0) {
-				initialI.add(i - 1);
-				initialJ.add(j);
+				initial.add(i - 1, j);
 			}
 
 			if (tempResult[i + 1 + j * width] == 0) {
-				initialI.add(i + 1);
-				initialJ.add(j);
+				initial.add(i + 1, j);
 			}
 
 			if (tempResult[i + (j - 1) * width] == 0) {
-				initialI.add(i);
-				initialJ.add(j - 1);
+				initial.add(i, j - 1);
 			}
 
 			if (tempResult[i + (j + 1) * width] == 0) {
-				initialI.add(i);
-				initialJ.add(j + 1);
+				initial.add(i, j + 1);
 			}
 
 		}
 		final Vector<Object> returnValue = new Vector<Object>();
-		if (initialI.size() > 0 || initialJ.size() > 0) {
+		if (!initial.isEmpty()) {
 			returnValue.add(new Boolean(false));
 		} else {
 			returnValue.add(new Boolean(true));
@@ -1061,10 +1117,26 @@ public abstract class RoiSelector {
 
 	/* DetectEdge */
 	Vector<Object> findEdge(final double[] scaledImage, final double threshold, final boolean allowCleaving) {
+		return findEdge(scaledImage, threshold, allowCleaving, fullWindow());
+	}
+
+	/**
+	 * Trace the edges within a window, treating pixels outside it as below the
+	 * threshold
+	 *
+	 * @param window
+	 *            first column, first row, last column and last row
+	 */
+	Vector<Object> findEdge(final double[] scaledImage, final double threshold, final boolean allowCleaving,
+			final int[] window) {
+		// scan the window's columns from i0 to i1 - 1 and rows from j0 to j1 - 1
+		final int i0 = window[0];
+		final int j0 = window[1];
+		final int i1 = window[2] + 1;
+		final int j1 = window[3] + 1;
 		int i, j, tempI, tempJ;
-		int len;
-		i = 0;
-		j = 0;
+		i = i0;
+		j = j0;
 		byte[] result = new byte[scaledImage.length];
 		final Vector<DetectedEdge> edges = new Vector<DetectedEdge>();
 		/* Debugging */
@@ -1074,98 +1146,69 @@ public abstract class RoiSelector {
 		 * tempImage.getProcessor().setBackgroundValue(0.0);
 		 * tempImage.getProcessor().setValue(255.0); tempImage.show();
 		 */
-		while ((i < (width - 1)) && (j < (height - 1))) {
-			while (j < height - 1 && i < width && scaledImage[i + j * width] < threshold) {
+		while ((i < (i1 - 1)) && (j < (j1 - 1))) {
+			while (j < j1 - 1 && i < i1 && scaledImage[i + j * width] < threshold) {
 				i++;
 				if (result[i + j * width] == 1) {
-					while (j < height - 1 && result[i + j * width] > 0) {
+					while (j < j1 - 1 && result[i + j * width] > 0) {
 						i++;
-						if (i == width && j < height - 2) {
-							i = 0;
+						if (i == i1 && j < j1 - 2) {
+							i = i0;
 							j++;
 						}
 
 					}
 				}
 
-				if (i == width) {
+				if (i == i1) {
 					j++;
-					if (j >= height - 1)
+					if (j >= j1 - 1)
 						break;
-					i = 0;
+					i = i0;
 				}
 			}
 			tempI = i;
 			tempJ = j;
 
-			if (i >= width - 1 && j >= height - 1) {
+			if (i >= i1 - 1 && j >= j1 - 1) {
 				break; /* Go to end... */
 			}
 			result[i + j * width] = 1;
 
 			/* Tracing algorithm DetectedEdge */
-			final Vector<Object> returned = traceEdge(scaledImage, result, threshold, i, j);
+			final Vector<Object> returned = traceEdge(scaledImage, result, threshold, i, j, window);
 			result = (byte[]) returned.get(0);
-			final Vector<Integer> newIit = (Vector<Integer>) returned.get(1);
-			final Vector<Integer> newJiit = (Vector<Integer>) returned.get(2);
-			len = newIit.size();
+			final CoordinateBuffer newEdge = (CoordinateBuffer) returned.get(1);
 			/* Tracing algorithm done... */
 
-			Vector<Vector<Vector<Integer>>> returnedVectors = null;
 			if (allowCleaving) {
-				returnedVectors = cleaveEdge(result, newIit, newJiit, 3.0, 6.0);
-				final byte[] tempRes = new byte[width * height];
-				for (int iii = 0; iii < returnedVectors
+				final Vector<CoordinateBuffer> returnedEdges = cleaveEdge(result, newEdge, 3.0, 6.0);
+				for (int iii = 0; iii < returnedEdges
 						.size(); ++iii) { /* Go through all returned edges */
 					/* Fill edge within result.. */
-					final Vector<Integer> iit = new Vector<Integer>();
-					final Vector<Integer> jiit = new Vector<Integer>();
-					for (int ii = 0; ii < returnedVectors.get(iii).get(0).size(); ++ii) {
-						iit.add(returnedVectors.get(iii).get(0).get(ii));
-						jiit.add(returnedVectors.get(iii).get(1).get(ii));
-						tempRes[iit.lastElement() + jiit.lastElement() * width] = 1;
-					}
-					final Vector<Object> results = fillResultEdge(result, iit, jiit, scaledImage, threshold);
+					final Vector<Object> results = fillResultEdge(result, returnedEdges.get(iii), scaledImage,
+							threshold, window);
 					if (results != null) {
 						result = (byte[]) results.get(0);
-						edges.add(new DetectedEdge((Vector<Integer>) results.get(1), (Vector<Integer>) results.get(2),
-								(Integer) results.get(3)));
+						edges.add(new DetectedEdge((CoordinateBuffer) results.get(1), (Integer) results.get(2)));
 					}
-					// IJ.error("begs "+beginnings.size()+" lengths
-					// "+length.size()+"retVects"+returnedVectors.size());
-					/*
-					 * for (int y = 0; y < height;++y) { for (int x = 0; x <
-					 * width;++x) { //if (sieve[x+y*width] == 1){ //Tint roi
-					 * area color with violet //if (tempRes[x+y*width] > 0){
-					 * //Tint roi area color with violet if (result[x+y*width] >
-					 * 0){ //Tint roi area color with violet
-					 * tempImage.getProcessor().drawPixel(x,y); } } }
-					 * tempImage.updateAndDraw(); IJ.error(" ");
-					 */
 				}
 
 			} else {
 				/* Fill edge within result.. */
-				final Vector<Integer> iit = new Vector<Integer>();
-				final Vector<Integer> jiit = new Vector<Integer>();
-				for (int ii = 0; ii < newIit.size(); ++ii) {
-					iit.add(newIit.get(ii));
-					jiit.add(newJiit.get(ii));
-				}
-				final Vector<Object> results = fillResultEdge(result, iit, jiit, scaledImage, threshold);
+				final Vector<Object> results = fillResultEdge(result, newEdge, scaledImage, threshold, window);
 				if (results != null) {
 					result = (byte[]) results.get(0);
-					edges.add(new DetectedEdge((Vector<Integer>) results.get(1), (Vector<Integer>) results.get(2),
-							(Integer) results.get(3)));
+					edges.add(new DetectedEdge((CoordinateBuffer) results.get(1), (Integer) results.get(2)));
 				}
 			}
 			// Find next empty spot
 			i = tempI;
 			j = tempJ;
-			while (j < height && scaledImage[i + j * width] >= threshold) {
+			while (j < j1 && scaledImage[i + j * width] >= threshold) {
 				i++;
-				if (i == width) {
-					i = 0;
+				if (i == i1) {
+					i = i0;
 					j++;
 				}
 			}
@@ -1180,23 +1223,24 @@ public abstract class RoiSelector {
 	/*
 	 * DetectedEdge. Find fill init by steering clockwise from next to previous
 	 */
-	int[] findFillInit(final byte[] result, final Vector<Integer> iit, final Vector<Integer> jiit,
-			final double[] scaledImage, final double threshold) {
+	int[] findFillInit(final byte[] result, final CoordinateBuffer edge, final double[] scaledImage,
+			final double threshold, final int[] window) {
 		final int[] returnCoordinates = new int[2];
 		final int[][] pixelNeigbourhood = { { 0, -1, -1, -1, -1, 0, 1, 1, 1 }, { 1, 1, 0, -1, -1, -1, 0, 1 } };
 		final int[] steer = new int[2];
-		for (int j = 0; j < iit.size() - 1; ++j) {
-			returnCoordinates[0] = iit.get(j);
-			returnCoordinates[1] = jiit.get(j);
-			double direction = Math.atan2(jiit.get(j + 1) - returnCoordinates[1],
-					iit.get(j + 1) - returnCoordinates[0]);
+		for (int j = 0; j < edge.size() - 1; ++j) {
+			returnCoordinates[0] = edge.getI(j);
+			returnCoordinates[1] = edge.getJ(j);
+			double direction = Math.atan2(edge.getJ(j + 1) - returnCoordinates[1],
+					edge.getI(j + 1) - returnCoordinates[0]);
 			for (int i = 0; i < 8; ++i) {
 				direction += Math.PI / 4.0;
 				steer[0] = (int) Math.round(Math.cos(direction));
 				steer[1] = (int) Math.round(Math.sin(direction));
 				/* Handle OOB */
-				while ((returnCoordinates[0] + steer[0]) < 0 || (returnCoordinates[0] + steer[0]) >= width
-						|| (returnCoordinates[1] + steer[1]) < 0 || (returnCoordinates[1] + steer[1]) >= height) {
+				while ((returnCoordinates[0] + steer[0]) < window[0] || (returnCoordinates[0] + steer[0]) > window[2]
+						|| (returnCoordinates[1] + steer[1]) < window[1]
+						|| (returnCoordinates[1] + steer[1]) > window[3]) {
 					direction += Math.PI / 4.0;
 					steer[0] = (int) Math.round(Math.cos(direction));
 					steer[1] = (int) Math.round(Math.sin(direction));
@@ -1218,10 +1262,10 @@ public abstract class RoiSelector {
 	}
 
 	/* DetectedEdge version */
-	Vector<Object> fillResultEdge(byte[] result, final Vector<Integer> iit, final Vector<Integer> jiit,
-			final double[] scaledImage, final double threshold) {
+	Vector<Object> fillResultEdge(byte[] result, final CoordinateBuffer edge, final double[] scaledImage,
+			final double threshold, final int[] window) {
 		int pixelsFilled = 0;
-		if (iit.size() > 0) {
+		if (edge.size() > 0) {
 			final int kai, kaj;
 			/*
 			 * Set initial fill pixel to the first pixel above threshold not on
@@ -1231,7 +1275,7 @@ public abstract class RoiSelector {
 			boolean possible = true;
 			final byte[] tempResult = result.clone();
 
-			int[] tempCoordinates = findFillInit(tempResult, iit, jiit, scaledImage, threshold);
+			int[] tempCoordinates = findFillInit(tempResult, edge, scaledImage, threshold, window);
 			if (tempCoordinates == null) {
 				possible = false;
 			}
@@ -1239,19 +1283,18 @@ public abstract class RoiSelector {
 				if (tempCoordinates == null) {
 					break;
 				} else {
-					final Vector<Object> returned = resultFill(tempCoordinates[0], tempCoordinates[1], tempResult);
+					final Vector<Object> returned = resultFill(tempCoordinates[0], tempCoordinates[1], tempResult, window);
 					possible = (Boolean) returned.get(0);
 					pixelsFilled += (Integer) returned.get(1);
 				}
-				tempCoordinates = findFillInit(tempResult, iit, jiit, scaledImage, threshold);
+				tempCoordinates = findFillInit(tempResult, edge, scaledImage, threshold, window);
 			}
 
 			if (possible) {
 				result = tempResult.clone();
 				final Vector<Object> results = new Vector<Object>();
 				results.add(result);
-				results.add(iit);
-				results.add(jiit);
+				results.add(edge);
 				results.add(new Integer(pixelsFilled));
 				return results;
 
@@ -1268,23 +1311,24 @@ public abstract class RoiSelector {
 	 * removed. E.g. for a circle, the maximum ratio is (pi/2)/d ~= 1.57 and for
 	 * square it is 2/sqrt(2) = sqrt(2) ~= 1.41.
 	 */
-	Vector<Vector<Vector<Integer>>> cleaveEdge(final byte[] result, final Vector<Integer> fatRoiI,
-			final Vector<Integer> fatRoiJ, final double minRatio, final double minLength) {
+	Vector<CoordinateBuffer> cleaveEdge(final byte[] result, final CoordinateBuffer fatRoi, final double minRatio,
+			final double minLength) {
 		double distanceAlongTheEdge = 0;
 		double distance = 0;
 		double ratio;
-		final double minEdge = fatRoiI.size() / minLength;
+		final double minEdge = fatRoi.size() / minLength;
 		final int[] cleavingIndices = new int[2];
 		boolean nextLoop = true;
-		final Vector<Vector<Vector<Integer>>> returnVectorVectorPointer = new Vector<Vector<Vector<Integer>>>();
+		final Vector<CoordinateBuffer> returnVectorPointer = new Vector<CoordinateBuffer>();
 		while (nextLoop) {
 			double highestRatio = minRatio - 0.1;
 			/* Go through all point pairs */
-			for (int i = 0; i < fatRoiI.size() - 11; ++i) {
-				for (int j = i + 10; j < fatRoiI.size(); ++j) {
-					distance = Math.sqrt(Math.pow(fatRoiI.get(j) - fatRoiI.get(i), 2.0)
-							+ Math.pow(fatRoiJ.get(j) - fatRoiJ.get(i), 2.0));
-					distanceAlongTheEdge = min(j - i, (double) fatRoiI.size() - j + i);
+			for (int i = 0; i < fatRoi.size() - 11; ++i) {
+				final int iI = fatRoi.getI(i);
+				final int iJ = fatRoi.getJ(i);
+				for (int j = i + 10; j < fatRoi.size(); ++j) {
+					distance = Math.sqrt(Math.pow(fatRoi.getI(j) - iI, 2.0) + Math.pow(fatRoi.getJ(j) - iJ, 2.0));
+					distanceAlongTheEdge = min(j - i, (double) fatRoi.size() - j + i);
 					ratio = distanceAlongTheEdge / distance;
 					if (ratio > highestRatio && distanceAlongTheEdge > minEdge) {
 						highestRatio = ratio;
@@ -1299,77 +1343,52 @@ public abstract class RoiSelector {
 			 * If ratio is high enough, cleave at the highest ratio point pair
 			 */
 			if (highestRatio >= minRatio) {
-				returnVectorVectorPointer.add(cleave(result, fatRoiI, fatRoiJ, cleavingIndices));
+				returnVectorPointer.add(cleave(result, fatRoi, cleavingIndices));
 			} else {
 				nextLoop = false;
 			}
 		}
 		/* Insert the last retained part to first index. */
-		final Vector<Vector<Integer>> returnVectorPair = new Vector<Vector<Integer>>();
-		returnVectorPair.add(new Vector<Integer>());
-		returnVectorPair.add(new Vector<Integer>());
-		returnVectorPair.get(0).addAll(fatRoiI);
-		returnVectorPair.get(1).addAll(fatRoiJ);
-		if (returnVectorVectorPointer.size() < 1) {
-			returnVectorVectorPointer.add(returnVectorPair);
-		} else {
-			returnVectorVectorPointer.insertElementAt(returnVectorPair, 0);
-		}
-		return returnVectorVectorPointer;
+		returnVectorPointer.insertElementAt(new CoordinateBuffer(fatRoi), 0);
+		return returnVectorPointer;
 	}
 
-	/* Remove the extra part from vectors and replace with a straight line */
-	Vector<Vector<Integer>> cleave(final byte[] result, final Vector<Integer> fatRoiI, final Vector<Integer> fatRoiJ,
-			final int[] cleavingIndices) {
-		final int initialLength = fatRoiI.size();
-		final int initI = fatRoiI.get(cleavingIndices[0]);
-		final int initJ = fatRoiJ.get(cleavingIndices[0]);
-		final int targetI = fatRoiI.get(cleavingIndices[1]);
-		final int targetJ = fatRoiJ.get(cleavingIndices[1]);
+	/* Remove the extra part from the edge and replace with a straight line */
+	CoordinateBuffer cleave(final byte[] result, final CoordinateBuffer fatRoi, final int[] cleavingIndices) {
+		final int initI = fatRoi.getI(cleavingIndices[0]);
+		final int initJ = fatRoi.getJ(cleavingIndices[0]);
+		final int targetI = fatRoi.getI(cleavingIndices[1]);
+		final int targetJ = fatRoi.getJ(cleavingIndices[1]);
 		/* remove cleaved elements */
-		int replacementI = fatRoiI.get(cleavingIndices[0]);
-		int replacementJ = fatRoiJ.get(cleavingIndices[0]);
-		final Vector<Integer> cleavedI = new Vector<Integer>(fatRoiI.subList(cleavingIndices[0] + 1,
-				cleavingIndices[1] + 1)); /* the elements to be cleaved */
-		final Vector<Integer> cleavedJ = new Vector<Integer>(fatRoiJ.subList(cleavingIndices[0] + 1,
-				cleavingIndices[1] + 1)); /* the elements to be cleaved */
-		for (int i = cleavingIndices[0]; i < cleavingIndices[1]; ++i) {
-			fatRoiI.removeElementAt(
-					cleavingIndices[0]); /* Remove the elements to be cleaved */
-			fatRoiJ.removeElementAt(
-					cleavingIndices[0]); /* Remove the elements to be cleaved */
-		}
+		int replacementI = initI;
+		int replacementJ = initJ;
+		final CoordinateBuffer cleaved = fatRoi.copy(cleavingIndices[0] + 1,
+				cleavingIndices[1] + 1); /* the elements to be cleaved */
+		fatRoi.remove(cleavingIndices[0], cleavingIndices[1]); /*
+																 * Remove the
+																 * elements to
+																 * be cleaved
+																 */
 		/* Insert replacement line */
 		final double replacementLength = cleavingIndices[1] - cleavingIndices[0];
 		final double repILength = targetI - initI;
 		final double repJLength = targetJ - initJ;
 		double relativeLength;
-		final Vector<Integer> insertionI = new Vector<Integer>();
-		final Vector<Integer> insertionJ = new Vector<Integer>();
-		insertionI.add(replacementI);
-		insertionJ.add(replacementJ);
+		final CoordinateBuffer insertion = new CoordinateBuffer();
+		insertion.add(replacementI, replacementJ);
 		for (int k = cleavingIndices[0]; k < cleavingIndices[1]; ++k) {
 			relativeLength = ((double) k) - ((double) cleavingIndices[0]);
 			replacementI = ((int) (repILength * (relativeLength / replacementLength))) + initI;
 			replacementJ = ((int) (repJLength * (relativeLength / replacementLength))) + initJ;
-			if (replacementI != insertionI.lastElement() || replacementJ != insertionJ.lastElement()) {
-				insertionI.add(replacementI);
-				insertionJ.add(replacementJ);
+			if (replacementI != insertion.lastI() || replacementJ != insertion.lastJ()) {
+				insertion.add(replacementI, replacementJ);
 				result[replacementI + replacementJ * width] = 1;
 			}
 		}
-		fatRoiI.addAll(cleavingIndices[0], insertionI);
-		fatRoiJ.addAll(cleavingIndices[0], insertionJ);
-		Collections.reverse(insertionI);
-		Collections.reverse(insertionJ);
-		cleavedI.addAll(0, insertionI);
-		cleavedJ.addAll(0, insertionJ);
-		final Vector<Vector<Integer>> returnVectorPair = new Vector<Vector<Integer>>();
-		returnVectorPair.add(new Vector<Integer>());
-		returnVectorPair.add(new Vector<Integer>());
-		returnVectorPair.get(0).addAll(cleavedI);
-		returnVectorPair.get(1).addAll(cleavedJ);
-		return returnVectorPair;
+		fatRoi.insert(cleavingIndices[0], insertion);
+		insertion.reverse();
+		cleaved.insert(0, insertion);
+		return cleaved;
 	}
 
 	double min(final double a, final double b) {
@@ -0,0 +1,102 @@
+package org.doube.bonej.pqct.selectroi;
+
+import java.util.Arrays;
+
+/**
+ * Region of an image stored as runs of adjacent pixels along rows, in raster
+ * order. Sums over a region visit its pixels in the same order as a raster
+ * scan of a sieve, so they give identical results while skipping the
+ * background and storing a few ints per row rather than two Integers per
+ * pixel.
+ */
+public class RowSpanMask {
+
+	/** row, first column and column after the last of each span */
+	private int[] spans = new int[96];
+	private int spanCount;
+	private int area;
+
+	/**
+	 * Create a mask of the pixels of a sieve which are greater than zero
+	 *
+	 * @param sieve
+	 * @param width
+	 * @param height
+	 * @return the mask
+	 */
+	public static RowSpanMask fromSieve(final byte[] sieve, final int width, final int height) {
+		final RowSpanMask mask = new RowSpanMask();
+		for (int j = 0; j < height; j++) {
+			final int offset = j * width;
+			int i = 0;
+			while (i < width) {
+				while (i < width && sieve[offset + i] <= 0)
+					i++;
+				final int start = i;
+				while (i < width && sieve[offset + i] > 0)
+					i++;
+				if (i > start)
+					mask.addSpan(j, start, i);
+			}
+		}
+		return mask;
+	}
+
+	private void addSpan(final int j, final int start, final int end) {
+		if (3 * spanCount + 3 > spans.length)
+			spans = Arrays.copyOf(spans, 2 * spans.length);
+		spans[3 * spanCount] = j;
+		spans[3 * spanCount + 1] = start;
+		spans[3 * spanCount + 2] = end;
+		spanCount++;
+		area += end - start;
+	}
+
+	/**
+	 * Add a pixel, extending the last span if the pixel follows it
+	 *
+	 * @param i
+	 *            x-coordinate
+	 * @param j
+	 *            y-coordinate
+	 * @throws IllegalArgumentException
+	 *             if the pixel is not after the last pixel in raster order
+	 */
+	public void add(final int i, final int j) {
+		if (spanCount > 0) {
+			final int last = 3 * (spanCount - 1);
+			if (j == spans[last] && i == spans[last + 2]) {
+				spans[last + 2]++;
+				area++;
+				return;
+			}
+			if (j < spans[last] || (j == spans[last] && i < spans[last + 2]))
+				throw new IllegalArgumentException("(" + i + ", " + j + ") is not in raster order");
+		}
+		addSpan(j, i, i + 1);
+	}
+
+	/** @return number of pixels in the mask */
+	public int getArea() {
+		return area;
+	}
+
+	public int getSpanCount() {
+		return spanCount;
+	}
+
+	/** @return y-coordinate of a span */
+	public int getRow(final int span) {
+		return spans[3 * span];
+	}
+
+	/** @return x-coordinate of the first pixel of a span */
+	public int getStart(final int span) {
+		return spans[3 * span + 1];
+	}
+
+	/** @return x-coordinate after the last pixel of a span */
+	public int getEnd(final int span) {
+		return spans[3 * span + 2];
+	}
+}
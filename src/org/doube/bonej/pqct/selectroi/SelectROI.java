@@ -46,18 +46,28 @@ public class SelectROI extends RoiSelector {
 	// ImageJ constructor
 	public SelectROI(final ScaledImageData dataIn, final ImageAndAnalysisDetails detailsIn, final ImagePlus imp,
 			final double boneThreshold, final boolean setRoi) {
+		this(dataIn, detailsIn, imp, boneThreshold, setRoi, null);
+	}
+
+	/**
+	 * Select the bone nearest to one selected in a neighbouring slice of a
+	 * stack, falling back on the ROI choice if no bone is found
+	 *
+	 * @param seed
+	 *            edge of the neighbouring slice's bone, or null to select by
+	 *            the ROI choice
+	 */
+	public SelectROI(final ScaledImageData dataIn, final ImageAndAnalysisDetails detailsIn, final ImagePlus imp,
+			final double boneThreshold, final boolean setRoi, final DetectedEdge seed) {
 		super(dataIn, detailsIn, imp, boneThreshold, setRoi);
 		// Select ROI
 
 		/* Select ROI and set everything else than the roi to minimum */
 		cortexROI = new double[width * height]; // Make a new copy of the image
 												// with only the ROI remaining
-		cortexRoiI = new Vector<Integer>();
-		cortexRoiJ = new Vector<Integer>();
-		cortexAreaRoiI = new Vector<Integer>();
-		cortexAreaRoiJ = new Vector<Integer>();
-		boneMarrowRoiI = new Vector<Integer>();
-		boneMarrowRoiJ = new Vector<Integer>();
+		cortexRoi = new RowSpanMask();
+		cortexAreaRoi = new RowSpanMask();
+		boneMarrowRoi = new RowSpanMask();
 		Roi ijROI = imp.getRoi();
 		final double[] tempScaledImage = scaledImage.clone();
 		if (ijROI != null
@@ -87,20 +97,22 @@ public class SelectROI extends RoiSelector {
 			}
 		}
 
-		final Vector<Object> boneMasks = getSieve(tempScaledImage, boneThreshold, details.roiChoice,
-				details.guessStacked, details.stacked, details.guessFlip, details.allowCleaving);
+		Vector<Object> boneMasks = null;
+		if (seed != null) {
+			boneMasks = getSeededSieve(tempScaledImage, boneThreshold, seed);
+		}
+		if (boneMasks == null) {
+			boneMasks = getSieve(tempScaledImage, boneThreshold, details.roiChoice, details.guessStacked,
+					details.stacked, details.guessFlip, details.allowCleaving);
+		}
 		sieve = (byte[]) boneMasks.get(0);
 		result = (byte[]) boneMasks.get(1);
 		final Vector<DetectedEdge> boneEdges = (Vector<DetectedEdge>) boneMasks.get(2);
 		selection = (Integer) boneMasks.get(3);
 		/* Add the roi to the image */
 		if (setRoi) {
-			final int[] xcoordinates = new int[boneEdges.get(selection).iit.size()];
-			final int[] ycoordinates = new int[boneEdges.get(selection).iit.size()];
-			for (int i = 0; i < boneEdges.get(selection).iit.size(); ++i) {
-				xcoordinates[i] = boneEdges.get(selection).iit.get(i);
-				ycoordinates[i] = boneEdges.get(selection).jiit.get(i);
-			}
+			final int[] xcoordinates = boneEdges.get(selection).edge.toIArray();
+			final int[] ycoordinates = boneEdges.get(selection).edge.toJArray();
 			/*
 			 * Flip the original image prior to adding the ROI, if scaled image
 			 * is flipped
@@ -117,24 +129,21 @@ public class SelectROI extends RoiSelector {
 				imp.getProcessor().flipHorizontal();
 				imp.updateAndDraw();
 			}
-			ijROI = new PolygonRoi(xcoordinates, ycoordinates, boneEdges.get(selection).iit.size(), Roi.POLYGON);
+			ijROI = new PolygonRoi(xcoordinates, ycoordinates, xcoordinates.length, Roi.POLYGON);
 			imp.setRoi(ijROI);
 		}
 
 		for (int j = 0; j < height; j++) {
 			for (int i = 0; i < width; i++) {
 				if (scaledImage[i + j * width] < areaThreshold && sieve[i + j * width] > 0) {
-					boneMarrowRoiI.add(i);
-					boneMarrowRoiJ.add(j);
+					boneMarrowRoi.add(i, j);
 				}
 				if (scaledImage[i + j * width] >= areaThreshold && sieve[i + j * width] > 0) {
-					cortexAreaRoiI.add(i);
-					cortexAreaRoiJ.add(j);
+					cortexAreaRoi.add(i, j);
 				}
 				if (scaledImage[i + j * width] >= BMDthreshold && sieve[i + j * width] > 0) {
 					cortexROI[i + j * width] = scaledImage[i + j * width];
-					cortexRoiI.add(i);
-					cortexRoiJ.add(j);
+					cortexRoi.add(i, j);
 				} else {
 					cortexROI[i + j * width] = minimum;
 				}
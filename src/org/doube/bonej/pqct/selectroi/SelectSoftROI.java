@@ -143,8 +143,8 @@ public class SelectSoftROI extends RoiSelector {
 			 * already included
 			 */
 			while (areaToAdd < muscleEdges.size() && tempMuscleArea * 0.01 < muscleEdges.get(areaToAdd).area) {
-				final byte[] tempMuscleSieve = fillSieve(muscleEdges.get(areaToAdd).iit,
-						muscleEdges.get(areaToAdd).jiit, width, height, muscleImage, details.muscleThreshold);
+				final byte[] tempMuscleSieve = fillSieve(muscleEdges.get(areaToAdd).edge, width, height, muscleImage,
+						details.muscleThreshold);
 				for (int i = 0; i < tempMuscleSieve.length; ++i) {
 					if (tempMuscleSieve[i] > 0) {
 						muscleSieve[i] = tempMuscleSieve[i];
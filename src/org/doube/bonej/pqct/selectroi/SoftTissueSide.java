@@ -1,8 +1,5 @@
 package org.doube.bonej.pqct.selectroi;
 
-//Vector, Collections
-import java.util.Vector;
-
 //image data
 import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
 
@@ -156,10 +153,9 @@ public class SoftTissueSide {
 	double[][] getCoordinates(final SelectROI tempRoi, final int[] consideredBones) {
 		final double[][] coordinates = new double[consideredBones.length][2];
 		for (int j = 0; j < consideredBones.length; ++j) {
-			final Vector<Integer> sRoiI = tempRoi.edges.get(consideredBones[j]).iit;
-			final Vector<Integer> sRoiJ = tempRoi.edges.get(consideredBones[j]).jiit;
-			final byte[] returnedSieve = tempRoi.fillSieve(sRoiI, sRoiJ, tempRoi.width, tempRoi.height,
-					tempRoi.scaledImage, tempRoi.details.rotationThreshold);
+			final CoordinateBuffer sRoi = tempRoi.edges.get(consideredBones[j]).edge;
+			final byte[] returnedSieve = tempRoi.fillSieve(sRoi, tempRoi.width, tempRoi.height, tempRoi.scaledImage,
+					tempRoi.details.rotationThreshold);
 			int counter = 0;
 			coordinates[j][0] = 0;
 			coordinates[j][1] = 0;
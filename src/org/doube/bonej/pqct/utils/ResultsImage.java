@@ -22,7 +22,6 @@
 package org.doube.bonej.pqct.utils;
 
 import java.awt.Color; //Color class
-import java.util.Vector; //Vector
 
 import ij.ImagePlus; //Image creation
 import ij.measure.Calibration; //Image calibration
@@ -199,12 +198,12 @@ public class ResultsImage {
 
 	/* addDenstiyDistribution */
 	public static ImagePlus addRadii(final ImagePlus tempImage, final double alfa, final double[] marrowCenter,
-			final Vector<Integer> pindColor, final double[] R, final double[] R2, final double[] Theta) {
+			final int[] pindColor, final double[] R, final double[] R2, final double[] Theta) {
 		// Draw unrotated radii
 		for (int i = 0; i < 360; i++) {// 45;i++) {//
 			int x = ((int) (marrowCenter[0] + R[i] * Math.cos(Theta[i])));
 			int y = ((int) (marrowCenter[1] + R[i] * Math.sin(Theta[i])));
-			final double colorScale = ((double) pindColor.get(i)) / 359.0;
+			final double colorScale = ((double) pindColor[i]) / 359.0;
 			tempImage.getProcessor()
 					.setColor(new Color((int) (255.0 * colorScale), 0, (int) (255.0 * (1.0 - colorScale))));
 			tempImage.getProcessor().drawPixel(x, y);
@@ -299,12 +298,12 @@ public class ResultsImage {
 
 	/* Concentric rings distribution result image */
 	public static ImagePlus addPeriRadii(final ImagePlus tempImage, final double[] marrowCenter,
-			final Vector<Integer> pindColor, final double[] R, final double[] Theta) {
+			final int[] pindColor, final double[] R, final double[] Theta) {
 		// Draw unrotated radii
 		for (int i = 0; i < Theta.length; i++) {// 45;i++) {//
 			final int x = ((int) (marrowCenter[0] + R[i] * Math.cos(Theta[i])));
 			final int y = ((int) (marrowCenter[1] + R[i] * Math.sin(Theta[i])));
-			final double colorScale = ((double) pindColor.get(i)) / 359.0;
+			final double colorScale = ((double) pindColor[i]) / 359.0;
 			tempImage.getProcessor()
 					.setColor(new Color(0, (int) (255.0 * colorScale), (int) (255.0 * (1.0 - colorScale))));
 			tempImage.getProcessor().drawPixel(x, y);
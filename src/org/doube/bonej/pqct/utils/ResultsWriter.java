@@ -43,6 +43,16 @@ public class ResultsWriter {
 	}
 
 	public void writeHeader(final TextPanel textPanel, final ImageAndAnalysisDetails imageAndAnalysisDetails) {
+		textPanel.setColumnHeadings(getHeadings(imageAndAnalysisDetails));
+	}
+
+	/**
+	 * Get the tab separated column headings for a set of analyses
+	 *
+	 * @param imageAndAnalysisDetails
+	 * @return headings, each followed by a tab
+	 */
+	public String getHeadings(final ImageAndAnalysisDetails imageAndAnalysisDetails) {
 		final String[] propertyNames = { "File Name", "Patient's Name", "Patient ID", "Patient's Birth Date",
 				"Acquisition Date", "Pixel Spacing", "Object Length" };
 		final String[] parameterNames = { "Air Threshold", "Fat Threshold", "Muscle Threshold", "Marrow Threshold",
@@ -142,7 +152,7 @@ public class ResultsWriter {
 			}
 
 		}
-		textPanel.setColumnHeadings(headings);
+		return headings;
 	}
 
 	public String printResults(String results, final ImageAndAnalysisDetails imageAndAnalysisDetails,
@@ -0,0 +1,406 @@
+package org.doube.geometry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.util.Multithreader;
+
+/**
+ * <p>
+ * Binary STL file writer. Facets are encoded into reusable direct
+ * little-endian buffers and written to the file with positioned channel
+ * writes, so several threads can write to the same file at once: each batch
+ * of triangles reserves its own region of the file, and the triangle count in
+ * the header is filled in when the writer is closed.
+ * </p>
+ * <p>
+ * Triangles are expected in BoneJ's isosurface winding, with right-hand
+ * normals pointing into the foreground like MCTriangulator's and
+ * {@link SlabMarchingCubes}'. Their winding is reversed on writing so that
+ * the facets in the file face outwards.
+ * </p>
+ * <p>
+ * As a {@link SlabMarchingCubes.TriangleSink} the writer streams the mesher's
+ * triangles straight to disk, so the surface never has to fit in memory.
+ * Errors writing streamed triangles are kept and thrown by {@link #close()}.
+ * </p>
+ */
+public class BinarySTLWriter implements SlabMarchingCubes.TriangleSink, Closeable {
+
+	/** Bytes in the header, including the triangle count */
+	private static final int HEADER_BYTES = 84;
+
+	/** Bytes per facet: normal, 3 corners and attribute byte count */
+	private static final int FACET_BYTES = 50;
+
+	/** Facets per write buffer */
+	private static final int BUFFER_FACETS = 32768;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private long nTriangles;
+	private IOException error;
+
+	/**
+	 * Create a new STL file, replacing any existing file
+	 *
+	 * @param stlFile
+	 *            file to write
+	 * @throws IOException
+	 */
+	public BinarySTLWriter(final File stlFile) throws IOException {
+		file = new RandomAccessFile(stlFile, "rw");
+		channel = file.getChannel();
+		try {
+			channel.truncate(0);
+			String header = "Binary STL created by BoneJ.";
+			for (int i = header.length(); i < 80; i++) {
+				header = header + ".";
+			}
+			final ByteBuffer bb = ByteBuffer.allocate(HEADER_BYTES);
+			bb.put(header.getBytes("US-ASCII"));
+			bb.putInt(0);
+			write(bb, 0);
+		} catch (final IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write an indexed mesh to a new STL file, encoding facets in parallel
+	 *
+	 * @param mesh
+	 * @param stlFile
+	 * @throws IOException
+	 */
+	public static void write(final IndexedTriangleMesh mesh, final File stlFile) throws IOException {
+		final BinarySTLWriter writer = new BinarySTLWriter(stlFile);
+		try {
+			writer.write(mesh);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write each mesh to its own STL file, several files at a time. Null
+	 * meshes are skipped.
+	 *
+	 * @param meshes
+	 * @param stlFiles
+	 *            files to write, one per mesh
+	 * @throws IOException
+	 *             the first error met writing any of the files
+	 */
+	public static void write(final List<IndexedTriangleMesh> meshes, final List<File> stlFiles) throws IOException {
+		if (meshes.size() != stlFiles.size())
+			throw new IllegalArgumentException("Need one file per mesh");
+		final int nMeshes = meshes.size();
+		final IOException[] errors = new IOException[nMeshes];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int m = ai.getAndIncrement(); m < nMeshes; m = ai.getAndIncrement()) {
+						final IndexedTriangleMesh mesh = meshes.get(m);
+						if (mesh == null)
+							continue;
+						try {
+							final BinarySTLWriter writer = new BinarySTLWriter(stlFiles.get(m));
+							try {
+								final int n = mesh.getTriangleCount();
+								final ByteBuffer bb = writer.getBuffer();
+								final long position = writer.reserve(n);
+								for (int start = 0; start < n; start += BUFFER_FACETS) {
+									encode(mesh, start, Math.min(n, start + BUFFER_FACETS), bb);
+									writer.write(bb, position + (long) start * FACET_BYTES);
+								}
+							} finally {
+								writer.close();
+							}
+						} catch (final IOException e) {
+							errors[m] = e;
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		for (final IOException e : errors)
+			if (e != null)
+				throw e;
+	}
+
+	/**
+	 * Append all the triangles of an indexed mesh, encoding and writing
+	 * chunks of facets in parallel
+	 *
+	 * @param mesh
+	 * @throws IOException
+	 */
+	public void write(final IndexedTriangleMesh mesh) throws IOException {
+		final int n = mesh.getTriangleCount();
+		final long position = reserve(n);
+		final int nChunks = (n + BUFFER_FACETS - 1) / BUFFER_FACETS;
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final ByteBuffer bb = getBuffer();
+					try {
+						for (int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement()) {
+							final int start = c * BUFFER_FACETS;
+							encode(mesh, start, Math.min(n, start + BUFFER_FACETS), bb);
+							write(bb, position + (long) start * FACET_BYTES);
+						}
+					} catch (final IOException e) {
+						setError(e);
+					} finally {
+						buffers.add(bb);
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		synchronized (this) {
+			if (error != null)
+				throw error;
+		}
+	}
+
+	/**
+	 * Append triangles given as corner coordinates. Safe to call from several
+	 * threads at once; each call's triangles are written contiguously.
+	 */
+	public void addTriangles(final int slab, final float[] triangles, final int nTriangles) {
+		synchronized (this) {
+			if (error != null)
+				return;
+		}
+		final ByteBuffer bb = getBuffer();
+		try {
+			for (int start = 0; start < nTriangles; start += BUFFER_FACETS) {
+				final int end = Math.min(nTriangles, start + BUFFER_FACETS);
+				final long position = reserve(end - start);
+				for (int t = start; t < end; t++)
+					putFacet(bb, triangles, 9 * t);
+				write(bb, position);
+			}
+		} catch (final IOException e) {
+			setError(e);
+		} finally {
+			buffers.add(bb);
+		}
+	}
+
+	/**
+	 * @return number of triangles written so far
+	 */
+	public synchronized long getTriangleCount() {
+		return nTriangles;
+	}
+
+	/**
+	 * Fill in the triangle count and close the file
+	 *
+	 * @throws IOException
+	 *             if writing failed, now or earlier while streaming
+	 *             triangles, or if there are too many triangles to count in
+	 *             the header
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			if (error != null)
+				throw error;
+			if (nTriangles > 0xFFFFFFFFL)
+				throw new IOException("Binary STL cannot hold " + nTriangles + " triangles");
+			final ByteBuffer bb = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			bb.putInt((int) nTriangles);
+			write(bb, 80);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Reserve space in the file for some facets
+	 *
+	 * @return file position of the first reserved facet
+	 */
+	private synchronized long reserve(final int n) {
+		final long position = HEADER_BYTES + nTriangles * FACET_BYTES;
+		nTriangles += n;
+		return position;
+	}
+
+	private synchronized void setError(final IOException e) {
+		if (error == null)
+			error = e;
+	}
+
+	private ByteBuffer getBuffer() {
+		final ByteBuffer bb = buffers.poll();
+		if (bb != null)
+			return bb;
+		return ByteBuffer.allocateDirect(BUFFER_FACETS * FACET_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** Write the buffer's contents at a file position and clear it */
+	private void write(final ByteBuffer bb, long position) throws IOException {
+		bb.flip();
+		while (bb.hasRemaining())
+			position += channel.write(bb, position);
+		bb.clear();
+	}
+
+	/** Encode triangles start to end - 1 of a mesh into the buffer */
+	private static void encode(final IndexedTriangleMesh mesh, final int start, final int end, final ByteBuffer bb) {
+		final float[] vertices = mesh.getVertices();
+		final int[] indices = mesh.getIndices();
+		final float[] corners = new float[9];
+		for (int t = start; t < end; t++) {
+			for (int k = 0; k < 3; k++) {
+				final int v = 3 * indices[3 * t + k];
+				corners[3 * k] = vertices[v];
+				corners[3 * k + 1] = vertices[v + 1];
+				corners[3 * k + 2] = vertices[v + 2];
+			}
+			putFacet(bb, corners, 0);
+		}
+	}
+
+	/**
+	 * Put one facet, swapping corners 1 and 2 and using the outward unit
+	 * normal
+	 *
+	 * @param bb
+	 *            little-endian buffer
+	 * @param c
+	 *            corner coordinates
+	 * @param o
+	 *            offset of the triangle's first coordinate in c
+	 */
+	private static void putFacet(final ByteBuffer bb, final float[] c, final int o) {
+		final double x1 = c[o + 3] - c[o];
+		final double y1 = c[o + 4] - c[o + 1];
+		final double z1 = c[o + 5] - c[o + 2];
+		final double x2 = c[o + 6] - c[o];
+		final double y2 = c[o + 7] - c[o + 1];
+		final double z2 = c[o + 8] - c[o + 2];
+		// (p2 - p0) x (p1 - p0), the normal of the reversed triangle
+		double nx = z1 * y2 - y1 * z2;
+		double ny = x1 * z2 - z1 * x2;
+		double nz = y1 * x2 - x1 * y2;
+		final double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (length > 0) {
+			nx /= length;
+			ny /= length;
+			nz /= length;
+		}
+		bb.putFloat((float) nx);
+		bb.putFloat((float) ny);
+		bb.putFloat((float) nz);
+		bb.putFloat(c[o]);
+		bb.putFloat(c[o + 1]);
+		bb.putFloat(c[o + 2]);
+		bb.putFloat(c[o + 6]);
+		bb.putFloat(c[o + 7]);
+		bb.putFloat(c[o + 8]);
+		bb.putFloat(c[o + 3]);
+		bb.putFloat(c[o + 4]);
+		bb.putFloat(c[o + 5]);
+		bb.putShort((short) 0);
+	}
+
+	/**
+	 * Triangle sink which writes each slab of a {@link SlabMarchingCubes}
+	 * surface to its own STL file, named after a base file with the slab
+	 * number appended. Slabs are written concurrently as the mesher makes
+	 * them.
+	 */
+	public static class SlabFiles implements SlabMarchingCubes.TriangleSink, Closeable {
+		private final File base;
+		private final Map<Integer, BinarySTLWriter> writers = new HashMap<Integer, BinarySTLWriter>();
+		private final List<File> files = new ArrayList<File>();
+		private IOException error;
+
+		/**
+		 * @param base
+		 *            file name from which the slab files' names are made, e.g.
+		 *            surface.stl gives surface_slab0.stl, surface_slab1.stl...
+		 */
+		public SlabFiles(final File base) {
+			this.base = base;
+		}
+
+		public void addTriangles(final int slab, final float[] triangles, final int nTriangles) {
+			final BinarySTLWriter writer = getWriter(slab);
+			if (writer != null)
+				writer.addTriangles(slab, triangles, nTriangles);
+		}
+
+		/**
+		 * @return files created so far, in the order they were opened
+		 */
+		public synchronized List<File> getFiles() {
+			return new ArrayList<File>(files);
+		}
+
+		/**
+		 * Close all the slab files
+		 *
+		 * @throws IOException
+		 *             the first error met opening or writing any of the files
+		 */
+		public synchronized void close() throws IOException {
+			IOException e = error;
+			for (final BinarySTLWriter writer : writers.values()) {
+				try {
+					writer.close();
+				} catch (final IOException f) {
+					if (e == null)
+						e = f;
+				}
+			}
+			writers.clear();
+			if (e != null)
+				throw e;
+		}
+
+		private synchronized BinarySTLWriter getWriter(final int slab) {
+			if (error != null)
+				return null;
+			BinarySTLWriter writer = writers.get(slab);
+			if (writer == null) {
+				String name = base.getName();
+				if (name.toLowerCase().endsWith(".stl"))
+					name = name.substring(0, name.length() - 4);
+				final File slabFile = new File(base.getParentFile(), name + "_slab" + slab + ".stl");
+				try {
+					writer = new BinarySTLWriter(slabFile);
+				} catch (final IOException e) {
+					error = e;
+					return null;
+				}
+				writers.put(slab, writer);
+				files.add(slabFile);
+			}
+			return writer;
+		}
+	}
+}
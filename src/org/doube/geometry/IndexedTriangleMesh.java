@@ -0,0 +1,557 @@
+package org.doube.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Point3f;
+
+import org.doube.util.Multithreader;
+
+/**
+ * <p>
+ * Compact triangle mesh made of a shared vertex buffer and a triangle index
+ * buffer. Vertices are stored as (x, y, z) triplets in a single float[] and
+ * each triangle is 3 consecutive indices into that buffer, so a vertex shared
+ * by several triangles is stored only once.
+ * </p>
+ * <p>
+ * Meshes are usually built from the triangle lists returned by
+ * MCTriangulator, which contain one Point3f per triangle corner. Area, volume,
+ * normal and Feret kernels work directly on the primitive arrays and are
+ * multithreaded over blocks of triangles or vertices.
+ * </p>
+ */
+public class IndexedTriangleMesh {
+
+	/** Number of triangles or vertices handled by each work unit */
+	private static final int CHUNK = 16384;
+
+	/** Vertex coordinates as x, y, z triplets */
+	private final float[] vertices;
+
+	/** Vertex indices, 3 per triangle */
+	private final int[] indices;
+
+	/**
+	 * Create a mesh from existing buffers. The arrays are used directly, not
+	 * copied.
+	 *
+	 * @param vertices
+	 *            vertex coordinates in x, y, z order; length must be a multiple
+	 *            of 3
+	 * @param indices
+	 *            vertex indices, 3 per triangle; length must be a multiple of
+	 *            3
+	 */
+	public IndexedTriangleMesh(final float[] vertices, final int[] indices) {
+		if (vertices.length % 3 != 0)
+			throw new IllegalArgumentException("Vertex buffer length must be a multiple of 3");
+		if (indices.length % 3 != 0)
+			throw new IllegalArgumentException("Index buffer length must be a multiple of 3");
+		this.vertices = vertices;
+		this.indices = indices;
+	}
+
+	/**
+	 * Build an indexed mesh from a triangle list, merging corners which have
+	 * identical coordinates into a single vertex.
+	 *
+	 * <p>
+	 * Corners are welded with an open-addressing hash table keyed on the bit
+	 * patterns of the corners' float coordinates, so two corners are merged
+	 * only if their coordinates are exactly equal, as with Point3f.equals().
+	 * No Point3f or Integer objects are created while welding.
+	 * </p>
+	 *
+	 * @param triangles
+	 *            list of triangle corners, 3 per triangle, as returned by
+	 *            MCTriangulator.getTriangles()
+	 * @return indexed mesh with a deduplicated vertex buffer
+	 */
+	public static IndexedTriangleMesh fromTriangles(final List<Point3f> triangles) {
+		final int nCorners = triangles.size() - triangles.size() % 3;
+		final int[] indices = new int[nCorners];
+		final Welder welder = new Welder(nCorners);
+		for (int i = 0; i < nCorners; i++) {
+			final Point3f p = triangles.get(i);
+			indices[i] = welder.weld(p.x, p.y, p.z);
+		}
+		return new IndexedTriangleMesh(welder.getVertices(), indices);
+	}
+
+	/**
+	 * Build an indexed mesh from packed triangle corner coordinates, merging
+	 * corners which have identical coordinates into a single vertex.
+	 *
+	 * @param corners
+	 *            corner coordinates, 9 floats (x0, y0, z0, x1, ... z2) per
+	 *            triangle
+	 * @param nTriangles
+	 *            number of triangles to read from corners
+	 * @return indexed mesh with a deduplicated vertex buffer
+	 * @see #fromTriangles(List)
+	 */
+	public static IndexedTriangleMesh fromTriangles(final float[] corners, final int nTriangles) {
+		final int nCorners = 3 * nTriangles;
+		final int[] indices = new int[nCorners];
+		final Welder welder = new Welder(nCorners);
+		for (int i = 0; i < nCorners; i++) {
+			indices[i] = welder.weld(corners[3 * i], corners[3 * i + 1], corners[3 * i + 2]);
+		}
+		return new IndexedTriangleMesh(welder.getVertices(), indices);
+	}
+
+	/**
+	 * Vertex welder: an open-addressing hash table keyed on the bit patterns
+	 * of the vertices' float coordinates, whose entries are indices into a
+	 * growable vertex buffer.
+	 */
+	private static final class Welder {
+		private float[] vertices;
+		private int[] table;
+		private int mask;
+		private int nVertices;
+
+		private Welder(final int nCorners) {
+			// closed isosurfaces have about 1 vertex for every 6 corners
+			vertices = new float[3 * Math.max(16, nCorners / 4)];
+			table = newTable(vertices.length / 3);
+			mask = table.length - 1;
+		}
+
+		/**
+		 * @return index of the vertex at (x, y, z), which is added to the
+		 *         vertex buffer if it is not there already
+		 */
+		private int weld(float x, float y, float z) {
+			// adding 0 turns -0.0f into 0.0f, which Point3f.equals() treats
+			// as the same value
+			x += 0.0f;
+			y += 0.0f;
+			z += 0.0f;
+			int slot = hash(x, y, z) & mask;
+			int index = table[slot];
+			while (index >= 0) {
+				final int v = 3 * index;
+				if (vertices[v] == x && vertices[v + 1] == y && vertices[v + 2] == z)
+					return index;
+				slot = (slot + 1) & mask;
+				index = table[slot];
+			}
+			index = nVertices;
+			if (3 * nVertices + 3 > vertices.length)
+				vertices = growVertices(vertices);
+			vertices[3 * index] = x;
+			vertices[3 * index + 1] = y;
+			vertices[3 * index + 2] = z;
+			table[slot] = index;
+			nVertices++;
+			// keep the load factor at or below 0.5
+			if (2 * nVertices > table.length) {
+				table = rehash(vertices, nVertices, 2 * table.length);
+				mask = table.length - 1;
+			}
+			return index;
+		}
+
+		private float[] getVertices() {
+			final float[] trimmed = new float[3 * nVertices];
+			System.arraycopy(vertices, 0, trimmed, 0, trimmed.length);
+			return trimmed;
+		}
+	}
+
+	private static float[] growVertices(final float[] vertices) {
+		final float[] grown = new float[vertices.length + (vertices.length >> 1) + 3];
+		System.arraycopy(vertices, 0, grown, 0, vertices.length);
+		return grown;
+	}
+
+	/**
+	 * Create an empty hash table with a power of 2 size of at least twice the
+	 * expected number of entries. Empty slots hold -1.
+	 */
+	private static int[] newTable(final int expected) {
+		int size = 16;
+		while (size < 2 * expected)
+			size <<= 1;
+		final int[] table = new int[size];
+		Arrays.fill(table, -1);
+		return table;
+	}
+
+	private static int[] rehash(final float[] vertices, final int nVertices, final int size) {
+		final int[] table = new int[size];
+		Arrays.fill(table, -1);
+		final int mask = size - 1;
+		for (int index = 0; index < nVertices; index++) {
+			final int v = 3 * index;
+			int slot = hash(vertices[v], vertices[v + 1], vertices[v + 2]) & mask;
+			while (table[slot] >= 0)
+				slot = (slot + 1) & mask;
+			table[slot] = index;
+		}
+		return table;
+	}
+
+	private static int hash(final float x, final float y, final float z) {
+		int h = Float.floatToIntBits(x);
+		h = 31 * h + Float.floatToIntBits(y);
+		h = 31 * h + Float.floatToIntBits(z);
+		// spread the bits so that neighbouring coordinates don't cluster in
+		// the table
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return number of unique vertices in the mesh
+	 */
+	public int getVertexCount() {
+		return vertices.length / 3;
+	}
+
+	/**
+	 * @return number of triangles in the mesh
+	 */
+	public int getTriangleCount() {
+		return indices.length / 3;
+	}
+
+	/**
+	 * Get the vertex buffer. The returned array is the mesh's own storage, so
+	 * changes to it change the mesh.
+	 *
+	 * @return vertex coordinates as x, y, z triplets
+	 */
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	/**
+	 * Get the index buffer. The returned array is the mesh's own storage.
+	 *
+	 * @return vertex indices, 3 per triangle
+	 */
+	public int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * Shift every vertex of the mesh by a fixed offset
+	 *
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 */
+	public void translate(final double dx, final double dy, final double dz) {
+		final int n = vertices.length;
+		for (int i = 0; i < n; i += 3) {
+			vertices[i] += dx;
+			vertices[i + 1] += dy;
+			vertices[i + 2] += dz;
+		}
+	}
+
+	/**
+	 * Expand the mesh back into a triangle list, with a new Point3f for each
+	 * triangle corner, for use with the 3D Viewer.
+	 *
+	 * @return list of triangle corners, 3 per triangle
+	 */
+	public List<Point3f> toTriangles() {
+		final int nCorners = indices.length;
+		final List<Point3f> triangles = new ArrayList<Point3f>(nCorners);
+		for (int i = 0; i < nCorners; i++) {
+			final int v = 3 * indices[i];
+			triangles.add(new Point3f(vertices[v], vertices[v + 1], vertices[v + 2]));
+		}
+		return triangles;
+	}
+
+	/**
+	 * Get the coordinates of every triangle corner, in triangle order. Shared
+	 * vertices appear once for each triangle they belong to, which matches the
+	 * point weighting of the original triangle list.
+	 *
+	 * @return double[3 * nTriangles][3] array of corner coordinates
+	 */
+	public double[][] getCornerCoordinates() {
+		final int nCorners = indices.length;
+		final double[][] corners = new double[nCorners][3];
+		for (int i = 0; i < nCorners; i++) {
+			final int v = 3 * indices[i];
+			corners[i][0] = vertices[v];
+			corners[i][1] = vertices[v + 1];
+			corners[i][2] = vertices[v + 2];
+		}
+		return corners;
+	}
+
+	/**
+	 * Calculate the surface area of the mesh as the sum of its triangles'
+	 * areas
+	 *
+	 * @return surface area
+	 */
+	public double getSurfaceArea() {
+		final int nTriangles = getTriangleCount();
+		final int nChunks = nChunks(nTriangles);
+		final double[] partials = new double[nChunks];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement()) {
+						final int end = Math.min(nTriangles, (c + 1) * CHUNK);
+						double sumArea = 0;
+						for (int t = c * CHUNK; t < end; t++) {
+							sumArea += triangleArea(t);
+						}
+						partials[c] = sumArea;
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return sum(partials);
+	}
+
+	/**
+	 * Calculate the signed volume enclosed by the mesh, as the sum of the
+	 * signed volumes of the tetrahedra formed by each triangle and the origin.
+	 * The sign depends on the triangles' winding, so callers usually want the
+	 * absolute value.
+	 *
+	 * @return signed enclosed volume
+	 */
+	public double getVolume() {
+		final int nTriangles = getTriangleCount();
+		final int nChunks = nChunks(nTriangles);
+		final double[] partials = new double[nChunks];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement()) {
+						final int end = Math.min(nTriangles, (c + 1) * CHUNK);
+						double sumVolume = 0;
+						for (int t = c * CHUNK; t < end; t++) {
+							final int a = 3 * indices[3 * t];
+							final int b = 3 * indices[3 * t + 1];
+							final int d = 3 * indices[3 * t + 2];
+							final double ax = vertices[a];
+							final double ay = vertices[a + 1];
+							final double az = vertices[a + 2];
+							final double bx = vertices[b];
+							final double by = vertices[b + 1];
+							final double bz = vertices[b + 2];
+							final double cx = vertices[d];
+							final double cy = vertices[d + 1];
+							final double cz = vertices[d + 2];
+							sumVolume += ax * (by * cz - bz * cy) + ay * (bz * cx - bx * cz) + az * (bx * cy - by * cx);
+						}
+						partials[c] = sumVolume;
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return sum(partials) / 6;
+	}
+
+	/**
+	 * Calculate the unnormalised normal of each triangle, i.e. the cross
+	 * product (p1 - p0) &times; (p2 - p0), whose length is twice the
+	 * triangle's area.
+	 *
+	 * @return triangle normals as x, y, z triplets
+	 */
+	public float[] getTriangleNormals() {
+		final int nTriangles = getTriangleCount();
+		final int nChunks = nChunks(nTriangles);
+		final float[] normals = new float[3 * nTriangles];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					final double[] n = new double[3];
+					for (int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement()) {
+						final int end = Math.min(nTriangles, (c + 1) * CHUNK);
+						for (int t = c * CHUNK; t < end; t++) {
+							crossProduct(t, n);
+							normals[3 * t] = (float) n[0];
+							normals[3 * t + 1] = (float) n[1];
+							normals[3 * t + 2] = (float) n[2];
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return normals;
+	}
+
+	/**
+	 * Calculate a unit normal for each vertex as the normalised sum of the
+	 * normals of the triangles that share it. Larger triangles contribute
+	 * more to the vertex normal. Vertices with no triangles or a zero normal
+	 * sum get NaN components.
+	 *
+	 * @return unit vertex normals as x, y, z triplets
+	 */
+	public float[] getVertexNormals() {
+		final int nVertices = getVertexCount();
+		final int[] offsets = new int[nVertices + 1];
+		final int[] vertexTriangles = getVertexTriangles(offsets);
+		final float[] triangleNormals = getTriangleNormals();
+		final float[] normals = new float[3 * nVertices];
+		final int nChunks = nChunks(nVertices);
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int c = ai.getAndIncrement(); c < nChunks; c = ai.getAndIncrement()) {
+						final int end = Math.min(nVertices, (c + 1) * CHUNK);
+						for (int v = c * CHUNK; v < end; v++) {
+							double x = 0;
+							double y = 0;
+							double z = 0;
+							for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+								final int t = 3 * vertexTriangles[i];
+								x += triangleNormals[t];
+								y += triangleNormals[t + 1];
+								z += triangleNormals[t + 2];
+							}
+							final double length = Math.sqrt(x * x + y * y + z * z);
+							normals[3 * v] = (float) (x / length);
+							normals[3 * v + 1] = (float) (y / length);
+							normals[3 * v + 2] = (float) (z / length);
+						}
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		return normals;
+	}
+
+	/**
+	 * Find the largest distance between any two vertices of the mesh, by brute
+	 * force comparison of all vertex pairs.
+	 *
+	 * @return Feret diameter, or 0 if the mesh has fewer than 2 vertices
+	 */
+	public double getFeretDiameter() {
+		final int nVertices = getVertexCount();
+		final double[] maxima = new double[nVertices];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int a = ai.getAndIncrement(); a < nVertices; a = ai.getAndIncrement()) {
+						final double ax = vertices[3 * a];
+						final double ay = vertices[3 * a + 1];
+						final double az = vertices[3 * a + 2];
+						double max = 0;
+						for (int b = 3 * (a + 1); b < vertices.length; b += 3) {
+							final double dx = vertices[b] - ax;
+							final double dy = vertices[b + 1] - ay;
+							final double dz = vertices[b + 2] - az;
+							max = Math.max(max, dx * dx + dy * dy + dz * dz);
+						}
+						maxima[a] = max;
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		double max = 0;
+		for (final double m : maxima)
+			max = Math.max(max, m);
+		return Math.sqrt(max);
+	}
+
+	/**
+	 * Build a compressed vertex-to-triangle adjacency list. Triangles
+	 * around vertex v are found in the returned array between offsets[v]
+	 * (inclusive) and offsets[v + 1] (exclusive), in ascending order.
+	 *
+	 * @param offsets
+	 *            array of length nVertices + 1, filled by this method
+	 * @return triangle indices grouped by vertex
+	 */
+	public int[] getVertexTriangles(final int[] offsets) {
+		final int nCorners = indices.length;
+		final int nVertices = getVertexCount();
+		for (int i = 0; i < nCorners; i++)
+			offsets[indices[i] + 1]++;
+		for (int v = 0; v < nVertices; v++)
+			offsets[v + 1] += offsets[v];
+		final int[] fill = new int[nVertices];
+		final int[] vertexTriangles = new int[nCorners];
+		for (int i = 0; i < nCorners; i++) {
+			final int v = indices[i];
+			vertexTriangles[offsets[v] + fill[v]] = i / 3;
+			fill[v]++;
+		}
+		return vertexTriangles;
+	}
+
+	/**
+	 * Area of a single triangle, as half the magnitude of the cross product of
+	 * two of its edges
+	 *
+	 * @param t
+	 *            triangle index
+	 * @return area of triangle t
+	 */
+	public double triangleArea(final int t) {
+		final int a = 3 * indices[3 * t];
+		final int b = 3 * indices[3 * t + 1];
+		final int c = 3 * indices[3 * t + 2];
+		final double x1 = vertices[b] - vertices[a];
+		final double y1 = vertices[b + 1] - vertices[a + 1];
+		final double z1 = vertices[b + 2] - vertices[a + 2];
+		final double x2 = vertices[c] - vertices[a];
+		final double y2 = vertices[c + 1] - vertices[a + 1];
+		final double z2 = vertices[c + 2] - vertices[a + 2];
+		final double cx = y1 * z2 - z1 * y2;
+		final double cy = z1 * x2 - x1 * z2;
+		final double cz = x1 * y2 - y1 * x2;
+		return 0.5 * Math.sqrt(cx * cx + cy * cy + cz * cz);
+	}
+
+	private void crossProduct(final int t, final double[] n) {
+		final int a = 3 * indices[3 * t];
+		final int b = 3 * indices[3 * t + 1];
+		final int c = 3 * indices[3 * t + 2];
+		final double x1 = vertices[b] - vertices[a];
+		final double y1 = vertices[b + 1] - vertices[a + 1];
+		final double z1 = vertices[b + 2] - vertices[a + 2];
+		final double x2 = vertices[c] - vertices[a];
+		final double y2 = vertices[c + 1] - vertices[a + 1];
+		final double z2 = vertices[c + 2] - vertices[a + 2];
+		n[0] = y1 * z2 - z1 * y2;
+		n[1] = z1 * x2 - x1 * z2;
+		n[2] = x1 * y2 - y1 * x2;
+	}
+
+	private static int nChunks(final int n) {
+		return (n + CHUNK - 1) / CHUNK;
+	}
+
+	private static double sum(final double[] partials) {
+		double sum = 0;
+		for (final double p : partials)
+			sum += p;
+		return sum;
+	}
+}
@@ -27,13 +27,15 @@ import java.awt.event.TextListener;
 import java.awt.event.WindowEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.Set;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.doube.util.UsageReporter;
 
 import ij.IJ;
+import ij.ImageListener;
 import ij.ImagePlus;
 import ij.Prefs;
 import ij.WindowManager;
@@ -85,13 +87,13 @@ public class Orienteer extends PlugInFrame
 	private Point p;
 
 	private Integer activeImpID;
-	private final Hashtable<Integer, Double> thetaHash = new Hashtable<Integer, Double>();
-	private final Hashtable<Integer, Integer> lengthHash = new Hashtable<Integer, Integer>();
-	private final Hashtable<Integer, Point> centreHash = new Hashtable<Integer, Point>();
-	private final Hashtable<Integer, GeneralPath> pathHash = new Hashtable<Integer, GeneralPath>();
-	private final Hashtable<Integer, int[]> axisHash = new Hashtable<Integer, int[]>();
-	private final Hashtable<Integer, boolean[]> reflectHash = new Hashtable<Integer, boolean[]>();
-	private final Hashtable<Integer, boolean[]> unitHash = new Hashtable<Integer, boolean[]>();
+
+	/** Orientation of each image, by image ID */
+	private static final ConcurrentHashMap<Integer, Orientation> orientations =
+			new ConcurrentHashMap<Integer, Orientation>();
+	/** Images with an orientation that have been garbage collected */
+	private static final ReferenceQueue<ImagePlus> collected = new ReferenceQueue<ImagePlus>();
+	private static boolean listening;
 
 	private final Overlay overlay = new Overlay();
 	private final int fontSize = 12;
@@ -237,12 +239,11 @@ public class Orienteer extends PlugInFrame
 	private void setup(final ImagePlus imp) {
 		if (imp == null)
 			return;
-		if (checkHash(imp)) {
+		if (orientations.containsKey(imp.getID())) {
 			IJ.log("Image has already been set up");
 			return;
 		}
-		final Integer id = new Integer(imp.getID());
-		activeImpID = id;
+		activeImpID = new Integer(imp.getID());
 		final int w = imp.getWidth();
 		final int h = imp.getHeight();
 		this.theta = 0;
@@ -253,26 +254,14 @@ public class Orienteer extends PlugInFrame
 		reflect1.setState(isReflected1);
 		this.length = Math.min(w, h) / 4;
 		this.p = new Point(w / 2, h / 2);
-		path = new GeneralPath();
-		path.moveTo(p.x - length, p.y);
-		path.lineTo(p.x + length, p.y);
-		path.moveTo(p.x, p.y - length);
-		path.lineTo(p.x, p.y + length);
+		deg.setState(true);
+		rad.setState(false);
+		final Orientation o = current(imp);
+		put(o);
+		path = o.getPath();
 		stroke = new BasicStroke(1, BasicStroke.CAP_ROUND, BasicStroke.JOIN_MITER);
 		imp.setOverlay(path, Color.BLUE, stroke);
 		rotateTo(theta);
-		centreHash.put(id, new Point(p));
-		thetaHash.put(id, new Double(theta));
-		pathHash.put(id, new GeneralPath(path));
-		final int[] axes = { axis0, axis1 };
-		axisHash.put(id, axes.clone());
-		lengthHash.put(id, new Integer(this.length));
-		final boolean[] reflectors = { isReflected0, isReflected1 };
-		reflectHash.put(id, reflectors.clone());
-		deg.setState(true);
-		rad.setState(false);
-		final boolean[] units = { deg.getState(), rad.getState() };
-		unitHash.put(id, units);
 		updateTextbox();
 		UsageReporter.reportEvent(this).send();
 	}
@@ -280,89 +269,140 @@ public class Orienteer extends PlugInFrame
 	private void update() {
 		if (WindowManager.getImageCount() == 0){
 			instance.setTitle("Orientation - No Images Open");
-			clearHashes();
 			return;
 		}
 		final ImagePlus imp = WindowManager.getCurrentImage();
 		activeImpID = new Integer(imp.getID());
 		instance.setTitle("Orientation - " + imp.getTitle());
-		if (!checkHash(imp)) {
+		final Orientation o = orientations.get(activeImpID);
+		if (o == null) {
 			setup(imp);
 			return;
 		}
-		checkHash();
-		this.p = centreHash.get(activeImpID);
-		this.theta = thetaHash.get(activeImpID);
-		final int[] axes = axisHash.get(activeImpID);
-		this.axis0 = axes[0];
-		this.axis1 = axes[1];
-		this.path = pathHash.get(activeImpID);
-		this.length = lengthHash.get(activeImpID);
-		final boolean[] reflectors = reflectHash.get(activeImpID);
-		this.isReflected0 = reflectors[0];
-		this.isReflected1 = reflectors[1];
+		this.p = o.getCentre();
+		this.theta = o.getTheta();
+		this.axis0 = o.axis0;
+		this.axis1 = o.axis1;
+		this.path = o.getPath();
+		this.length = o.getLength();
+		this.isReflected0 = o.reflect0;
+		this.isReflected1 = o.reflect1;
 		axis0Choice.select(axis0);
 		axis1Choice.select(axis1);
 		slider.setValue((int) (theta * 180 / Math.PI));
 		reflect0.setState(isReflected0);
 		reflect1.setState(isReflected1);
-		final boolean[] units = unitHash.get(activeImpID);
-		deg.setState(units[0]);
-		rad.setState(units[1]);
+		deg.setState(o.isDegrees());
+		rad.setState(!o.isDegrees());
 		updateTextbox();
 		updateDirections();
 	}
 
 	/**
-	 * Keep hash lists up to date by removing keys of closed windows
+	 * Record the indicator's current state as the active image's orientation
 	 */
-	private void checkHash() {
-		Set<Integer> idset = thetaHash.keySet();
-		for (Integer i : idset){
-			if (WindowManager.getImage(i.intValue()) == null)
-				clearHashes(i);
-		}
+	private void store() {
+		if (activeImpID == null)
+			return;
+		final ImagePlus imp = WindowManager.getImage(activeImpID.intValue());
+		if (imp == null)
+			return;
+		put(current(imp));
+	}
+
+	/** The indicator's current state as an orientation of imp */
+	private Orientation current(final ImagePlus imp) {
+		return new Orientation(imp, theta, length, p, axis0, isReflected0, axis1, isReflected1, deg.getState());
+	}
+
+	private static void put(final Orientation orientation) {
+		listen();
+		purge();
+		orientations.put(orientation.image.id, orientation);
 	}
 
 	/**
-	 * Remove all image IDs from the hashes.
-	 */
-	private void clearHashes() {
-		thetaHash.clear();
-		reflectHash.clear();
-		pathHash.clear();
-		unitHash.clear();
-		axisHash.clear();
-		centreHash.clear();
-		lengthHash.clear();
-	}
-	
-	/**
-	 * Remove a single image ID from the hashes.
+	 * Forget the orientations of images that were never shown, so are not
+	 * reported closed, once they have been garbage collected
 	 */
-	private void clearHashes(Integer i) {
-		thetaHash.remove(i);
-		reflectHash.remove(i);
-		pathHash.remove(i);
-		unitHash.remove(i);
-		axisHash.remove(i);
-		centreHash.remove(i);
-		lengthHash.remove(i);
+	private static void purge() {
+		Reference<? extends ImagePlus> ref;
+		while ((ref = collected.poll()) != null) {
+			final Integer id = ((ImageReference) ref).id;
+			final Orientation o = orientations.get(id);
+			if (o != null && o.image == ref)
+				orientations.remove(id, o);
+		}
+	}
+
+	/** Start listening for image closures, if not yet doing so */
+	private static synchronized void listen() {
+		if (listening)
+			return;
+		ImagePlus.addImageListener(new ImageListener() {
+			public void imageOpened(final ImagePlus imp) {
+			}
+
+			public void imageClosed(final ImagePlus imp) {
+				orientations.remove(imp.getID());
+			}
+
+			public void imageUpdated(final ImagePlus imp) {
+			}
+		});
+		listening = true;
+	}
+
+	public static Orienteer getInstance() {
+		return instance;
 	}
 
 	/**
-	 * Check if an image is already handled by Orientation
+	 * Get an image's orientation without needing the Orientation window, for
+	 * example in headless batch jobs
 	 *
 	 * @param imp
-	 * @return true if this image is already handled by Orientation
+	 * @return the image's orientation, or null if it has none
 	 */
-	private boolean checkHash(final ImagePlus imp) {
-		final Integer i = new Integer(imp.getID());
-		return thetaHash.containsKey(i);
+	public static Orientation getOrientationOf(final ImagePlus imp) {
+		return orientations.get(imp.getID());
 	}
 
-	public static Orienteer getInstance() {
-		return instance;
+	/**
+	 * Set an image's orientation without needing the Orientation window. The
+	 * indicator is centred on the image, and shows the new orientation when
+	 * the image is next activated.
+	 *
+	 * @param imp
+	 * @param theta
+	 *            orientation of the principal direction in radians clockwise
+	 *            from 12 o'clock
+	 * @param principal
+	 *            index of the principal direction in the list of directions
+	 *            (0 for medial - lateral, 1 for cranial - caudal, ...)
+	 * @param reflectPrincipal
+	 *            if true, swap the head and tail of the principal direction
+	 * @param secondary
+	 *            index of the secondary direction
+	 * @param reflectSecondary
+	 *            if true, swap the head and tail of the secondary direction
+	 * @return the image's new orientation
+	 * @throws IllegalArgumentException
+	 *             if either direction is not in the list, or both are the
+	 *             same
+	 */
+	public static Orientation setOrientation(final ImagePlus imp, final double theta, final int principal,
+			final boolean reflectPrincipal, final int secondary, final boolean reflectSecondary) {
+		if (principal < 0 || principal >= axisLabels.length || secondary < 0 || secondary >= axisLabels.length)
+			throw new IllegalArgumentException("Unknown direction");
+		if (principal == secondary)
+			throw new IllegalArgumentException("Both axes cannot indicate the same direction");
+		final int w = imp.getWidth();
+		final int h = imp.getHeight();
+		final Orientation orientation = new Orientation(imp, theta, Math.min(w, h) / 4, new Point(w / 2, h / 2),
+				principal, reflectPrincipal, secondary, reflectSecondary, true);
+		put(orientation);
+		return orientation;
 	}
 
 	/**
@@ -376,28 +416,10 @@ public class Orienteer extends PlugInFrame
 	 *         3rd position.
 	 */
 	public String[] getDirections(final ImagePlus imp) {
-		if (!checkHash(imp))
+		final Orientation o = getOrientationOf(imp);
+		if (o == null)
 			return null;
-		final Integer id = new Integer(imp.getID());
-		final int[] axes = axisHash.get(id);
-		final boolean[] ref = reflectHash.get(id);
-		final String[] dirs = new String[4];
-
-		if (!ref[0]) {
-			dirs[0] = axisLabels[axes[0]][2];
-			dirs[1] = axisLabels[axes[0]][3];
-		} else {
-			dirs[0] = axisLabels[axes[0]][3];
-			dirs[1] = axisLabels[axes[0]][2];
-		}
-		if (!ref[1]) {
-			dirs[2] = axisLabels[axes[1]][2];
-			dirs[3] = axisLabels[axes[1]][3];
-		} else {
-			dirs[2] = axisLabels[axes[1]][3];
-			dirs[3] = axisLabels[axes[1]][2];
-		}
-		return dirs;
+		return o.getDirections();
 	}
 
 	/**
@@ -435,45 +457,28 @@ public class Orienteer extends PlugInFrame
 	 *             if imp has not been activated by Orientation
 	 */
 	public double getOrientation(final ImagePlus imp) {
-		final Integer id = new Integer(imp.getID());
-		final Double o = thetaHash.get(id);
+		final Orientation o = getOrientationOf(imp);
 		if (o == null)
 			throw new IllegalArgumentException();
 		
-		return o.doubleValue();
+		return o.getTheta();
 	}
 
+	/**
+	 * Get the orientation of a direction
+	 *
+	 * @param imp
+	 * @param direction
+	 *            Label you wish to match
+	 * @return orientation of the axis in radians clockwise from 12 o'clock
+	 * @throws IllegalArgumentException
+	 *             if imp has not been activated by Orientation
+	 */
 	public double getOrientation(final ImagePlus imp, final String direction) {
-		double orientation = getOrientation(imp);
-		final String[] dir = getDirections(imp);
-
-		int quadrant = 0;
-		for (int i = 0; i < 4; i++) {
-			if (dir[i].equals(direction)) {
-				quadrant = i;
-				break;
-			}
-		}
-
-		switch (quadrant) {
-		case 0:
-			return orientation;
-		case 1:
-			orientation += Math.PI;
-			break;
-		case 2:
-			orientation += Math.PI / 2;
-			break;
-		case 3:
-			orientation += 3 * Math.PI / 2;
-			break;
-		}
-
-		if (orientation > 2 * Math.PI)
-
-			return orientation - 2 * Math.PI;
-		
-		return orientation;
+		final Orientation o = getOrientationOf(imp);
+		if (o == null)
+			throw new IllegalArgumentException();
+		return o.getOrientation(direction);
 	}
 
 	/**
@@ -486,6 +491,10 @@ public class Orienteer extends PlugInFrame
 	 *         and first elements respectively)
 	 */
 	public double[] getDiameters(final double[][] points) {
+		return getDiameters(points, theta);
+	}
+
+	private static double[] getDiameters(final double[][] points, final double theta) {
 		double xMin = Double.POSITIVE_INFINITY;
 		double xMax = Double.NEGATIVE_INFINITY;
 		double yMin = Double.POSITIVE_INFINITY;
@@ -525,8 +534,8 @@ public class Orienteer extends PlugInFrame
 		addPath(path, Color.BLUE, stroke);
 		addLabels();
 		imp.setOverlay(overlay);
-		thetaHash.put(activeImpID, new Double(theta));
-		pathHash.put(activeImpID, new GeneralPath(path));
+		if (orientations.containsKey(activeImpID))
+			store();
 	}
 
 	/**
@@ -541,7 +550,8 @@ public class Orienteer extends PlugInFrame
 		this.theta = newTheta;
 		if (WindowManager.getImageCount() == 0)
 			return;
-		thetaHash.put(activeImpID, newTheta);
+		if (orientations.containsKey(activeImpID))
+			store();
 	}
 
 	private void addLabels() {
@@ -591,12 +601,14 @@ public class Orienteer extends PlugInFrame
 	public void close() {
 		super.close();
 		instance = null;
-		if (WindowManager.getImageCount() == 0)
-			return;
 		//clear the orientation overlay from open images
-		for (final Integer i : thetaHash.keySet()){
-			  WindowManager.getImage(i.intValue()).setOverlay(null);
+		for (final Integer i : orientations.keySet()){
+			final ImagePlus imp = WindowManager.getImage(i.intValue());
+			if (imp != null)
+				imp.setOverlay(null);
 		}
+		//orientations are forgotten with the window that set them
+		orientations.clear();
 	}
 
 	@Override
@@ -631,9 +643,8 @@ public class Orienteer extends PlugInFrame
 				return;
 			}
 			axis0 = i;
-			final int[] axes = { axis0, axis1 };
 			if (isImageOpen)
-				axisHash.put(activeImpID, axes.clone());
+				store();
 			updateDirections();
 		} else if (source.equals(axis1Choice)) {
 			final int i = axis1Choice.getSelectedIndex();
@@ -643,26 +654,22 @@ public class Orienteer extends PlugInFrame
 				return;
 			}
 			axis1 = i;
-			final int[] axes = { axis0, axis1 };
 			if (isImageOpen)
-			    axisHash.put(activeImpID, axes.clone());
+				store();
 			updateDirections();
 		} else if (source.equals(reflect0)) {
 			isReflected0 = reflect0.getState();
-			final boolean[] reflectors = { isReflected0, isReflected1 };
 			if (isImageOpen)
-			    reflectHash.put(activeImpID, reflectors.clone());
+				store();
 			updateDirections();
 		} else if (source.equals(reflect1)) {
 			isReflected1 = reflect1.getState();
-			final boolean[] reflectors = { isReflected0, isReflected1 };
 			if (isImageOpen)
-			    reflectHash.put(activeImpID, reflectors.clone());
+				store();
 			updateDirections();
 		} else if (source.equals(deg) || source.equals(rad)) {
-			final boolean[] units = { deg.getState(), rad.getState() };
 			if (isImageOpen)
-			    unitHash.put(activeImpID, units);
+				store();
 			updateTextbox();
 		}
 	}
@@ -690,4 +697,159 @@ public class Orienteer extends PlugInFrame
 		updateTextbox();
 		slider.setValue(newPos);
 	}
+
+	/**
+	 * Orientation of one image. Instances are immutable: any change to an
+	 * image's orientation replaces its record, so a record can be read from
+	 * any thread.
+	 */
+	public static final class Orientation {
+		private final ImageReference image;
+		private final double theta;
+		private final int length;
+		private final int x;
+		private final int y;
+		private final int axis0;
+		private final boolean reflect0;
+		private final int axis1;
+		private final boolean reflect1;
+		private final boolean degrees;
+
+		Orientation(final ImagePlus imp, final double theta, final int length, final Point centre,
+				final int axis0, final boolean reflect0, final int axis1, final boolean reflect1,
+				final boolean degrees) {
+			this.image = new ImageReference(imp);
+			this.theta = theta;
+			this.length = length;
+			this.x = centre.x;
+			this.y = centre.y;
+			this.axis0 = axis0;
+			this.reflect0 = reflect0;
+			this.axis1 = axis1;
+			this.reflect1 = reflect1;
+			this.degrees = degrees;
+		}
+
+		/**
+		 * @return orientation of the principal direction in radians clockwise
+		 *         from 12 o'clock
+		 */
+		public double getTheta() {
+			return theta;
+		}
+
+		/** @return half the length of the indicator's axes, in pixels */
+		public int getLength() {
+			return length;
+		}
+
+		/** @return centre of the indicator, in pixels */
+		public Point getCentre() {
+			return new Point(x, y);
+		}
+
+		/** @return true if the orientation is displayed in degrees */
+		public boolean isDegrees() {
+			return degrees;
+		}
+
+		/** @return the indicator's axes, rotated to the orientation */
+		public GeneralPath getPath() {
+			final GeneralPath path = new GeneralPath();
+			path.moveTo(x - length, y);
+			path.lineTo(x + length, y);
+			path.moveTo(x, y - length);
+			path.lineTo(x, y + length);
+			path.transform(AffineTransform.getRotateInstance(theta, x, y));
+			return path;
+		}
+
+		/**
+		 * @return an array of axis labels, with the principal direction in
+		 *         the zeroth position, the principal tail in the 1st position,
+		 *         the secondary head in the 2nd position and the secondary
+		 *         tail in the 3rd position.
+		 */
+		public String[] getDirections() {
+			final String[] dirs = new String[4];
+			if (!reflect0) {
+				dirs[0] = axisLabels[axis0][2];
+				dirs[1] = axisLabels[axis0][3];
+			} else {
+				dirs[0] = axisLabels[axis0][3];
+				dirs[1] = axisLabels[axis0][2];
+			}
+			if (!reflect1) {
+				dirs[2] = axisLabels[axis1][2];
+				dirs[3] = axisLabels[axis1][3];
+			} else {
+				dirs[2] = axisLabels[axis1][3];
+				dirs[3] = axisLabels[axis1][2];
+			}
+			return dirs;
+		}
+
+		/**
+		 * Retrieve the orientation of the named axis. If the axis name is not
+		 * found, the principal axis orientation is returned.
+		 *
+		 * @param direction
+		 *            Label you wish to match
+		 * @return orientation of the axis in radians clockwise from 12 o'clock
+		 */
+		public double getOrientation(final String direction) {
+			double orientation = theta;
+			final String[] dir = getDirections();
+
+			int quadrant = 0;
+			for (int i = 0; i < 4; i++) {
+				if (dir[i].equals(direction)) {
+					quadrant = i;
+					break;
+				}
+			}
+
+			switch (quadrant) {
+			case 0:
+				return orientation;
+			case 1:
+				orientation += Math.PI;
+				break;
+			case 2:
+				orientation += Math.PI / 2;
+				break;
+			case 3:
+				orientation += 3 * Math.PI / 2;
+				break;
+			}
+
+			if (orientation > 2 * Math.PI)
+				return orientation - 2 * Math.PI;
+
+			return orientation;
+		}
+
+		/**
+		 * Given a set of (x,y) coordinates, find the caliper diameters across
+		 * the axes
+		 *
+		 * @param points
+		 *            in double[n][2] format
+		 * @return caliper diameters across the principal and secondary axes
+		 *         (zeroth and first elements respectively)
+		 */
+		public double[] getDiameters(final double[][] points) {
+			return Orienteer.getDiameters(points, theta);
+		}
+	}
+
+	/** Weak reference to an image that remembers the image's ID */
+	private static final class ImageReference extends WeakReference<ImagePlus> {
+		private final Integer id;
+
+		ImageReference(final ImagePlus imp) {
+			super(imp, collected);
+			this.id = new Integer(imp.getID());
+		}
+	}
 }
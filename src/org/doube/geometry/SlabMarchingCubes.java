@@ -0,0 +1,555 @@
+package org.doube.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.doube.util.Multithreader;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+/**
+ * <p>
+ * Streaming marching cubes isosurface extraction. The stack is divided into
+ * slabs of z-slices which are meshed in parallel; each slab keeps only two
+ * resampled slices in memory and sums the surface area and enclosed volume of
+ * its triangles as they are made. Triangles are only kept if a
+ * {@link TriangleSink} is given, so measuring surface area or volume needs
+ * memory proportional to the slice size, not to the surface complexity.
+ * </p>
+ * <p>
+ * The image is treated as if padded with background, so surfaces are always
+ * closed. Vertices are placed as MCTriangulator places them: the isosurface
+ * lies at the threshold + 0.5, so voxels greater than the threshold are
+ * foreground in integer images, and each edge's vertex is interpolated from
+ * its lower-valued corner. When
+ * resampling, each sample is the mean of a block of resampling &times;
+ * resampling &times; resampling input voxels, placed at the block's centre.
+ * Vertex coordinates are calibrated, with the centre of the first voxel at
+ * the origin, and the triangles are wound so that their right-hand normals
+ * point into the foreground, like MCTriangulator's.
+ * </p>
+ * <p>
+ * The triangulation of each of the 256 cube configurations is generated when
+ * the class loads: the surface's intersection with each cube face is traced
+ * separating foreground corners on ambiguous faces, the segments are joined
+ * into loops around the cube and each loop is fanned into triangles.
+ * Neighbouring cubes make the same choice on shared faces, so the mesh is
+ * watertight.
+ * </p>
+ */
+public class SlabMarchingCubes {
+
+	/**
+	 * Receives triangles from the mesher. Buffers are passed from the worker
+	 * threads as each slab's buffer fills, so implementations must be thread
+	 * safe and must copy any triangles they want to keep.
+	 */
+	public interface TriangleSink {
+		/**
+		 * @param slab
+		 *            index of the slab the triangles come from; slabs are
+		 *            numbered in increasing z
+		 * @param triangles
+		 *            triangle corner coordinates, 9 floats (x0, y0, z0, x1,
+		 *            ... z2) per triangle
+		 * @param nTriangles
+		 *            number of triangles in the buffer
+		 */
+		void addTriangles(int slab, float[] triangles, int nTriangles);
+	}
+
+	/**
+	 * Sink which keeps all the triangles it receives, for building a mesh
+	 * once meshing has finished.
+	 */
+	public static class MeshCollector implements TriangleSink {
+		private final List<List<float[]>> slabs = new ArrayList<List<float[]>>();
+		private final List<int[]> counts = new ArrayList<int[]>();
+
+		public synchronized void addTriangles(final int slab, final float[] triangles, final int nTriangles) {
+			while (slabs.size() <= slab) {
+				slabs.add(new ArrayList<float[]>());
+				counts.add(new int[1]);
+			}
+			slabs.get(slab).add(Arrays.copyOf(triangles, 9 * nTriangles));
+			counts.get(slab)[0] += nTriangles;
+		}
+
+		/**
+		 * @return an indexed mesh of all the triangles collected so far, in
+		 *         slab order
+		 */
+		public synchronized IndexedTriangleMesh getMesh() {
+			int nTriangles = 0;
+			for (final int[] count : counts)
+				nTriangles += count[0];
+			final float[] corners = new float[9 * nTriangles];
+			int offset = 0;
+			for (final List<float[]> slab : slabs) {
+				for (final float[] buffer : slab) {
+					System.arraycopy(buffer, 0, corners, offset, buffer.length);
+					offset += buffer.length;
+				}
+			}
+			return IndexedTriangleMesh.fromTriangles(corners, nTriangles);
+		}
+	}
+
+	/** Triangles per sink buffer */
+	private static final int BUFFER_TRIANGLES = 4096;
+
+	/** Corner pairs joined by each of the 12 cube edges */
+	private static final int[][] EDGES = { { 0, 1 }, { 2, 3 }, { 4, 5 }, { 6, 7 }, { 0, 2 }, { 1, 3 }, { 4, 6 },
+			{ 5, 7 }, { 0, 4 }, { 1, 5 }, { 2, 6 }, { 3, 7 } };
+
+	/**
+	 * Triangles for each cube configuration, as edge index triplets. Cube
+	 * corner c is at (c &amp; 1, (c &gt;&gt; 1) &amp; 1, (c &gt;&gt; 2) &amp; 1)
+	 * and bit c of the configuration is set when corner c is foreground.
+	 */
+	private static final int[][] TRIANGLES = makeTriangleTable();
+
+	/** Bit mask of the edges used by each configuration's triangles */
+	private static final int[] EDGE_MASKS = makeEdgeMasks();
+
+	private final ImagePlus imp;
+	/** Isosurface value, threshold + 0.5 */
+	private final double isovalue;
+	private final int resampling;
+	private int slabDepth;
+	private double surfaceArea;
+	private double volume;
+	private long nTriangles;
+
+	/**
+	 * @param imp
+	 *            image to mesh
+	 * @param threshold
+	 *            as for MCTriangulator: the isosurface lies at threshold + 0.5
+	 * @param resampling
+	 *            edge length, in voxels, of the blocks averaged into each
+	 *            marching cubes sample; 1 meshes at full resolution
+	 */
+	public SlabMarchingCubes(final ImagePlus imp, final double threshold, final int resampling) {
+		if (resampling < 1)
+			throw new IllegalArgumentException("Resampling must be at least 1");
+		this.imp = imp;
+		this.isovalue = threshold + 0.5;
+		this.resampling = resampling;
+	}
+
+	/**
+	 * Set how many layers of cubes, each one resampled slice deep, make up a
+	 * slab. Slab n lies between resampled slices n &times; depth - 1 and (n +
+	 * 1) &times; depth - 1, where slice -1 is the background padding. By
+	 * default the depth is chosen from the number of threads, so a sink which
+	 * keeps slabs apart needs a fixed depth for its output not to depend on
+	 * the machine.
+	 *
+	 * @param slabDepth
+	 *            cube layers per slab, or 0 to choose from the number of
+	 *            threads
+	 */
+	public void setSlabDepth(final int slabDepth) {
+		if (slabDepth < 0)
+			throw new IllegalArgumentException("Slab depth must not be negative");
+		this.slabDepth = slabDepth;
+	}
+
+	/**
+	 * Mesh the image, summing surface area and enclosed volume.
+	 *
+	 * @param sink
+	 *            receives the triangles, or null if only the measurements are
+	 *            needed
+	 */
+	public void run(final TriangleSink sink) {
+		final ImageStack stack = imp.getImageStack();
+		final Calibration cal = imp.getCalibration();
+		final int f = resampling;
+		final int w = stack.getWidth();
+		final int h = stack.getHeight();
+		final int d = stack.getSize();
+		// resampled dimensions
+		final int wr = (w + f - 1) / f;
+		final int hr = (h + f - 1) / f;
+		final int dr = (d + f - 1) / f;
+		final float sx = (float) (cal.pixelWidth * f);
+		final float sy = (float) (cal.pixelHeight * f);
+		final float sz = (float) (cal.pixelDepth * f);
+		// resampled samples lie at the centres of their blocks
+		final float[] origin = { (float) (cal.pixelWidth * (f - 1) / 2), (float) (cal.pixelHeight * (f - 1) / 2),
+				(float) (cal.pixelDepth * (f - 1) / 2) };
+		final float background = (float) Math.min(0, isovalue - 1);
+
+		// cube layer k lies between resampled slices k and k + 1, for k from
+		// -1 to dr - 1; slices -1 and dr are background padding
+		final int nLayers = dr + 1;
+		final int nThreads = Multithreader.newThreads().length;
+		final int slabDepth = this.slabDepth > 0 ? this.slabDepth
+				: Math.max(1, (nLayers + 4 * nThreads - 1) / (4 * nThreads));
+		final int nSlabs = (nLayers + slabDepth - 1) / slabDepth;
+		final double[] areas = new double[nSlabs];
+		final double[] volumes = new double[nSlabs];
+		final long[] counts = new long[nSlabs];
+
+		final AtomicInteger ai = new AtomicInteger(0);
+		final AtomicInteger done = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads();
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					// resampled slices, padded by 1 sample of background
+					final int pw = wr + 2;
+					final int ph = hr + 2;
+					float[] lower = new float[pw * ph];
+					float[] upper = new float[pw * ph];
+					final float[] values = new float[8];
+					final float[] edgePoints = new float[36];
+					final float[] buffer = sink == null ? null : new float[9 * BUFFER_TRIANGLES];
+					for (int slab = ai.getAndIncrement(); slab < nSlabs; slab = ai.getAndIncrement()) {
+						final int kStart = slab * slabDepth - 1;
+						final int kEnd = Math.min(kStart + slabDepth, dr);
+						double sumArea = 0;
+						double sumVolume = 0;
+						long count = 0;
+						int nBuffered = 0;
+						resampleSlice(stack, kStart, lower, pw, wr, hr, dr, f, background);
+						for (int k = kStart; k < kEnd; k++) {
+							resampleSlice(stack, k + 1, upper, pw, wr, hr, dr, f, background);
+							for (int j = -1; j < hr; j++) {
+								for (int i = -1; i < wr; i++) {
+									final int p = (i + 1) + (j + 1) * pw;
+									values[0] = lower[p];
+									values[1] = lower[p + 1];
+									values[2] = lower[p + pw];
+									values[3] = lower[p + pw + 1];
+									values[4] = upper[p];
+									values[5] = upper[p + 1];
+									values[6] = upper[p + pw];
+									values[7] = upper[p + pw + 1];
+									int config = 0;
+									for (int c = 0; c < 8; c++) {
+										if (values[c] > isovalue)
+											config |= 1 << c;
+									}
+									final int[] triangles = TRIANGLES[config];
+									if (triangles.length == 0)
+										continue;
+									final int edgeMask = EDGE_MASKS[config];
+									for (int e = 0; e < 12; e++) {
+										if ((edgeMask & (1 << e)) != 0)
+											edgePoint(e, i, j, k, values, edgePoints, sx, sy, sz, origin);
+									}
+									for (int t = 0; t < triangles.length; t += 3) {
+										final int a = 3 * triangles[t];
+										final int b = 3 * triangles[t + 1];
+										final int c = 3 * triangles[t + 2];
+										final double ax = edgePoints[a];
+										final double ay = edgePoints[a + 1];
+										final double az = edgePoints[a + 2];
+										final double bx = edgePoints[b];
+										final double by = edgePoints[b + 1];
+										final double bz = edgePoints[b + 2];
+										final double cx = edgePoints[c];
+										final double cy = edgePoints[c + 1];
+										final double cz = edgePoints[c + 2];
+										final double x1 = bx - ax;
+										final double y1 = by - ay;
+										final double z1 = bz - az;
+										final double x2 = cx - ax;
+										final double y2 = cy - ay;
+										final double z2 = cz - az;
+										final double nx = y1 * z2 - z1 * y2;
+										final double ny = z1 * x2 - x1 * z2;
+										final double nz = x1 * y2 - y1 * x2;
+										sumArea += 0.5 * Math.sqrt(nx * nx + ny * ny + nz * nz);
+										sumVolume += ax * (by * cz - bz * cy) + ay * (bz * cx - bx * cz)
+												+ az * (bx * cy - by * cx);
+										count++;
+										if (buffer != null) {
+											final int o = 9 * nBuffered;
+											System.arraycopy(edgePoints, a, buffer, o, 3);
+											System.arraycopy(edgePoints, b, buffer, o + 3, 3);
+											System.arraycopy(edgePoints, c, buffer, o + 6, 3);
+											nBuffered++;
+											if (nBuffered == BUFFER_TRIANGLES) {
+												sink.addTriangles(slab, buffer, nBuffered);
+												nBuffered = 0;
+											}
+										}
+									}
+								}
+							}
+							final float[] swap = lower;
+							lower = upper;
+							upper = swap;
+						}
+						if (buffer != null && nBuffered > 0)
+							sink.addTriangles(slab, buffer, nBuffered);
+						areas[slab] = sumArea;
+						volumes[slab] = sumVolume;
+						counts[slab] = count;
+						IJ.showStatus("Meshing surface...");
+						IJ.showProgress(done.incrementAndGet(), nSlabs);
+					}
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+
+		double sumArea = 0;
+		double sumVolume = 0;
+		long count = 0;
+		for (int s = 0; s < nSlabs; s++) {
+			sumArea += areas[s];
+			sumVolume += volumes[s];
+			count += counts[s];
+		}
+		surfaceArea = sumArea;
+		// triangles are wound with normals pointing inwards, so the signed
+		// volume is negative
+		volume = -sumVolume / 6;
+		nTriangles = count;
+	}
+
+	/**
+	 * @return calibrated surface area of the last run
+	 */
+	public double getSurfaceArea() {
+		return surfaceArea;
+	}
+
+	/**
+	 * @return calibrated volume enclosed by the surface of the last run
+	 */
+	public double getVolume() {
+		return volume;
+	}
+
+	/**
+	 * @return number of triangles made in the last run
+	 */
+	public long getTriangleCount() {
+		return nTriangles;
+	}
+
+	/**
+	 * Calculate the surface area of an image's isosurface without keeping
+	 * its triangles.
+	 *
+	 * @param imp
+	 * @param threshold
+	 * @param resampling
+	 * @return surface area
+	 */
+	public static double getSurfaceArea(final ImagePlus imp, final double threshold, final int resampling) {
+		final SlabMarchingCubes mc = new SlabMarchingCubes(imp, threshold, resampling);
+		mc.run(null);
+		return mc.getSurfaceArea();
+	}
+
+	/**
+	 * Calculate the volume enclosed by an image's isosurface without keeping
+	 * its triangles.
+	 *
+	 * @param imp
+	 * @param threshold
+	 * @param resampling
+	 * @return enclosed volume
+	 */
+	public static double getVolume(final ImagePlus imp, final double threshold, final int resampling) {
+		final SlabMarchingCubes mc = new SlabMarchingCubes(imp, threshold, resampling);
+		mc.run(null);
+		return mc.getVolume();
+	}
+
+	/**
+	 * Mesh an image and keep its triangles
+	 *
+	 * @param imp
+	 * @param threshold
+	 * @param resampling
+	 * @return indexed isosurface mesh
+	 */
+	public static IndexedTriangleMesh getMesh(final ImagePlus imp, final double threshold, final int resampling) {
+		final MeshCollector collector = new MeshCollector();
+		new SlabMarchingCubes(imp, threshold, resampling).run(collector);
+		return collector.getMesh();
+	}
+
+	/**
+	 * Fill a padded slice buffer with the resampled slice k, or with
+	 * background if k is outside the resampled stack.
+	 */
+	private static void resampleSlice(final ImageStack stack, final int k, final float[] slice, final int pw,
+			final int wr, final int hr, final int dr, final int f, final float background) {
+		Arrays.fill(slice, background);
+		if (k < 0 || k >= dr)
+			return;
+		final int w = stack.getWidth();
+		final int h = stack.getHeight();
+		final int zStart = k * f;
+		final int zEnd = Math.min(zStart + f, stack.getSize());
+		if (f == 1) {
+			final Object pixels = stack.getPixels(k + 1);
+			for (int y = 0; y < h; y++) {
+				final int row = (y + 1) * pw + 1;
+				readRow(pixels, y * w, w, slice, row);
+			}
+			return;
+		}
+		final float[] sums = new float[wr * hr];
+		final int[] counts = new int[wr * hr];
+		final float[] row = new float[w];
+		for (int z = zStart; z < zEnd; z++) {
+			final Object pixels = stack.getPixels(z + 1);
+			for (int y = 0; y < h; y++) {
+				readRow(pixels, y * w, w, row, 0);
+				final int jOffset = (y / f) * wr;
+				for (int x = 0; x < w; x++) {
+					final int r = jOffset + x / f;
+					sums[r] += row[x];
+					counts[r]++;
+				}
+			}
+		}
+		for (int j = 0; j < hr; j++) {
+			for (int i = 0; i < wr; i++) {
+				final int r = j * wr + i;
+				slice[(j + 1) * pw + i + 1] = sums[r] / counts[r];
+			}
+		}
+	}
+
+	/**
+	 * Copy a row of pixels into a float array, treating byte and short pixels
+	 * as unsigned.
+	 */
+	private static void readRow(final Object pixels, final int offset, final int length, final float[] out,
+			final int outOffset) {
+		if (pixels instanceof byte[]) {
+			final byte[] p = (byte[]) pixels;
+			for (int x = 0; x < length; x++)
+				out[outOffset + x] = p[offset + x] & 0xff;
+		} else if (pixels instanceof short[]) {
+			final short[] p = (short[]) pixels;
+			for (int x = 0; x < length; x++)
+				out[outOffset + x] = p[offset + x] & 0xffff;
+		} else if (pixels instanceof float[]) {
+			System.arraycopy(pixels, offset, out, outOffset, length);
+		} else {
+			throw new IllegalArgumentException("Unsupported pixel type");
+		}
+	}
+
+	/**
+	 * Find the calibrated position of the isosurface along cube edge e of the
+	 * cube whose lowest corner is (i, j, k). Like MCTriangulator, the position
+	 * is interpolated from the lower-valued corner to the higher one, so
+	 * neighbouring cubes get identical coordinates for the edges they share.
+	 */
+	private void edgePoint(final int e, final int i, final int j, final int k, final float[] values,
+			final float[] points, final float sx, final float sy, final float sz, final float[] origin) {
+		int c0 = EDGES[e][0];
+		int c1 = EDGES[e][1];
+		if (values[c1] < values[c0]) {
+			c0 = EDGES[e][1];
+			c1 = EDGES[e][0];
+		}
+		final float v0 = values[c0];
+		final float v1 = values[c1];
+		float t = 0.5f;
+		if (v1 != v0)
+			t = (float) ((isovalue - v0) / (v1 - v0));
+		final int o = 3 * e;
+		points[o] = (i + (c0 & 1) + t * ((c1 & 1) - (c0 & 1))) * sx + origin[0];
+		points[o + 1] = (j + ((c0 >> 1) & 1) + t * (((c1 >> 1) & 1) - ((c0 >> 1) & 1))) * sy + origin[1];
+		points[o + 2] = (k + ((c0 >> 2) & 1) + t * (((c1 >> 2) & 1) - ((c0 >> 2) & 1))) * sz + origin[2];
+	}
+
+	/**
+	 * Generate the triangulation of every cube configuration
+	 *
+	 * @return edge index triplets for each of the 256 configurations
+	 */
+	private static int[][] makeTriangleTable() {
+		final int[][] edgeIndex = new int[8][8];
+		for (int e = 0; e < 12; e++) {
+			edgeIndex[EDGES[e][0]][EDGES[e][1]] = e;
+			edgeIndex[EDGES[e][1]][EDGES[e][0]] = e;
+		}
+		// corners of each face, anticlockwise when seen from outside
+		final int[][] faces = new int[6][4];
+		for (int axis = 0; axis < 3; axis++) {
+			final int u = 1 << ((axis + 1) % 3);
+			final int v = 1 << ((axis + 2) % 3);
+			final int a = 1 << axis;
+			faces[2 * axis] = new int[] { 0, v, u + v, u };
+			faces[2 * axis + 1] = new int[] { a, a + u, a + u + v, a + v };
+		}
+		final int[][] table = new int[256][];
+		for (int config = 0; config < 256; config++) {
+			// next[e] is the edge that follows edge e around the loop
+			final int[] next = new int[12];
+			Arrays.fill(next, -1);
+			for (final int[] face : faces) {
+				final int[] crossings = new int[4];
+				final boolean[] exits = new boolean[4];
+				int n = 0;
+				for (int c = 0; c < 4; c++) {
+					final int c0 = face[c];
+					final int c1 = face[(c + 1) % 4];
+					final boolean in0 = (config & (1 << c0)) != 0;
+					final boolean in1 = (config & (1 << c1)) != 0;
+					if (in0 != in1) {
+						crossings[n] = edgeIndex[c0][c1];
+						exits[n] = in0;
+						n++;
+					}
+				}
+				// join each exit from the foreground to the entry just
+				// before it, which keeps foreground corners apart on
+				// ambiguous faces
+				for (int c = 0; c < n; c++) {
+					if (exits[c])
+						next[crossings[c]] = crossings[(c + n - 1) % n];
+				}
+			}
+			final List<Integer> triangles = new ArrayList<Integer>();
+			final boolean[] used = new boolean[12];
+			for (int e = 0; e < 12; e++) {
+				if (next[e] < 0 || used[e])
+					continue;
+				final List<Integer> loop = new ArrayList<Integer>();
+				for (int l = e; !used[l]; l = next[l]) {
+					used[l] = true;
+					loop.add(l);
+				}
+				for (int l = 1; l < loop.size() - 1; l++) {
+					triangles.add(loop.get(0));
+					triangles.add(loop.get(l));
+					triangles.add(loop.get(l + 1));
+				}
+			}
+			table[config] = new int[triangles.size()];
+			for (int t = 0; t < triangles.size(); t++)
+				table[config][t] = triangles.get(t);
+		}
+		return table;
+	}
+
+	private static int[] makeEdgeMasks() {
+		final int[] masks = new int[256];
+		for (int config = 0; config < 256; config++) {
+			for (final int e : TRIANGLES[config])
+				masks[config] |= 1 << e;
+		}
+		return masks;
+	}
+}
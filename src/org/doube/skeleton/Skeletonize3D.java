@@ -22,6 +22,7 @@ package org.doube.skeleton;
 import java.util.ArrayList;
 
 import org.doube.util.ImageCheck;
+import org.doube.util.PackedBinaryStack;
 import org.doube.util.UsageReporter;
 
 import ij.IJ;
@@ -63,6 +64,12 @@ import ij.plugin.PlugIn;
  */
 public class Skeletonize3D implements PlugIn {
 
+	/**
+	 * Neighbourhood bits of the north, south, east, west, up and bottom
+	 * neighbours, which are background at border points of each type
+	 */
+	private static final int[] BORDERS = { 1 << 10, 1 << 16, 1 << 14, 1 << 12, 1 << 22, 1 << 4 };
+
 	public void run(final String run) {
 		if (!ImageCheck.checkEnvironment())
 			return;
@@ -167,12 +174,17 @@ public class Skeletonize3D implements PlugIn {
 		final int h = outputImage.getHeight();
 		final int d = outputImage.getSize();
 
+		// thin a bit-packed copy, whose neighbourhoods are read a row at a time
+		final PackedBinaryStack volume = new PackedBinaryStack(outputImage, 1);
+
 		final ArrayList<int[]> simpleBorderPoints = new ArrayList<int[]>();
 
 		// Prepare Euler LUT [Lee94]
 		final int eulerLUT[] = new int[256];
 		fillEulerLUT(eulerLUT);
 
+		final byte[] neighbor = new byte[27];
+
 		int iter = 1;
 
 		// Loop through the image several times until there is no change.
@@ -183,63 +195,38 @@ public class Skeletonize3D implements PlugIn {
 			unchangedBorders = 0;
 			for (int currentBorder = 1; currentBorder <= 6; currentBorder++) {
 				IJ.showStatus("Thinning iteration " + iter + " (" + currentBorder + "/6 borders) ...");
+				final int border = BORDERS[currentBorder - 1];
 
 				// Loop through the image.
 				for (int z = 0; z < d; z++) {
+					if (volume.isEmpty(z))
+						continue;
 					for (int y = 0; y < h; y++) {
 						for (int x = 0; x < w; x++) {
 							// check if point is foreground
-							if (getPixel(outputImage, x, y, z, w, h, d) != 1) {
+							if (!volume.get(x, y, z)) {
 								continue; // current point is already background
 							}
+							final int neighborhood = volume.getNeighbourhood(x, y, z);
 							// check 6-neighbors if point is a border point of
 							// type currentBorder
-							boolean isBorderPoint = false;
-							// North
-							if (currentBorder == 1 && N(outputImage, x, y, z, w, h, d) <= 0)
-								isBorderPoint = true;
-							// South
-							if (currentBorder == 2 && S(outputImage, x, y, z, w, h, d) <= 0)
-								isBorderPoint = true;
-							// East
-							if (currentBorder == 3 && E(outputImage, x, y, z, w, h, d) <= 0)
-								isBorderPoint = true;
-							// West
-							if (currentBorder == 4 && W(outputImage, x, y, z, w, h, d) <= 0)
-								isBorderPoint = true;
-							// Up
-							if (currentBorder == 5 && U(outputImage, x, y, z, w, h, d) <= 0)
-								isBorderPoint = true;
-							// Bottom
-							if (currentBorder == 6 && B(outputImage, x, y, z, w, h, d) <= 0)
-								isBorderPoint = true;
-
-							if (!isBorderPoint) {
+							if ((neighborhood & border) != 0) {
 								continue; // current point is not deletable
 							}
 
 							// check if point is the end of an arc
-							int numberOfNeighbors = -1; // -1 and not 0 because
-														// the center pixel will
-														// be counted as well
-							final byte[] neighbor = getNeighborhood(outputImage, x, y, z, w, h, d);
-							for (int i = 0; i < 27; i++) // i = 0..26
-							{
-								if (neighbor[i] == 1)
-									numberOfNeighbors++;
-							}
-
-							if (numberOfNeighbors == 1) {
+							if (PackedBinaryStack.countNeighbours(neighborhood, PackedBinaryStack.N26) == 1) {
 								continue; // current point is not deletable
 							}
 
+							PackedBinaryStack.toArray(neighborhood, neighbor);
 							// Check if point is Euler invariant
-							if (!isEulerInvariant(getNeighborhood(outputImage, x, y, z, w, h, d), eulerLUT)) {
+							if (!isEulerInvariant(neighbor, eulerLUT)) {
 								continue; // current point is not deletable
 							}
 							// Check if point is simple (deletion does not
 							// change connectivity in the 3x3x3 neighborhood)
-							if (!isSimplePoint(getNeighborhood(outputImage, x, y, z, w, h, d))) {
+							if (!isSimplePoint(neighbor)) {
 								continue; // current point is not deletable
 							}
 							// add all simple border points to a list for
@@ -261,12 +248,13 @@ public class Skeletonize3D implements PlugIn {
 				for (int i = 0; i < simpleBorderPoints.size(); i++) {
 					index = simpleBorderPoints.get(i);
 					// 1. Set simple border point to 0
-					setPixel(outputImage, index[0], index[1], index[2], w, h, d, (byte) 0);
+					volume.set(index[0], index[1], index[2], false);
 
 					// 2. Check if neighborhood is still connected
-					if (!isSimplePoint(getNeighborhood(outputImage, index[0], index[1], index[2], w, h, d))) {
+					if (!isSimplePoint(PackedBinaryStack
+							.toArray(volume.getNeighbourhood(index[0], index[1], index[2]), neighbor))) {
 						// we cannot delete current point, so reset
-						setPixel(outputImage, index[0], index[1], index[2], w, h, d, (byte) 1);
+						volume.set(index[0], index[1], index[2], true);
 					} else {
 						noChange = false;
 					}
@@ -274,22 +262,14 @@ public class Skeletonize3D implements PlugIn {
 				if (noChange)
 					unchangedBorders++;
 
-				// IJ.write("# simple border points = " +
-				// simpleBorderPoints.size());
-				/*
-				 * if(index != null) IJ.write("# last point = [" + index[0] +
-				 * ", " + index[1] + "," + index[2]+ "]"); else IJ.write(
-				 * "# last point = [0, 0, 0]");
-				 */
 				simpleBorderPoints.clear();
-				// IJ.write("# simple border points = " +
-				// simpleBorderPoints.size() + "\n");
 
 			} // end currentBorder for loop
 
 			// Progress bar iterations
 			iter++;
 		}
+		volume.copyTo(outputImage, 1);
 
 		// IJ.write("Compute Thin Image End");
 		IJ.showStatus("Computed thin image.");
@@ -298,238 +278,6 @@ public class Skeletonize3D implements PlugIn {
 		return impOut;
 	} /* end computeThinImage */
 
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * Get neighborhood of a pixel in a 3D image (0 border conditions)
-	 *
-	 * @param image
-	 *            3D image (ImageStack)
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding 27-pixels neighborhood (0 if out of image)
-	 */
-	private byte[] getNeighborhood(final ImageStack image, final int x, final int y, final int z, final int w,
-			final int h, final int d) {
-		final byte[] neighborhood = new byte[27];
-
-		neighborhood[0] = getPixel(image, x - 1, y - 1, z - 1, w, h, d);
-		neighborhood[1] = getPixel(image, x, y - 1, z - 1, w, h, d);
-		neighborhood[2] = getPixel(image, x + 1, y - 1, z - 1, w, h, d);
-
-		neighborhood[3] = getPixel(image, x - 1, y, z - 1, w, h, d);
-		neighborhood[4] = getPixel(image, x, y, z - 1, w, h, d);
-		neighborhood[5] = getPixel(image, x + 1, y, z - 1, w, h, d);
-
-		neighborhood[6] = getPixel(image, x - 1, y + 1, z - 1, w, h, d);
-		neighborhood[7] = getPixel(image, x, y + 1, z - 1, w, h, d);
-		neighborhood[8] = getPixel(image, x + 1, y + 1, z - 1, w, h, d);
-
-		neighborhood[9] = getPixel(image, x - 1, y - 1, z, w, h, d);
-		neighborhood[10] = getPixel(image, x, y - 1, z, w, h, d);
-		neighborhood[11] = getPixel(image, x + 1, y - 1, z, w, h, d);
-
-		neighborhood[12] = getPixel(image, x - 1, y, z, w, h, d);
-		neighborhood[13] = getPixel(image, x, y, z, w, h, d);
-		neighborhood[14] = getPixel(image, x + 1, y, z, w, h, d);
-
-		neighborhood[15] = getPixel(image, x - 1, y + 1, z, w, h, d);
-		neighborhood[16] = getPixel(image, x, y + 1, z, w, h, d);
-		neighborhood[17] = getPixel(image, x + 1, y + 1, z, w, h, d);
-
-		neighborhood[18] = getPixel(image, x - 1, y - 1, z + 1, w, h, d);
-		neighborhood[19] = getPixel(image, x, y - 1, z + 1, w, h, d);
-		neighborhood[20] = getPixel(image, x + 1, y - 1, z + 1, w, h, d);
-
-		neighborhood[21] = getPixel(image, x - 1, y, z + 1, w, h, d);
-		neighborhood[22] = getPixel(image, x, y, z + 1, w, h, d);
-		neighborhood[23] = getPixel(image, x + 1, y, z + 1, w, h, d);
-
-		neighborhood[24] = getPixel(image, x - 1, y + 1, z + 1, w, h, d);
-		neighborhood[25] = getPixel(image, x, y + 1, z + 1, w, h, d);
-		neighborhood[26] = getPixel(image, x + 1, y + 1, z + 1, w, h, d);
-
-		return neighborhood;
-	} /* end getNeighborhood */
-
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * Get pixel in 3D image (0 border conditions)
-	 *
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding pixel (0 if out of image)
-	 */
-	private byte getPixel(final ImageStack image, final int x, final int y, final int z, final int w, final int h,
-			final int d) {
-		if (x >= 0 && x < w && y >= 0 && y < h && z >= 0 && z < d)
-			return ((byte[]) image.getPixels(z + 1))[x + y * w];
-		else
-			return 0;
-	} /* end getPixel */
-
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * Set pixel in 3D image
-	 *
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @param value
-	 *            pixel value
-	 */
-	private void setPixel(final ImageStack image, final int x, final int y, final int z, final int w, final int h,
-			final int d, final byte value) {
-		if (x >= 0 && x < w && y >= 0 && y < h && z >= 0 && z < d)
-			((byte[]) image.getPixels(z + 1))[x + y * w] = value;
-	} /* end getPixel */
-
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * North neighborhood (0 border conditions)
-	 *
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding north pixel
-	 */
-	private byte N(final ImageStack image, final int x, final int y, final int z, final int w, final int h,
-			final int d) {
-		return getPixel(image, x, y - 1, z, w, h, d);
-	} /* end N */
-
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * South neighborhood (0 border conditions)
-	 *
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding south pixel
-	 */
-	private byte S(final ImageStack image, final int x, final int y, final int z, final int w, final int h,
-			final int d) {
-		return getPixel(image, x, y + 1, z, w, h, d);
-	} /* end S */
-
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * East neighborhood (0 border conditions)
-	 *
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding east pixel
-	 */
-	private byte E(final ImageStack image, final int x, final int y, final int z, final int w, final int h,
-			final int d) {
-		return getPixel(image, x + 1, y, z, w, h, d);
-	} /* end E */
-
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * West neighborhood (0 border conditions)
-	 *
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding west pixel
-	 */
-	private byte W(final ImageStack image, final int x, final int y, final int z, final int w, final int h,
-			final int d) {
-		return getPixel(image, x - 1, y, z, w, h, d);
-	} /* end W */
-
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * Up neighborhood (0 border conditions)
-	 *
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding up pixel
-	 */
-	private byte U(final ImageStack image, final int x, final int y, final int z, final int w, final int h,
-			final int d) {
-		return getPixel(image, x, y, z + 1, w, h, d);
-	} /* end U */
-
-	/*
-	 * -----------------------------------------------------------------------
-	 */
-	/**
-	 * Bottom neighborhood (0 border conditions)
-	 *
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding bottom pixel
-	 */
-	private byte B(final ImageStack image, final int x, final int y, final int z, final int w, final int h,
-			final int d) {
-		return getPixel(image, x, y, z - 1, w, h, d);
-	} /* end N */
-
 	/*
 	 * -----------------------------------------------------------------------
 	 */
@@ -19,7 +19,6 @@ package org.doube.util;
  */
 
 import ij.ImagePlus;
-import ij.measure.ResultsTable;
 
 /**
  * Receive results from analytic methods and insert them into the Results table
@@ -29,21 +28,23 @@ import ij.measure.ResultsTable;
  * Each image gets a line; measurements of different types are added to the same
  * line; repeat measurements on same image go on a new line.
  * </p>
+ * <p>
+ * Values are passed to the system table's {@link ResultsSink}, which new code
+ * should use directly.
+ * </p>
  *
  * @author Michael Doube
  *
  */
 public class ResultInserter {
 	public static final ResultInserter INSTANCE = new ResultInserter();
-	private static ResultsTable rt;
+	private static ResultsSink sink;
 
 	private ResultInserter() {
 	}
 
 	public static ResultInserter getInstance() {
-		rt = ResultsTable.getResultsTable();
-		final String table = "Results";
-		rt.setNaNEmptyCells(true);
+		sink = ResultsSink.getInstance();
 		return INSTANCE;
 	}
 
@@ -58,43 +59,14 @@ public class ResultInserter {
 	 * @param value
 	 *            value to insert
 	 */
-	// TODO use a table other than the system Results table
 	public void setResultInRow(final ImagePlus imp, final String colHeading, final double value) {
-		final String title = imp.getTitle();
-
-		// search for the first row that contains the image title
-		// and contains no value for the heading
-		for (int row = 0; row < rt.getCounter(); row++) {
-			if (rt.getLabel(row) == null) {
-				rt.setLabel(title, row);
-			}
-			if (rt.getLabel(row).equals(title)) {
-				// there could be no column called colHeading
-				if (!rt.columnExists(rt.getColumnIndex(colHeading))) {
-					// in which case, just insert the value
-					rt.setValue(colHeading, row, value);
-					return;
-				}	// but if there is, it might or might not have data in it
-				final Double currentValue = rt.getValue(colHeading, row);
-				if (currentValue.equals(Double.NaN)) {
-					rt.setValue(colHeading, row, value);
-					return;
-				}
-					// look for another row with the right title
-			}
-		}
-		// we got to the end of the table without finding a space to insert
-		// the value, so make a new row for it
-		rt.incrementCounter();
-		rt.addLabel(title);
-		rt.addValue(colHeading, value);
+		sink.setResultInRow(imp, colHeading, value);
 	}
 
 	/**
 	 * Show the table
 	 */
 	public void updateTable() {
-		final String table = "Results";
-		rt.show(table);
+		sink.updateTable();
 	}
 }
@@ -0,0 +1,309 @@
+package org.doube.util;
+
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+
+/**
+ * Collects results from analytic methods and places them in a ResultsTable in
+ * the same way as {@link ResultInserter}: each image gets a row, measurements
+ * of different types are added to the same row and repeat measurements on the
+ * same image go on a new row.
+ *
+ * <p>
+ * Rather than scanning the table for every value, the sink keeps an index of
+ * each image title's rows and of the first free row of each title's columns,
+ * so that inserting is constant time. Inserts may come from several threads.
+ * Values are held until {@link #updateTable()}, which writes them to the table
+ * and shows it, or {@link #writeCSV(Writer)}, which streams the table without
+ * showing it.
+ * </p>
+ */
+public class ResultsSink {
+
+	private static ResultsSink instance;
+
+	/** Value waiting to be written to the table */
+	private static class Cell {
+		final String title;
+		final String heading;
+		final double value;
+		final int row;
+		/** placed by title rather than in a row made by addRow */
+		final boolean byTitle;
+
+		Cell(final String title, final String heading, final double value, final int row, final boolean byTitle) {
+			this.title = title;
+			this.heading = heading;
+			this.value = value;
+			this.row = row;
+			this.byTitle = byTitle;
+		}
+	}
+
+	private final boolean system;
+	private ResultsTable rt;
+	/** number of the table's rows known to the index */
+	private int tableRows;
+	/** labels of rows added since the last flush */
+	private final List<String> newLabels = new ArrayList<String>();
+	private final Map<String, List<Integer>> rowsByTitle = new HashMap<String, List<Integer>>();
+	/** position in rowsByTitle at which to look for the first free row */
+	private final Map<String, Integer> nextFree = new HashMap<String, Integer>();
+	/** rows with a value waiting for each heading */
+	private final Map<String, BitSet> pendingRows = new HashMap<String, BitSet>();
+	private final List<Cell> pending = new ArrayList<Cell>();
+
+	/**
+	 * Create a sink with its own table, for use without a GUI. Its results are
+	 * read with {@link #writeCSV(Writer)} or {@link #getTable()}.
+	 */
+	public ResultsSink() {
+		system = false;
+		rt = new ResultsTable();
+		index();
+	}
+
+	private ResultsSink(final boolean system) {
+		this.system = system;
+		rt = ResultsTable.getResultsTable();
+		index();
+	}
+
+	/**
+	 * Get the sink of the system Results table, reindexing it if it has been
+	 * changed by something else since the sink last wrote to it
+	 *
+	 * @return the sink
+	 */
+	public static synchronized ResultsSink getInstance() {
+		if (instance == null)
+			instance = new ResultsSink(true);
+		else
+			instance.synchronise();
+		return instance;
+	}
+
+	/* Follow changes made to the table by anything other than this sink */
+	private synchronized void synchronise() {
+		final ResultsTable current = system ? ResultsTable.getResultsTable() : rt;
+		if (current != rt || current.getCounter() != tableRows) {
+			rt = current;
+			final List<Cell> replay = new ArrayList<Cell>(pending);
+			index();
+			replay(replay);
+		}
+	}
+
+	private void index() {
+		rt.setNaNEmptyCells(true);
+		tableRows = rt.getCounter();
+		newLabels.clear();
+		rowsByTitle.clear();
+		nextFree.clear();
+		pendingRows.clear();
+		pending.clear();
+		for (int row = 0; row < tableRows; row++) {
+			final String label = rt.getLabel(row);
+			if (label != null)
+				rows(label).add(row);
+		}
+	}
+
+	private void replay(final List<Cell> cells) {
+		final Map<Integer, Integer> newRows = new HashMap<Integer, Integer>();
+		for (final Cell cell : cells) {
+			if (cell.byTitle) {
+				setResultInRow(cell.title, cell.heading, cell.value);
+				continue;
+			}
+			Integer row = newRows.get(cell.row);
+			if (row == null) {
+				row = addRow(cell.title);
+				newRows.put(cell.row, row);
+			}
+			setResult(row, cell.heading, cell.value);
+		}
+	}
+
+	private List<Integer> rows(final String title) {
+		List<Integer> rows = rowsByTitle.get(title);
+		if (rows == null) {
+			rows = new ArrayList<Integer>();
+			rowsByTitle.put(title, rows);
+		}
+		return rows;
+	}
+
+	/* true if the cell holds a value, which NaN does not count as */
+	private boolean isSet(final int row, final String heading) {
+		final BitSet waiting = pendingRows.get(heading);
+		if (waiting != null && waiting.get(row))
+			return true;
+		if (row >= tableRows)
+			return false;
+		final int column = rt.getColumnIndex(heading);
+		return rt.columnExists(column) && !Double.isNaN(rt.getValueAsDouble(column, row));
+	}
+
+	/**
+	 * Put a value in the first row for the image which has no value under the
+	 * heading, adding a row if there is none
+	 *
+	 * @param imp
+	 *            image the value was measured on
+	 * @param heading
+	 *            column heading
+	 * @param value
+	 *            value to insert
+	 */
+	public void setResultInRow(final ImagePlus imp, final String heading, final double value) {
+		setResultInRow(imp.getTitle(), heading, value);
+	}
+
+	/**
+	 * Put a value in the first row labelled with a title which has no value
+	 * under the heading, adding a row if there is none
+	 *
+	 * @param title
+	 *            row label
+	 * @param heading
+	 *            column heading
+	 * @param value
+	 *            value to insert
+	 */
+	public synchronized void setResultInRow(final String title, final String heading, final double value) {
+		final List<Integer> rows = rows(title);
+		final String key = title + "\n" + heading;
+		final Integer next = nextFree.get(key);
+		int position = next == null ? 0 : next;
+		while (position < rows.size() && isSet(rows.get(position), heading))
+			position++;
+		final int row = position < rows.size() ? rows.get(position) : addRow(title);
+		// NaN leaves the cell free, as it would be in the table
+		nextFree.put(key, Double.isNaN(value) ? position : position + 1);
+		put(new Cell(title, heading, value, row, true));
+	}
+
+	/**
+	 * Add a row, for results which should not be merged into an earlier row
+	 * for the same image
+	 *
+	 * @param title
+	 *            row label
+	 * @return the new row, for {@link #setResult(int, String, double)}
+	 */
+	public synchronized int addRow(final String title) {
+		final int row = tableRows + newLabels.size();
+		newLabels.add(title);
+		rows(title).add(row);
+		return row;
+	}
+
+	/**
+	 * Put a value in a row made by {@link #addRow(String)}
+	 *
+	 * @param row
+	 * @param heading
+	 *            column heading
+	 * @param value
+	 */
+	public synchronized void setResult(final int row, final String heading, final double value) {
+		if (row < tableRows || row >= tableRows + newLabels.size())
+			throw new IllegalArgumentException("Row " + row + " was not added to this sink");
+		put(new Cell(newLabels.get(row - tableRows), heading, value, row, false));
+	}
+
+	private void put(final Cell cell) {
+		pending.add(cell);
+		if (Double.isNaN(cell.value))
+			return;
+		BitSet waiting = pendingRows.get(cell.heading);
+		if (waiting == null) {
+			waiting = new BitSet();
+			pendingRows.put(cell.heading, waiting);
+		}
+		waiting.set(cell.row);
+	}
+
+	/* Write the waiting values to the table */
+	private void flush() {
+		synchronise();
+		for (final String label : newLabels) {
+			rt.incrementCounter();
+			rt.addLabel(label);
+		}
+		for (final Cell cell : pending)
+			rt.setValue(cell.heading, cell.row, cell.value);
+		tableRows = rt.getCounter();
+		newLabels.clear();
+		pendingRows.clear();
+		pending.clear();
+	}
+
+	/**
+	 * Write the results to the table and show it, unless there is no GUI or
+	 * the sink has its own table
+	 */
+	public synchronized void updateTable() {
+		flush();
+		if (system && !GraphicsEnvironment.isHeadless())
+			rt.show("Results");
+	}
+
+	/**
+	 * Remove all rows from the table, including values not yet written to it
+	 */
+	public synchronized void reset() {
+		rt.reset();
+		index();
+	}
+
+	/** @return the table, with all results written to it */
+	public synchronized ResultsTable getTable() {
+		flush();
+		return rt;
+	}
+
+	/**
+	 * Write the table as CSV, with a header row of column headings and a row
+	 * per table row
+	 *
+	 * @param out
+	 * @throws IOException
+	 *             if out cannot be written
+	 */
+	public synchronized void writeCSV(final Writer out) throws IOException {
+		flush();
+		final int last = rt.getLastColumn();
+		final StringBuilder line = new StringBuilder("Label");
+		for (int column = 0; column <= last; column++)
+			if (rt.columnExists(column))
+				line.append(',').append(quote(rt.getColumnHeading(column)));
+		out.write(line.append('\n').toString());
+		for (int row = 0; row < rt.getCounter(); row++) {
+			line.setLength(0);
+			final String label = rt.getLabel(row);
+			line.append(quote(label == null ? "" : label));
+			for (int column = 0; column <= last; column++)
+				if (rt.columnExists(column))
+					line.append(',').append(rt.getValueAsDouble(column, row));
+			out.write(line.append('\n').toString());
+		}
+		out.flush();
+	}
+
+	private static String quote(final String field) {
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0)
+			return field;
+		return '"' + field.replace("\"", "\"\"") + '"';
+	}
+}
@@ -1,15 +1,111 @@
 package org.doube.util;
 
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
+import ij.ImageListener;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.gui.Roi;
-import ij.process.FloatProcessor;
+import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 
+/**
+ * Whole-stack statistics. Histogram, minimum, maximum, mean and variance are
+ * found together in one parallel pass over the stack. Results for displayed
+ * images are cached, so plugins asking about the same image and ROI share the
+ * result. Cached values are dropped when the image is updated or closed; code
+ * which changes a displayed image's pixels without calling updateAndDraw()
+ * should call {@link #invalidate(ImagePlus)}. Images without a window, as in
+ * batch and headless use, get no update events and so are never cached.
+ */
 public class StackStats {
+
+	/** Maximum number of cached results */
+	private static final int CACHE_SIZE = 16;
+
+	private static final Map<Key, Statistics> cache = new LinkedHashMap<Key, Statistics>(CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, Statistics> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/** Number of times each image, by ID, has been updated */
+	private static final Map<Integer, Integer> modifications = new HashMap<Integer, Integer>();
+
+	private static boolean listening;
+
+	/**
+	 * Immutable summary of the pixel values in a stack
+	 */
+	public static final class Statistics {
+		private final int[] histogram;
+		private final long pixelCount;
+		private final double min;
+		private final double max;
+		private final double mean;
+		private final double variance;
+
+		private Statistics(final int[] histogram, final long pixelCount, final double min, final double max,
+				final double mean, final double variance) {
+			this.histogram = histogram;
+			this.pixelCount = pixelCount;
+			this.min = min;
+			this.max = max;
+			this.mean = mean;
+			this.variance = variance;
+		}
+
+		/**
+		 * @return a copy of the histogram of raw pixel values, or null for
+		 *         32-bit images
+		 */
+		public int[] getHistogram() {
+			return histogram == null ? null : histogram.clone();
+		}
+
+		/** @return number of pixels measured */
+		public long getPixelCount() {
+			return pixelCount;
+		}
+
+		/** @return smallest pixel value, or NaN if no pixels were measured */
+		public double getMin() {
+			return min;
+		}
+
+		/** @return largest pixel value, or NaN if no pixels were measured */
+		public double getMax() {
+			return max;
+		}
+
+		/** @return mean pixel value */
+		public double getMean() {
+			return mean;
+		}
+
+		/** @return population variance of the pixel values */
+		public double getVariance() {
+			return variance;
+		}
+
+		/** @return population standard deviation of the pixel values */
+		public double getStdDev() {
+			return Math.sqrt(variance);
+		}
+	}
+
 	/**
 	 * Work out some summary stats
 	 *
@@ -20,86 +116,337 @@ public class StackStats {
 	 *
 	 */
 	public static double[] meanStdDev(final ImagePlus imp) {
-		final int w = imp.getWidth();
-		final int h = imp.getHeight();
-		final int d = imp.getStackSize();
-		final int wh = w * h;
-		final ImageStack stack = imp.getStack();
-		long pixCount = 0;
-		double sumThick = 0;
-		double maxThick = 0;
-
-		for (int s = 1; s <= d; s++) {
-			final float[] slicePixels = (float[]) stack.getPixels(s);
-			for (int p = 0; p < wh; p++) {
-				final double pixVal = slicePixels[p];
-				if (pixVal > 0) {
-					sumThick += pixVal;
-					maxThick = Math.max(maxThick, pixVal);
-					pixCount++;
-				}
-			}
-		}
-		final double meanThick = sumThick / pixCount;
-
-		double sumSquares = 0;
-		for (int s = 1; s <= d; s++) {
-			final float[] slicePixels = (float[]) stack.getPixels(s);
-			for (int p = 0; p < wh; p++) {
-				final double pixVal = slicePixels[p];
-				if (pixVal > 0) {
-					final double residual = meanThick - pixVal;
-					sumSquares += residual * residual;
-				}
-			}
-		}
-		final double stDev = Math.sqrt(sumSquares / pixCount);
-		final double[] stats = { meanThick, stDev, maxThick };
+		// only foreground (positive) pixels of the whole stack are measured
+		final Statistics s = getStatistics(imp, null, true);
+		final double max = s.getPixelCount() == 0 ? 0 : s.getMax();
+		final double[] stats = { s.getMean(), s.getStdDev(), max };
 		return stats;
 	}
 
 	/**
 	 * Get a histogram of stack's pixel values
 	 *
-	 * @param imp2
-	 * @return
+	 * @param imp
+	 * @return histogram of raw pixel values within the image's area ROI
 	 */
 	public static int[] getStackHistogram(final ImagePlus imp) {
-		final int d = imp.getStackSize();
-		final ImageStack stack = imp.getStack();
-		if (stack.getProcessor(1) instanceof FloatProcessor)
+		if (imp.getBitDepth() == 32)
 			throw new IllegalArgumentException("32-bit images not supported by this histogram method");
-		final int[][] sliceHistograms = new int[d + 1][];
-		final Roi roi = imp.getRoi();
-		if (stack.getSize() == 1) {
-			return imp.getProcessor().getHistogram();
+		return getStatistics(imp).getHistogram();
+	}
+
+	/**
+	 * Get statistics of the stack's pixel values within the image's area ROI
+	 * (the whole image if there is none), from the cache if possible. RGB
+	 * images are measured by luminance.
+	 *
+	 * @param imp
+	 * @return stack statistics
+	 */
+	public static Statistics getStatistics(final ImagePlus imp) {
+		return getStatistics(imp, imp.getRoi(), false);
+	}
+
+	/**
+	 * Forget any cached statistics of an image. Call after changing its pixels
+	 * without calling updateAndDraw().
+	 *
+	 * @param imp
+	 */
+	public static void invalidate(final ImagePlus imp) {
+		synchronized (cache) {
+			final Integer id = imp.getID();
+			final Integer n = modifications.get(id);
+			modifications.put(id, n == null ? 1 : n + 1);
+			removeImage(id);
 		}
+	}
+
+	private static Statistics getStatistics(final ImagePlus imp, Roi roi, final boolean positiveOnly) {
+		if (roi != null && !roi.isArea())
+			roi = null;
+		if (imp.getWindow() == null)
+			return compute(imp, roi, positiveOnly);
+		final Key key;
+		synchronized (cache) {
+			listen();
+			final Integer n = modifications.get(imp.getID());
+			key = new Key(imp, n == null ? 0 : n, roi, positiveOnly);
+			final Statistics stats = cache.get(key);
+			if (stats != null)
+				return stats;
+		}
+		final Statistics stats = compute(imp, roi, positiveOnly);
+		synchronized (cache) {
+			cache.put(key, stats);
+		}
+		return stats;
+	}
+
+	/** Start listening for image updates and closures, if not yet doing so */
+	private static void listen() {
+		if (listening)
+			return;
+		ImagePlus.addImageListener(new ImageListener() {
+			public void imageOpened(final ImagePlus imp) {
+			}
+
+			public void imageClosed(final ImagePlus imp) {
+				synchronized (cache) {
+					modifications.remove(imp.getID());
+					removeImage(imp.getID());
+				}
+			}
+
+			public void imageUpdated(final ImagePlus imp) {
+				invalidate(imp);
+			}
+		});
+		listening = true;
+	}
+
+	private static void removeImage(final int id) {
+		final Iterator<Key> keys = cache.keySet().iterator();
+		while (keys.hasNext())
+			if (keys.next().id == id)
+				keys.remove();
+	}
+
+	/**
+	 * Measure the stack in one parallel pass. Each slice is summarised by its
+	 * pixel count, mean and sum of squared deviations, which are merged in
+	 * slice order so the result does not depend on thread scheduling.
+	 */
+	private static Statistics compute(final ImagePlus imp, final Roi roi, final boolean positiveOnly) {
+		final int w = imp.getWidth();
+		final int h = imp.getHeight();
+		final int d = imp.getStackSize();
+		final int bitDepth = imp.getBitDepth();
+		final ImageStack stack = imp.getStack();
+
+		// clip the ROI to the image, keeping track of the mask's offset
+		final Rectangle bounds = roi == null ? new Rectangle(0, 0, w, h)
+				: roi.getBounds().intersection(new Rectangle(0, 0, w, h));
+		final ImageProcessor maskIp = roi == null ? null : roi.getMask();
+		final byte[] mask = maskIp == null ? null : (byte[]) maskIp.getPixels();
+		final int maskWidth = maskIp == null ? 0 : maskIp.getWidth();
+		final int maskX = roi == null ? 0 : bounds.x - roi.getBounds().x;
+		final int maskY = roi == null ? 0 : bounds.y - roi.getBounds().y;
+
+		final int nBins = bitDepth == 16 ? 65536 : 256;
+		final boolean integer = bitDepth != 32;
+		final long[] sliceCount = new long[d + 1];
+		final double[] sliceMean = new double[d + 1];
+		final double[] sliceM2 = new double[d + 1];
+		final double[] sliceMin = new double[d + 1];
+		final double[] sliceMax = new double[d + 1];
+		final List<int[]> histograms = new ArrayList<int[]>();
 
 		final AtomicInteger ai = new AtomicInteger(1);
 		final Thread[] threads = Multithreader.newThreads();
 		for (int thread = 0; thread < threads.length; thread++) {
 			threads[thread] = new Thread(new Runnable() {
 				public void run() {
+					final int[] histogram = integer ? new int[nBins] : null;
+					final int[] sliceHistogram = integer ? new int[nBins] : null;
 					for (int z = ai.getAndIncrement(); z <= d; z = ai.getAndIncrement()) {
-						IJ.showStatus("Getting stack histogram...");
+						IJ.showStatus("Getting stack statistics...");
 						final ImageProcessor ip = stack.getProcessor(z);
-						ip.setRoi(roi);
-						sliceHistograms[z] = ip.getHistogram();
+						if (integer) {
+							if (ip instanceof ColorProcessor) {
+								ip.setRoi(roi);
+								System.arraycopy(ip.getHistogram(), 0, sliceHistogram, 0, nBins);
+							} else {
+								Arrays.fill(sliceHistogram, 0);
+								histogram(ip.getPixels(), w, bounds, mask, maskWidth, maskX, maskY, sliceHistogram);
+							}
+							if (positiveOnly)
+								sliceHistogram[0] = 0;
+							summarise(sliceHistogram, z, sliceCount, sliceMean, sliceM2, sliceMin, sliceMax);
+							for (int i = 0; i < nBins; i++)
+								histogram[i] += sliceHistogram[i];
+						} else {
+							summarise((float[]) ip.getPixels(), w, bounds, mask, maskWidth, maskX, maskY,
+									positiveOnly, z, sliceCount, sliceMean, sliceM2, sliceMin, sliceMax);
+						}
+					}
+					if (integer) {
+						synchronized (histograms) {
+							histograms.add(histogram);
+						}
 					}
 				}
 			});
 		}
 		Multithreader.startAndJoin(threads);
 
-		final int l = sliceHistograms[1].length;
-		final int[] histogram = new int[l];
+		int[] histogram = null;
+		if (integer) {
+			histogram = new int[nBins];
+			for (final int[] partial : histograms)
+				for (int i = 0; i < nBins; i++)
+					histogram[i] += partial[i];
+		}
 
+		// Chan et al.'s pairwise combination of count, mean and M2
+		long n = 0;
+		double mean = 0;
+		double m2 = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
 		for (int z = 1; z <= d; z++) {
-			final int[] slice = sliceHistograms[z];
-			for (int i = 0; i < l; i++)
-				histogram[i] += slice[i];
+			final long nz = sliceCount[z];
+			if (nz == 0)
+				continue;
+			final long nNew = n + nz;
+			final double delta = sliceMean[z] - mean;
+			mean += delta * nz / nNew;
+			m2 += sliceM2[z] + delta * delta * ((double) n * nz / nNew);
+			n = nNew;
+			min = Math.min(min, sliceMin[z]);
+			max = Math.max(max, sliceMax[z]);
+		}
+		if (n == 0)
+			return new Statistics(histogram, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+		return new Statistics(histogram, n, min, max, mean, m2 / n);
+	}
+
+	/** Add a byte or short slice's pixels within the bounds and mask */
+	private static void histogram(final Object pixels, final int w, final Rectangle bounds, final byte[] mask,
+			final int maskWidth, final int maskX, final int maskY, final int[] histogram) {
+		final byte[] bytes = pixels instanceof byte[] ? (byte[]) pixels : null;
+		final short[] shorts = pixels instanceof short[] ? (short[]) pixels : null;
+		for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+			final int row = y * w;
+			final int maskRow = (y - bounds.y + maskY) * maskWidth + maskX - bounds.x;
+			for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+				if (mask != null && mask[maskRow + x] == 0)
+					continue;
+				if (bytes != null)
+					histogram[bytes[row + x] & 0xff]++;
+				else
+					histogram[shorts[row + x] & 0xffff]++;
+			}
 		}
-		return histogram;
 	}
 
+	/** Summarise a slice from its histogram */
+	private static void summarise(final int[] histogram, final int z, final long[] count, final double[] mean,
+			final double[] m2, final double[] min, final double[] max) {
+		long n = 0;
+		double sum = 0;
+		int lo = -1;
+		int hi = -1;
+		for (int i = 0; i < histogram.length; i++) {
+			final int c = histogram[i];
+			if (c == 0)
+				continue;
+			if (lo < 0)
+				lo = i;
+			hi = i;
+			n += c;
+			sum += (double) i * c;
+		}
+		count[z] = n;
+		if (n == 0)
+			return;
+		final double m = sum / n;
+		double sumSquares = 0;
+		for (int i = lo; i <= hi; i++) {
+			final double residual = i - m;
+			sumSquares += residual * residual * histogram[i];
+		}
+		mean[z] = m;
+		m2[z] = sumSquares;
+		min[z] = lo;
+		max[z] = hi;
+	}
+
+	/** Summarise a float slice with Welford's running mean and M2 */
+	private static void summarise(final float[] pixels, final int w, final Rectangle bounds, final byte[] mask,
+			final int maskWidth, final int maskX, final int maskY, final boolean positiveOnly, final int z,
+			final long[] count, final double[] mean, final double[] m2, final double[] min, final double[] max) {
+		long n = 0;
+		double m = 0;
+		double s = 0;
+		double lo = Double.POSITIVE_INFINITY;
+		double hi = Double.NEGATIVE_INFINITY;
+		for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+			final int row = y * w;
+			final int maskRow = (y - bounds.y + maskY) * maskWidth + maskX - bounds.x;
+			for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+				if (mask != null && mask[maskRow + x] == 0)
+					continue;
+				final double value = pixels[row + x];
+				if (positiveOnly ? !(value > 0) : Double.isNaN(value))
+					continue;
+				n++;
+				final double delta = value - m;
+				m += delta / n;
+				s += delta * (value - m);
+				if (value < lo)
+					lo = value;
+				if (value > hi)
+					hi = value;
+			}
+		}
+		count[z] = n;
+		mean[z] = m;
+		m2[z] = s;
+		min[z] = lo;
+		max[z] = hi;
+	}
+
+	/**
+	 * Identifies a measurement: which image, how many times it has been
+	 * updated, its size and the identity of its first slice's pixel array (to
+	 * spot replaced stacks), the ROI and whether only positive pixels were measured.
+	 */
+	private static final class Key {
+		private final int id;
+		private final int modification;
+		private final int width;
+		private final int height;
+		private final int depth;
+		private final int bitDepth;
+		private final int pixels;
+		private final Rectangle bounds;
+		private final byte[] mask;
+		private final boolean positiveOnly;
+
+		private Key(final ImagePlus imp, final int modification, final Roi roi, final boolean positiveOnly) {
+			id = imp.getID();
+			this.modification = modification;
+			width = imp.getWidth();
+			height = imp.getHeight();
+			depth = imp.getStackSize();
+			bitDepth = imp.getBitDepth();
+			final ImageStack stack = imp.getStack();
+			pixels = stack.isVirtual() ? 0 : System.identityHashCode(stack.getPixels(1));
+			bounds = roi == null ? null : roi.getBounds();
+			final ImageProcessor maskIp = roi == null ? null : roi.getMask();
+			mask = maskIp == null ? null : ((byte[]) maskIp.getPixels()).clone();
+			this.positiveOnly = positiveOnly;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key))
+				return false;
+			final Key k = (Key) o;
+			return id == k.id && modification == k.modification && width == k.width && height == k.height
+					&& depth == k.depth && bitDepth == k.bitDepth && pixels == k.pixels
+					&& (bounds == null ? k.bounds == null : bounds.equals(k.bounds)) && Arrays.equals(mask, k.mask)
+					&& positiveOnly == k.positiveOnly;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = id;
+			hash = 31 * hash + modification;
+			hash = 31 * hash + (bounds == null ? 0 : bounds.hashCode());
+			hash = 31 * hash + Arrays.hashCode(mask);
+			return 31 * hash + (positiveOnly ? 1 : 0);
+		}
+	}
 }
@@ -0,0 +1,70 @@
+package org.bonej.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ISQHeaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRead() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("a.isq"), 10, 8, 6);
+		final ISQHeader header = ISQHeader.read(file.getPath());
+		assertTrue(header.isScancoISQ());
+		assertEquals(1234, header.getPatientIndex());
+		assertEquals(2135, header.getScannerID());
+		assertEquals(1346457600000L, header.getCreationDate().getTime());
+		assertArrayEquals(new int[] { 10, 8, 6 }, header.getImageSize());
+		assertArrayEquals(new double[] { 0.02, 0.02, 0.025 }, header.getPixelSize(), 1e-12);
+		assertEquals(25, header.getSliceThickness());
+		assertEquals(4096, header.getMuScaling());
+		assertTrue(header.getPatientName().startsWith("Test Patient"));
+		assertEquals(40, header.getPatientName().length());
+		assertEquals(45000, header.getEnergy());
+		assertEquals(177, header.getIntensity());
+		assertEquals(512 * (1 + ISQTestData.EXTRA_BLOCKS), header.getOffset());
+	}
+
+	@Test
+	public void testReaderGettersMatchHeader() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("b.isq"), 10, 8, 6);
+		final String path = file.getPath();
+		final ISQReader reader = new ISQReader();
+		final ISQHeader header = ISQHeader.read(path);
+		assertTrue(reader.isScancoISQ(path));
+		assertArrayEquals(header.getImageSize(), reader.getImageSize(path));
+		assertArrayEquals(header.getPixelSize(), reader.getPixelSize(path), 0);
+		assertEquals(header.getOffset(), reader.getOffset(path));
+		assertEquals(header.getMuScaling(), reader.getMuScaling(path));
+		assertEquals(header.getPatientName(), reader.getPatientName(path));
+	}
+
+	@Test
+	public void testCache() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("c.isq"), 10, 8, 6);
+		final ISQHeader header = ISQHeader.get(file.getPath());
+		assertSame(header, ISQHeader.get(file.getPath()));
+		// a changed file is read again
+		ISQTestData.write(file, 12, 8, 6);
+		file.setLastModified(file.lastModified() + 2000);
+		assertArrayEquals(new int[] { 12, 8, 6 }, ISQHeader.get(file.getPath()).getImageSize());
+	}
+
+	@Test
+	public void testNotISQ() throws IOException {
+		final File file = folder.newFile("short.txt");
+		assertFalse(new ISQReader().isScancoISQ(file.getPath()));
+	}
+}
@@ -0,0 +1,179 @@
+package org.bonej.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+public class ISQReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void assertCrop(final ImagePlus imp, final int startX, final int startY, final int startZ) {
+		final ImageStack stack = imp.getStack();
+		for (int z = 0; z < stack.getSize(); z++) {
+			final ImageProcessor ip = stack.getProcessor(z + 1);
+			for (int y = 0; y < ip.getHeight(); y++)
+				for (int x = 0; x < ip.getWidth(); x++)
+					assertEquals(Math.max(0, ISQTestData.value(x + startX, y + startY, z + startZ)), ip.get(x, y));
+		}
+	}
+
+	@Test
+	public void testOpenScancoISQCrop() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("crop.isq"), 31, 23, 9);
+		final ImagePlus imp = new ISQReader().openScancoISQ(file.getPath(), false, 5, 7, 20, 18, 2, 6);
+		assertEquals(16, imp.getWidth());
+		assertEquals(12, imp.getHeight());
+		assertEquals(6, imp.getStackSize());
+		assertCrop(imp, 5, 7, 2);
+	}
+
+	@Test
+	public void testOpenScancoISQFullWidth() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("full.isq"), 31, 23, 9);
+		final ImagePlus imp = new ISQReader().openScancoISQ(file.getPath(), false, 0, 3, 30, 22, 0, 9);
+		assertEquals(31, imp.getWidth());
+		assertEquals(20, imp.getHeight());
+		assertEquals(9, imp.getStackSize());
+		assertCrop(imp, 0, 3, 0);
+		assertEquals(1.0 / 4096, imp.getCalibration().getCValue(1), 1e-12);
+	}
+
+	@Test
+	public void testOpenScancoISQBlockDownsample() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("block.isq"), 32, 24, 16);
+		final ISQHeader header = ISQHeader.read(file.getPath());
+		final ImagePlus imp = new ISQReader().openScancoISQ(file.getPath(), header, 2, 0, 0, 31, 23, 0, 16);
+		assertEquals(16, imp.getWidth());
+		assertEquals(12, imp.getHeight());
+		assertEquals(8, imp.getStackSize());
+		assertEquals(0.04, imp.getCalibration().pixelWidth, 1e-12);
+		assertEquals(0.04, imp.getCalibration().pixelHeight, 1e-12);
+		assertEquals(0.05, imp.getCalibration().pixelDepth, 1e-12);
+	}
+
+	@Test
+	public void testOpenScancoISQBinary() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("binary.isq"), 31, 23, 9);
+		final ISQHeader header = ISQHeader.read(file.getPath());
+		final ISQReader reader = new ISQReader();
+		final ImagePlus grey = reader.openScancoISQ(file.getPath(), header, false, 2, 3, 28, 20, 1, 7);
+		final ImagePlus binary = reader.openScancoISQBinary(file.getPath(), header, false, 2, 3, 28, 20, 1, 7, 0.25,
+				0.6);
+		assertEquals(8, binary.getBitDepth());
+		assertEquals(grey.getWidth(), binary.getWidth());
+		assertEquals(grey.getHeight(), binary.getHeight());
+		assertEquals(grey.getStackSize(), binary.getStackSize());
+		// 0.25 and 0.6 1/cm at mu scaling 4096, rounded inwards
+		assertTrue(((String) binary.getProperty("Info")).contains("raw 1024 - 2457"));
+		final Calibration cal = grey.getCalibration();
+		for (int z = 1; z <= grey.getStackSize(); z++) {
+			final ImageProcessor greyIp = grey.getStack().getProcessor(z);
+			final ImageProcessor binaryIp = binary.getStack().getProcessor(z);
+			for (int y = 0; y < grey.getHeight(); y++)
+				for (int x = 0; x < grey.getWidth(); x++) {
+					final double mu = cal.getCValue(greyIp.get(x, y));
+					assertEquals(mu >= 0.25 && mu <= 0.6 ? 255 : 0, binaryIp.get(x, y));
+				}
+		}
+	}
+
+	@Test
+	public void testOpenScancoISQBinaryDownsample() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("binary2.isq"), 32, 24, 6);
+		final ISQHeader header = ISQHeader.read(file.getPath());
+		final ISQReader reader = new ISQReader();
+		final ImagePlus grey = reader.openScancoISQ(file.getPath(), header, true, 0, 0, 31, 23, 0, 6);
+		final ImagePlus binary = reader.openScancoISQBinary(file.getPath(), header, true, 0, 0, 31, 23, 0, 6, 0.25,
+				0.6);
+		assertEquals(16, binary.getWidth());
+		assertEquals(12, binary.getHeight());
+		assertEquals(6, binary.getStackSize());
+		for (int z = 1; z <= 6; z++) {
+			final ImageProcessor greyIp = grey.getStack().getProcessor(z);
+			final ImageProcessor binaryIp = binary.getStack().getProcessor(z);
+			for (int y = 0; y < 12; y++)
+				for (int x = 0; x < 16; x++) {
+					// downsampled pixels are offset to unsigned
+					final int raw = greyIp.get(x, y) - 32768;
+					assertEquals(raw >= 1024 && raw <= 2457 ? 255 : 0, binaryIp.get(x, y));
+				}
+		}
+	}
+
+	@Test
+	public void testOpenScancoISQBinaryBlockDownsample() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("binary3.isq"), 32, 24, 16);
+		final ISQHeader header = ISQHeader.read(file.getPath());
+		final ISQReader reader = new ISQReader();
+		final ImagePlus grey = reader.openScancoISQ(file.getPath(), header, false, 0, 0, 31, 23, 0, 16);
+		final ImagePlus binary = reader.openScancoISQBinary(file.getPath(), header, 4, 0, 0, 31, 23, 0, 16, 0.25,
+				0.6);
+		assertEquals(8, binary.getWidth());
+		assertEquals(6, binary.getHeight());
+		assertEquals(4, binary.getStackSize());
+		assertEquals(0.08, binary.getCalibration().pixelWidth, 1e-12);
+		assertEquals(0.1, binary.getCalibration().pixelDepth, 1e-12);
+		final Calibration cal = grey.getCalibration();
+		final ImageStack greyStack = grey.getStack();
+		for (int z = 0; z < 4; z++)
+			for (int y = 0; y < 6; y++)
+				for (int x = 0; x < 8; x++) {
+					int count = 0;
+					for (int k = 0; k < 4; k++)
+						for (int j = 0; j < 4; j++)
+							for (int i = 0; i < 4; i++) {
+								final double mu = cal
+										.getCValue(greyStack.getProcessor(z * 4 + k + 1).get(x * 4 + i, y * 4 + j));
+								if (mu >= 0.25 && mu <= 0.6)
+									count++;
+							}
+					assertEquals(count >= 32 ? 255 : 0, binary.getStack().getProcessor(z + 1).get(x, y));
+				}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOpenScancoISQBinaryReversedThresholds() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("reversed.isq"), 20, 16, 4);
+		new ISQReader().openScancoISQBinary(file.getPath(), ISQHeader.read(file.getPath()), false, 0, 0, 19, 15, 0,
+				4, 0.6, 0.25);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOpenScancoISQBinaryEmptyRange() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("empty.isq"), 20, 16, 4);
+		// 1228.8 to 1228.9 raw holds no whole value
+		new ISQReader().openScancoISQBinary(file.getPath(), ISQHeader.read(file.getPath()), false, 0, 0, 19, 15, 0,
+				4, 0.3, 0.30002);
+	}
+
+	@Test
+	public void testGettersUnreadableFile() {
+		final String path = new File(folder.getRoot(), "missing.isq").getPath();
+		final ISQReader reader = new ISQReader();
+		assertEquals(-1, reader.getMuScaling(path));
+		assertEquals(0, reader.getOffset(path));
+		assertNull(reader.getPatientName(path));
+		assertArrayEquals(new int[] { -1, -1, -1 }, reader.getImageSize(path));
+	}
+
+	@Test(expected = UncheckedIOException.class)
+	public void testGetHeaderUnreadableFile() {
+		new ISQReader().getHeader(new File(folder.getRoot(), "missing.isq").getPath());
+	}
+}
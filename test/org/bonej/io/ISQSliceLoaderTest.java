@@ -0,0 +1,178 @@
+package org.bonej.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.ImageStack;
+
+public class ISQSliceLoaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testLoadMinMaxAndProgress() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("a.isq"), 40, 30, 25);
+		final ISQSliceLoader loader = new ISQSliceLoader(file.getPath(), ISQHeader.get(file.getPath()), 3, 4, 32,
+				25, 1, 20, false);
+		final AtomicInteger reports = new AtomicInteger();
+		loader.setProgressListener(new ISQSliceLoader.ProgressListener() {
+			public void progress(final int loaded, final int total) {
+				assertEquals(20, total);
+				reports.incrementAndGet();
+			}
+		});
+		final ImageStack stack = loader.load();
+		assertEquals(20, stack.getSize());
+		assertEquals(20, reports.get());
+		assertEquals(1.0, loader.getProgress(), 0);
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (int z = 0; z < 20; z++) {
+			for (int y = 0; y < 22; y++) {
+				for (int x = 0; x < 30; x++) {
+					final int value = Math.max(0, ISQTestData.value(x + 3, y + 4, z + 1));
+					assertEquals(value, stack.getProcessor(z + 1).get(x, y));
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+				}
+			}
+		}
+		assertEquals(min, loader.getMin());
+		assertEquals(max, loader.getMax());
+	}
+
+	@Test
+	public void testDownsample() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("b.isq"), 40, 30, 4);
+		final ISQSliceLoader loader = new ISQSliceLoader(file.getPath(), ISQHeader.get(file.getPath()), 0, 0, 39,
+				29, 0, 4, true);
+		final ImageStack stack = loader.load();
+		assertEquals(20, stack.getWidth());
+		assertEquals(15, stack.getHeight());
+		assertEquals(4, stack.getSize());
+	}
+
+	@Test
+	public void testCancel() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("c.isq"), 40, 30, 50);
+		final ISQSliceLoader loader = new ISQSliceLoader(file.getPath(), ISQHeader.get(file.getPath()), 0, 0, 39,
+				29, 0, 50, false);
+		loader.setProgressListener(new ISQSliceLoader.ProgressListener() {
+			public void progress(final int loaded, final int total) {
+				if (loaded == 5)
+					loader.cancel();
+			}
+		});
+		assertNull(loader.load());
+	}
+
+	@Test
+	public void testTruncatedFile() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("d.isq"), 40, 30, 10);
+		final ISQHeader header = ISQHeader.read(file.getPath());
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(header.getOffset() + 40 * 30 * 2 * 6 + 100);
+		raf.close();
+		final ImageStack stack = new ISQSliceLoader(file.getPath(), header, 0, 0, 39, 29, 0, 10, false).load();
+		assertEquals(6, stack.getSize());
+	}
+
+	@Test
+	public void testBlockDownsample() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("f.isq"), 40, 30, 25);
+		final ISQSliceLoader loader = new ISQSliceLoader(file.getPath(), ISQHeader.get(file.getPath()), 1, 2, 38,
+				29, 3, 21, false);
+		loader.setBlockDownsample(4);
+		final ImageStack stack = loader.load();
+		assertEquals(9, stack.getWidth());
+		assertEquals(7, stack.getHeight());
+		assertEquals(5, stack.getSize());
+		for (int z = 0; z < 5; z++) {
+			for (int y = 0; y < 7; y++) {
+				for (int x = 0; x < 9; x++) {
+					long sum = 0;
+					for (int k = 0; k < 4; k++)
+						for (int j = 0; j < 4; j++)
+							for (int i = 0; i < 4; i++)
+								sum += ISQTestData.value(x * 4 + i + 1, y * 4 + j + 2, z * 4 + k + 3);
+					final int expected = (int) Math.max(0, Math.round(sum / 64.0));
+					assertEquals(expected, stack.getProcessor(z + 1).get(x, y));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBlockMajority() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("g.isq"), 20, 16, 8);
+		final ISQSliceLoader loader = new ISQSliceLoader(file.getPath(), ISQHeader.get(file.getPath()), 0, 0, 19,
+				15, 0, 8, false);
+		loader.setThreshold(0, 3000);
+		loader.setBlockDownsample(2);
+		final ImageStack stack = loader.load();
+		assertEquals(8, stack.getBitDepth());
+		assertEquals(4, stack.getSize());
+		for (int z = 0; z < 4; z++) {
+			for (int y = 0; y < 8; y++) {
+				for (int x = 0; x < 10; x++) {
+					int count = 0;
+					for (int k = 0; k < 2; k++)
+						for (int j = 0; j < 2; j++)
+							for (int i = 0; i < 2; i++) {
+								final int value = ISQTestData.value(x * 2 + i, y * 2 + j, z * 2 + k);
+								if (value >= 0 && value <= 3000)
+									count++;
+							}
+					assertEquals(count >= 4 ? 255 : 0, stack.getProcessor(z + 1).get(x, y));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testThreshold() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("i.isq"), 40, 30, 6);
+		final String path = file.getPath();
+		final ISQHeader header = ISQHeader.get(path);
+		for (final boolean downsample : new boolean[] { false, true }) {
+			final ImageStack grey = new ISQSliceLoader(path, header, 2, 1, 37, 28, 1, 5, downsample).load();
+			final ISQSliceLoader loader = new ISQSliceLoader(path, header, 2, 1, 37, 28, 1, 5, downsample);
+			loader.setThreshold(500, 2500);
+			final ImageStack binary = loader.load();
+			assertEquals(8, binary.getBitDepth());
+			assertEquals(grey.getWidth(), binary.getWidth());
+			assertEquals(grey.getHeight(), binary.getHeight());
+			final int offset = downsample ? 32768 : 0;
+			for (int z = 1; z <= 5; z++)
+				for (int y = 0; y < grey.getHeight(); y++)
+					for (int x = 0; x < grey.getWidth(); x++) {
+						final int value = grey.getProcessor(z).get(x, y) - offset;
+						assertEquals(value >= 500 && value <= 2500 ? 255 : 0, binary.getProcessor(z).get(x, y));
+					}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testThresholdReversed() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("j.isq"), 20, 16, 4);
+		new ISQSliceLoader(file.getPath(), ISQHeader.get(file.getPath()), 0, 0, 19, 15, 0, 4, false)
+				.setThreshold(2500, 500);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBlockTooLarge() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("h.isq"), 20, 16, 8);
+		new ISQSliceLoader(file.getPath(), ISQHeader.get(file.getPath()), 0, 0, 19, 15, 0, 4, false)
+				.setBlockDownsample(8);
+	}
+}
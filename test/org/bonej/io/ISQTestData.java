@@ -0,0 +1,66 @@
+package org.bonej.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes small synthetic Scanco ISQ files for testing
+ */
+public class ISQTestData {
+
+	/** Header blocks after the first, as stored at byte 508 */
+	public static final int EXTRA_BLOCKS = 1;
+
+	/**
+	 * Signed pixel value stored at (x, y, z)
+	 */
+	public static short value(final int x, final int y, final int z) {
+		return (short) ((x * 37 + y * 101 + z * 1009) % 6000 - 1000);
+	}
+
+	/**
+	 * Write an ISQ file whose pixel values are given by
+	 * {@link #value(int, int, int)}
+	 *
+	 * @return the file
+	 */
+	public static File write(final File file, final int width, final int height, final int depth)
+			throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(512 * (1 + EXTRA_BLOCKS)).order(ByteOrder.LITTLE_ENDIAN);
+		header.put("CTDATA-HEADER_V1".getBytes("US-ASCII"));
+		header.putInt(16, 3);
+		header.putInt(28, 1234);
+		header.putInt(32, 2135);
+		// 2012-09-01 00:00:00 UTC as an OpenVMS quadword
+		header.putLong(36, 0x007C95674BEB4000L + 1346457600000L * 10000);
+		header.putInt(44, width);
+		header.putInt(48, height);
+		header.putInt(52, depth);
+		header.putInt(56, width * 20);
+		header.putInt(60, height * 20);
+		header.putInt(64, depth * 25);
+		header.putInt(68, 25);
+		header.putInt(88, 4096);
+		header.position(128);
+		header.put("Test Patient".getBytes("US-ASCII"));
+		header.putInt(168, 45000);
+		header.putInt(172, 177);
+		header.putInt(508, EXTRA_BLOCKS);
+		final ByteBuffer data = ByteBuffer.allocate(2 * width * height * depth).order(ByteOrder.LITTLE_ENDIAN);
+		for (int z = 0; z < depth; z++)
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					data.putShort(value(x, y, z));
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(header.array());
+			out.write(data.array());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,114 @@
+package org.bonej.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.doube.util.StackStats;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+public class ISQVirtualStackTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testMatchesLoadedStack() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("a.isq"), 40, 30, 12);
+		final ISQHeader header = ISQHeader.get(file.getPath());
+		for (final boolean downsample : new boolean[] { false, true }) {
+			final ImageStack loaded = new ISQSliceLoader(file.getPath(), header, 2, 3, 35, 26, 1, 10, downsample)
+					.load();
+			final ISQVirtualStack virtual = new ISQVirtualStack(file.getPath(), header, 2, 3, 35, 26, 1, 10,
+					downsample);
+			// small enough to hold only a few slices
+			virtual.setCacheSize(3 * 2 * virtual.getWidth() * virtual.getHeight());
+			assertEquals(loaded.getSize(), virtual.getSize());
+			assertEquals(loaded.getWidth(), virtual.getWidth());
+			assertEquals(loaded.getHeight(), virtual.getHeight());
+			for (int pass = 0; pass < 2; pass++)
+				for (int z = 1; z <= virtual.getSize(); z++)
+					assertArrayEquals((short[]) loaded.getPixels(z), (short[]) virtual.getPixels(z));
+			virtual.close();
+		}
+	}
+
+	@Test
+	public void testPrefetchFollowsDirection() throws IOException, InterruptedException {
+		final File file = ISQTestData.write(folder.newFile("b.isq"), 20, 20, 30);
+		final ISQVirtualStack stack = new ISQVirtualStack(file.getPath(), ISQHeader.get(file.getPath()));
+		stack.setPrefetch(3);
+		stack.getProcessor(20);
+		stack.getProcessor(15);
+		for (int i = 0; i < 100 && !stack.isCached(12); i++)
+			Thread.sleep(10);
+		assertTrue(stack.isCached(14));
+		assertTrue(stack.isCached(13));
+		assertTrue(stack.isCached(12));
+		assertFalse(stack.isCached(11));
+		stack.close();
+	}
+
+	@Test
+	public void testInterruptedReads() throws IOException, InterruptedException {
+		final File file = ISQTestData.write(folder.newFile("d.isq"), 40, 30, 12);
+		final ISQHeader header = ISQHeader.get(file.getPath());
+		final ImageStack loaded = new ISQSliceLoader(file.getPath(), header, 0, 0, 39, 29, 0, 12, false).load();
+		final ISQVirtualStack virtual = new ISQVirtualStack(file.getPath(), header);
+		virtual.setPrefetch(0);
+		virtual.setCacheSize(0);
+
+		// a thread already interrupted reads, and keeps its interrupt
+		Thread.currentThread().interrupt();
+		assertArrayEquals((short[]) loaded.getPixels(3), (short[]) virtual.getPixels(3));
+		assertTrue(Thread.interrupted());
+
+		// interrupts arriving mid-read spoil neither reader
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for (int i = 0; i < 2000; i++) {
+						final int z = i % 12 + 1;
+						assertArrayEquals((short[]) loaded.getPixels(z), (short[]) virtual.getPixels(z));
+					}
+				} catch (final Throwable e) {
+					error.set(e);
+				}
+			}
+		});
+		reader.start();
+		while (reader.isAlive()) {
+			reader.interrupt();
+			for (int z = 1; z <= 12; z++)
+				assertArrayEquals((short[]) loaded.getPixels(z), (short[]) virtual.getPixels(z));
+		}
+		reader.join();
+		assertNull(error.get());
+		virtual.close();
+	}
+
+	@Test
+	public void testStackStats() throws IOException {
+		final File file = ISQTestData.write(folder.newFile("c.isq"), 40, 30, 12);
+		final ISQReader reader = new ISQReader();
+		final ISQHeader header = ISQHeader.get(file.getPath());
+		final ImagePlus loaded = reader.openScancoISQ(file.getPath(), header, false, 0, 0, 39, 29, 0, 12);
+		final ImagePlus virtual = reader.openScancoISQVirtual(file.getPath(), header, false, 0, 0, 39, 29, 0, 12);
+		assertTrue(virtual.getStack().isVirtual());
+		assertArrayEquals(StackStats.getStackHistogram(loaded), StackStats.getStackHistogram(virtual));
+		assertEquals(loaded.getCalibration().pixelWidth, virtual.getCalibration().pixelWidth, 0);
+		((ISQVirtualStack) virtual.getStack()).close();
+	}
+}
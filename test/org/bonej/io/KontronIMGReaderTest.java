@@ -0,0 +1,102 @@
+package org.bonej.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+public class KontronIMGReaderTest {
+
+	private static final byte[] MAGIC = { 1, 0, 71, 18, 109, -80 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] pixels(final int width, final int height, final int section) {
+		final byte[] pixels = new byte[width * height];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (byte) (i * 7 + section * 31);
+		return pixels;
+	}
+
+	private static File write(final File file, final int width, final int height, final int section)
+			throws IOException {
+		final byte[] bytes = new byte[128 + width * height];
+		System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+		bytes[6] = (byte) width;
+		bytes[7] = (byte) (width >> 8);
+		bytes[8] = (byte) height;
+		bytes[9] = (byte) (height >> 8);
+		System.arraycopy(pixels(width, height, section), 0, bytes, 128, width * height);
+		final FileOutputStream out = new FileOutputStream(file);
+		out.write(bytes);
+		out.close();
+		return file;
+	}
+
+	@Test
+	public void testOpenKontronIMG() throws IOException {
+		final File file = write(folder.newFile("a.img"), 300, 20, 0);
+		final KontronIMGReader reader = new KontronIMGReader();
+		assertTrue(reader.isKontronIMG(file.getPath()));
+		assertArrayEquals(new int[] { 300, 20 }, reader.getImageSize(file.getPath()));
+		final ImagePlus imp = reader.openKontronIMG(file.getPath());
+		assertArrayEquals(pixels(300, 20, 0), (byte[]) imp.getProcessor().getPixels());
+	}
+
+	@Test
+	public void testOpenSeries() throws IOException {
+		final File directory = folder.newFolder("series");
+		final int[] sections = { 10, 2, 1, 9 };
+		for (final int s : sections)
+			write(new File(directory, "section" + s + ".IMG"), 40, 30, s);
+		new File(directory, "notes.txt").createNewFile();
+		final File[] files = KontronIMGReader.listKontronIMGs(directory);
+		assertEquals(4, files.length);
+		assertEquals("section1.IMG", files[0].getName());
+		assertEquals("section10.IMG", files[3].getName());
+
+		for (final boolean virtual : new boolean[] { false, true }) {
+			final ImagePlus imp = new KontronIMGReader().openKontronIMGSeries(files, virtual);
+			final ImageStack stack = imp.getImageStack();
+			assertEquals(virtual, stack.isVirtual());
+			assertEquals(4, stack.getSize());
+			final int[] order = { 1, 2, 9, 10 };
+			for (int z = 0; z < order.length; z++) {
+				assertArrayEquals(pixels(40, 30, order[z]), (byte[]) stack.getPixels(z + 1));
+				assertEquals("section" + order[z] + ".IMG", stack.getSliceLabel(z + 1));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOpenSeriesSizeMismatch() throws IOException {
+		final File directory = folder.newFolder("mixed");
+		write(new File(directory, "s1.img"), 40, 30, 1);
+		write(new File(directory, "s2.img"), 40, 31, 2);
+		new KontronIMGReader().openKontronIMGSeries(KontronIMGReader.listKontronIMGs(directory), false);
+	}
+
+	@Test
+	public void testNameOrder() {
+		final File[] files = { new File("b2.img"), new File("a10.img"), new File("a002.img"), new File("a1b.img"),
+				new File("a1.img") };
+		Arrays.sort(files, KontronIMGReader.NAME_ORDER);
+		final String[] expected = { "a1.img", "a1b.img", "a002.img", "a10.img", "b2.img" };
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], files[i].getName());
+		assertFalse(KontronIMGReader.NAME_ORDER.compare(new File("a01.img"), new File("a1.img")) == 0);
+	}
+}
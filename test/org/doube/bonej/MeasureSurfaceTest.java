@@ -6,6 +6,7 @@ import java.util.List;
 
 import javax.vecmath.Point3f;
 
+import org.doube.geometry.SlabMarchingCubes;
 import org.doube.geometry.TestDataMaker;
 import org.junit.Test;
 
@@ -43,4 +44,21 @@ public class MeasureSurfaceTest {
 		final double area = MeasureSurface.getSurfaceArea(points);
 		assertEquals(6 * d * d, area, area * 0.02);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testGetSurfaceAreaBoxMarchingCubesPlacement() {
+		final ImagePlus imp = TestDataMaker.brick(32, 64, 96);
+		final double area = SlabMarchingCubes.getSurfaceArea(imp, 128, 1);
+		// faces between the outer voxel centres, strips of width a * sqrt(2)
+		// along the edges and a triangle at each corner, with the surface
+		// at 128.5, a = 126.5 / 255 beyond the outer voxel centres
+		final double l = 31;
+		final double w = 63;
+		final double h = 95;
+		final double a = 126.5 / 255;
+		final double expected = 2 * (l * w + l * h + w * h) + 4 * (l + w + h) * a * Math.sqrt(2)
+				+ 4 * Math.sqrt(3) * a * a;
+		// vertices are single precision
+		assertEquals(expected, area, 1e-3);
+	}
+}
@@ -0,0 +1,200 @@
+package org.doube.bonej;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.doube.jama.Matrix;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+public class MomentsTest {
+
+	/* A 5 x 8 x 12 voxel cuboid of 1000s in a 40 x 30 x 20 stack */
+	private static ImagePlus cuboid() {
+		final ImageStack stack = new ImageStack(40, 30);
+		for (int z = 1; z <= 20; z++) {
+			final ShortProcessor ip = new ShortProcessor(40, 30);
+			if (z >= 4 && z < 16)
+				for (int y = 10; y < 18; y++)
+					for (int x = 21; x < 26; x++)
+						ip.set(x, y, 1000);
+			stack.addSlice(ip);
+		}
+		return new ImagePlus("cuboid", stack);
+	}
+
+	private static int count(final ImagePlus imp, final double value) {
+		int n = 0;
+		for (int z = 1; z <= imp.getStackSize(); z++) {
+			final ImageProcessor ip = imp.getStack().getProcessor(z);
+			for (int i = 0; i < ip.getPixelCount(); i++)
+				if (ip.get(i) == value)
+					n++;
+		}
+		return n;
+	}
+
+	@Test
+	public void testAlignCropsToThresholdedVoxels() {
+		final ImagePlus imp = cuboid();
+		final Moments moments = new Moments();
+		final double[] centroid = moments.getCentroid3D(imp, 1, 20, 500, 2000, 0, 1);
+		final ImagePlus aligned = moments.alignToPrincipalAxes(imp, Matrix.identity(3, 3), centroid, 1, 20, 500,
+				2000, false);
+		// the cuboid plus a voxel each side
+		assertEquals(7, aligned.getWidth());
+		assertEquals(10, aligned.getHeight());
+		assertEquals(14, aligned.getStackSize());
+		assertEquals(5 * 8 * 12, count(aligned, 1000));
+	}
+
+	@Test
+	public void testAlignInterpolated() {
+		final ImagePlus imp = cuboid();
+		final Moments moments = new Moments();
+		final double[] centroid = moments.getCentroid3D(imp, 1, 20, 500, 2000, 0, 1);
+		final ImagePlus aligned = moments.alignToPrincipalAxes(imp, Matrix.identity(3, 3), centroid, 1, 20, 500,
+				2000, false, true);
+		// voxel centres land on source voxel centres, so nothing is blurred
+		assertEquals(5 * 8 * 12, count(aligned, 1000));
+		assertEquals(7 * 10 * 14 - 5 * 8 * 12, count(aligned, 0));
+	}
+
+	/* Rotation by angle about an axis */
+	private static double[][] rotation(final double[] axis, final double angle) {
+		final double n = Math.sqrt(axis[0] * axis[0] + axis[1] * axis[1] + axis[2] * axis[2]);
+		final double x = axis[0] / n;
+		final double y = axis[1] / n;
+		final double z = axis[2] / n;
+		final double c = Math.cos(angle);
+		final double s = Math.sin(angle);
+		final double t = 1 - c;
+		final double[][] r = { { t * x * x + c, t * x * y - s * z, t * x * z + s * y },
+				{ t * x * y + s * z, t * y * y + c, t * y * z - s * x },
+				{ t * x * z - s * y, t * y * z + s * x, t * z * z + c } };
+		return r;
+	}
+
+	/*
+	 * A cuboid of grey values from 1000, with half sides of 4, 7 and 11 along
+	 * the columns of r, in a noisy background below 500
+	 */
+	private static ImagePlus obliqueCuboid(final double[][] r, final double[] voxel) {
+		final int w = 50;
+		final int h = 46;
+		final int d = 34;
+		final double[] half = { 4, 7, 11 };
+		final double[] centre = { 26.3, 22.8, 25.1 };
+		final Random random = new Random(7);
+		final ImageStack stack = new ImageStack(w, h);
+		for (int z = 0; z < d; z++) {
+			final ShortProcessor ip = new ShortProcessor(w, h);
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					final double[] p = { x * voxel[0] - centre[0], y * voxel[1] - centre[1],
+							z * voxel[2] - centre[2] };
+					boolean inside = true;
+					for (int k = 0; k < 3 && inside; k++)
+						inside = Math.abs(r[0][k] * p[0] + r[1][k] * p[1] + r[2][k] * p[2]) <= half[k];
+					ip.set(x, y, inside ? 1000 + random.nextInt(500) : random.nextInt(500));
+				}
+			}
+			stack.addSlice(ip);
+		}
+		final ImagePlus imp = new ImagePlus("oblique cuboid", stack);
+		final Calibration cal = imp.getCalibration();
+		cal.pixelWidth = voxel[0];
+		cal.pixelHeight = voxel[1];
+		cal.pixelDepth = voxel[2];
+		return imp;
+	}
+
+	@Test
+	public void testAlignOblique() {
+		final double[][] r = rotation(new double[] { 1, 2, 3 }, 0.6);
+		final Matrix rotation = new Matrix(r);
+		// the cuboid's axes are already in short, middle, long order, so E is
+		// used as the rotation unchanged
+		assertTrue(rotation.isRightHanded());
+		assertFalse(rotation.isZFlipped());
+		final double[] voxel = { 0.9, 1.0, 1.3 };
+		final ImagePlus imp = obliqueCuboid(r, voxel);
+		final ImageStack source = imp.getStack();
+		final Moments moments = new Moments();
+		final double[] centroid = moments.getCentroid3D(imp, 1, source.getSize(), 1000, 2000, 0, 1);
+		for (final boolean interpolate : new boolean[] { false, true }) {
+			final ImagePlus aligned = moments.alignToPrincipalAxes(imp, rotation, centroid, 1, source.getSize(),
+					1000, 2000, false, interpolate);
+			final Calibration cal = aligned.getCalibration();
+			final double vS = cal.pixelWidth;
+			assertEquals(0.9, vS, 0);
+			final int wT = aligned.getWidth();
+			final int hT = aligned.getHeight();
+			final int dT = aligned.getStackSize();
+			int thresholded = 0;
+			for (int z = 0; z < dT; z++) {
+				final ImageProcessor ip = aligned.getStack().getProcessor(z + 1);
+				for (int y = 0; y < hT; y++) {
+					for (int x = 0; x < wT; x++) {
+						// voxel corner relative to the centroid, rotated back
+						// onto the source
+						final double[] t = { cal.getX(x), cal.getY(y), cal.getZ(z) };
+						final double[] p = new double[3];
+						for (int i = 0; i < 3; i++)
+							p[i] = centroid[i] + r[i][0] * t[0] + r[i][1] * t[1] + r[i][2] * t[2];
+						final int xA = (int) Math.floor(p[0] / voxel[0]);
+						final int yA = (int) Math.floor(p[1] / voxel[1]);
+						final int zA = (int) Math.floor(p[2] / voxel[2]);
+						double expected = 0;
+						if (xA >= 0 && xA < source.getWidth() && yA >= 0 && yA < source.getHeight() && zA >= 1
+								&& zA <= source.getSize()) {
+							if (interpolate) {
+								// sample the voxel centre, with source voxel
+								// centres on whole numbers
+								final double[] u = new double[3];
+								for (int i = 0; i < 3; i++)
+									u[i] = (p[i] + (r[i][0] + r[i][1] + r[i][2]) * vS / 2) / voxel[i] - 0.5;
+								expected = trilinear(source, u);
+							} else {
+								expected = source.getProcessor(zA).get(xA, yA);
+							}
+						}
+						assertEquals(expected, ip.get(x, y), interpolate ? 1 : 0);
+						if (ip.get(x, y) >= 1000) {
+							thresholded++;
+							assertTrue(x > 0 && x < wT - 1 && y > 0 && y < hT - 1 && z > 0 && z < dT - 1);
+						}
+					}
+				}
+			}
+			assertTrue(thresholded > 0);
+		}
+	}
+
+	/* Trilinear interpolation, clamped to the stack; slices count from 1 */
+	private static double trilinear(final ImageStack stack, final double[] u) {
+		final int x0 = (int) Math.floor(u[0]);
+		final int y0 = (int) Math.floor(u[1]);
+		final int z0 = (int) Math.floor(u[2]);
+		double sum = 0;
+		for (int k = 0; k < 2; k++)
+			for (int j = 0; j < 2; j++)
+				for (int i = 0; i < 2; i++) {
+					final int x = Math.max(0, Math.min(stack.getWidth() - 1, x0 + i));
+					final int y = Math.max(0, Math.min(stack.getHeight() - 1, y0 + j));
+					final int z = Math.max(1, Math.min(stack.getSize(), z0 + k));
+					final double weight = (i == 0 ? 1 - (u[0] - x0) : u[0] - x0)
+							* (j == 0 ? 1 - (u[1] - y0) : u[1] - y0) * (k == 0 ? 1 - (u[2] - z0) : u[2] - z0);
+					sum += weight * stack.getProcessor(z).get(x, y);
+				}
+		return sum;
+	}
+}
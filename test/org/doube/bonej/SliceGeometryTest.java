@@ -0,0 +1,65 @@
+package org.doube.bonej;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+public class SliceGeometryTest {
+
+	/* A tube along z and scattered balls, with grey foreground */
+	private static ImagePlus shapes(final int w, final int h, final int d) {
+		final Random random = new Random(42);
+		final int nBalls = 40;
+		final double[][] balls = new double[nBalls][];
+		for (int b = 0; b < nBalls; b++)
+			balls[b] = new double[] { random.nextDouble() * w, random.nextDouble() * h, random.nextDouble() * d,
+					2 + random.nextDouble() * 8 };
+		final ImageStack stack = new ImageStack(w, h);
+		for (int z = 0; z < d; z++) {
+			final ByteProcessor ip = new ByteProcessor(w, h);
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					final double r = Math.hypot(x - w / 2.0, y - h / 2.0);
+					boolean foreground = r > 10 && r < 16;
+					for (int b = 0; b < nBalls && !foreground; b++) {
+						final double dx = x - balls[b][0];
+						final double dy = y - balls[b][1];
+						final double dz = z - balls[b][2];
+						foreground = dx * dx + dy * dy + dz * dz < balls[b][3] * balls[b][3];
+					}
+					if (foreground)
+						ip.set(x, y, 128 + (x + y + z) % 128);
+				}
+			}
+			stack.addSlice(null, ip);
+		}
+		return new ImagePlus("shapes", stack);
+	}
+
+	@Test
+	public void testThickness3DCropMatchesWholeStack() {
+		final ImagePlus imp = shapes(80, 70, 60);
+		imp.setRoi(20, 15, 35, 30);
+		for (final boolean doMask : new boolean[] { false, true }) {
+			final double[][] cropped = SliceGeometry.thickness3D(imp, 128, 255, 25, 34, doMask, true);
+			final double[][] whole = SliceGeometry.thickness3D(imp, 128, 255, 25, 34, doMask, false);
+			for (int i = 0; i < 3; i++)
+				assertArrayEquals(whole[i], cropped[i], 0);
+		}
+	}
+
+	@Test
+	public void testThickness3DCropMatchesWholeStackNoRoi() {
+		final ImagePlus imp = shapes(60, 50, 90);
+		final double[][] cropped = SliceGeometry.thickness3D(imp, 128, 255, 44, 46, true, true);
+		final double[][] whole = SliceGeometry.thickness3D(imp, 128, 255, 44, 46, true, false);
+		for (int i = 0; i < 3; i++)
+			assertArrayEquals(whole[i], cropped[i], 0);
+	}
+}
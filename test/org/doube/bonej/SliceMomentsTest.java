@@ -0,0 +1,85 @@
+package org.doube.bonej;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+
+import org.junit.Test;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ShortProcessor;
+
+public class SliceMomentsTest {
+
+	/* A 20 x 10 pixel rectangle with its corner at (15, 30) */
+	private static ShortProcessor rectangle() {
+		final ShortProcessor ip = new ShortProcessor(64, 64);
+		for (int y = 30; y < 40; y++)
+			for (int x = 15; x < 35; x++)
+				ip.set(x, y, 1000);
+		return ip;
+	}
+
+	@Test
+	public void testRectangle() {
+		final SliceMoments sm = new SliceMoments(rectangle(), new Rectangle(0, 0, 64, 64), 500, 2000, 0, 1,
+				false, 0, 0);
+		assertEquals(200, sm.count);
+		assertEquals(200, sm.sumAreaFractions, 0);
+		assertEquals(24.5, sm.sumX / sm.sumAreaFractions, 1e-12);
+		assertEquals(34.5, sm.sumY / sm.sumAreaFractions, 1e-12);
+		final double[] central = sm.centralMoments(0.5, 2);
+		// n (n^2 - 1) / 12 for each row or column of pixel centres
+		assertEquals(10 * 20 * (20 * 20 - 1) / 12.0 * 0.25, central[0], 1e-9);
+		assertEquals(20 * 10 * (10 * 10 - 1) / 12.0 * 4, central[1], 1e-9);
+		assertEquals(0, central[2], 1e-9);
+	}
+
+	@Test
+	public void testMaxRadii() {
+		final SliceMoments sm = new SliceMoments(rectangle(), new Rectangle(0, 0, 64, 64), 500, 2000, 0, 1,
+				false, 0, 0);
+		final double xC = 24.5;
+		final double yC = 34.5;
+		double[] radii = sm.maxRadii(xC, yC, 1, 0, 1, 1);
+		assertEquals(9.5, radii[0], 1e-12);
+		assertEquals(4.5, radii[1], 1e-12);
+		assertEquals(Math.sqrt(9.5 * 9.5 + 4.5 * 4.5), radii[2], 1e-12);
+		// the corners are furthest from the diagonal axes
+		final double c = Math.cos(Math.PI / 4);
+		radii = sm.maxRadii(xC, yC, c, c, 1, 1);
+		assertEquals(14 * c, radii[0], 1e-12);
+		assertEquals(14 * c, radii[1], 1e-12);
+	}
+
+	@Test
+	public void testRoiAndPartialVolume() {
+		final ByteProcessor ip = new ByteProcessor(32, 32);
+		ip.set(4, 4, 150);
+		ip.set(10, 12, 200);
+		ip.set(20, 20, 250);
+		final SliceMoments sm = new SliceMoments(ip, new Rectangle(5, 5, 20, 20), 100, 255, 2, 1, true, 100,
+				200);
+		assertEquals(2, sm.count);
+		assertEquals(2, sm.sumAreaFractions, 0);
+		assertEquals(15, sm.sumX / sm.sumAreaFractions, 0);
+		assertEquals(401 + 501, sm.sumD, 0);
+
+		ip.set(20, 20, 125);
+		final SliceMoments partial = new SliceMoments(ip, new Rectangle(5, 5, 20, 20), 100, 255, 0, 1, true, 100,
+				200);
+		assertEquals(1.25, partial.sumAreaFractions, 1e-12);
+		assertEquals((10 + 0.25 * 20) / 1.25, partial.sumX / partial.sumAreaFractions, 1e-12);
+	}
+
+	@Test
+	public void testFloatPixels() {
+		final FloatProcessor ip = new FloatProcessor(8, 8);
+		ip.setf(2, 3, 0.5f);
+		ip.setf(5, 3, 1.5f);
+		final SliceMoments sm = new SliceMoments(ip, new Rectangle(0, 0, 8, 8), 0.25, 1, 0, 1, false, 0, 0);
+		assertEquals(1, sm.count);
+		assertEquals(2, sm.sumX, 0);
+	}
+}
@@ -0,0 +1,69 @@
+package org.doube.bonej;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+public class SliceThicknessTest {
+
+	/* A ring and a bar, as a binary slice */
+	private static ByteProcessor shapes(final int w, final int h) {
+		final ByteProcessor ip = new ByteProcessor(w, h);
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				final double r = Math.hypot(x - w / 3.0, y - h / 2.0);
+				if ((r > 8 && r < 17) || (x > 2 * w / 3 && x < 2 * w / 3 + 6 && y > 5 && y < h - 5))
+					ip.set(x, y, 255);
+			}
+		}
+		return ip;
+	}
+
+	private static float[] thickness(final ByteProcessor ip, final boolean inv, final boolean doMask,
+			final double pixelWidth) {
+		final ImagePlus imp = new ImagePlus("shapes", ip);
+		imp.getCalibration().pixelWidth = pixelWidth;
+		imp.getCalibration().pixelHeight = pixelWidth;
+		return (float[]) new Thickness().getLocalThickness(imp, inv, doMask).getProcessor().getPixels();
+	}
+
+	@Test
+	public void testMatchesThickness() {
+		final SliceThickness sliceThickness = new SliceThickness();
+		final ByteProcessor ip = shapes(71, 53);
+		assertArrayEquals(thickness(ip, false, false, 1), sliceThickness.getLocalThickness(ip, 255, 255, false,
+				false, 1), 0);
+		assertArrayEquals(thickness(ip, false, true, 0.25), sliceThickness.getLocalThickness(ip, 255, 255, false,
+				true, 0.25), 0);
+		// the buffers are reused for a slice of a different size
+		final ByteProcessor small = shapes(48, 60);
+		assertArrayEquals(thickness(small, false, true, 1), sliceThickness.getLocalThickness(small, 255, 255,
+				false, true, 1), 0);
+	}
+
+	@Test
+	public void testInverse() {
+		final SliceThickness sliceThickness = new SliceThickness();
+		final ByteProcessor ip = shapes(64, 64);
+		assertArrayEquals(thickness(ip, true, false, 1), sliceThickness.getLocalThickness(ip, 255, 255, true,
+				false, 1), 0);
+		assertArrayEquals(thickness(ip, true, true, 1), sliceThickness.getLocalThickness(ip, 255, 255, true, true,
+				1), 0);
+	}
+
+	@Test
+	public void testBar() {
+		final ByteProcessor ip = new ByteProcessor(40, 40);
+		for (int y = 5; y < 35; y++)
+			for (int x = 10; x < 17; x++)
+				ip.set(x, y, 200);
+		final float[] map = new SliceThickness().getLocalThickness(ip, 100, 255, false, true, 1);
+		// the middle of a 7 pixel wide bar
+		assertEquals(7, map[13 + 40 * 20], 1);
+		assertEquals(0, map[20 + 40 * 20], 0);
+	}
+}
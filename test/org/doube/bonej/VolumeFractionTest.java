@@ -1,6 +1,7 @@
 package org.doube.bonej;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 
 import java.awt.Rectangle;
 
@@ -8,8 +9,10 @@ import org.doube.geometry.TestDataMaker;
 import org.junit.Test;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.gui.Roi;
 import ij.plugin.frame.RoiManager;
+import ij.process.ByteProcessor;
 
 public class VolumeFractionTest {
 	private final ImagePlus rod = TestDataMaker.rod(256, 64);
@@ -117,4 +120,38 @@ public class VolumeFractionTest {
 		roiMan.close();
 	}
 
+	/* A 64 x 64 x 64 stack holding an ellipsoidal shell */
+	private static ImagePlus shell() {
+		final ImageStack stack = new ImageStack(64, 64);
+		for (int z = 0; z < 64; z++) {
+			final ByteProcessor ip = new ByteProcessor(64, 64);
+			for (int y = 0; y < 64; y++) {
+				for (int x = 0; x < 64; x++) {
+					final double dx = x - 31.5;
+					final double dy = y - 31.5;
+					final double dz = z - 31.5;
+					final double outer = dx * dx / (28 * 28) + dy * dy / (22 * 22) + dz * dz / (18 * 18);
+					final double inner = dx * dx / (22 * 22) + dy * dy / (16 * 16) + dz * dz / (12 * 12);
+					if (outer <= 1 && inner > 1)
+						ip.set(x, y, 255);
+				}
+			}
+			stack.addSlice(ip);
+		}
+		return new ImagePlus("shell", stack);
+	}
+
+	@Test
+	public void testGetSurfaceVolumeMarchingCubesPlacement() {
+		final double[] vols = vf.getSurfaceVolume(shell(), 128, 255, 1);
+		// vertices are single precision
+		assertEquals(28795.6455, vols[0], 1e-3);
+		// The mask fills the stack. Its surface lies at threshold + 0.5 =
+		// 128.5 on the edges to the background padding, a = 126.5 / 255
+		// beyond the outer voxel centres, with the box's edges and corners
+		// cut off at 45 degrees.
+		final int n = 63;
+		final double a = 126.5 / 255;
+		assertEquals(n * n * n + 6 * n * n * a + 6 * n * a * a + 4 * a * a * a / 3, vols[1], 0.01);
+	}
 }
@@ -0,0 +1,94 @@
+package org.doube.bonej.pqct;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.doube.bonej.pqct.io.DeviceCalibration;
+import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DistributionBatchTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testDeviceCalibration() throws IOException {
+		assertArrayEquals(new double[] { -341, 1.495 }, DeviceCalibration.getCoefficients("XCT3000.TYP"), 1e-12);
+	}
+
+	@Test(expected = IOException.class)
+	public void testDeviceCalibrationMissing() throws IOException {
+		DeviceCalibration.getCoefficients("XCT9999.TYP");
+	}
+
+	@Test
+	public void testRun() throws IOException {
+		final File directory = folder.newFolder("scans");
+		for (int i = 0; i < 5; i++)
+			StratecTestData.write(new File(directory, "I000" + i + ".M01"), "XCT3000.TYP", 160, 0.5, 18 + i,
+					34 + i);
+		final FileOutputStream notStratec = new FileOutputStream(new File(directory, "notes.txt"));
+		notStratec.write("not a scan".getBytes("ISO-8859-1"));
+		notStratec.close();
+
+		final ImageAndAnalysisDetails details = DistributionBatch.getDefaultDetails(1, 0);
+		details.cOn = true;
+		final DistributionBatch batch = new DistributionBatch(details, true);
+		final StringWriter csv = new StringWriter();
+		assertEquals(5, batch.run(directory, csv));
+
+		final String[] lines = csv.toString().split("\n");
+		assertEquals(6, lines.length);
+		assertEquals(batch.getHeader(), lines[0]);
+		final int columns = lines[0].split(",").length;
+		for (int i = 0; i < 5; i++) {
+			final File file = new File(directory, "I000" + i + ".M01");
+			assertEquals(DistributionBatch.toCSV(batch.analyse(file)), lines[i + 1]);
+			assertTrue(lines[i + 1].startsWith(file.getName() + ","));
+			assertEquals(columns, lines[i + 1].split(",").length);
+		}
+		// device calibration replaces the given scaling
+		assertTrue(lines[1].indexOf(",1.495,-341.0,") > 0);
+	}
+
+	@Test
+	public void testRunReportsBadFiles() throws IOException {
+		final File directory = folder.newFolder("bad");
+		StratecTestData.write(new File(directory, "I0001.M01"), "XCT9999.TYP", 160, 0.5, 20, 35);
+		final DistributionBatch batch = new DistributionBatch(DistributionBatch.getDefaultDetails(1.495, -341),
+				true);
+		final StringWriter csv = new StringWriter();
+		assertEquals(0, batch.run(directory, csv));
+		final String[] lines = csv.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[1].startsWith("I0001.M01,Error: "));
+	}
+
+	@Test
+	public void testToCSV() {
+		assertEquals("a,\"b,c\",\"d\"\"e\"", DistributionBatch.toCSV("a\tb,c\td\"e\t"));
+	}
+
+	@Test
+	public void testPolarResampling() throws IOException {
+		final File file = StratecTestData.write(folder.newFile("I0001.M01"), "XCT3000.TYP", 160, 0.5, 20, 35);
+		for (final boolean preventPeeling : new boolean[] { false, true }) {
+			final ImageAndAnalysisDetails details = DistributionBatch.getDefaultDetails(1.495, -341);
+			details.dOn = true;
+			details.conOn = true;
+			details.preventPeeling = preventPeeling;
+			final String rays = new DistributionBatch(details, true).analyse(file);
+			details.polarResampling = true;
+			assertEquals(rays, new DistributionBatch(details, true).analyse(file));
+		}
+	}
+}
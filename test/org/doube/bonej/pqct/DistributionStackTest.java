@@ -0,0 +1,78 @@
+package org.doube.bonej.pqct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.doube.bonej.pqct.io.ImageAndAnalysisDetails;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ShortProcessor;
+
+public class DistributionStackTest {
+
+	private static final int SIZE = 120;
+
+	/*
+	 * Two bones: one of constant size on the left, and one on the right which
+	 * grows through the stack, becoming the larger of the two at the middle
+	 */
+	private static ImagePlus twoBones(final int slices) {
+		final ImageStack stack = new ImageStack(SIZE, SIZE);
+		for (int s = 0; s < slices; s++) {
+			final short[] pixels = new short[SIZE * SIZE];
+			for (int y = 0; y < SIZE; y++) {
+				for (int x = 0; x < SIZE; x++) {
+					short value = StratecTestData.SOFT;
+					final double left = Math.hypot(x - 35, y - 60);
+					final double right = Math.hypot(x - 85, y - 60);
+					if (left < 14)
+						value = left < 8 ? StratecTestData.MARROW : StratecTestData.BONE;
+					if (right < 9 + 2 * s)
+						value = right < 5 ? StratecTestData.MARROW : StratecTestData.BONE;
+					pixels[x + y * SIZE] = (short) (value + 32768);
+				}
+			}
+			stack.addSlice("" + s, new ShortProcessor(SIZE, SIZE, pixels, null));
+		}
+		final ImagePlus imp = new ImagePlus("two bones", stack);
+		final Calibration cal = imp.getCalibration();
+		cal.setSigned16BitCalibration();
+		cal.pixelWidth = 0.5;
+		cal.pixelHeight = 0.5;
+		return imp;
+	}
+
+	@Test
+	public void testRunFollowsTheMiddleSlicesBone() throws IOException {
+		final ImageAndAnalysisDetails details = DistributionBatch.getDefaultDetails(1.495, -341);
+		details.dOn = true;
+		final DistributionStack distributionStack = new DistributionStack(details);
+		final StringWriter csv = new StringWriter();
+		final DistributionStack.Summary summary = distributionStack.run(twoBones(7), csv);
+
+		final String[] lines = csv.toString().split("\n");
+		assertEquals(distributionStack.getHeader(), lines[0]);
+		final int columns = lines[0].split(",").length;
+		for (int s = 0; s < 7; s++) {
+			assertTrue(lines[s + 1].startsWith((s + 1) + ",two bones,"));
+			assertEquals(columns, lines[s + 1].split(",").length);
+		}
+		assertEquals("", lines[8]);
+		assertEquals("Slices analysed,7", lines[9]);
+
+		// The right bone is bigger in the middle slice, and is followed into
+		// the slices where the left bone is bigger
+		assertEquals(7, summary.slices);
+		for (int s = 0; s < 7; s++)
+			assertEquals((4 + 2 * s) * 0.5, summary.thickness[s], 0.4);
+		assertEquals(3, summary.radialProfile.length);
+		assertEquals(36, summary.sectorThickness.length);
+		assertTrue(summary.getMeanDensity() > 900);
+	}
+}
@@ -0,0 +1,105 @@
+package org.doube.bonej.pqct;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Writes small Stratec pQCT files of a bone in soft tissue */
+public class StratecTestData {
+
+	/** Header length of a Stratec file */
+	public static final int HEADER = 1609;
+
+	/** Pixel value of bone, about 1200 mg/cm&sup3; on an XCT3000 */
+	public static final short BONE = 1031;
+
+	/** Pixel value of marrow, about 50 mg/cm&sup3; on an XCT3000 */
+	public static final short MARROW = 262;
+
+	/** Pixel value of soft tissue, about 0 mg/cm&sup3; on an XCT3000 */
+	public static final short SOFT = 228;
+
+	/** Pixel value of air, about -1000 mg/cm&sup3; on an XCT3000 */
+	public static final short AIR = -441;
+
+	/**
+	 * Pixel value at (x, y) of a ring of bone around the image centre, in a
+	 * disc of soft tissue
+	 */
+	public static short value(final int x, final int y, final int size, final double inner, final double outer) {
+		final double r = Math.sqrt((x - size / 2.0) * (x - size / 2.0) + (y - size / 2.0) * (y - size / 2.0));
+		if (r < inner)
+			return MARROW;
+		if (r < outer)
+			return BONE;
+		if (r < 0.45 * size)
+			return SOFT;
+		return AIR;
+	}
+
+	/**
+	 * Write a square Stratec file
+	 *
+	 * @param file
+	 * @param device
+	 *            TYP file name, e.g. XCT3000.TYP
+	 * @param size
+	 *            width and height in pixels
+	 * @param voxelSize
+	 *            pixel spacing in mm
+	 * @param inner
+	 *            inner radius of the bone in pixels
+	 * @param outer
+	 *            outer radius of the bone in pixels
+	 * @return file
+	 * @throws IOException
+	 */
+	public static File write(final File file, final String device, final int size, final double voxelSize,
+			final double inner, final double outer) throws IOException {
+		return write(file, device, size, voxelSize, inner, outer, "", 0);
+	}
+
+	/**
+	 * Write a square Stratec file with a patient ID and acquisition date
+	 *
+	 * @param file
+	 * @param device
+	 * @param size
+	 * @param voxelSize
+	 * @param inner
+	 * @param outer
+	 * @param patID
+	 * @param measDate
+	 *            date as Stratec stores it, e.g. 20110523
+	 * @return file
+	 * @throws IOException
+	 */
+	public static File write(final File file, final String device, final int size, final double voxelSize,
+			final double inner, final double outer, final String patID, final int measDate) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER + 2 * size * size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putDouble(12, voxelSize);
+		buffer.putDouble(318, 200);
+		buffer.put(1050, (byte) device.length());
+		for (int i = 0; i < device.length(); i++)
+			buffer.put(1051 + i, (byte) device.charAt(i));
+		buffer.putInt(986, measDate);
+		buffer.put(1282, (byte) patID.length());
+		for (int i = 0; i < patID.length(); i++)
+			buffer.put(1283 + i, (byte) patID.charAt(i));
+		buffer.putShort(1529, (short) size);
+		buffer.putShort(1531, (short) size);
+		buffer.position(HEADER);
+		for (int y = 0; y < size; y++)
+			for (int x = 0; x < size; x++)
+				buffer.putShort(value(x, y, size, inner, outer));
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(buffer.array());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
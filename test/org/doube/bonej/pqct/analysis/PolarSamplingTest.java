@@ -0,0 +1,102 @@
+package org.doube.bonej.pqct.analysis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PolarSamplingTest {
+
+	@Test
+	public void testOffsetsMatchAccumulatedTrigonometry() {
+		final double[] centre = { 51.37, 48.91 };
+		final int width = 100;
+		final PolarSampling rays = new PolarSampling(centre, width);
+		for (int et = 0; et < 360; et += 7) {
+			final double theta = Math.PI / 180.0 * et;
+			assertEquals(theta, PolarSampling.theta(et), 0);
+			double r = 0;
+			for (int k = 0; k < 5000; ++k) {
+				assertEquals(r, PolarSampling.radius(k), 0);
+				for (int p = 0; p < PolarSampling.LOOKAHEAD.length; ++p) {
+					final double d = PolarSampling.LOOKAHEAD[p];
+					final int expected = (int) (centre[0] + (r + d) * Math.cos(theta))
+							+ ((int) ((centre[1] + (r + d) * Math.sin(theta))) * width);
+					assertEquals(expected, rays.offset(et, k, p));
+				}
+				r = r + 0.1;
+			}
+		}
+	}
+
+	@Test
+	public void testDivide() {
+		final PolarSampling.Samples samples = new PolarSampling.Samples();
+		for (int i = 0; i < 1000; i++)
+			samples.add(i < 500 ? 1 : 3);
+		final double[][] bmd = new double[2][360];
+		samples.divide(bmd, 2, 17);
+		assertEquals(1, bmd[0][17], 0);
+		assertEquals(3, bmd[1][17], 0);
+	}
+
+	@Test
+	public void testTraceAllStopsAtFirstFailingRay() {
+		final int last = PolarSampling.traceAll(new PolarSampling.Ray() {
+			public boolean trace(final int et, final PolarSampling.Samples samples) {
+				if (et == 300)
+					throw new IllegalStateException();
+				return et != 200 && et != 250;
+			}
+		});
+		assertEquals(200, last);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testTraceAllThrowsBeforeFailingRay() {
+		PolarSampling.traceAll(new PolarSampling.Ray() {
+			public boolean trace(final int et, final PolarSampling.Samples samples) {
+				if (et == 100)
+					throw new IllegalStateException();
+				return et != 200;
+			}
+		});
+	}
+
+	@Test
+	public void testPolarImageDivideMatchesOffsets() {
+		final int width = 60;
+		final int height = 50;
+		final Random random = new Random(7);
+		final double[] image = new double[width * height];
+		final double[] selector = new double[width * height];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = random.nextGaussian() * 100;
+			selector[i] = random.nextInt(3) - 1;
+		}
+		final PolarSampling rays = new PolarSampling(new double[] { 27.3, 22.8 }, width);
+		final PolarSampling.PolarImage polar = rays.polarImage(image, height, true);
+		final PolarSampling.PolarImage polarSelector = rays.polarImage(selector, height, true);
+		final PolarSampling.PolarImage direct = rays.polarImage(image, height, false);
+		final PolarSampling.PolarImage directSelector = rays.polarImage(selector, height, false);
+		final PolarSampling.Samples samples = new PolarSampling.Samples();
+		for (int et = 0; et < 360; et += 5) {
+			for (final int[] range : new int[][] { { 0, 200 }, { 13, 170 }, { 40, 44 }, { 30, 30 } }) {
+				for (final boolean select : new boolean[] { false, true }) {
+					final double[][] expected = new double[3][360];
+					final double[][] actual = new double[3][360];
+					samples.clear();
+					final boolean dividedDirect = rays.divide(direct, select ? directSelector : null, et, range[0],
+							range[1], samples, expected, 3);
+					final boolean dividedPolar = rays.divide(polar, select ? polarSelector : null, et, range[0],
+							range[1], samples, actual, 3);
+					assertEquals(dividedDirect, dividedPolar);
+					for (int div = 0; div < 3; div++)
+						assertArrayEquals(expected[div], actual[div], 0);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.doube.bonej.pqct.io;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ScaledImageDataTest {
+
+	/** The median filter as it was, sorting every window */
+	private static double[] sortingMedian(final double[] data, final int width, final int height,
+			final int filterSize, final double minimum) {
+		final double[] filtered = new double[width * height];
+		Arrays.fill(filtered, minimum);
+		final double[] toMedian = new double[filterSize * filterSize];
+		final int noGo = filterSize / 2;
+		for (int row = noGo; row < height - noGo; row++) {
+			for (int col = noGo; col < width - noGo; col++) {
+				int n = 0;
+				for (int dy = -noGo; dy <= noGo; dy++)
+					for (int dx = -noGo; dx <= noGo; dx++)
+						toMedian[n++] = data[(row + dy) * width + col + dx];
+				Arrays.sort(toMedian);
+				filtered[row * width + col] = toMedian[filterSize * filterSize / 2];
+			}
+		}
+		return filtered;
+	}
+
+	private static int[] noise(final int length, final int range, final Random random) {
+		final int[] data = new int[length];
+		for (int i = 0; i < length; i++)
+			data[i] = random.nextInt(range) - range / 4;
+		return data;
+	}
+
+	private static void assertMatchesSorting(final int[] data, final int width, final int height,
+			final double scalingFactor, final double constant) {
+		final ScaledImageData scaled = new ScaledImageData(data, width, height, 0.5, scalingFactor, constant, 3,
+				false, false, false);
+		final double[] unFiltered = new double[data.length];
+		for (int i = 0; i < data.length; i++)
+			unFiltered[i] = data[i] * scalingFactor + constant;
+		assertArrayEquals(sortingMedian(unFiltered, width, height, 7, scaled.minimum), scaled.softScaledImage, 0);
+		assertArrayEquals(sortingMedian(unFiltered, width, height, 3, scaled.minimum), scaled.scaledImage, 0);
+	}
+
+	@Test
+	public void testMedianMatchesSorting() {
+		final Random random = new Random(0x9c7);
+		// more rows than a strip, and few levels so there are many ties
+		assertMatchesSorting(noise(83 * 71, 40, random), 83, 71, 1.495, -341);
+		assertMatchesSorting(noise(50 * 40, 5000, random), 50, 40, 0.821, -856.036);
+		assertMatchesSorting(noise(40 * 45, 300, random), 40, 45, -0.7, 12);
+	}
+
+	@Test
+	public void testMedianSmallImages() {
+		final Random random = new Random(0x9c8);
+		assertMatchesSorting(noise(5 * 9, 100, random), 5, 9, 1, 0);
+		assertMatchesSorting(noise(9 * 2, 100, random), 9, 2, 1, 0);
+		assertMatchesSorting(noise(7 * 7, 100, random), 7, 7, 1, 0);
+		assertMatchesSorting(new int[] { 3 }, 1, 1, 1, 0);
+	}
+
+	@Test
+	public void testPublicMedianFilter() {
+		final Random random = new Random(0x9c9);
+		final int[] data = noise(37 * 66, 1000, random);
+		final ScaledImageData scaled = new ScaledImageData(data, 37, 66, 0.5, 1, 0, 3, false, false, true);
+		final double[] values = new double[data.length];
+		for (int i = 0; i < data.length; i++)
+			values[i] = data[i] + random.nextDouble();
+		for (int size = 1; size <= 9; size += 2)
+			assertArrayEquals(sortingMedian(values, 37, 66, size, scaled.minimum),
+					scaled.medianFilter(values, 37, 66, size), 0);
+	}
+}
@@ -0,0 +1,45 @@
+package org.doube.bonej.pqct.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.doube.bonej.pqct.StratecTestData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StratecHeaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRead() throws IOException {
+		final File file = StratecTestData.write(folder.newFile("I0001.M01"), "XCT3000.TYP", 64, 0.4, 10, 20,
+				"PT-0042", 20110523);
+		final StratecHeader header = StratecHeader.read(file.getPath());
+		assertTrue(header.isStratecFile());
+		assertEquals("XCT3000.TYP", header.getDevice());
+		assertEquals("PT-0042", header.getPatID());
+		assertEquals("", header.getPatName());
+		assertEquals(20110523, header.getMeasDate());
+		assertEquals(0.4, header.getVoxelSize(), 0);
+		assertEquals(64, header.getPicMatrixX());
+		assertEquals(64, header.getPicMatrixY());
+		assertEquals(file.length(), header.getFileLength());
+		assertEquals(file.lastModified(), header.getLastModified());
+	}
+
+	@Test
+	public void testNotStratec() throws IOException {
+		assertFalse(new StratecHeader(new byte[2000]).isStratecFile());
+		final byte[] headerOnly = new byte[StratecHeader.LENGTH];
+		headerOnly[1050] = 4;
+		System.arraycopy(".TYP".getBytes("ISO-8859-1"), 0, headerOnly, 1051, 4);
+		assertFalse(new StratecHeader(headerOnly).isStratecFile());
+	}
+}
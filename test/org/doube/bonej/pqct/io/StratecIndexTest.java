@@ -0,0 +1,73 @@
+package org.doube.bonej.pqct.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.doube.bonej.pqct.StratecTestData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StratecIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File writeArchive() throws IOException {
+		final File directory = folder.newFolder("archive");
+		for (int i = 0; i < 6; i++)
+			StratecTestData.write(new File(directory, "I000" + i + ".M01"), i < 4 ? "XCT3000.TYP" : "XCT2000.TYP",
+					32, 0.5, 5, 10, "PT\t" + (i % 2), 20100101 + i);
+		final FileOutputStream notes = new FileOutputStream(new File(directory, "notes.txt"));
+		notes.write("not a scan".getBytes("ISO-8859-1"));
+		notes.close();
+		return directory;
+	}
+
+	@Test
+	public void testUpdateAndSelect() throws IOException {
+		final File directory = writeArchive();
+		final File indexFile = new File(folder.getRoot(), "archive.idx");
+		final StratecIndex index = StratecIndex.update(directory, indexFile);
+		assertEquals(7, index.getEntries().size());
+		assertNull(index.get("notes.txt").getHeader());
+		assertEquals(3, index.select("PT\t1", null, 0, Long.MAX_VALUE).size());
+		final List<StratecIndex.Entry> selected = index.select(null, "xct3000.typ", 20100102, 20100103);
+		assertEquals(2, selected.size());
+		assertEquals("I0001.M01", selected.get(0).getFileName());
+
+		final StratecIndex loaded = StratecIndex.load(indexFile);
+		assertEquals(7, loaded.getEntries().size());
+		final StratecHeader header = loaded.get("I0005.M01").getHeader();
+		assertEquals("PT\t1", header.getPatID());
+		assertEquals("XCT2000.TYP", header.getDevice());
+		assertEquals(20100106, header.getMeasDate());
+		assertEquals(0.5, header.getVoxelSize(), 0);
+		assertEquals(32, header.getPicMatrixY());
+	}
+
+	@Test
+	public void testUpdateRereadsOnlyChangedFiles() throws IOException {
+		final File directory = writeArchive();
+		final File indexFile = new File(folder.getRoot(), "archive.idx");
+		StratecIndex.update(directory, indexFile);
+
+		// same length and time: the indexed header is kept without reading
+		final File unchanged = new File(directory, "I0001.M01");
+		final long time = unchanged.lastModified();
+		StratecTestData.write(unchanged, "XCT3000.TYP", 32, 0.5, 5, 10, "PT-8", 20120101);
+		unchanged.setLastModified(time);
+		final File changed = new File(directory, "I0002.M01");
+		StratecTestData.write(changed, "XCT3000.TYP", 48, 0.5, 5, 10, "PT-9", 20120101);
+
+		final StratecIndex index = StratecIndex.update(directory, indexFile);
+		assertEquals("PT\t1", index.get("I0001.M01").getHeader().getPatID());
+		assertEquals("PT-9", index.get("I0002.M01").getHeader().getPatID());
+		assertEquals(48, index.get("I0002.M01").getHeader().getPicMatrixX());
+	}
+}
@@ -0,0 +1,72 @@
+package org.doube.bonej.pqct.selectroi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CoordinateBufferTest {
+
+	private static CoordinateBuffer line(final int from, final int to) {
+		final CoordinateBuffer buffer = new CoordinateBuffer();
+		for (int k = from; k < to; k++)
+			buffer.add(k, -k);
+		return buffer;
+	}
+
+	@Test
+	public void testAddGrowsPastInitialCapacity() {
+		final CoordinateBuffer buffer = line(0, 1000);
+		assertEquals(1000, buffer.size());
+		assertEquals(999, buffer.lastI());
+		assertEquals(-999, buffer.lastJ());
+		assertEquals(500, buffer.getI(500));
+		assertEquals(-500, buffer.getJ(500));
+	}
+
+	@Test
+	public void testStack() {
+		final CoordinateBuffer buffer = line(0, 3);
+		buffer.removeLast();
+		assertEquals(1, buffer.lastI());
+		buffer.removeLast();
+		buffer.removeLast();
+		assertTrue(buffer.isEmpty());
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testGetBeyondSize() {
+		final CoordinateBuffer buffer = line(0, 3);
+		buffer.removeLast();
+		buffer.getI(2);
+	}
+
+	@Test
+	public void testRemoveInsertAndCopy() {
+		final CoordinateBuffer buffer = line(0, 10);
+		final CoordinateBuffer copy = buffer.copy(3, 6);
+		assertArrayEquals(new int[] { 3, 4, 5 }, copy.toIArray());
+		buffer.remove(3, 6);
+		assertArrayEquals(new int[] { 0, 1, 2, 6, 7, 8, 9 }, buffer.toIArray());
+		copy.reverse();
+		buffer.insert(3, copy);
+		assertArrayEquals(new int[] { 0, 1, 2, 5, 4, 3, 6, 7, 8, 9 }, buffer.toIArray());
+		assertArrayEquals(new int[] { 0, -1, -2, -5, -4, -3, -6, -7, -8, -9 }, buffer.toJArray());
+		buffer.insert(0, line(100, 200));
+		assertEquals(110, buffer.size());
+		assertEquals(100, buffer.getI(0));
+		assertEquals(0, buffer.getI(100));
+		buffer.addAll(line(20, 22));
+		assertEquals(21, buffer.lastI());
+	}
+
+	@Test
+	public void testCopyConstructorIsIndependent() {
+		final CoordinateBuffer buffer = line(0, 5);
+		final CoordinateBuffer copy = new CoordinateBuffer(buffer);
+		buffer.clear();
+		assertEquals(5, copy.size());
+		assertEquals(4, copy.lastI());
+	}
+}
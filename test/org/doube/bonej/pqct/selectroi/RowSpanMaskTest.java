@@ -0,0 +1,53 @@
+package org.doube.bonej.pqct.selectroi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RowSpanMaskTest {
+
+	@Test
+	public void testAddMergesAdjacentPixels() {
+		final RowSpanMask mask = new RowSpanMask();
+		mask.add(2, 0);
+		mask.add(3, 0);
+		mask.add(5, 0);
+		mask.add(6, 1);
+		assertEquals(3, mask.getSpanCount());
+		assertEquals(4, mask.getArea());
+		assertEquals(2, mask.getStart(0));
+		assertEquals(4, mask.getEnd(0));
+		assertEquals(1, mask.getRow(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddOutOfOrder() {
+		final RowSpanMask mask = new RowSpanMask();
+		mask.add(5, 1);
+		mask.add(4, 1);
+	}
+
+	@Test
+	public void testFromSieveVisitsPixelsInRasterOrder() {
+		final int width = 37;
+		final int height = 23;
+		final byte[] sieve = new byte[width * height];
+		final Random random = new Random(42);
+		for (int i = 0; i < sieve.length; i++)
+			sieve[i] = (byte) (random.nextInt(3) - 1);
+		final RowSpanMask mask = RowSpanMask.fromSieve(sieve, width, height);
+		int expected = 0;
+		final int[] visited = new int[sieve.length];
+		int n = 0;
+		for (int i = 0; i < sieve.length; i++)
+			if (sieve[i] > 0)
+				visited[expected++] = i;
+		for (int s = 0; s < mask.getSpanCount(); s++)
+			for (int i = mask.getStart(s); i < mask.getEnd(s); i++)
+				assertEquals(visited[n++], i + mask.getRow(s) * width);
+		assertEquals(expected, n);
+		assertEquals(expected, mask.getArea());
+	}
+}
@@ -0,0 +1,138 @@
+package org.doube.geometry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.Prefs;
+
+public class BinarySTLWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWriteMesh() throws IOException {
+		final IndexedTriangleMesh mesh = IndexedTriangleMesh.fromTriangles(TestDataMaker.octahedron());
+		final File file = folder.newFile("octahedron.stl");
+		BinarySTLWriter.write(mesh, file);
+		final ByteBuffer bb = read(file);
+		assertEquals(84 + 50 * 8, bb.capacity());
+		assertEquals(8, bb.getInt(80));
+		final float[] vertices = mesh.getVertices();
+		final int[] indices = mesh.getIndices();
+		final double[] centre = { 2, 2, 2 };
+		for (int t = 0; t < 8; t++) {
+			final int facet = 84 + 50 * t;
+			// corners 1 and 2 are swapped
+			final int[] corners = { indices[3 * t], indices[3 * t + 2], indices[3 * t + 1] };
+			for (int k = 0; k < 3; k++)
+				for (int d = 0; d < 3; d++)
+					assertEquals(vertices[3 * corners[k] + d], bb.getFloat(facet + 12 + 12 * k + 4 * d), 0);
+			// unit normal pointing away from the centre
+			double length = 0;
+			double dot = 0;
+			for (int d = 0; d < 3; d++) {
+				final double n = bb.getFloat(facet + 4 * d);
+				length += n * n;
+				dot += n * (bb.getFloat(facet + 12 + 4 * d) - centre[d]);
+			}
+			assertEquals(1, length, 1e-6);
+			assertTrue(dot > 0);
+		}
+	}
+
+	@Test
+	public void testStreamFromMesher() throws IOException {
+		final SlabMarchingCubes mc = new SlabMarchingCubes(TestDataMaker.sphere(16), 128, 1);
+		final File file = folder.newFile("sphere.stl");
+		final BinarySTLWriter writer = new BinarySTLWriter(file);
+		mc.run(writer);
+		writer.close();
+		final ByteBuffer bb = read(file);
+		assertEquals(mc.getTriangleCount(), bb.getInt(80));
+		assertEquals(84 + 50 * mc.getTriangleCount(), bb.capacity());
+		// the facets' signed volume is the mesher's volume
+		double volume = 0;
+		for (int facet = 84; facet < bb.capacity(); facet += 50) {
+			final double[] p = new double[9];
+			for (int i = 0; i < 9; i++)
+				p[i] = bb.getFloat(facet + 12 + 4 * i);
+			volume += p[0] * (p[4] * p[8] - p[5] * p[7]) - p[1] * (p[3] * p[8] - p[5] * p[6])
+					+ p[2] * (p[3] * p[7] - p[4] * p[6]);
+		}
+		assertEquals(mc.getVolume(), volume / 6, mc.getVolume() * 1e-5);
+	}
+
+	@Test
+	public void testSlabFiles() throws IOException {
+		final int threads = Prefs.getThreads();
+		try {
+			final List<Integer> counts = slabFileTriangles(1);
+			assertEquals(counts, slabFileTriangles(7));
+		} finally {
+			Prefs.setThreads(threads);
+		}
+	}
+
+	/* Triangles in each slab file of a sphere 35 slices deep, in 8 slice slabs */
+	private List<Integer> slabFileTriangles(final int threads) throws IOException {
+		Prefs.setThreads(threads);
+		final SlabMarchingCubes mc = new SlabMarchingCubes(TestDataMaker.sphere(16), 128, 1);
+		mc.setSlabDepth(8);
+		final File dir = folder.newFolder();
+		final BinarySTLWriter.SlabFiles sink = new BinarySTLWriter.SlabFiles(new File(dir, "s.stl"));
+		mc.run(sink);
+		sink.close();
+		final List<File> files = sink.getFiles();
+		assertEquals(5, files.size());
+		final List<Integer> counts = new ArrayList<Integer>();
+		long nTriangles = 0;
+		for (int slab = 0; slab < 5; slab++) {
+			final File file = new File(dir, "s_slab" + slab + ".stl");
+			assertTrue(files.contains(file));
+			final ByteBuffer bb = read(file);
+			assertEquals(84 + 50 * bb.getInt(80), bb.capacity());
+			counts.add(bb.getInt(80));
+			nTriangles += bb.getInt(80);
+		}
+		assertEquals(mc.getTriangleCount(), nTriangles);
+		return counts;
+	}
+
+	@Test
+	public void testWriteMeshes() throws IOException {
+		final List<IndexedTriangleMesh> meshes = new ArrayList<IndexedTriangleMesh>();
+		final List<File> files = new ArrayList<File>();
+		for (int i = 0; i < 5; i++) {
+			meshes.add(i == 0 ? null : IndexedTriangleMesh.fromTriangles(TestDataMaker.octahedron()));
+			files.add(new File(folder.getRoot(), i + ".stl"));
+		}
+		BinarySTLWriter.write(meshes, files);
+		assertTrue(!files.get(0).exists());
+		for (int i = 1; i < 5; i++)
+			assertEquals(8, read(files.get(i)).getInt(80));
+	}
+
+	private static ByteBuffer read(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.doube.geometry;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import javax.vecmath.Point3f;
+
+import org.junit.Test;
+
+public class IndexedTriangleMeshTest {
+
+	/** distance from the octahedron's centre to each of its vertices */
+	private static final double R = 2.0 - 1.198039;
+
+	@Test
+	public void testFromTriangles() {
+		final IndexedTriangleMesh mesh = IndexedTriangleMesh.fromTriangles(TestDataMaker.octahedron());
+		assertEquals(6, mesh.getVertexCount());
+		assertEquals(8, mesh.getTriangleCount());
+		assertEquals(18, mesh.getVertices().length);
+		assertEquals(24, mesh.getIndices().length);
+	}
+
+	@Test
+	public void testToTriangles() {
+		final List<Point3f> octahedron = TestDataMaker.octahedron();
+		final List<Point3f> triangles = IndexedTriangleMesh.fromTriangles(octahedron).toTriangles();
+		assertEquals(octahedron, triangles);
+	}
+
+	@Test
+	public void testGetSurfaceArea() {
+		final IndexedTriangleMesh mesh = IndexedTriangleMesh.fromTriangles(TestDataMaker.octahedron());
+		assertEquals(4.4558146404, mesh.getSurfaceArea(), 1e-6);
+	}
+
+	@Test
+	public void testGetVolume() {
+		final IndexedTriangleMesh mesh = IndexedTriangleMesh.fromTriangles(TestDataMaker.octahedron());
+		assertEquals(4 * R * R * R / 3, Math.abs(mesh.getVolume()), 1e-6);
+	}
+
+	@Test
+	public void testGetVolumeTranslated() {
+		final IndexedTriangleMesh mesh = IndexedTriangleMesh.fromTriangles(TestDataMaker.octahedron());
+		final double volume = mesh.getVolume();
+		mesh.translate(-12.5, 3, 100);
+		assertEquals(volume, mesh.getVolume(), 1e-4);
+	}
+
+	@Test
+	public void testGetVertexNormals() {
+		final IndexedTriangleMesh mesh = IndexedTriangleMesh.fromTriangles(TestDataMaker.octahedron());
+		final float[] vertices = mesh.getVertices();
+		final float[] normals = mesh.getVertexNormals();
+		final int nVertices = mesh.getVertexCount();
+		for (int v = 0; v < nVertices; v++) {
+			// vertex normals of a regular octahedron are parallel to the
+			// vectors from its centre to its vertices
+			final double x = (vertices[3 * v] - 2) / R;
+			final double y = (vertices[3 * v + 1] - 2) / R;
+			final double z = (vertices[3 * v + 2] - 2) / R;
+			final double dot = x * normals[3 * v] + y * normals[3 * v + 1] + z * normals[3 * v + 2];
+			assertEquals(1.0, Math.abs(dot), 1e-6);
+		}
+	}
+
+	@Test
+	public void testGetFeretDiameter() {
+		final IndexedTriangleMesh mesh = IndexedTriangleMesh.fromTriangles(TestDataMaker.octahedron());
+		assertEquals(2 * R, mesh.getFeretDiameter(), 1e-6);
+	}
+}
@@ -0,0 +1,74 @@
+package org.doube.geometry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.EventQueue;
+import java.awt.Point;
+
+import org.doube.geometry.Orienteer.Orientation;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+public class OrienteerTest {
+
+	@Test
+	public void testSetOrientationHeadless() {
+		final ImagePlus imp = new ImagePlus("test", new ByteProcessor(100, 60));
+		assertNull(Orienteer.getOrientationOf(imp));
+		// cranial - caudal, then medial - lateral reflected
+		final Orientation o = Orienteer.setOrientation(imp, Math.PI / 6, 1, false, 0, true);
+		assertSame(o, Orienteer.getOrientationOf(imp));
+		assertArrayEquals(new String[] { "Cr", "Ca", "L", "M" }, o.getDirections());
+		assertEquals(Math.PI / 6, o.getTheta(), 0);
+		assertEquals(Math.PI / 6 + Math.PI, o.getOrientation("Ca"), 1e-12);
+		assertEquals(Math.PI / 6 + Math.PI / 2, o.getOrientation("L"), 1e-12);
+		assertEquals(Math.PI / 6 + 3 * Math.PI / 2, o.getOrientation("M"), 1e-12);
+		assertEquals(new Point(50, 30), o.getCentre());
+		assertEquals(15, o.getLength());
+		imp.close();
+	}
+
+	@Test
+	public void testDiameters() {
+		final ImagePlus imp = new ImagePlus("test", new ByteProcessor(10, 10));
+		final double[][] points = { { 0, 0 }, { 4, 0 }, { 4, 2 }, { 0, 2 } };
+		double[] diameters = Orienteer.setOrientation(imp, 0, 1, false, 0, false).getDiameters(points);
+		assertEquals(2, diameters[0], 1e-12);
+		assertEquals(4, diameters[1], 1e-12);
+		diameters = Orienteer.setOrientation(imp, Math.PI / 2, 1, false, 0, false).getDiameters(points);
+		assertEquals(4, diameters[0], 1e-12);
+		assertEquals(2, diameters[1], 1e-12);
+		imp.close();
+	}
+
+	@Test
+	public void testEvictedOnClose() throws Exception {
+		// report the closure as a closing image window would
+		final ImagePlus imp = new ImagePlus("test", new ByteProcessor(10, 10)) {
+			@Override
+			public void close() {
+				notifyListeners(CLOSED);
+			}
+		};
+		Orienteer.setOrientation(imp, 1, 2, false, 3, false);
+		assertNotNull(Orienteer.getOrientationOf(imp));
+		imp.close();
+		// listeners are notified on the event dispatch thread
+		EventQueue.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+		assertNull(Orienteer.getOrientationOf(imp));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSameDirectionsRejected() {
+		Orienteer.setOrientation(new ImagePlus("test", new ByteProcessor(10, 10)), 0, 4, false, 4, true);
+	}
+}
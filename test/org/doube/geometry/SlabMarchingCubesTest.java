@@ -0,0 +1,91 @@
+package org.doube.geometry;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+public class SlabMarchingCubesTest {
+
+	@Test
+	public void testGetSurfaceAreaSphere() {
+		final int r = 64;
+		final ImagePlus imp = TestDataMaker.sphere(r);
+		final double area = SlabMarchingCubes.getSurfaceArea(imp, 128, 4);
+		assertEquals(4 * Math.PI * r * r, area, area * 0.05);
+	}
+
+	@Test
+	public void testGetSurfaceAreaBox() {
+		final int d = 128;
+		final ImagePlus imp = TestDataMaker.brick(d, d, d);
+		final double area = SlabMarchingCubes.getSurfaceArea(imp, 128, 4);
+		assertEquals(6 * d * d, area, area * 0.02);
+	}
+
+	@Test
+	public void testGetVolumeSphere() {
+		final int r = 32;
+		final ImagePlus imp = TestDataMaker.sphere(r);
+		final double volume = SlabMarchingCubes.getVolume(imp, 128, 1);
+		assertEquals(4 * Math.PI * r * r * r / 3, volume, volume * 0.01);
+	}
+
+	@Test
+	public void testGetVolumeBrick() {
+		final ImagePlus imp = TestDataMaker.brick(32, 64, 96);
+		final double volume = SlabMarchingCubes.getVolume(imp, 128, 1);
+		assertEquals(32 * 64 * 96, volume, 200);
+	}
+
+	@Test
+	public void testGetMeshMatchesStreamedMeasurements() {
+		final ImagePlus imp = TestDataMaker.sphere(20);
+		final SlabMarchingCubes mc = new SlabMarchingCubes(imp, 128, 1);
+		final SlabMarchingCubes.MeshCollector collector = new SlabMarchingCubes.MeshCollector();
+		mc.run(collector);
+		final IndexedTriangleMesh mesh = collector.getMesh();
+		assertEquals(mc.getTriangleCount(), mesh.getTriangleCount());
+		assertEquals(mc.getSurfaceArea(), mesh.getSurfaceArea(), 1e-6);
+		assertEquals(mc.getVolume(), -mesh.getVolume(), 1e-6);
+	}
+
+	@Test
+	public void testMeshIsWatertight() {
+		final Random random = new Random(42);
+		final int w = 23;
+		final int h = 17;
+		final ImageStack stack = new ImageStack(w, h);
+		for (int z = 0; z < 13; z++) {
+			final byte[] pixels = new byte[w * h];
+			for (int i = 0; i < pixels.length; i++)
+				pixels[i] = (byte) random.nextInt(256);
+			stack.addSlice("" + z, pixels);
+		}
+		final ImagePlus imp = new ImagePlus("noise", stack);
+		for (int resampling = 1; resampling <= 3; resampling++) {
+			final int[] indices = SlabMarchingCubes.getMesh(imp, 128, resampling).getIndices();
+			// every directed edge must be matched by exactly one edge going
+			// the other way
+			final Map<Long, Integer> edges = new HashMap<Long, Integer>();
+			for (int t = 0; t < indices.length; t += 3) {
+				for (int k = 0; k < 3; k++) {
+					final long edge = ((long) indices[t + k] << 32) | indices[t + (k + 1) % 3];
+					final Integer count = edges.get(edge);
+					edges.put(edge, count == null ? 1 : count + 1);
+				}
+			}
+			for (final Map.Entry<Long, Integer> entry : edges.entrySet()) {
+				final long edge = entry.getKey();
+				final long reverse = ((edge & 0xffffffffL) << 32) | (edge >>> 32);
+				assertEquals(entry.getValue(), edges.get(reverse));
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.doube.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.doube.geometry.TestDataMaker;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+public class PackedBinaryStackTest {
+
+	/** Noise wider than one word, so rows cross word boundaries */
+	private final ImagePlus noise = TestDataMaker.binaryNoise(130, 7, 5, 0.5, new Random(0x5eed));
+
+	private static boolean isForeground(final ImageStack stack, final int x, final int y, final int z) {
+		if (x < 0 || x >= stack.getWidth() || y < 0 || y >= stack.getHeight() || z < 0 || z >= stack.getSize())
+			return false;
+		return ((byte[]) stack.getPixels(z + 1))[y * stack.getWidth() + x] == (byte) 255;
+	}
+
+	@Test
+	public void testRoundTrip() {
+		final PackedBinaryStack volume = PackedBinaryStack.fromImagePlus(noise);
+		final ImageStack stack = noise.getImageStack();
+		final ImageStack unpacked = volume.toImagePlus("unpacked").getImageStack();
+		long count = 0;
+		for (int z = 1; z <= stack.getSize(); z++) {
+			final byte[] pixels = (byte[]) stack.getPixels(z);
+			assertArrayEquals(pixels, (byte[]) unpacked.getPixels(z));
+			for (final byte pixel : pixels)
+				if (pixel != 0)
+					count++;
+		}
+		assertEquals(count, volume.count());
+	}
+
+	@Test
+	public void testGetSet() {
+		final PackedBinaryStack volume = new PackedBinaryStack(100, 3, 2);
+		volume.set(64, 1, 1, true);
+		volume.set(63, 1, 1, true);
+		volume.set(100, 1, 1, true);
+		assertTrue(volume.get(64, 1, 1));
+		assertTrue(volume.get(63, 1, 1));
+		assertFalse(volume.get(100, 1, 1));
+		assertFalse(volume.get(-1, 1, 1));
+		assertEquals(2, volume.count());
+		assertTrue(volume.isEmpty(0));
+		volume.set(64, 1, 1, false);
+		assertEquals(1, volume.count());
+		assertEquals(2, volume.getRow(62, 1, 1, 3));
+	}
+
+	@Test
+	public void testNeighbourhood() {
+		final PackedBinaryStack volume = PackedBinaryStack.fromImagePlus(noise);
+		final ImageStack stack = noise.getImageStack();
+		for (int z = 0; z < stack.getSize(); z++) {
+			for (int y = 0; y < stack.getHeight(); y++) {
+				for (int x = 0; x < stack.getWidth(); x++) {
+					int expected = 0;
+					int n6 = 0;
+					for (int dz = -1; dz <= 1; dz++)
+						for (int dy = -1; dy <= 1; dy++)
+							for (int dx = -1; dx <= 1; dx++)
+								if (isForeground(stack, x + dx, y + dy, z + dz)) {
+									expected |= 1 << (9 * (dz + 1) + 3 * (dy + 1) + dx + 1);
+									if (Math.abs(dx) + Math.abs(dy) + Math.abs(dz) == 1)
+										n6++;
+								}
+					final int neighbourhood = volume.getNeighbourhood(x, y, z);
+					assertEquals(expected, neighbourhood);
+					assertEquals(n6, PackedBinaryStack.countNeighbours(neighbourhood, PackedBinaryStack.N6));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testOctant() {
+		final PackedBinaryStack volume = PackedBinaryStack.fromImagePlus(noise);
+		final ImageStack stack = noise.getImageStack();
+		for (int z = 0; z <= stack.getSize(); z++) {
+			for (int y = 0; y <= stack.getHeight(); y++) {
+				for (int x = 0; x <= stack.getWidth(); x++) {
+					int expected = 0;
+					for (int bit = 0; bit < 8; bit++)
+						if (isForeground(stack, x - 1 + (bit & 1), y - 1 + ((bit >> 1) & 1), z - 1 + (bit >> 2)))
+							expected |= 1 << bit;
+					assertEquals(expected, volume.getOctant(x, y, z));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNeighbourMasks() {
+		assertEquals(6, Integer.bitCount(PackedBinaryStack.N6));
+		assertEquals(18, Integer.bitCount(PackedBinaryStack.N18));
+		assertEquals(26, Integer.bitCount(PackedBinaryStack.N26));
+		assertEquals(0, PackedBinaryStack.N26 & (1 << PackedBinaryStack.CENTRE));
+		assertEquals(PackedBinaryStack.N6, PackedBinaryStack.N18 & PackedBinaryStack.N6);
+	}
+}
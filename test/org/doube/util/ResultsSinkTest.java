@@ -0,0 +1,99 @@
+package org.doube.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ij.measure.ResultsTable;
+
+public class ResultsSinkTest {
+
+	@Test
+	public void testSetResultInRowFillsFirstFreeRow() {
+		final ResultsSink sink = new ResultsSink();
+		sink.setResultInRow("a", "X", 1);
+		sink.setResultInRow("b", "X", 2);
+		sink.setResultInRow("a", "Y", 3);
+		sink.setResultInRow("a", "X", 4);
+		sink.setResultInRow("a", "Y", Double.NaN);
+		sink.setResultInRow("a", "Y", 5);
+		final ResultsTable rt = sink.getTable();
+		assertEquals(3, rt.getCounter());
+		assertEquals("a", rt.getLabel(0));
+		assertEquals("b", rt.getLabel(1));
+		assertEquals("a", rt.getLabel(2));
+		assertEquals(1, rt.getValue("X", 0), 0);
+		assertEquals(3, rt.getValue("Y", 0), 0);
+		assertEquals(2, rt.getValue("X", 1), 0);
+		assertTrue(Double.isNaN(rt.getValue("Y", 1)));
+		assertEquals(4, rt.getValue("X", 2), 0);
+		// a NaN leaves the cell free for the next value
+		assertEquals(5, rt.getValue("Y", 2), 0);
+	}
+
+	@Test
+	public void testValuesFollowRowsAlreadyInTheTable() {
+		final ResultsSink sink = new ResultsSink();
+		sink.setResultInRow("a", "X", 1);
+		final int row = sink.addRow("a");
+		sink.setResult(row, "Z", 2);
+		sink.getTable();
+		// the added row is the first for "a" with no Y, and the second with
+		// no Z
+		sink.setResultInRow("a", "Y", 3);
+		sink.setResultInRow("a", "Z", 4);
+		sink.setResultInRow("a", "Z", 5);
+		final ResultsTable rt = sink.getTable();
+		assertEquals(3, rt.getCounter());
+		assertEquals(3, rt.getValue("Y", 0), 0);
+		assertEquals(4, rt.getValue("Z", 0), 0);
+		assertEquals(2, rt.getValue("Z", 1), 0);
+		assertEquals(5, rt.getValue("Z", 2), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetResultInUnknownRow() {
+		new ResultsSink().setResult(0, "X", 1);
+	}
+
+	@Test
+	public void testConcurrentInserts() {
+		final ResultsSink sink = new ResultsSink();
+		final int n = 2000;
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = Multithreader.newThreads(4);
+		for (int thread = 0; thread < threads.length; thread++) {
+			threads[thread] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = ai.getAndIncrement(); i < n; i = ai.getAndIncrement())
+						sink.setResultInRow("image " + (i % 10), "Value", i);
+				}
+			});
+		}
+		Multithreader.startAndJoin(threads);
+		final ResultsTable rt = sink.getTable();
+		assertEquals(n, rt.getCounter());
+		double sum = 0;
+		for (int row = 0; row < n; row++) {
+			final double value = rt.getValue("Value", row);
+			assertEquals("image " + ((int) value % 10), rt.getLabel(row));
+			sum += value;
+		}
+		assertEquals(n * (n - 1) / 2.0, sum, 0);
+	}
+
+	@Test
+	public void testWriteCSV() throws IOException {
+		final ResultsSink sink = new ResultsSink();
+		sink.setResultInRow("a,1", "X", 1);
+		sink.setResultInRow("b", "Y", 2);
+		final StringWriter csv = new StringWriter();
+		sink.writeCSV(csv);
+		assertEquals("Label,X,Y\n\"a,1\",1.0,NaN\nb,NaN,2.0\n", csv.toString());
+	}
+}
@@ -0,0 +1,132 @@
+package org.doube.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.process.ImageProcessor;
+
+public class StackStatsTest {
+
+	private static ImagePlus noise(final int bitDepth) {
+		final Random random = new Random(1);
+		final ImageStack stack = ImageStack.create(37, 29, 11, bitDepth);
+		for (int z = 1; z <= stack.getSize(); z++) {
+			final ImageProcessor ip = stack.getProcessor(z);
+			for (int i = 0; i < ip.getPixelCount(); i++)
+				ip.setf(i, bitDepth == 32 ? (float) random.nextGaussian() : random.nextInt(bitDepth == 8 ? 256 : 4096));
+		}
+		return new ImagePlus("noise", stack);
+	}
+
+	/** per-slice ImageJ histograms added together */
+	private static int[] referenceHistogram(final ImagePlus imp) {
+		final ImageStack stack = imp.getStack();
+		int[] histogram = null;
+		for (int z = 1; z <= stack.getSize(); z++) {
+			final ImageProcessor ip = stack.getProcessor(z);
+			ip.setRoi(imp.getRoi());
+			final int[] slice = ip.getHistogram();
+			if (histogram == null)
+				histogram = new int[slice.length];
+			for (int i = 0; i < slice.length; i++)
+				histogram[i] += slice[i];
+		}
+		return histogram;
+	}
+
+	@Test
+	public void testGetStackHistogram() {
+		for (final int bitDepth : new int[] { 8, 16 }) {
+			final ImagePlus imp = noise(bitDepth);
+			assertArrayEquals(referenceHistogram(imp), StackStats.getStackHistogram(imp));
+			imp.setRoi(new OvalRoi(-5, 3, 30, 20));
+			assertArrayEquals(referenceHistogram(imp), StackStats.getStackHistogram(imp));
+		}
+	}
+
+	@Test
+	public void testGetStatistics() {
+		final ImagePlus imp = noise(32);
+		final ImageStack stack = imp.getStack();
+		double sum = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		final long n = (long) imp.getWidth() * imp.getHeight() * imp.getStackSize();
+		for (int z = 1; z <= stack.getSize(); z++) {
+			for (final float value : (float[]) stack.getPixels(z)) {
+				sum += value;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+		}
+		final double mean = sum / n;
+		double sumSquares = 0;
+		for (int z = 1; z <= stack.getSize(); z++)
+			for (final float value : (float[]) stack.getPixels(z))
+				sumSquares += (value - mean) * (value - mean);
+		final StackStats.Statistics stats = StackStats.getStatistics(imp);
+		assertEquals(n, stats.getPixelCount());
+		assertEquals(min, stats.getMin(), 0);
+		assertEquals(max, stats.getMax(), 0);
+		assertEquals(mean, stats.getMean(), 1e-12);
+		assertEquals(sumSquares / n, stats.getVariance(), 1e-12);
+	}
+
+	@Test
+	public void testMeanStdDev() {
+		final ImagePlus imp = noise(32);
+		double sum = 0;
+		double max = 0;
+		long n = 0;
+		final ImageStack stack = imp.getStack();
+		for (int z = 1; z <= stack.getSize(); z++) {
+			for (final float value : (float[]) stack.getPixels(z)) {
+				if (value > 0) {
+					sum += value;
+					max = Math.max(max, value);
+					n++;
+				}
+			}
+		}
+		final double mean = sum / n;
+		double sumSquares = 0;
+		for (int z = 1; z <= stack.getSize(); z++)
+			for (final float value : (float[]) stack.getPixels(z))
+				if (value > 0)
+					sumSquares += (value - mean) * (value - mean);
+		final double[] stats = StackStats.meanStdDev(imp);
+		assertEquals(mean, stats[0], 1e-12);
+		assertEquals(Math.sqrt(sumSquares / n), stats[1], 1e-12);
+		assertEquals(max, stats[2], 0);
+	}
+
+	@Test
+	public void testInvalidate() {
+		final ImagePlus imp = noise(8);
+		final int[] before = StackStats.getStackHistogram(imp);
+		assertArrayEquals(before, StackStats.getStackHistogram(imp));
+		imp.getStack().getProcessor(1).set(0, 0, 255);
+		imp.getStack().getProcessor(1).set(1, 0, 255);
+		StackStats.invalidate(imp);
+		assertArrayEquals(referenceHistogram(imp), StackStats.getStackHistogram(imp));
+	}
+
+	@Test
+	public void testHiddenImageEditedInPlace() {
+		final ImagePlus imp = noise(8);
+		final double mean = StackStats.getStatistics(imp).getMean();
+		final ImageProcessor ip = imp.getStack().getProcessor(1);
+		for (int i = 0; i < ip.getPixelCount(); i++)
+			ip.set(i, 255);
+		assertArrayEquals(referenceHistogram(imp), StackStats.getStackHistogram(imp));
+		assertTrue(StackStats.getStatistics(imp).getMean() > mean);
+	}
+}